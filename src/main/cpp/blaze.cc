@@ -550,6 +550,21 @@ static vector<string> GetArgumentArray(
   } else {
     result.push_back("--noidle_server_tasks");
   }
+  if (globals->options->compact_skyframe_graph) {
+    result.push_back("--experimental_compact_skyframe_graph");
+  } else {
+    result.push_back("--noexperimental_compact_skyframe_graph");
+  }
+  if (globals->options->mapped_action_cache) {
+    result.push_back("--experimental_mapped_action_cache");
+  } else {
+    result.push_back("--noexperimental_mapped_action_cache");
+  }
+  if (globals->options->sparse_attribute_containers) {
+    result.push_back("--experimental_sparse_attribute_containers");
+  } else {
+    result.push_back("--noexperimental_sparse_attribute_containers");
+  }
   if (globals->options->oom_more_eagerly) {
     result.push_back("--experimental_oom_more_eagerly");
   } else {
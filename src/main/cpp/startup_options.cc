@@ -96,6 +96,9 @@ StartupOptions::StartupOptions(const string &product_name,
       expand_configs_in_place(true),
       digest_function(),
       idle_server_tasks(true),
+      compact_skyframe_graph(false),
+      mapped_action_cache(false),
+      sparse_attribute_containers(false),
       original_startup_options_(std::vector<RcStartupFlag>()),
       unlimit_coredumps(false) {
   bool testing = !blaze::GetEnv("TEST_TMPDIR").empty();
@@ -134,7 +137,10 @@ StartupOptions::StartupOptions(const string &product_name,
   RegisterNullaryStartupFlag("client_debug");
   RegisterNullaryStartupFlag("deep_execroot");
   RegisterNullaryStartupFlag("expand_configs_in_place");
+  RegisterNullaryStartupFlag("experimental_compact_skyframe_graph");
+  RegisterNullaryStartupFlag("experimental_mapped_action_cache");
   RegisterNullaryStartupFlag("experimental_oom_more_eagerly");
+  RegisterNullaryStartupFlag("experimental_sparse_attribute_containers");
   RegisterNullaryStartupFlag("fatal_event_bus_exceptions");
   RegisterNullaryStartupFlag("host_jvm_debug");
   RegisterNullaryStartupFlag("idle_server_tasks");
@@ -299,6 +305,26 @@ blaze_exit_code::ExitCode StartupOptions::ProcessArg(
   } else if (GetNullaryOption(arg, "--noshutdown_on_low_sys_mem")) {
     shutdown_on_low_sys_mem = false;
     option_sources["shutdown_on_low_sys_mem"] = rcfile;
+  } else if (GetNullaryOption(arg, "--experimental_compact_skyframe_graph")) {
+    compact_skyframe_graph = true;
+    option_sources["experimental_compact_skyframe_graph"] = rcfile;
+  } else if (GetNullaryOption(arg, "--noexperimental_compact_skyframe_graph")) {
+    compact_skyframe_graph = false;
+    option_sources["experimental_compact_skyframe_graph"] = rcfile;
+  } else if (GetNullaryOption(arg, "--experimental_mapped_action_cache")) {
+    mapped_action_cache = true;
+    option_sources["experimental_mapped_action_cache"] = rcfile;
+  } else if (GetNullaryOption(arg, "--noexperimental_mapped_action_cache")) {
+    mapped_action_cache = false;
+    option_sources["experimental_mapped_action_cache"] = rcfile;
+  } else if (GetNullaryOption(arg,
+                              "--experimental_sparse_attribute_containers")) {
+    sparse_attribute_containers = true;
+    option_sources["experimental_sparse_attribute_containers"] = rcfile;
+  } else if (GetNullaryOption(arg,
+                              "--noexperimental_sparse_attribute_containers")) {
+    sparse_attribute_containers = false;
+    option_sources["experimental_sparse_attribute_containers"] = rcfile;
   } else if (GetNullaryOption(arg, "--experimental_oom_more_eagerly")) {
     oom_more_eagerly = true;
     option_sources["experimental_oom_more_eagerly"] = rcfile;
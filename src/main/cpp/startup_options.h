@@ -310,6 +310,15 @@ class StartupOptions {
 
   bool idle_server_tasks;
 
+  // Whether to use the compact Skyframe graph.
+  bool compact_skyframe_graph;
+
+  // Whether to use the memory-mapped action cache.
+  bool mapped_action_cache;
+
+  // Whether rules only store the attribute values that are not defaults.
+  bool sparse_attribute_containers;
+
   // The startup options as received from the user and rc files, tagged with
   // their origin. This is populated by ProcessArgs.
   std::vector<RcStartupFlag> original_startup_options_;
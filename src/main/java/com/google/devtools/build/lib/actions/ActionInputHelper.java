@@ -200,13 +200,15 @@ public final class ActionInputHelper {
 
     List<ActionInput> result = new ArrayList<>();
     List<Artifact> containedArtifacts = new ArrayList<>();
-    for (ActionInput input : inputs) {
-      if (!(input instanceof Artifact)) {
-        result.add(input);
-        continue;
-      }
-      containedArtifacts.add((Artifact) input);
-    }
+    // The inputs of spawns are usually nested sets, which can be visited without flattening them.
+    inputs.forEach(
+        input -> {
+          if (input instanceof Artifact) {
+            containedArtifacts.add((Artifact) input);
+          } else {
+            result.add(input);
+          }
+        });
     Artifact.addExpandedArtifacts(containedArtifacts, result, artifactExpander);
     return result;
   }
@@ -36,4 +36,13 @@ public class ActionKeyContext {
   public void clear() {
     nestedSetFingerprintCache.clear();
   }
+
+  /**
+   * Drops the state that is only valid for the current command, but keeps the fingerprints of the
+   * nested sets that the actions of the next command may share with the actions of this one. The
+   * kept fingerprints do not keep the nested sets they were computed for alive.
+   */
+  public void clearForNextCommand() {
+    nestedSetFingerprintCache.clearForNextCommand();
+  }
 }
@@ -904,13 +904,14 @@ public class Artifact
                                                Collection<? super E> output,
                                                Function<? super Artifact, E> outputFormatter,
                                                ArtifactExpander artifactExpander) {
-    for (Artifact artifact : artifacts) {
-      if (artifact.isMiddlemanArtifact() || artifact.isTreeArtifact()) {
-        expandArtifact(artifact, output, outputFormatter, artifactExpander);
-      } else {
-        output.add(outputFormatter.apply(artifact));
-      }
-    }
+    artifacts.forEach(
+        artifact -> {
+          if (artifact.isMiddlemanArtifact() || artifact.isTreeArtifact()) {
+            expandArtifact(artifact, output, outputFormatter, artifactExpander);
+          } else {
+            output.add(outputFormatter.apply(artifact));
+          }
+        });
   }
 
   private static <E> void expandArtifact(Artifact middleman,
@@ -23,12 +23,15 @@ import com.google.devtools.build.lib.profiler.AutoProfiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.unix.ProcMeminfoParser;
 import com.google.devtools.build.lib.util.OS;
-import com.google.devtools.build.lib.util.Pair;
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToLongFunction;
+import javax.annotation.Nullable;
 
 /**
  * Used to keep track of resources consumed by the Blaze action execution threads and throttle them
@@ -57,6 +60,13 @@ import java.util.concurrent.CountDownLatch;
  * guarantees that at least one thread will always be able to acquire any amount of requested
  * resources (even if it is greater than amount of available resources). Therefore, assuming that
  * threads correctly release acquired resources, Blaze will never be fully blocked.
+ *
+ * <p>The used resources are kept in an immutable snapshot that is updated with compare-and-set, so
+ * acquiring and releasing resources never blocks on a monitor. Threads that have to wait are
+ * granted resources in the order of the priority given by the {@link #setPrioritizer prioritizer},
+ * e.g. the estimated length of the critical path through their action, and in FIFO order among
+ * equal priorities. A waiting thread with a lower priority still goes ahead if the resources it
+ * asks for are available and those of the threads before it are not.
  */
 @ThreadSafe
 public class ResourceManager {
@@ -117,39 +127,107 @@ public class ResourceManager {
   private static final double MIN_NECESSARY_CPU_RATIO = 0.6;
   private static final double MIN_NECESSARY_RAM_RATIO = 1.0;
 
-  // List of blocked threads. Associated CountDownLatch object will always
-  // be initialized to 1 during creation in the acquire() method.
-  private final List<Pair<ResourceSet, CountDownLatch>> requestList;
+  /** An immutable snapshot of the resources in use. */
+  private static final class ResourceUsage {
+    static final ResourceUsage ZERO = new ResourceUsage(0, 0, 0);
 
-  // The total amount of resources on the local host. Must be set by
-  // an explicit call to setAvailableResources(), often using
-  // LocalHostCapacity.getLocalHostCapacity() as an argument.
-  private ResourceSet staticResources = null;
+    // Used amount of CPU capacity (where 1.0 corresponds to the one fully
+    // occupied CPU core. Corresponds to the CPU resource definition in the
+    // ResourceSet class.
+    final double cpu;
+
+    // Used amount of RAM capacity in MB. Corresponds to the RAM resource
+    // definition in the ResourceSet class.
+    final double ram;
+
+    // Used local test count. Corresponds to the local test count definition in the ResourceSet
+    // class.
+    final int localTestCount;
+
+    ResourceUsage(double cpu, double ram, int localTestCount) {
+      this.cpu = cpu;
+      this.ram = ram;
+      this.localTestCount = localTestCount;
+    }
+
+    boolean isZero() {
+      return cpu == 0.0 && ram == 0.0 && localTestCount == 0;
+    }
+
+    ResourceUsage plus(ResourceSet resources) {
+      return new ResourceUsage(
+          cpu + resources.getCpuUsage(),
+          ram + resources.getMemoryMb(),
+          localTestCount + resources.getLocalTestCount());
+    }
+
+    ResourceUsage minus(ResourceSet resources) {
+      double newCpu = cpu - resources.getCpuUsage();
+      double newRam = ram - resources.getMemoryMb();
+      // TODO(bazel-team): (2010) rounding error can accumulate and value below can end up being
+      // e.g. 1E-15. So if it is small enough, we set it to 0. But maybe there is a better solution.
+      double epsilon = 0.0001;
+      return new ResourceUsage(
+          newCpu < epsilon ? 0 : newCpu,
+          newRam < epsilon ? 0 : newRam,
+          localTestCount - resources.getLocalTestCount());
+    }
+  }
 
-  private ResourceSet availableResources = null;
+  /** A thread waiting for resources. */
+  private static final class Request {
+    static final int WAITING = 0;
+    static final int GRANTED = 1;
+    static final int CANCELLED = 2;
+
+    final ResourceSet resources;
+    final long priority;
+    final long sequenceNumber;
+    final AtomicInteger state = new AtomicInteger(WAITING);
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    Request(ResourceSet resources, long priority, long sequenceNumber) {
+      this.resources = resources;
+      this.priority = priority;
+      this.sequenceNumber = sequenceNumber;
+    }
+  }
 
-  // Used amount of CPU capacity (where 1.0 corresponds to the one fully
-  // occupied CPU core. Corresponds to the CPU resource definition in the
-  // ResourceSet class.
-  private double usedCpu;
+  private static final Comparator<Request> REQUEST_ORDER =
+      Comparator.<Request>comparingLong(request -> -request.priority)
+          .thenComparingLong(request -> request.sequenceNumber);
 
-  // Used amount of RAM capacity in MB. Corresponds to the RAM resource
-  // definition in the ResourceSet class.
-  private double usedRam;
+  private final AtomicReference<ResourceUsage> usage = new AtomicReference<>(ResourceUsage.ZERO);
 
-  // Used local test count. Corresponds to the local test count definition in the ResourceSet class.
-  private int usedLocalTestCount;
+  // Blocked threads, in the order in which they should be granted resources.
+  private final ConcurrentSkipListSet<Request> requests =
+      new ConcurrentSkipListSet<>(REQUEST_ORDER);
+
+  private final AtomicLong requestSequenceNumber = new AtomicLong();
+
+  // Number of times processWaitingThreads() was asked to run. Only the thread that raises it from
+  // zero goes through the requests; the others leave it to that thread to go through them again.
+  private final AtomicInteger pendingProcessing = new AtomicInteger();
+
+  // The total amount of resources on the local host. Must be set by
+  // an explicit call to setAvailableResources(), often using
+  // LocalHostCapacity.getLocalHostCapacity() as an argument.
+  private volatile ResourceSet staticResources = null;
+
+  private volatile ResourceSet availableResources = null;
 
   // Specifies how much of the RAM in staticResources we should allow to be used.
   public static final int DEFAULT_RAM_UTILIZATION_PERCENTAGE = 67;
-  private int ramUtilizationPercentage = DEFAULT_RAM_UTILIZATION_PERCENTAGE;
+  private volatile int ramUtilizationPercentage = DEFAULT_RAM_UTILIZATION_PERCENTAGE;
 
   // Determines if local memory estimates are used.
-  private boolean localMemoryEstimate = false;
+  private volatile boolean localMemoryEstimate = false;
 
-  private ResourceManager() {
-    requestList = new LinkedList<>();
-  }
+  // Computes the priority of the threads waiting for resources on behalf of an action. If null,
+  // waiting threads are granted resources in FIFO order.
+  @Nullable private volatile ToLongFunction<ActionExecutionMetadata> prioritizer = null;
+
+  private ResourceManager() {}
 
   @VisibleForTesting public static ResourceManager instanceForTestingOnly() {
     return new ResourceManager();
@@ -159,22 +237,21 @@ public class ResourceManager {
    * Resets resource manager state and releases all thread locks.
    * Note - it does not reset available resources. Use separate call to setAvailableResources().
    */
-  public synchronized void resetResourceUsage() {
-    usedCpu = 0;
-    usedRam = 0;
-    usedLocalTestCount = 0;
-    for (Pair<ResourceSet, CountDownLatch> request : requestList) {
-      // CountDownLatch can be set only to 0 or 1.
-      request.second.countDown();
+  public void resetResourceUsage() {
+    usage.set(ResourceUsage.ZERO);
+    Request request;
+    while ((request = requests.pollFirst()) != null) {
+      if (request.state.compareAndSet(Request.WAITING, Request.GRANTED)) {
+        request.latch.countDown();
+      }
     }
-    requestList.clear();
   }
 
   /**
    * Sets available resources using given resource set. Must be called
    * at least once before using resource manager.
    */
-  public synchronized void setAvailableResources(ResourceSet resources) {
+  public void setAvailableResources(ResourceSet resources) {
     Preconditions.checkNotNull(resources);
     staticResources = resources;
     availableResources = ResourceSet.create(
@@ -187,7 +264,7 @@ public class ResourceManager {
   /**
    * Specify how much of the available RAM we should allow to be used.
    */
-  public synchronized void setRamUtilizationPercentage(int percentage) {
+  public void setRamUtilizationPercentage(int percentage) {
     ramUtilizationPercentage = percentage;
   }
 
@@ -199,6 +276,15 @@ public class ResourceManager {
     localMemoryEstimate = value;
   }
 
+  /**
+   * Sets the function that computes the priority of a thread acquiring resources for an action.
+   * Waiting threads with a higher priority are granted resources first. If null, waiting threads
+   * are granted resources in the order in which they asked for them.
+   */
+  public void setPrioritizer(@Nullable ToLongFunction<ActionExecutionMetadata> prioritizer) {
+    this.prioritizer = prioritizer;
+  }
+
   /**
    * Acquires requested resource set. Will block if resource is not available.
    * NB! This method must be thread-safe!
@@ -211,23 +297,19 @@ public class ResourceManager {
         !threadHasResources(), "acquireResources with existing resource lock during %s", owner);
 
     AutoProfiler p = profiled(owner.describe(), ProfilerTask.ACTION_LOCK);
-    CountDownLatch latch = null;
+    Request request = null;
     try {
-      latch = acquire(resources);
-      if (latch != null) {
-        latch.await();
+      request = acquire(owner, resources);
+      if (request != null) {
+        request.latch.await();
       }
     } catch (InterruptedException e) {
-      // Synchronize on this to avoid any racing with #processWaitingThreads
-      synchronized (this) {
-        if (latch.getCount() == 0) {
-          // Resources already acquired by other side. Release them, but not inside this
-          // synchronized block to avoid deadlock.
-          release(resources);
-        } else {
-          // Inform other side that resources shouldn't be acquired.
-          latch.countDown();
-        }
+      if (request.state.compareAndSet(Request.WAITING, Request.CANCELLED)) {
+        // Inform other side that resources shouldn't be acquired.
+        requests.remove(request);
+      } else {
+        // Resources already acquired by other side. Release them.
+        release(resources);
       }
       throw e;
     }
@@ -235,7 +317,7 @@ public class ResourceManager {
     threadLocked.set(true);
 
     // Profile acquisition only if it waited for resource to become available.
-    if (latch != null) {
+    if (request != null) {
       p.complete();
     }
 
@@ -254,16 +336,7 @@ public class ResourceManager {
     Preconditions.checkState(
         !threadHasResources(), "tryAcquire with existing resource lock during %s", owner);
 
-    boolean acquired = false;
-
-    synchronized (this) {
-      if (areResourcesAvailable(resources)) {
-        incrementResources(resources);
-        acquired = true;
-      }
-    }
-
-    if (acquired) {
+    if (tryIncrementResources(resources)) {
       threadLocked.set(resources != ResourceSet.ZERO);
       return new ResourceHandle(this, owner, resources);
     }
@@ -271,17 +344,26 @@ public class ResourceManager {
     return null;
   }
 
-  private void incrementResources(ResourceSet resources) {
-    usedCpu += resources.getCpuUsage();
-    usedRam += resources.getMemoryMb();
-    usedLocalTestCount += resources.getLocalTestCount();
+  /**
+   * Marks the given resources as used if they are available. Returns whether they were available.
+   */
+  private boolean tryIncrementResources(ResourceSet resources) {
+    while (true) {
+      ResourceUsage current = usage.get();
+      if (!areResourcesAvailable(current, resources)) {
+        return false;
+      }
+      if (usage.compareAndSet(current, current.plus(resources))) {
+        return true;
+      }
+    }
   }
 
   /**
    * Return true if any resources have been claimed through this manager.
    */
-  public synchronized boolean inUse() {
-    return usedCpu != 0.0 || usedRam != 0.0 || usedLocalTestCount != 0 || !requestList.isEmpty();
+  public boolean inUse() {
+    return !usage.get().isZero() || !requests.isEmpty();
   }
 
 
@@ -318,32 +400,34 @@ public class ResourceManager {
     }
   }
 
-  private synchronized CountDownLatch acquire(ResourceSet resources) {
-    if (areResourcesAvailable(resources)) {
-      incrementResources(resources);
+  /**
+   * Marks the given resources as used if they are available and no other thread is waiting.
+   * Otherwise, queues a request for them and returns it.
+   */
+  @Nullable
+  private Request acquire(ActionExecutionMetadata owner, ResourceSet resources) {
+    // Threads that are already waiting go first.
+    if (requests.isEmpty() && tryIncrementResources(resources)) {
       return null;
     }
-    Pair<ResourceSet, CountDownLatch> request =
-      new Pair<>(resources, new CountDownLatch(1));
-    requestList.add(request);
-    return request.second;
+    ToLongFunction<ActionExecutionMetadata> prioritizer = this.prioritizer;
+    Request request =
+        new Request(
+            resources,
+            prioritizer == null ? 0 : prioritizer.applyAsLong(owner),
+            requestSequenceNumber.getAndIncrement());
+    requests.add(request);
+    // Resources may have been released since we checked for them, before the request was visible.
+    processWaitingThreads();
+    return request;
   }
 
-  private synchronized boolean release(ResourceSet resources) {
-    usedCpu -= resources.getCpuUsage();
-    usedRam -= resources.getMemoryMb();
-    usedLocalTestCount -= resources.getLocalTestCount();
-
-    // TODO(bazel-team): (2010) rounding error can accumulate and value below can end up being
-    // e.g. 1E-15. So if it is small enough, we set it to 0. But maybe there is a better solution.
-    double epsilon = 0.0001;
-    if (usedCpu < epsilon) {
-      usedCpu = 0;
-    }
-    if (usedRam < epsilon) {
-      usedRam = 0;
-    }
-    if (!requestList.isEmpty()) {
+  private boolean release(ResourceSet resources) {
+    ResourceUsage current;
+    do {
+      current = usage.get();
+    } while (!usage.compareAndSet(current, current.minus(resources)));
+    if (!requests.isEmpty()) {
       processWaitingThreads();
       return true;
     }
@@ -353,29 +437,35 @@ public class ResourceManager {
   /**
    * Tries to unblock one or more waiting threads if there are sufficient resources available.
    */
-  private synchronized void processWaitingThreads() {
-    Iterator<Pair<ResourceSet, CountDownLatch>> iterator = requestList.iterator();
-    while (iterator.hasNext()) {
-      Pair<ResourceSet, CountDownLatch> request = iterator.next();
-      if (request.second.getCount() != 0) {
-        if (areResourcesAvailable(request.first)) {
-          incrementResources(request.first);
-          request.second.countDown();
-          iterator.remove();
+  private void processWaitingThreads() {
+    if (pendingProcessing.getAndIncrement() != 0) {
+      return;
+    }
+    int pending = 1;
+    do {
+      for (Request request : requests) {
+        if (request.state.get() != Request.WAITING) {
+          // Cancelled by other side.
+          requests.remove(request);
+        } else if (tryIncrementResources(request.resources)) {
+          requests.remove(request);
+          if (request.state.compareAndSet(Request.WAITING, Request.GRANTED)) {
+            request.latch.countDown();
+          } else {
+            release(request.resources);
+          }
         }
-      } else {
-        // Cancelled by other side.
-        iterator.remove();
       }
-    }
+      pending = pendingProcessing.addAndGet(-pending);
+    } while (pending != 0);
   }
 
   // Method will return true if all requested resources are considered to be available.
-  private boolean areResourcesAvailable(ResourceSet resources) {
-    Preconditions.checkNotNull(availableResources);
+  private boolean areResourcesAvailable(ResourceUsage used, ResourceSet resources) {
+    ResourceSet availableResources = Preconditions.checkNotNull(this.availableResources);
     // Comparison below is robust, since any calculation errors will be fixed
     // by the release() method.
-    if (usedCpu == 0.0 && usedRam == 0.0 && usedLocalTestCount == 0) {
+    if (used.isZero()) {
       return true;
     }
     // Use only MIN_NECESSARY_???_RATIO of the resource value to check for
@@ -391,7 +481,7 @@ public class ResourceManager {
     double availableRam = availableResources.getMemoryMb();
     int availableLocalTestCount = availableResources.getLocalTestCount();
 
-    double remainingRam = availableRam - usedRam;
+    double remainingRam = availableRam - used.ram;
 
     if (localMemoryEstimate && OS.getCurrent() == OS.LINUX) {
       try {
@@ -423,20 +513,20 @@ public class ResourceManager {
     // ensure that at any given time, at least one thread is able to acquire
     // resources even if it requests more than available.
     // 3) If used resource amount is less than total available resource amount.
-    boolean cpuIsAvailable = cpu == 0.0 || usedCpu == 0.0 || usedCpu + cpu <= availableCpu;
-    boolean ramIsAvailable = ram == 0.0 || usedRam == 0.0 || ram <= remainingRam;
-    boolean localTestCountIsAvailable = localTestCount == 0 || usedLocalTestCount == 0
-        || usedLocalTestCount + localTestCount <= availableLocalTestCount;
+    boolean cpuIsAvailable = cpu == 0.0 || used.cpu == 0.0 || used.cpu + cpu <= availableCpu;
+    boolean ramIsAvailable = ram == 0.0 || used.ram == 0.0 || ram <= remainingRam;
+    boolean localTestCountIsAvailable = localTestCount == 0 || used.localTestCount == 0
+        || used.localTestCount + localTestCount <= availableLocalTestCount;
     return cpuIsAvailable && ramIsAvailable && localTestCountIsAvailable;
   }
 
   @VisibleForTesting
-  synchronized int getWaitCount() {
-    return requestList.size();
+  int getWaitCount() {
+    return requests.size();
   }
 
   @VisibleForTesting
-  synchronized boolean isAvailable(double ram, double cpu, int localTestCount) {
-    return areResourcesAvailable(ResourceSet.create(ram, cpu, localTestCount));
+  boolean isAvailable(double ram, double cpu, int localTestCount) {
+    return areResourcesAvailable(usage.get(), ResourceSet.create(ram, cpu, localTestCount));
   }
 }
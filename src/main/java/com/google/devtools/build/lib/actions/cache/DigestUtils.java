@@ -18,6 +18,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.primitives.Longs;
 import com.google.devtools.build.lib.actions.FileArtifactValue;
 import com.google.devtools.build.lib.clock.BlazeClock;
@@ -25,9 +26,14 @@ import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.util.VarInt;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
 import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
@@ -43,6 +49,10 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * impact on correctness because not all changes to files can be purely detected from their
  * metadata.
  *
+ * <p>The contents of the cache can be written to and read back from disk with {@link #saveCache}
+ * and {@link #loadCache}, so that a new server does not have to recompute the digests of files
+ * that did not change since the previous server saved them. The same correctness caveat applies.
+ *
  * <p>Note that this class is responsible for digesting file metadata in an order-independent
  * manner. Care must be taken to do this properly. The digest must be a function of the set of
  * (path, metadata) tuples. While the order of these pairs must not matter, it would <b>not</b> be
@@ -85,6 +95,9 @@ public class DigestUtils {
     /** Last modification time of the file. */
     private final long modifiedTime;
 
+    /** Last status change time of the file. */
+    private final long changeTime;
+
     /** Size of the file. */
     private final long size;
 
@@ -96,10 +109,38 @@ public class DigestUtils {
      * @throws IOException if reading the file status data fails
      */
     public CacheKey(Path path, FileStatus status) throws IOException {
-      this.path = path.asFragment();
-      this.nodeId = status.getNodeId();
-      this.modifiedTime = status.getLastModifiedTime();
-      this.size = status.getSize();
+      this(
+          path.asFragment(),
+          status.getNodeId(),
+          status.getLastModifiedTime(),
+          status.getLastChangeTime(),
+          status.getSize());
+    }
+
+    private CacheKey(
+        PathFragment path, long nodeId, long modifiedTime, long changeTime, long size) {
+      this.path = path;
+      this.nodeId = nodeId;
+      this.modifiedTime = modifiedTime;
+      this.changeTime = changeTime;
+      this.size = size;
+    }
+
+    private void writeTo(DataOutputStream out) throws IOException {
+      out.writeUTF(path.getPathString());
+      out.writeLong(nodeId);
+      out.writeLong(modifiedTime);
+      out.writeLong(changeTime);
+      out.writeLong(size);
+    }
+
+    private static CacheKey readFrom(DataInputStream in) throws IOException {
+      return new CacheKey(
+          PathFragment.create(in.readUTF()),
+          in.readLong(),
+          in.readLong(),
+          in.readLong(),
+          in.readLong());
     }
 
     @Override
@@ -113,6 +154,7 @@ public class DigestUtils {
         return path.equals(key.path)
             && nodeId == key.nodeId
             && modifiedTime == key.modifiedTime
+            && changeTime == key.changeTime
             && size == key.size;
       }
     }
@@ -123,6 +165,7 @@ public class DigestUtils {
       result = 31 * result + path.hashCode();
       result = 31 * result + Longs.hashCode(nodeId);
       result = 31 * result + Longs.hashCode(modifiedTime);
+      result = 31 * result + Longs.hashCode(changeTime);
       result = 31 * result + Longs.hashCode(size);
       return result;
     }
@@ -139,6 +182,12 @@ public class DigestUtils {
    */
   private static Cache<CacheKey, byte[]> globalCache = null;
 
+  /** Magic number at the start of a file written by {@link #saveCache}. */
+  private static final int CACHE_FILE_MAGIC = 0x44494753;
+
+  /** Version of the format written by {@link #saveCache}. Bump when changing the format. */
+  private static final int CACHE_FILE_VERSION = 1;
+
   /** Private constructor to prevent instantiation of utility class. */
   private DigestUtils() {}
 
@@ -204,6 +253,73 @@ public class DigestUtils {
     return cache.stats();
   }
 
+  /**
+   * Writes the contents of the cache to {@code file}, replacing it atomically.
+   *
+   * <p>The cache must have previously been enabled by a call to {@link #configureCache(long)}.
+   *
+   * @param file the file to write
+   * @param digestFunction the hash function the cached digests were computed with
+   * @return the number of entries written
+   * @throws IOException if writing the file fails
+   */
+  public static int saveCache(Path file, DigestHashFunction digestFunction) throws IOException {
+    Cache<CacheKey, byte[]> cache = globalCache;
+    Preconditions.checkNotNull(cache, "configureCache() must have been called with a size >= 0");
+    ImmutableMap<CacheKey, byte[]> entries = ImmutableMap.copyOf(cache.asMap());
+    Path tempFile = file.getParentDirectory().getChild(file.getBaseName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(tempFile.getOutputStream()))) {
+      out.writeInt(CACHE_FILE_MAGIC);
+      out.writeInt(CACHE_FILE_VERSION);
+      out.writeUTF(digestFunction.getNames().get(0));
+      out.writeInt(entries.size());
+      for (Map.Entry<CacheKey, byte[]> entry : entries.entrySet()) {
+        entry.getKey().writeTo(out);
+        out.writeShort(entry.getValue().length);
+        out.write(entry.getValue());
+      }
+    }
+    tempFile.renameTo(file);
+    return entries.size();
+  }
+
+  /**
+   * Adds the entries written by {@link #saveCache} to the cache. Nothing is added if {@code file}
+   * does not exist or was written for a different hash function.
+   *
+   * <p>The cache must have previously been enabled by a call to {@link #configureCache(long)}.
+   *
+   * @param file the file to read
+   * @param digestFunction the hash function currently used to compute digests
+   * @return the number of entries read
+   * @throws IOException if reading the file fails or the file is malformed
+   */
+  public static int loadCache(Path file, DigestHashFunction digestFunction) throws IOException {
+    Cache<CacheKey, byte[]> cache = globalCache;
+    Preconditions.checkNotNull(cache, "configureCache() must have been called with a size >= 0");
+    if (!file.exists()) {
+      return 0;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(file.getInputStream()))) {
+      if (in.readInt() != CACHE_FILE_MAGIC || in.readInt() != CACHE_FILE_VERSION) {
+        throw new IOException("Unexpected header in digest cache file " + file);
+      }
+      if (!digestFunction.getNames().contains(in.readUTF())) {
+        return 0;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        CacheKey key = CacheKey.readFrom(in);
+        byte[] digest = new byte[in.readUnsignedShort()];
+        in.readFully(digest);
+        cache.put(key, digest);
+      }
+      return count;
+    }
+  }
+
   /**
    * Enable or disable multi-threaded digesting even for large files.
    */
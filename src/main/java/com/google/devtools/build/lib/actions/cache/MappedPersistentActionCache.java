@@ -0,0 +1,759 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.actions.cache.Protos.ActionCacheStatistics;
+import com.google.devtools.build.lib.actions.cache.Protos.ActionCacheStatistics.MissReason;
+import com.google.devtools.build.lib.clock.Clock;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ConditionallyThreadSafe;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.UnixGlob;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.Nullable;
+
+/**
+ * An implementation of the ActionCache interface that keeps entries in an append-only log on disk
+ * and locates them through a memory-mapped index, so that an entry is only read and decoded when
+ * it is looked up.
+ *
+ * <p>Unlike {@link CompactPersistentActionCache}, which reads the whole cache into the heap when
+ * the server starts and rewrites it on every save, this cache only maps its files on startup. New
+ * entries are appended to the log and the index is updated in place, so {@link #save} merely
+ * forces the dirty pages to disk. The space taken by overwritten or removed entries is reclaimed
+ * by compacting the log once it makes up most of the file.
+ *
+ * <p>Keys and file names are interned through a {@link PersistentStringIndexer}. Since its ids are
+ * dense, the index is a table of log offsets addressed directly by key id.
+ *
+ * <p>Entries are encoded exactly like in {@link CompactPersistentActionCache}. The index also
+ * records the size of the log at the last save. Records appended after it may refer to ids that
+ * were not saved before the server went away and are reused by the next one, so they are
+ * discarded when the cache is opened.
+ *
+ * <p>Compaction writes the live records to a log file with a new generation number and a complete
+ * index for it to a temporary file, and then renames the index over the current one. The index
+ * names the generation of its log, so a crash before the rename leaves the previous log and index
+ * in use, and a crash after it leaves the new ones; log files of other generations are deleted when
+ * the cache is opened.
+ *
+ * <p>Lookups only take a read lock, so they run concurrently with each other. The log is mapped
+ * in regions that double in size, growing the file ahead of the records as needed, so that the
+ * number of mappings is logarithmic in the size of the log.
+ */
+@ConditionallyThreadSafe // condition: each instance must instantiated with
+                         // different cache root
+public class MappedPersistentActionCache implements ActionCache {
+  private static final int VERSION = 3;
+
+  private static final int LOG_MAGIC = 0x20181107;
+  private static final int INDEX_MAGIC = 0x20181108;
+
+  // Log header: magic, version.
+  private static final int LOG_HEADER_SIZE = 8;
+  // Record header: key id, payload length.
+  private static final int RECORD_HEADER_SIZE = 8;
+
+  // Index header: magic, version, live payload bytes, log size at the last save, log generation.
+  private static final int INDEX_HEADER_SIZE = 32;
+  private static final int LIVE_BYTES_OFFSET = 8;
+  private static final int DURABLE_LOG_SIZE_OFFSET = 16;
+  private static final int LOG_GENERATION_OFFSET = 24;
+  private static final int SLOT_SIZE = 8;
+  private static final int INITIAL_INDEX_CAPACITY = 1 << 16;
+  private static final int MAX_INDEX_CAPACITY =
+      (Integer.MAX_VALUE - INDEX_HEADER_SIZE) / SLOT_SIZE;
+
+  // Logs larger than this are read through the channel instead of a mapping.
+  private static final long MAX_MAPPED_LOG_SIZE = Integer.MAX_VALUE;
+  // Size of the first mapping of the log. The following ones double it.
+  private static final long MIN_LOG_MAPPING_SIZE = 1 << 20;
+  // Compaction is only worth it once the log has grown past this size ...
+  private static final long MIN_COMPACTION_LOG_SIZE = 16L * 1024 * 1024;
+  // ... and at most this fraction of it is still in use.
+  private static final double MAX_LIVE_RATIO_BEFORE_COMPACTION = 0.5;
+
+  private final Path cacheRoot;
+  private final Path indexFile;
+  private final PersistentStringIndexer indexer;
+  private final long minCompactionLogSize;
+
+  // Lookups take the read lock; everything that changes the files or the fields below takes the
+  // write lock.
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // Guards the creation of log mappings by concurrent lookups.
+  private final Object logMappingLock = new Object();
+
+  private long logGeneration;
+  private FileChannel logChannel;
+  private FileChannel indexChannel;
+  private long logSize;
+  @Nullable private volatile MappedByteBuffer logBuffer;
+  private MappedByteBuffer indexBuffer;
+  private int indexCapacity;
+  private long liveBytes;
+
+  // First failure to update the files, reported by the next call to save().
+  @Nullable private IOException pendingFailure;
+  private boolean closed;
+
+  private final AtomicInteger hits = new AtomicInteger();
+  private final Map<MissReason, AtomicInteger> misses = new EnumMap<>(MissReason.class);
+
+  public MappedPersistentActionCache(Path cacheRoot, Clock clock) throws IOException {
+    this(cacheRoot, clock, MIN_COMPACTION_LOG_SIZE);
+  }
+
+  @VisibleForTesting
+  MappedPersistentActionCache(Path cacheRoot, Clock clock, long minCompactionLogSize)
+      throws IOException {
+    this.cacheRoot = cacheRoot;
+    this.minCompactionLogSize = minCompactionLogSize;
+    indexFile = indexFile(cacheRoot);
+    Path filenameIndexFile = cacheRoot.getChild("mapped_filename_index_v" + VERSION + ".blaze");
+
+    try {
+      indexer = PersistentStringIndexer.newPersistentStringIndexer(filenameIndexFile, clock);
+    } catch (IOException e) {
+      renameCorruptedFiles(cacheRoot);
+      throw new IOException("Failed to load filename index data", e);
+    }
+
+    try {
+      openIndex();
+      openLog();
+      deleteFilesOfOtherGenerations();
+      discardUnsavedRecords();
+    } catch (IOException e) {
+      closeQuietly();
+      renameCorruptedFiles(cacheRoot);
+      throw new IOException("Failed to load action cache data", e);
+    }
+
+    for (MissReason reason : MissReason.values()) {
+      if (reason == MissReason.UNRECOGNIZED) {
+        // The presence of this enum value is a protobuf artifact and confuses our metrics
+        // externalization code below. Just skip it.
+        continue;
+      }
+      misses.put(reason, new AtomicInteger(0));
+    }
+  }
+
+  /** Returns the log file of the given generation, the one named by the index. */
+  public static Path logFile(Path cacheRoot, long generation) {
+    return cacheRoot.getChild("mapped_action_log_v" + VERSION + "_" + generation + ".blaze");
+  }
+
+  public static Path indexFile(Path cacheRoot) {
+    return cacheRoot.getChild("mapped_action_index_v" + VERSION + ".blaze");
+  }
+
+  private static Path tmpIndexFile(Path cacheRoot) {
+    Path indexFile = indexFile(cacheRoot);
+    return indexFile.getParentDirectory().getChild(indexFile.getBaseName() + ".tmp");
+  }
+
+  /**
+   * Rename corrupted files so they could be analyzed later. This would also ensure that next
+   * initialization attempt will create empty cache.
+   */
+  private static void renameCorruptedFiles(Path cacheRoot) {
+    try {
+      for (Path path :
+          UnixGlob.forPath(cacheRoot)
+              .addPattern("mapped_*_v" + VERSION + ".blaze")
+              .addPattern("mapped_action_log_v" + VERSION + "_*.blaze")
+              .glob()) {
+        path.renameTo(path.getParentDirectory().getChild(path.getBaseName() + ".bad"));
+      }
+    } catch (IOException e) {
+      // do nothing
+    }
+  }
+
+  private void openLog() throws IOException {
+    logChannel =
+        FileChannel.open(
+            logFile(cacheRoot, logGeneration).getPathFile().toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    logSize = logChannel.size();
+    if (logSize == 0) {
+      writeLogHeader(logChannel);
+      logSize = LOG_HEADER_SIZE;
+      return;
+    }
+    if (logSize < LOG_HEADER_SIZE) {
+      throw new IOException("truncated log header");
+    }
+    ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+    readFully(logChannel, header, 0);
+    checkHeader(header, LOG_MAGIC, "log");
+  }
+
+  private void openIndex() throws IOException {
+    indexChannel =
+        FileChannel.open(
+            indexFile.getPathFile().toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    long size = indexChannel.size();
+    if (size == 0) {
+      mapIndex(INITIAL_INDEX_CAPACITY);
+      indexBuffer.putInt(0, INDEX_MAGIC);
+      indexBuffer.putInt(4, VERSION);
+      indexBuffer.putLong(LIVE_BYTES_OFFSET, 0);
+      indexBuffer.putLong(DURABLE_LOG_SIZE_OFFSET, LOG_HEADER_SIZE);
+      indexBuffer.putLong(LOG_GENERATION_OFFSET, 0);
+      liveBytes = 0;
+      logGeneration = 0;
+      return;
+    }
+    if (size < INDEX_HEADER_SIZE || (size - INDEX_HEADER_SIZE) % SLOT_SIZE != 0) {
+      throw new IOException("index file has unexpected size " + size);
+    }
+    mapIndex((int) ((size - INDEX_HEADER_SIZE) / SLOT_SIZE));
+    checkHeader(indexBuffer, INDEX_MAGIC, "index");
+    liveBytes = indexBuffer.getLong(LIVE_BYTES_OFFSET);
+    logGeneration = indexBuffer.getLong(LOG_GENERATION_OFFSET);
+  }
+
+  /**
+   * Deletes the log files of generations other than the one named by the index, and any temporary
+   * index, all of which are left behind by a compaction that did not complete.
+   */
+  private void deleteFilesOfOtherGenerations() throws IOException {
+    Path currentLogFile = logFile(cacheRoot, logGeneration);
+    for (Path path :
+        UnixGlob.forPath(cacheRoot)
+            .addPattern("mapped_action_log_v" + VERSION + "_*.blaze")
+            .glob()) {
+      if (!path.equals(currentLogFile)) {
+        path.delete();
+      }
+    }
+    tmpIndexFile(cacheRoot).delete();
+  }
+
+  /**
+   * Truncates the log to its size at the last save and drops the index entries of the records
+   * past it. These records were appended by a server that went away before saving, so they may
+   * refer to ids that the string indexer lost and hands out again for other strings.
+   */
+  private void discardUnsavedRecords() throws IOException {
+    long durableLogSize = indexBuffer.getLong(DURABLE_LOG_SIZE_OFFSET);
+    if (durableLogSize < LOG_HEADER_SIZE || durableLogSize > logSize) {
+      throw new IOException("index has unexpected saved log size " + durableLogSize);
+    }
+    if (durableLogSize == logSize) {
+      return;
+    }
+    for (int id = 0; id < indexCapacity; id++) {
+      long offset = getSlot(id);
+      if (offset < durableLogSize) {
+        continue;
+      }
+      setSlot(id, 0);
+      if (offset + RECORD_HEADER_SIZE <= logSize) {
+        // The tail of the record may not have made it to disk.
+        liveBytes -= Math.min(recordSize(offset), logSize - offset);
+      }
+    }
+    logBuffer = null;
+    logChannel.truncate(durableLogSize);
+    logSize = durableLogSize;
+    liveBytes = Math.max(0, Math.min(liveBytes, logSize - LOG_HEADER_SIZE));
+    indexBuffer.putLong(LIVE_BYTES_OFFSET, liveBytes);
+  }
+
+  private static void writeLogHeader(FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+    header.putInt(LOG_MAGIC).putInt(VERSION).flip();
+    writeFully(channel, header, 0);
+  }
+
+  private static void checkHeader(ByteBuffer header, int magic, String what) throws IOException {
+    if (header.getInt(0) != magic) {
+      throw new IOException("bad " + what + " file magic");
+    }
+    int version = header.getInt(4);
+    if (version != VERSION) {
+      throw new IOException("unexpected " + what + " file version " + version);
+    }
+  }
+
+  /** Maps the index with room for {@code capacity} slots, growing the file if needed. */
+  private void mapIndex(int capacity) throws IOException {
+    indexBuffer =
+        indexChannel.map(MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE + (long) capacity * SLOT_SIZE);
+    indexCapacity = capacity;
+  }
+
+  private long getSlot(int id) {
+    return id < indexCapacity ? indexBuffer.getLong(INDEX_HEADER_SIZE + id * SLOT_SIZE) : 0;
+  }
+
+  private void setSlot(int id, long offset) throws IOException {
+    if (id >= indexCapacity) {
+      Preconditions.checkState(id < MAX_INDEX_CAPACITY, "too many action cache keys: %s", id);
+      int capacity = indexCapacity;
+      while (capacity <= id) {
+        capacity = (int) Math.min((long) capacity * 2, MAX_INDEX_CAPACITY);
+      }
+      mapIndex(capacity);
+    }
+    indexBuffer.putLong(INDEX_HEADER_SIZE + id * SLOT_SIZE, offset);
+  }
+
+  private void addLiveBytes(long delta) {
+    liveBytes += delta;
+    indexBuffer.putLong(LIVE_BYTES_OFFSET, liveBytes);
+  }
+
+  /**
+   * Reads the given number of bytes of the log at the given offset, mapping the log on first use
+   * and remapping it once it has grown past the mapped region.
+   *
+   * <p>Called with at least the read lock held.
+   */
+  private ByteBuffer readLog(long offset, int length) throws IOException {
+    if (offset < LOG_HEADER_SIZE || length < 0 || offset + length > logSize) {
+      throw new IOException("log region out of bounds: " + offset + "+" + length);
+    }
+    if (logSize > MAX_MAPPED_LOG_SIZE) {
+      ByteBuffer buffer = ByteBuffer.allocate(length);
+      readFully(logChannel, buffer, offset);
+      buffer.flip();
+      return buffer;
+    }
+    MappedByteBuffer mapped = logBuffer;
+    if (mapped == null || offset + length > mapped.capacity()) {
+      mapped = mapLog(offset + length);
+    }
+    ByteBuffer buffer = mapped.duplicate();
+    buffer.position((int) offset).limit((int) (offset + length));
+    return buffer.slice();
+  }
+
+  /**
+   * Maps at least the first {@code minSize} bytes of the log, in a region twice as large as the
+   * previous one. The file is grown to the size of the region, which only adds a hole past the
+   * records; it is truncated to the records again when the cache is next opened.
+   */
+  private MappedByteBuffer mapLog(long minSize) throws IOException {
+    synchronized (logMappingLock) {
+      MappedByteBuffer mapped = logBuffer;
+      if (mapped != null && minSize <= mapped.capacity()) {
+        return mapped;
+      }
+      long size =
+          Math.min(
+              Math.max(minSize, mapped == null ? MIN_LOG_MAPPING_SIZE : 2L * mapped.capacity()),
+              MAX_MAPPED_LOG_SIZE);
+      if (logChannel.size() < size) {
+        writeFully(logChannel, ByteBuffer.allocate(1), size - 1);
+      }
+      mapped = logChannel.map(MapMode.READ_ONLY, 0, size);
+      logBuffer = mapped;
+      return mapped;
+    }
+  }
+
+  /** Returns the payload of the record for the given key id, or null if there is none. */
+  @Nullable
+  private byte[] readRecord(int id) throws IOException {
+    long offset = getSlot(id);
+    if (offset == 0) {
+      return null;
+    }
+    ByteBuffer header = readLog(offset, RECORD_HEADER_SIZE);
+    int recordId = header.getInt();
+    int length = header.getInt();
+    if (recordId != id) {
+      throw new IOException("index entry for " + id + " points to record for " + recordId);
+    }
+    ByteBuffer payload = readLog(offset + RECORD_HEADER_SIZE, length);
+    byte[] data = new byte[length];
+    payload.get(data);
+    return data;
+  }
+
+  /** Returns the total size of the record at the given offset, header included. */
+  private int recordSize(long offset) throws IOException {
+    return RECORD_HEADER_SIZE + readLog(offset, RECORD_HEADER_SIZE).getInt(4);
+  }
+
+  private void appendRecord(int id, byte[] content) throws IOException {
+    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + content.length);
+    record.putInt(id).putInt(content.length).put(content).flip();
+    long offset = logSize;
+    writeFully(logChannel, record, offset);
+    logSize += RECORD_HEADER_SIZE + content.length;
+    removeRecord(id);
+    setSlot(id, offset);
+    addLiveBytes(RECORD_HEADER_SIZE + content.length);
+  }
+
+  private void removeRecord(int id) throws IOException {
+    long offset = getSlot(id);
+    if (offset != 0) {
+      setSlot(id, 0);
+      addLiveBytes(-recordSize(offset));
+    }
+  }
+
+  @Override
+  public ActionCache.Entry get(String key) {
+    int index = indexer.getIndex(key);
+    if (index < 0) {
+      return null;
+    }
+    byte[] data;
+    try {
+      lock.readLock().lock();
+      try {
+        if (closed) {
+          return null;
+        }
+        data = readRecord(index);
+      } finally {
+        lock.readLock().unlock();
+      }
+      return data != null ? CompactPersistentActionCache.decode(indexer, data) : null;
+    } catch (IOException e) {
+      // return entry marked as corrupted.
+      return ActionCache.Entry.CORRUPTED;
+    }
+  }
+
+  @Override
+  public void put(String key, ActionCache.Entry entry) {
+    // Encode record. Note that both methods may create new mappings in the indexer.
+    int index = indexer.getOrCreateIndex(key);
+    byte[] content = CompactPersistentActionCache.encode(indexer, entry);
+
+    lock.writeLock().lock();
+    try {
+      if (closed) {
+        return;
+      }
+      appendRecord(index, content);
+    } catch (IOException e) {
+      recordFailure(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void remove(String key) {
+    int index = indexer.getIndex(key);
+    if (index < 0) {
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      if (closed) {
+        return;
+      }
+      removeRecord(index);
+    } catch (IOException e) {
+      recordFailure(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void recordFailure(IOException e) {
+    if (pendingFailure == null) {
+      pendingFailure = e;
+    }
+  }
+
+  @Override
+  public long save() throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (pendingFailure != null) {
+        IOException e = pendingFailure;
+        pendingFailure = null;
+        throw new IOException("Failed to update action cache data", e);
+      }
+      if (closed) {
+        return 0;
+      }
+      // Every id referenced by the log must be on disk before the log itself is considered
+      // durable.
+      long indexSize = indexer.save();
+      if (logSize > minCompactionLogSize
+          && liveBytes < (logSize - LOG_HEADER_SIZE) * MAX_LIVE_RATIO_BEFORE_COMPACTION) {
+        compact();
+      }
+      logChannel.force(false);
+      indexBuffer.putLong(DURABLE_LOG_SIZE_OFFSET, logSize);
+      indexBuffer.force();
+      return indexSize + logSize + indexChannel.size();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Rewrites the log with only the records the index points to, into the log file of the next
+   * generation, and replaces the index with one for it.
+   *
+   * <p>The new log and index are complete on disk before the index is renamed over the current
+   * one, which is the only step that switches the cache to them. Whichever log the index on disk
+   * names is intact, and the other one is deleted on the next open if it is not deleted here.
+   *
+   * <p>If compacting fails before the index is replaced, the cache keeps using the current
+   * generation. If the new generation cannot be opened once it replaced the current one, the cache
+   * is cleared: it would otherwise go on with files that the index on disk no longer names.
+   */
+  private void compact() throws IOException {
+    long newGeneration = logGeneration + 1;
+    Path newLogFile = logFile(cacheRoot, newGeneration);
+    long newLogSize = LOG_HEADER_SIZE;
+    ByteBuffer newIndex = ByteBuffer.allocate(INDEX_HEADER_SIZE + indexCapacity * SLOT_SIZE);
+    try (FileChannel newLogChannel =
+        FileChannel.open(
+            newLogFile.getPathFile().toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      writeLogHeader(newLogChannel);
+      for (int id = 0; id < indexCapacity; id++) {
+        long offset = getSlot(id);
+        if (offset == 0) {
+          continue;
+        }
+        ByteBuffer record = readLog(offset, recordSize(offset));
+        int size = record.remaining();
+        writeFully(newLogChannel, record, newLogSize);
+        newIndex.putLong(INDEX_HEADER_SIZE + id * SLOT_SIZE, newLogSize);
+        newLogSize += size;
+      }
+      newLogChannel.force(false);
+    }
+
+    newIndex
+        .putInt(0, INDEX_MAGIC)
+        .putInt(4, VERSION)
+        .putLong(LIVE_BYTES_OFFSET, newLogSize - LOG_HEADER_SIZE)
+        .putLong(DURABLE_LOG_SIZE_OFFSET, newLogSize)
+        .putLong(LOG_GENERATION_OFFSET, newGeneration);
+    Path tmpIndexFile = tmpIndexFile(cacheRoot);
+    try (FileChannel tmpIndexChannel =
+        FileChannel.open(
+            tmpIndexFile.getPathFile().toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      writeFully(tmpIndexChannel, newIndex, 0);
+      tmpIndexChannel.force(false);
+    }
+
+    Path oldLogFile = logFile(cacheRoot, logGeneration);
+    tmpIndexFile.renameTo(indexFile);
+    try {
+      logBuffer = null;
+      indexBuffer = null;
+      logChannel.close();
+      indexChannel.close();
+      openIndex();
+      openLog();
+    } catch (IOException e) {
+      clear();
+      throw e;
+    }
+    oldLogFile.delete();
+  }
+
+  @Override
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      indexer.clear();
+      closeQuietly();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void closeQuietly() {
+    closed = true;
+    logBuffer = null;
+    indexBuffer = null;
+    indexCapacity = 0;
+    for (FileChannel channel : new FileChannel[] {logChannel, indexChannel}) {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          // do nothing
+        }
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    lock.readLock().lock();
+    try {
+      return toStringLocked();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private String toStringLocked() {
+    StringBuilder builder = new StringBuilder();
+    int records = 0;
+    for (int id = 0; id < indexCapacity; id++) {
+      if (getSlot(id) != 0) {
+        records++;
+      }
+    }
+    builder.append("Action cache (" + records + " records):\n");
+    int size = records > 1000 ? 10 : records;
+    int ct = 0;
+    for (int id = 0; id < indexCapacity && ct <= size; id++) {
+      if (getSlot(id) == 0) {
+        continue;
+      }
+      appendEntry(builder, id, "-> ");
+      if (++ct > size) {
+        builder.append("...");
+      }
+    }
+    return builder.toString();
+  }
+
+  /** Dumps action cache content. */
+  @Override
+  public void dump(PrintStream out) {
+    lock.readLock().lock();
+    try {
+      dumpLocked(out);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void dumpLocked(PrintStream out) {
+    out.println("String indexer content:\n");
+    out.println(indexer);
+    out.println("Action cache:\n");
+    for (int id = 0; id < indexCapacity; id++) {
+      if (getSlot(id) == 0) {
+        continue;
+      }
+      StringBuilder builder = new StringBuilder();
+      appendEntry(builder, id, id + ", ");
+      if (builder.length() > 0) {
+        out.println(builder);
+      }
+    }
+  }
+
+  private void appendEntry(StringBuilder builder, int id, String prefix) {
+    String content;
+    int length = 0;
+    try {
+      byte[] data = readRecord(id);
+      if (data == null) {
+        return;
+      }
+      length = data.length;
+      content = CompactPersistentActionCache.decode(indexer, data).toString();
+    } catch (IOException e) {
+      content = e + "\n";
+    }
+    builder
+        .append(prefix)
+        .append(indexer.getStringForIndex(id))
+        .append(":\n")
+        .append(content)
+        .append("  packed_len = ")
+        .append(length)
+        .append("\n");
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new IOException("unexpected end of file");
+      }
+      position += read;
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  @Override
+  public void accountHit() {
+    hits.incrementAndGet();
+  }
+
+  @Override
+  public void accountMiss(MissReason reason) {
+    AtomicInteger counter = misses.get(reason);
+    Preconditions.checkNotNull(counter, "Miss reason %s was not registered in the misses map "
+        + "during cache construction", reason);
+    counter.incrementAndGet();
+  }
+
+  @Override
+  public void mergeIntoActionCacheStatistics(ActionCacheStatistics.Builder builder) {
+    builder.setHits(hits.get());
+
+    int totalMisses = 0;
+    for (Map.Entry<MissReason, AtomicInteger> entry : misses.entrySet()) {
+      int count = entry.getValue().get();
+      builder.addMissDetailsBuilder().setReason(entry.getKey()).setCount(count);
+      totalMisses += count;
+    }
+    builder.setMisses(totalMisses);
+  }
+
+  @Override
+  public void resetStatistics() {
+    hits.set(0);
+    for (Map.Entry<MissReason, AtomicInteger> entry : misses.entrySet()) {
+      entry.getValue().set(0);
+    }
+  }
+}
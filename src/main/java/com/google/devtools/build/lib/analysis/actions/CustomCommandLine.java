@@ -374,17 +374,14 @@ public final class CustomCommandLine extends CommandLine {
             hasMapEach ? (CommandLineItem.MapFn<Object>) arguments.get(argi++) : null;
         if (isNestedSet) {
           NestedSet<Object> values = (NestedSet<Object>) arguments.get(argi++);
-          Collection<Object> collection = values.toCollection();
-          mutatedValues = new ArrayList<>(collection.size());
+          // Visits the elements without flattening the set into a new list.
+          mutatedValues = new ArrayList<>(values.memoizedFlattenAndGetSize());
           if (mapFn != null) {
-            Consumer<String> args = mutatedValues::add; // Hoist out of loop to reduce GC
-            for (Object object : collection) {
-              mapFn.expandToCommandLine(object, args);
-            }
+            Consumer<String> args = mutatedValues::add;
+            values.forEach(object -> mapFn.expandToCommandLine(object, args));
           } else {
-            for (Object object : collection) {
-              mutatedValues.add(CommandLineItem.expandToCommandLine(object));
-            }
+            values.forEach(
+                object -> mutatedValues.add(CommandLineItem.expandToCommandLine(object)));
           }
         } else {
           int count = (Integer) arguments.get(argi++);
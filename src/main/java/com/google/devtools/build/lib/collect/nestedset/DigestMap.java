@@ -17,9 +17,11 @@ import com.google.common.base.Preconditions;
 import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.vfs.DigestHashFunction;
 import com.google.devtools.build.lib.vfs.DigestHashFunction.DigestLength;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
 
 /**
  * Map of key -> [digest bytes].
@@ -77,6 +79,23 @@ final class DigestMap {
     return false;
   }
 
+  /**
+   * Passes each key and a copy of its digest to the consumer. Must not be called concurrently with
+   * insertions.
+   */
+  void forEach(BiConsumer<Object, byte[]> consumer) {
+    Table table = this.table;
+    int maximumLength = digestLength.getDigestMaximumLength();
+    for (int i = 0; i < table.tableSize; ++i) {
+      Object key = table.keys.get(i);
+      if (key != null && key != INSERTION_IN_PROGRESS) {
+        int offset = i * maximumLength;
+        int length = digestLength.getDigestLength(table.bytes, offset);
+        consumer.accept(key, Arrays.copyOfRange(table.bytes, offset, offset + length));
+      }
+    }
+  }
+
   private static int findKey(Table table, Object key) {
     int hash = hash(key);
     int index = hash & (table.tableSize - 1);
@@ -0,0 +1,165 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetStore.NestedSetStorageEndpoint;
+import com.google.devtools.build.lib.skyframe.serialization.SerializationConstants;
+import com.google.protobuf.ByteString;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link NestedSetStorageEndpoint} that appends the serialized NestedSet contents to a local
+ * file, so that the heap it uses is bounded by its index rather than by the size of the serialized
+ * graph.
+ *
+ * <p>Each entry is written at the end of the file as its length followed by its bytes, and the
+ * index maps its fingerprint to its offset. Contents are only written once per fingerprint,
+ * however often they are put. The most recently written or read entries are also kept in memory,
+ * up to a given number of bytes, since the nodes of a NestedSet are usually read shortly after
+ * their parents.
+ *
+ * <p>Contents whose write failed are unknown, like contents that were never put: getting them
+ * returns null, whether the write failed before or while waiting for it.
+ *
+ * <p>The file only lives as long as the endpoint: it is truncated when the endpoint is created and
+ * deleted when it is closed.
+ */
+public class FileNestedSetStorageEndpoint implements NestedSetStorageEndpoint, Closeable {
+  private final FileChannel channel;
+  private final AtomicLong end = new AtomicLong();
+  // Offsets are reserved before the contents are written, and set once they are.
+  private final ConcurrentHashMap<ByteString, SettableFuture<Long>> fingerprintToOffset =
+      new ConcurrentHashMap<>();
+  private final Cache<ByteString, byte[]> hotContents;
+
+  /**
+   * Creates an endpoint writing to {@code file}.
+   *
+   * @param file the file to write the contents to, replaced if it exists
+   * @param maxHotBytes the number of bytes of contents to also keep in memory
+   * @throws IOException if the file cannot be created
+   */
+  public FileNestedSetStorageEndpoint(Path file, long maxHotBytes) throws IOException {
+    Preconditions.checkArgument(maxHotBytes >= 0, maxHotBytes);
+    this.channel =
+        FileChannel.open(
+            file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.DELETE_ON_CLOSE);
+    this.hotContents =
+        CacheBuilder.newBuilder()
+            .concurrencyLevel(SerializationConstants.DESERIALIZATION_POOL_SIZE)
+            .maximumWeight(maxHotBytes)
+            .<ByteString, byte[]>weigher((fingerprint, contents) -> contents.length)
+            .build();
+  }
+
+  @Override
+  public ListenableFuture<Void> put(ByteString fingerprint, byte[] serializedBytes)
+      throws IOException {
+    SettableFuture<Long> offsetFuture = SettableFuture.create();
+    if (fingerprintToOffset.putIfAbsent(fingerprint, offsetFuture) != null) {
+      // The contents of a fingerprint are always the same.
+      return Futures.immediateFuture(null);
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + serializedBytes.length);
+    buffer.putInt(serializedBytes.length).put(serializedBytes).flip();
+    // Positional writes to distinct ranges of the file may run concurrently.
+    long offset = end.getAndAdd(buffer.remaining());
+    long position = offset;
+    try {
+      while (buffer.hasRemaining()) {
+        position += channel.write(buffer, position);
+      }
+    } catch (IOException e) {
+      fingerprintToOffset.remove(fingerprint, offsetFuture);
+      offsetFuture.setException(e);
+      throw e;
+    }
+    hotContents.put(fingerprint, serializedBytes);
+    offsetFuture.set(offset);
+    return Futures.immediateFuture(null);
+  }
+
+  @Override
+  public ListenableFuture<byte[]> get(ByteString fingerprint) throws IOException {
+    byte[] contents = hotContents.getIfPresent(fingerprint);
+    if (contents != null) {
+      return Futures.immediateFuture(contents);
+    }
+    SettableFuture<Long> offsetFuture = fingerprintToOffset.get(fingerprint);
+    if (offsetFuture == null) {
+      return Futures.immediateFuture(null);
+    }
+    if (!offsetFuture.isDone()) {
+      // Another thread is writing the contents. If that fails, the fingerprint is removed from the
+      // index first, so looking it up again returns null.
+      return Futures.whenAllComplete(offsetFuture)
+          .callAsync(() -> get(fingerprint), MoreExecutors.directExecutor());
+    }
+    long offset;
+    try {
+      offset = Futures.getDone(offsetFuture);
+    } catch (ExecutionException e) {
+      // Writing failed, which was reported to the caller of put.
+      return Futures.immediateFuture(null);
+    }
+    ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+    readFully(length, offset);
+    contents = new byte[length.getInt(0)];
+    readFully(ByteBuffer.wrap(contents), offset + Integer.BYTES);
+    hotContents.put(fingerprint, contents);
+    return Futures.immediateFuture(contents);
+  }
+
+  private void readFully(ByteBuffer buffer, long offset) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, offset);
+      if (read < 0) {
+        throw new EOFException("Unexpected end of NestedSet storage at " + offset);
+      }
+      offset += read;
+    }
+  }
+
+  /** Returns the number of bytes written to the file. */
+  long getFileSize() {
+    return end.get();
+  }
+
+  /** Closes and deletes the file. */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
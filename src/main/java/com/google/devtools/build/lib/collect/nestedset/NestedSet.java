@@ -34,6 +34,7 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
 
 /**
@@ -259,6 +260,26 @@ public final class NestedSet<E> implements Iterable<E> {
     return getOrder() == Order.LINK_ORDER ? expand().reverse() : expand();
   }
 
+  /**
+   * Returns the number of unique elements of this set (including subsets). The first call on a set
+   * with subsets walks it as {@link #toList} does, without building a list, and the size is kept
+   * with the recorded traversal, so later calls and calls after {@link #toList} run in O(1) time.
+   */
+  public int memoizedFlattenAndGetSize() {
+    if (isSingleton()) {
+      return 1;
+    }
+    if (isEmpty()) {
+      return 0;
+    }
+    // This value is only set in the constructor, so safe to test here with no lock.
+    if (memo == LEAF_MEMO) {
+      return ((Object[]) children).length;
+    }
+    CompactHashSet<E> members = lockedExpand();
+    return members != null ? members.size() : orderAndSize >> 2;
+  }
+
   /**
    * Returns a collection of all unique elements of this set (including subsets) in an
    * implementation-specified order as a {@code Set}.
@@ -354,6 +375,44 @@ public final class NestedSet<E> implements Iterable<E> {
     return toCollection().iterator();
   }
 
+  /**
+   * Performs {@code action} on each unique element of this set (including subsets), in the order
+   * of {@link #toList}.
+   *
+   * <p>Unlike iterating over the set, this does not flatten it into a new list: once the set was
+   * flattened or traversed once, the elements are visited by replaying the recorded traversal, so
+   * prefer this to a for-each loop for sets that are only iterated once per call, such as large
+   * classpaths or header sets. Sets in {@link Order#LINK_ORDER} are still flattened, since their
+   * elements are visited in the reverse order of the traversal.
+   */
+  @Override
+  public void forEach(Consumer<? super E> action) {
+    if (isSingleton()) {
+      action.accept((E) children);
+      return;
+    }
+    if (isEmpty()) {
+      return;
+    }
+    if (getOrder() == Order.LINK_ORDER) {
+      toList().forEach(action);
+      return;
+    }
+    // This value is only set in the constructor, so safe to test here with no lock.
+    if (memo == LEAF_MEMO) {
+      for (Object child : (Object[]) children) {
+        action.accept((E) child);
+      }
+      return;
+    }
+    CompactHashSet<E> members = lockedExpand();
+    if (members != null) {
+      members.forEach(action);
+      return;
+    }
+    replay(action, (Object[]) this.getChildren(), memo, 0);
+  }
+
   /**
    * Implementation of {@link #toList}. Uses one of three strategies based on the value of {@code
    * this.memo}: wrap our direct items in a list, call {@link #lockedExpand} to perform the initial
@@ -370,7 +429,7 @@ public final class NestedSet<E> implements Iterable<E> {
     }
     Object[] children = (Object[]) this.getChildren();
     ImmutableList.Builder<E> output = ImmutableList.builderWithExpectedSize(orderAndSize >> 2);
-    replay(output, children, memo, 0);
+    NestedSet.<E>replay(output::add, children, memo, 0);
     return output.build();
   }
 
@@ -462,16 +521,16 @@ public final class NestedSet<E> implements Iterable<E> {
 
   /**
    * Repeat a previous traversal of {@code children} performed by {@link #walk} and recorded in
-   * {@code memo}, appending leaves to {@code output}.
+   * {@code memo}, passing leaves to {@code output}.
    */
   private static <E> int replay(
-      ImmutableList.Builder<E> output, Object[] children, byte[] memo, int pos) {
+      Consumer<? super E> output, Object[] children, byte[] memo, int pos) {
     for (Object child : children) {
       if ((memo[pos >> 3] & (1 << (pos & 7))) != 0) {
         if (child instanceof Object[]) {
           pos = replay(output, (Object[]) child, memo, pos + 1);
         } else {
-          output.add((E) child);
+          output.accept((E) child);
           ++pos;
         }
       } else {
@@ -16,6 +16,8 @@ package com.google.devtools.build.lib.collect.nestedset;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Multiset;
 import com.google.devtools.build.lib.actions.CommandLineItem;
 import com.google.devtools.build.lib.actions.CommandLineItem.MapFn;
@@ -33,6 +35,14 @@ public class NestedSetFingerprintCache {
   /** Memoize the subresults. We have to have one cache per type of command item map function. */
   private Map<CommandLineItem.MapFn<?>, DigestMap> mapFnToDigestMap = createMap();
 
+  /**
+   * The digests of previous commands, moved here by {@link #clearForNextCommand}. They are weakly
+   * keyed by the arrays of the nested sets, so that the arrays of configured targets that were
+   * analyzed again can be collected.
+   */
+  private final Map<CommandLineItem.MapFn<?>, Map<Object, byte[]>> previousDigests =
+      new ConcurrentHashMap<>();
+
   private final Set<Class<?>> seenMapFns = new HashSet<>();
   private final Multiset<Class<?>> seenParametrizedMapFns = HashMultiset.create();
 
@@ -52,9 +62,10 @@ public class NestedSetFingerprintCache {
       return;
     }
     DigestMap digestMap = mapFnToDigestMap.computeIfAbsent(mapFn, this::newDigestMap);
+    Map<Object, byte[]> previousDigestMap = previousDigests.getOrDefault(mapFn, ImmutableMap.of());
     fingerprint.addInt(nestedSet.getOrder().ordinal());
     Object children = nestedSet.getChildren();
-    addToFingerprint(mapFn, fingerprint, digestMap, children);
+    addToFingerprint(mapFn, fingerprint, digestMap, previousDigestMap, children);
   }
 
   private <T> void addNestedSetToFingerprintSlow(
@@ -66,6 +77,32 @@ public class NestedSetFingerprintCache {
 
   public void clear() {
     mapFnToDigestMap = createMap();
+    previousDigests.clear();
+    seenMapFns.clear();
+    seenParametrizedMapFns.clear();
+  }
+
+  /**
+   * Drops the digests computed with {@link CommandLineItem.ParametrizedMapFn} instances, but keeps
+   * those computed with singleton map functions for the next command. The digests are keyed by the
+   * identity of the immutable arrays of the nested sets, so they stay valid for as long as the
+   * nested sets are reused, for instance by the actions of configured targets that the next command
+   * does not analyze again. Parametrized instances are created by the analysis of each command, and
+   * the number of instances of each class is only limited within a command.
+   *
+   * <p>The kept digests no longer keep their arrays alive, so the cache does not grow with the
+   * nested sets of configured targets that later commands replace.
+   */
+  public void clearForNextCommand() {
+    mapFnToDigestMap.forEach(
+        (mapFn, digestMap) -> {
+          if (!(mapFn instanceof CommandLineItem.ParametrizedMapFn)) {
+            Map<Object, byte[]> previousDigestMap =
+                previousDigests.computeIfAbsent(mapFn, k -> new MapMaker().weakKeys().makeMap());
+            digestMap.forEach(previousDigestMap::putIfAbsent);
+          }
+        });
+    mapFnToDigestMap = createMap();
     seenMapFns.clear();
     seenParametrizedMapFns.clear();
   }
@@ -75,12 +112,18 @@ public class NestedSetFingerprintCache {
       CommandLineItem.MapFn<? super T> mapFn,
       Fingerprint fingerprint,
       DigestMap digestMap,
+      Map<Object, byte[]> previousDigestMap,
       Object children) {
     if (children instanceof Object[]) {
       if (!digestMap.readDigest(children, fingerprint)) {
+        byte[] previousDigest = previousDigestMap.get(children);
+        if (previousDigest != null) {
+          fingerprint.addBytes(previousDigest);
+          return;
+        }
         Fingerprint childrenFingerprint = new Fingerprint();
         for (Object child : (Object[]) children) {
-          addToFingerprint(mapFn, childrenFingerprint, digestMap, child);
+          addToFingerprint(mapFn, childrenFingerprint, digestMap, previousDigestMap, child);
         }
         digestMap.insertAndReadDigest(children, childrenFingerprint, fingerprint);
       }
@@ -120,6 +163,11 @@ public class NestedSetFingerprintCache {
                     + "CommandLineItem.CapturingMapFn for alternatives.",
                 mapFnClass.getName()));
       }
+      // Singletons are not expected to be replaced, but if they are, the digests of the previous
+      // instance must not be used for the new one.
+      previousDigests
+          .keySet()
+          .removeIf(previous -> previous.getClass() == mapFnClass && previous != mapFn);
     }
     // TODO(b/112460990): Use the value from DigestHashFunction.getDefault(), but check for
     // contention.
@@ -24,6 +24,7 @@ import com.google.devtools.common.options.BoolOrEnumConverter;
 import com.google.devtools.common.options.Option;
 import com.google.devtools.common.options.OptionDocumentationCategory;
 import com.google.devtools.common.options.OptionEffectTag;
+import com.google.devtools.common.options.OptionMetadataTag;
 import com.google.devtools.common.options.Options;
 import com.google.devtools.common.options.OptionsBase;
 import com.google.devtools.common.options.OptionsParsingException;
@@ -287,6 +288,19 @@ public class ExecutionOptions extends OptionsBase {
               + "number of file digests to be cached.")
   public long cacheSizeForComputedFileDigests;
 
+  @Option(
+      name = "experimental_persist_computed_file_digests",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      metadataTags = {OptionMetadataTag.EXPERIMENTAL},
+      help =
+          "If true, the cache configured by --cache_computed_file_digests is saved in the output "
+              + "base after each command that added to it, and loaded again by the next server, "
+              + "so that file digests are not recomputed after a server restart. Has no effect "
+              + "if --cache_computed_file_digests is 0.")
+  public boolean persistComputedFileDigests;
+
   @Option(
     name = "experimental_enable_critical_path_profiling",
     defaultValue = "true",
@@ -299,6 +313,19 @@ public class ExecutionOptions extends OptionsBase {
   )
   public boolean enableCriticalPathProfiling;
 
+  @Option(
+      name = "experimental_schedule_critical_path_first",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {OptionEffectTag.EXECUTION},
+      metadataTags = {OptionMetadataTag.EXPERIMENTAL},
+      help =
+          "If true, actions waiting for local resources are started in the order of the length "
+              + "of the critical path through them in previous builds, longest first, instead of "
+              + "in the order in which they asked for resources. The critical path lengths are "
+              + "kept in the output base. Requires --experimental_enable_critical_path_profiling.")
+  public boolean scheduleCriticalPathFirst;
+
   @Option(
       name = "experimental_stats_summary",
       documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
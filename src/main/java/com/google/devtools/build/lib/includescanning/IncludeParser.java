@@ -30,6 +30,7 @@ import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.ArtifactFactory;
 import com.google.devtools.build.lib.actions.ArtifactRoot;
 import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.FileArtifactValue;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.includescanning.IncludeParser.Inclusion.Kind;
@@ -55,6 +56,8 @@ import com.google.devtools.build.skyframe.ValueOrException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -560,13 +563,28 @@ class IncludeParser {
   /** The externally-scoped immutable hints helper that is shared by all scanners. */
   private final Hints hints;
 
+  /** The inclusions of the files scanned by previous builds, or null to always scan files. */
+  @Nullable private final InclusionsByDigestCache inclusionsCache;
+
   /**
    * Constructs a new FileParser.
    *
    * @param hints regexps for converting computed includes into simple strings
    */
   public IncludeParser(Hints hints) {
+    this(hints, /*inclusionsCache=*/ null);
+  }
+
+  /**
+   * Constructs a new FileParser that reuses the inclusions of files with the same digest as a
+   * file scanned before.
+   *
+   * @param hints regexps for converting computed includes into simple strings
+   * @param inclusionsCache the inclusions of scanned files, keyed by digest
+   */
+  public IncludeParser(Hints hints, @Nullable InclusionsByDigestCache inclusionsCache) {
     this.hints = hints;
+    this.inclusionsCache = inclusionsCache;
   }
 
   /**
@@ -827,6 +845,105 @@ class IncludeParser {
     return inclusions;
   }
 
+  private static final long ONES = 0x0101010101010101L;
+  private static final long HIGH_BITS = 0x8080808080808080L;
+  private static final long NEWLINES = ONES * '\n';
+  private static final long BACKSLASHES = ONES * '\\';
+
+  /**
+   * Extracts all inclusions from the Latin-1 bytes of a file, which may be mapped or on the heap.
+   * Gives the same result as {@link #extractInclusions(char[])} on the decoded characters, but only
+   * decodes the few lines that may hold a directive and skips the others eight bytes at a time.
+   *
+   * @param bytes the file contents to parse & extract inclusions from, from position 0 to the limit
+   * @return a new set of inclusions, normalized to the cache
+   */
+  List<Inclusion> extractInclusions(ByteBuffer bytes) {
+    bytes = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    List<Inclusion> inclusions = new ArrayList<>();
+    byte directiveStart = (byte) getDirectiveStart();
+    char[] line = new char[256];
+    int lineBegin = 0; // the first byte of each line
+    int end = bytes.limit(); // the file end
+    while (lineBegin < end) {
+      boolean mayBeDirective = mayStartWithDirective(bytes, lineBegin, end, directiveStart);
+      // Skip to the next \n or after end of buffer, ignoring continuations.
+      int lineEnd = lineBegin; // the byte after the last non-\n in each line
+      while ((lineEnd = indexOfNewlineOrBackslash(bytes, lineEnd, end)) < end
+          && bytes.get(lineEnd) == '\\') {
+        lineEnd++;
+        if (lineEnd < end && bytes.get(lineEnd) == '\n') {
+          lineEnd++;
+        }
+      }
+      if (mayBeDirective) {
+        int length = lineEnd - lineBegin;
+        if (line.length < length) {
+          line = new char[Math.max(length, 2 * line.length)];
+        }
+        for (int i = 0; i < length; i++) {
+          line[i] = (char) (bytes.get(lineBegin + i) & 0xff);
+        }
+        Inclusion inclusion = extractInclusion(line, 0, length);
+        if (inclusion != null && isValidInclusionKind(inclusion.kind)) {
+          inclusions.add(inclusion);
+        }
+      }
+      lineBegin = lineEnd + 1; // next line starts after the previous line
+    }
+    return inclusions;
+  }
+
+  /**
+   * Returns false if the line starting at {@code pos} cannot hold a directive, that is if its first
+   * character other than whitespace is neither the start of directives nor the start of something
+   * that {@link #skipWhitespace} would skip.
+   */
+  private static boolean mayStartWithDirective(
+      ByteBuffer bytes, int pos, int end, byte directiveStart) {
+    byte b;
+    do {
+      if (pos == end) {
+        return false;
+      }
+      b = bytes.get(pos++);
+    } while (b == ' ' || b == '\t');
+    if (b == directiveStart || b == '\\') {
+      return true;
+    } else if (b == '/') {
+      return pos < end && bytes.get(pos) == '*';
+    } else {
+      return b != '\n' && Character.isWhitespace((char) (b & 0xff));
+    }
+  }
+
+  /**
+   * Returns the position of the first \n or backslash at or after {@code pos}, or {@code end} if
+   * there is none. Compares eight bytes at a time, using the usual bit trick to find zero bytes in
+   * their XOR with the searched bytes.
+   */
+  private static int indexOfNewlineOrBackslash(ByteBuffer bytes, int pos, int end) {
+    for (; pos + Long.BYTES <= end; pos += Long.BYTES) {
+      long word = bytes.getLong(pos);
+      long newlines = word ^ NEWLINES;
+      long backslashes = word ^ BACKSLASHES;
+      long found =
+          ((newlines - ONES) & ~newlines | (backslashes - ONES) & ~backslashes) & HIGH_BITS;
+      if (found != 0) {
+        // The lowest bit set is that of the first match: the bytes below it cannot be borrowed
+        // from, so they cannot give false positives.
+        return pos + (Long.numberOfTrailingZeros(found) >>> 3);
+      }
+    }
+    for (; pos < end; pos++) {
+      byte b = bytes.get(pos);
+      if (b == '\n' || b == '\\') {
+        return pos;
+      }
+    }
+    return end;
+  }
+
   /**
    * Extracts all inclusions from a given source file.
    *
@@ -843,8 +960,51 @@ class IncludeParser {
       @Nullable SpawnIncludeScanner remoteIncludeScanner,
       boolean isOutputFile)
       throws IOException, ExecException, InterruptedException {
-    Collection<Inclusion> inclusions;
+    byte[] digest = inclusionsCache != null ? getDigest(file, actionExecutionContext) : null;
+    Collection<Inclusion> inclusions =
+        digest != null ? inclusionsCache.get(getFileType(), digest) : null;
+    if (inclusions != null) {
+      inclusions = new ArrayList<>(inclusions);
+    } else {
+      inclusions =
+          extractInclusionsUncached(
+              file,
+              actionExecutionMetadata,
+              actionExecutionContext,
+              grepIncludes,
+              remoteIncludeScanner,
+              isOutputFile);
+      if (digest != null) {
+        inclusionsCache.put(getFileType(), digest, inclusions);
+      }
+    }
+    if (hints != null) {
+      inclusions.addAll(hints.getHintedInclusions(file));
+    }
+    return ImmutableList.copyOf(inclusions);
+  }
+
+  /** Returns the digest of {@code file}, or null if it is not known. */
+  @Nullable
+  private static byte[] getDigest(Artifact file, ActionExecutionContext actionExecutionContext) {
+    try {
+      FileArtifactValue metadata = actionExecutionContext.getMetadataProvider().getMetadata(file);
+      return metadata != null ? metadata.getDigest() : null;
+    } catch (IOException e) {
+      // The file is scanned without the cache, which reports the error if it cannot be read.
+      return null;
+    }
+  }
 
+  private Collection<Inclusion> extractInclusionsUncached(
+      Artifact file,
+      ActionExecutionMetadata actionExecutionMetadata,
+      ActionExecutionContext actionExecutionContext,
+      Artifact grepIncludes,
+      @Nullable SpawnIncludeScanner remoteIncludeScanner,
+      boolean isOutputFile)
+      throws IOException, ExecException, InterruptedException {
+    Collection<Inclusion> inclusions;
     if (remoteIncludeScanner != null
         && remoteIncludeScanner.shouldParseRemotely(file, actionExecutionContext)) {
       inclusions =
@@ -860,7 +1020,8 @@ class IncludeParser {
           Profiler.instance().profile(ProfilerTask.SCANNER, file.getExecPathString())) {
         inclusions =
             extractInclusions(
-                FileSystemUtils.readContentAsLatin1(actionExecutionContext.getInputPath(file)));
+                ByteBuffer.wrap(
+                    FileSystemUtils.readContent(actionExecutionContext.getInputPath(file))));
       } catch (IOException e) {
         if (remoteIncludeScanner != null) {
           logger.log(
@@ -880,10 +1041,7 @@ class IncludeParser {
         }
       }
     }
-    if (hints != null) {
-      inclusions.addAll(hints.getHintedInclusions(file));
-    }
-    return ImmutableList.copyOf(inclusions);
+    return inclusions;
   }
 
   /**
@@ -896,6 +1054,16 @@ class IncludeParser {
     return GrepIncludesFileType.CPP;
   }
 
+  /**
+   * Returns the first character of the directives of the scanned files. Lines whose first character
+   * other than whitespace and comments is another one are skipped by {@link
+   * #extractInclusions(ByteBuffer)} without calling {@link #expectIncludeKeyword}, so subclasses
+   * overriding that method must override this one accordingly.
+   */
+  protected char getDirectiveStart() {
+    return '#';
+  }
+
   /**
    * Position of found include together with information about how to process the remaining include
    * line further.
@@ -111,13 +111,14 @@ public class IncludeScannerSupplierImpl implements IncludeScannerSupplier {
       ExecutorService includePool,
       ArtifactFactory artifactFactory,
       Supplier<SpawnIncludeScanner> spawnIncludeScannerSupplier,
-      Path execRoot) {
+      Path execRoot,
+      PathExistenceCache pathCache) {
     this.directories = directories;
     this.includePool = includePool;
     this.artifactFactory = artifactFactory;
     this.spawnIncludeScannerSupplier = spawnIncludeScannerSupplier;
     this.execRoot = execRoot;
-    this.pathCache = new PathExistenceCache(execRoot, artifactFactory);
+    this.pathCache = pathCache;
   }
 
   @Override
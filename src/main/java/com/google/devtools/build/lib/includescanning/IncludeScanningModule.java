@@ -18,6 +18,8 @@ import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.devtools.build.lib.actions.Action;
 import com.google.devtools.build.lib.actions.ActionContext;
@@ -48,8 +50,12 @@ import com.google.devtools.build.lib.runtime.BlazeRuntime;
 import com.google.devtools.build.lib.runtime.Command;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.runtime.WorkspaceBuilder;
+import com.google.devtools.build.lib.skyframe.ModifiedSourceFilesEvent;
 import com.google.devtools.build.lib.skyframe.MutableSupplier;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
 import com.google.devtools.build.skyframe.SkyFunction;
 import com.google.devtools.build.skyframe.SkyFunctionName;
 import com.google.devtools.common.options.OptionsBase;
@@ -59,7 +65,9 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Nullable;
 
 /**
  * Module that provides implementations of {@link CppIncludeExtractionContext},
@@ -71,9 +79,37 @@ public class IncludeScanningModule extends BlazeModule {
   private static final PathFragment INCLUDE_HINTS_FILENAME =
       PathFragment.create("tools/cpp/INCLUDE_HINTS");
 
+  /**
+   * Name of the file in the output base holding the inclusions of scanned files. Being keyed by
+   * digest, they do not need to be removed by {@code clean}.
+   */
+  private static final String INCLUSIONS_CACHE_FILE_NAME = "include_scanning_inclusions_v1.blaze";
+
   private final MutableSupplier<SpawnIncludeScanner> spawnIncludeScannerSupplier =
       new MutableSupplier<>();
   private final MutableSupplier<ArtifactFactory> artifactFactory = new MutableSupplier<>();
+  private final InclusionsByDigestCache inclusionsCache = new InclusionsByDigestCache();
+
+  /** File to save the inclusions cache to when a command completes, or null if not persisted. */
+  private Path inclusionsCacheFile;
+
+  /** Identifies the binary in {@link #inclusionsCacheFile}, whose inclusions depend on it. */
+  private String installMD5;
+
+  private DigestHashFunction digestFunction;
+  private boolean inclusionsCacheLoaded;
+
+  /**
+   * The existence of the files looked up by the previous build, kept as long as diff awareness
+   * reports the source files modified since, or null.
+   */
+  private PathExistenceCache pathExistenceCache;
+
+  /** The package path entries of {@link #pathExistenceCache}. */
+  private ImmutableList<Root> pathExistenceCachePathEntries;
+
+  /** Whether {@link #pathExistenceCache} was brought up to date by the current command. */
+  private boolean pathExistenceCacheUpToDate;
 
   protected PathFragment getIncludeHintsFilename() {
     return INCLUDE_HINTS_FILENAME;
@@ -82,8 +118,21 @@ public class IncludeScanningModule extends BlazeModule {
   @Override
   @ThreadHostile
   public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
+    IncludeScanningOptions options = request.getOptions(IncludeScanningOptions.class);
+    // Persisted inclusions are only of use if they are looked up by digest.
+    boolean cacheInclusions =
+        options.cacheInclusionsByDigest || options.persistIncludeScanningResults;
+    if (!cacheInclusions) {
+      inclusionsCache.clear();
+      inclusionsCacheLoaded = false;
+    }
     builder.addActionContextProvider(
-        new IncludeScanningActionContextProvider(env, request, spawnIncludeScannerSupplier));
+        new IncludeScanningActionContextProvider(
+            env,
+            request,
+            spawnIncludeScannerSupplier,
+            cacheInclusions ? inclusionsCache : null,
+            getPathExistenceCache(env)));
     builder
         .addStrategyByContext(CppIncludeExtractionContext.class, "")
         .addStrategyByContext(SwigIncludeScanningContext.class, "")
@@ -100,12 +149,91 @@ public class IncludeScanningModule extends BlazeModule {
   @Override
   public void beforeCommand(CommandEnvironment env) {
     artifactFactory.set(env.getSkyframeBuildView().getArtifactFactory());
+    pathExistenceCacheUpToDate = false;
+    env.getEventBus().register(this);
+
+    IncludeScanningOptions options = env.getOptions().getOptions(IncludeScanningOptions.class);
+    boolean keepPathExistence = options != null && options.persistIncludeScanningResults;
+    env.getSkyframeExecutor().setPostModifiedSourceFiles(keepPathExistence);
+    if (!keepPathExistence) {
+      // Without the modified files of this command, the cache cannot be brought up to date later.
+      pathExistenceCache = null;
+    }
+    HashCode installMD5 = env.getDirectories().getInstallMD5();
+    // The inclusions are only saved if the binary that parsed them can be told apart.
+    if (options != null && options.persistIncludeScanningResults && installMD5 != null) {
+      inclusionsCacheFile = env.getOutputBase().getChild(INCLUSIONS_CACHE_FILE_NAME);
+      this.installMD5 = installMD5.toString();
+      digestFunction = env.getRuntime().getFileSystem().getDigestFunction();
+      // Once loaded, the cache in memory is at least as recent as what was saved.
+      if (!inclusionsCacheLoaded) {
+        loadInclusions(inclusionsCacheFile);
+        inclusionsCacheLoaded = true;
+      }
+    } else {
+      inclusionsCacheFile = null;
+    }
   }
 
   @Override
   public void afterCommand() {
     spawnIncludeScannerSupplier.set(null);
     artifactFactory.set(null);
+    if (inclusionsCacheFile != null && inclusionsCache.isModified()) {
+      saveInclusions(inclusionsCacheFile);
+    }
+    inclusionsCacheFile = null;
+  }
+
+  private void loadInclusions(Path file) {
+    try {
+      int count = inclusionsCache.load(file, installMD5, digestFunction);
+      log.info("Loaded the inclusions of " + count + " files from " + file);
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed to load inclusions from " + file, e);
+      try {
+        file.delete();
+      } catch (IOException e2) {
+        log.log(Level.WARNING, "Failed to delete " + file, e2);
+      }
+    }
+  }
+
+  private void saveInclusions(Path file) {
+    try {
+      file.getParentDirectory().createDirectoryAndParents();
+      int count = inclusionsCache.save(file, installMD5, digestFunction);
+      log.info("Saved the inclusions of " + count + " files to " + file);
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed to save inclusions to " + file, e);
+    }
+  }
+
+  /**
+   * Drops the entries of the modified files from the existence cache of the previous build, or the
+   * whole cache if diff awareness does not know which files were modified.
+   */
+  @Subscribe
+  public void sourceFilesModified(ModifiedSourceFilesEvent event) {
+    if (pathExistenceCache != null
+        && !event.isEverythingModified()
+        && event.getPathEntries().equals(pathExistenceCachePathEntries)) {
+      pathExistenceCache.invalidate(event.getModifiedSourceFiles());
+      pathExistenceCacheUpToDate = true;
+    } else {
+      pathExistenceCache = null;
+    }
+    pathExistenceCachePathEntries = event.getPathEntries();
+  }
+
+  private PathExistenceCache getPathExistenceCache(CommandEnvironment env) {
+    ArtifactFactory artifactFactory = env.getSkyframeBuildView().getArtifactFactory();
+    if (pathExistenceCache == null
+        || !pathExistenceCacheUpToDate
+        || !pathExistenceCache.isFor(env.getExecRoot(), artifactFactory)) {
+      pathExistenceCache = new PathExistenceCache(env.getExecRoot(), artifactFactory);
+    }
+    return pathExistenceCache;
   }
 
   @Override
@@ -226,15 +354,21 @@ public class IncludeScanningModule extends BlazeModule {
     private final BuildRequest buildRequest;
 
     private final Supplier<SpawnIncludeScanner> spawnScannerSupplier;
+    @Nullable private final InclusionsByDigestCache inclusionsCache;
+    private final PathExistenceCache pathExistenceCache;
     private IncludeScannerSupplierImpl includeScannerSupplier;
     private ExecutorService includePool;
 
     public IncludeScanningActionContextProvider(
         CommandEnvironment env,
         BuildRequest buildRequest,
-        MutableSupplier<SpawnIncludeScanner> spawnScannerSupplier) {
+        MutableSupplier<SpawnIncludeScanner> spawnScannerSupplier,
+        @Nullable InclusionsByDigestCache inclusionsCache,
+        PathExistenceCache pathExistenceCache) {
       this.env = env;
       this.buildRequest = buildRequest;
+      this.inclusionsCache = inclusionsCache;
+      this.pathExistenceCache = pathExistenceCache;
 
       IncludeScanningOptions options = buildRequest.getOptions(IncludeScanningOptions.class);
       spawnScannerSupplier.set(
@@ -269,7 +403,8 @@ public class IncludeScanningModule extends BlazeModule {
                         env.getSkyframeExecutor()
                             .evaluateSkyKeyForExecutionSetup(
                                 env.getReporter(), IncludeHintsFunction.INCLUDE_HINTS_KEY),
-                    env.getSkyframeBuildView().getArtifactFactory())));
+                    env.getSkyframeBuildView().getArtifactFactory()),
+                inclusionsCache));
       } catch (ExecException e) {
         throw new ExecutorInitException("could not initialize include hints", e);
       }
@@ -293,7 +428,8 @@ public class IncludeScanningModule extends BlazeModule {
               includePool,
               env.getSkyframeBuildView().getArtifactFactory(),
               spawnScannerSupplier,
-              env.getExecRoot());
+              env.getExecRoot(),
+              pathExistenceCache);
 
       spawnScannerSupplier.get().setOutputService(env.getOutputService());
       spawnScannerSupplier.get().setInMemoryOutput(
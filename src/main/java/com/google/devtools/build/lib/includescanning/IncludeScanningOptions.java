@@ -106,4 +106,38 @@ public class IncludeScanningOptions extends OptionsBase {
               + " profile (e.g. the number of processors)."
   )
   public int includeScanningParallelism;
+
+  @Option(
+      name = "experimental_cache_inclusions_by_digest",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {
+          OptionEffectTag.BAZEL_INTERNAL_CONFIGURATION,
+          OptionEffectTag.EXECUTION,
+          OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS
+      },
+      defaultValue = "false",
+      help =
+          "If enabled, the server keeps the '#include' lines found in the scanned files by the "
+              + "digest of their contents, so that the files that did not change are not scanned "
+              + "again by later builds."
+  )
+  public boolean cacheInclusionsByDigest;
+
+  @Option(
+      name = "experimental_persist_include_scanning_results",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {
+          OptionEffectTag.BAZEL_INTERNAL_CONFIGURATION,
+          OptionEffectTag.EXECUTION,
+          OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS
+      },
+      defaultValue = "false",
+      help =
+          "If enabled, the '#include' lines found in the scanned files are kept by digest, so "
+              + "that the files that did not change are not scanned again. They are saved in the "
+              + "output base after each build that scanned new files, and loaded again by the next "
+              + "server of the same Bazel binary. The existence of the files looked up by include "
+              + "scanning is also kept across builds, except for the files reported as modified."
+  )
+  public boolean persistIncludeScanningResults;
 }
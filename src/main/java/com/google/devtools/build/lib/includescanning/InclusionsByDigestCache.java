@@ -0,0 +1,203 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.includescanning;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.includescanning.IncludeParser.GrepIncludesFileType;
+import com.google.devtools.build.lib.includescanning.IncludeParser.Inclusion;
+import com.google.devtools.build.lib.includescanning.IncludeParser.Inclusion.Kind;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.protobuf.ByteString;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * Cache of the inclusions extracted by {@link IncludeParser}, keyed by the digest of the scanned
+ * files. Unlike the per-build caches of {@link LegacyIncludeScanner}, which are keyed by artifact,
+ * it lives as long as the server, so that the files that did not change since a previous build are
+ * not scanned again, and files with the same content under different paths are scanned once.
+ *
+ * <p>The cache can be written to disk with {@link #save} and read back by another server with
+ * {@link #load}. Only the inclusions of each file are kept: the files they resolve to depend on
+ * the include paths of each action and are looked up again when the includes are visited. As the
+ * inclusions depend on the parser, a file is only loaded back by the binary that saved it.
+ */
+@ThreadSafe
+final class InclusionsByDigestCache {
+  /** Bounds the memory kept for the files that changed or are no longer built. */
+  private static final int MAX_ENTRIES = 200_000;
+
+  /** Magic number at the start of a file written by {@link #save}. */
+  private static final int FILE_MAGIC = 0x494e434c;
+
+  /** Version of the format written by {@link #save}. Bump when changing the format. */
+  private static final int FILE_VERSION = 1;
+
+  private final Cache<Key, ImmutableList<Inclusion>> cache =
+      CacheBuilder.newBuilder().maximumSize(MAX_ENTRIES).build();
+
+  /** Whether entries were added since the cache was last saved. */
+  private volatile boolean modified;
+
+  /** Returns the inclusions of the files of the given type and digest, or null if unknown. */
+  @Nullable
+  ImmutableList<Inclusion> get(GrepIncludesFileType fileType, byte[] digest) {
+    return cache.getIfPresent(new Key(fileType, digest));
+  }
+
+  /** Records the inclusions, without hints, of a file of the given type and digest. */
+  void put(GrepIncludesFileType fileType, byte[] digest, Collection<Inclusion> inclusions) {
+    cache.put(new Key(fileType, digest), ImmutableList.copyOf(inclusions));
+    modified = true;
+  }
+
+  /** Returns true if entries were added since the cache was created or last saved. */
+  boolean isModified() {
+    return modified;
+  }
+
+  /**
+   * Writes the entries of the cache to {@code file}, replacing it atomically.
+   *
+   * @param file the file to write
+   * @param binaryVersion identifies the binary that parsed the files, such as its install MD5
+   * @param digestFunction the hash function the digests of the files were computed with
+   * @return the number of entries written
+   * @throws IOException if writing the file fails
+   */
+  int save(Path file, String binaryVersion, DigestHashFunction digestFunction)
+      throws IOException {
+    // Entries added while saving are saved next time.
+    modified = false;
+    ImmutableMap<Key, ImmutableList<Inclusion>> entries = ImmutableMap.copyOf(cache.asMap());
+    Path tempFile = file.getParentDirectory().getChild(file.getBaseName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(tempFile.getOutputStream()))) {
+      out.writeInt(FILE_MAGIC);
+      out.writeInt(FILE_VERSION);
+      out.writeUTF(binaryVersion);
+      out.writeUTF(digestFunction.getNames().get(0));
+      out.writeInt(entries.size());
+      for (Map.Entry<Key, ImmutableList<Inclusion>> entry : entries.entrySet()) {
+        out.writeByte(entry.getKey().fileType.ordinal());
+        out.writeShort(entry.getKey().digest.size());
+        entry.getKey().digest.writeTo(out);
+        out.writeInt(entry.getValue().size());
+        for (Inclusion inclusion : entry.getValue()) {
+          out.writeByte(inclusion.kind.ordinal());
+          out.writeUTF(inclusion.getPathString());
+        }
+      }
+    } catch (IOException e) {
+      modified = true;
+      throw e;
+    }
+    tempFile.renameTo(file);
+    return entries.size();
+  }
+
+  /**
+   * Adds the entries written by {@link #save} to the cache. Nothing is added if {@code file} does
+   * not exist or was written by a different binary or for a different hash function. The
+   * inclusions that many files have in common are shared.
+   *
+   * @param file the file to read
+   * @param binaryVersion identifies the current binary, as passed to {@link #save}
+   * @param digestFunction the hash function currently used to compute digests
+   * @return the number of entries read
+   * @throws IOException if reading the file fails or the file is malformed
+   */
+  int load(Path file, String binaryVersion, DigestHashFunction digestFunction)
+      throws IOException {
+    if (!file.exists()) {
+      return 0;
+    }
+    GrepIncludesFileType[] fileTypes = GrepIncludesFileType.values();
+    Kind[] kinds = Kind.values();
+    Map<Inclusion, Inclusion> interned = new HashMap<>();
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(file.getInputStream()))) {
+      if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+        throw new IOException("Unexpected header");
+      }
+      if (!binaryVersion.equals(in.readUTF())
+          || !digestFunction.getNames().get(0).equals(in.readUTF())) {
+        return 0;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        GrepIncludesFileType fileType = fileTypes[in.readUnsignedByte()];
+        byte[] digest = new byte[in.readUnsignedShort()];
+        in.readFully(digest);
+        int size = in.readInt();
+        ImmutableList.Builder<Inclusion> inclusions = ImmutableList.builderWithExpectedSize(size);
+        for (int j = 0; j < size; j++) {
+          Kind kind = kinds[in.readUnsignedByte()];
+          Inclusion inclusion = new Inclusion(in.readUTF(), kind);
+          inclusions.add(interned.computeIfAbsent(inclusion, k -> k));
+        }
+        cache.put(new Key(fileType, digest), inclusions.build());
+      }
+      return count;
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IOException("Malformed file " + file, e);
+    }
+  }
+
+  /** Drops all the entries, when the cache is disabled. */
+  void clear() {
+    cache.invalidateAll();
+  }
+
+  /** The same content gives different inclusions when parsed as C++ or as SWIG. */
+  private static final class Key {
+    private final GrepIncludesFileType fileType;
+    private final ByteString digest;
+
+    private Key(GrepIncludesFileType fileType, byte[] digest) {
+      this.fileType = fileType;
+      this.digest = ByteString.copyFrom(digest);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(fileType, digest);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) obj;
+      return this.fileType == that.fileType && this.digest.equals(that.digest);
+    }
+  }
+}
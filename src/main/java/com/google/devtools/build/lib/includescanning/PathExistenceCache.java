@@ -14,16 +14,22 @@
 package com.google.devtools.build.lib.includescanning;
 
 import com.google.devtools.build.lib.actions.ArtifactFactory;
+import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 /**
  * Cache to store file existence status for include paths. Only paths that are considered immutable
  * for the duration of the build (any path outside of blaze-out directory will satisfy that
  * criteria) are cached. This information is used by LegacyIncludeScanner class.
+ *
+ * <p>The cache may be kept for the next build if it is told which source files were modified in
+ * between, see {@link #invalidate}.
  */
 @ThreadSafe
 class PathExistenceCache {
@@ -38,6 +44,42 @@ class PathExistenceCache {
     this.artifactFactory = artifactFactory;
   }
 
+  /** Returns true if this cache resolves exec paths like a new one for the given arguments. */
+  boolean isFor(Path execRoot, ArtifactFactory artifactFactory) {
+    return this.execRoot.equals(execRoot) && this.artifactFactory == artifactFactory;
+  }
+
+  /**
+   * Drops the entries that may have changed since the cache was filled, given the paths relative to
+   * the package path entries of the modified source files and directories. These are the entries
+   * of the modified paths, of the paths under them and of their ancestors, as well as the entries
+   * of the paths outside of the package path entries, which are not covered by the modified paths:
+   * the absolute paths and those of external repositories.
+   */
+  void invalidate(Set<PathFragment> modifiedPaths) {
+    Predicate<PathFragment> mayHaveChanged =
+        execPath -> {
+          if (execPath.isAbsolute() || execPath.startsWith(Label.EXTERNAL_PATH_PREFIX)) {
+            return true;
+          }
+          for (PathFragment path = execPath; path != null; path = path.getParentDirectory()) {
+            if (modifiedPaths.contains(path)) {
+              return true;
+            }
+          }
+          return false;
+        };
+    fileExistenceCache.keySet().removeIf(mayHaveChanged);
+    directoryExistenceCache.keySet().removeIf(mayHaveChanged);
+    for (PathFragment modifiedPath : modifiedPaths) {
+      for (PathFragment dir = modifiedPath.getParentDirectory();
+          dir != null;
+          dir = dir.getParentDirectory()) {
+        directoryExistenceCache.remove(dir);
+      }
+    }
+  }
+
   /** Returns true if given path exists and is a file, false otherwise. */
   boolean fileExists(PathFragment execPath, boolean isSource) {
     Boolean exists = fileExistenceCache.get(execPath);
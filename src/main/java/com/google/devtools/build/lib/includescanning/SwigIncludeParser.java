@@ -49,6 +49,11 @@ class SwigIncludeParser extends IncludeParser {
     return GrepIncludesFileType.SWIG;
   }
 
+  @Override
+  protected char getDirectiveStart() {
+    return '%';
+  }
+
   @Override
   protected IncludesKeywordData expectIncludeKeyword(char[] chars, int pos, int end) {
     int start = skipWhitespace(chars, pos, end);
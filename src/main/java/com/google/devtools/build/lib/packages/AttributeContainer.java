@@ -34,8 +34,8 @@ public class AttributeContainer {
 
   private final RuleClass ruleClass;
 
-  // Attribute values, keyed by attribute index:
-  private final Object[] attributeValues;
+  // Attribute values, keyed by attribute index, or null if a subclass stores them:
+  @Nullable private final Object[] attributeValues;
 
   // Holds two lists of attribute indices.
   // The first byte gives the length of the first list.
@@ -58,6 +58,16 @@ public class AttributeContainer {
   }
 
   AttributeContainer(RuleClass ruleClass, Location[] locations) {
+    this(ruleClass, locations, new Object[ruleClass.getAttributeCount()]);
+  }
+
+  /**
+   * Create a container whose attribute values are stored in {@code attributeValues}, or by the
+   * subclass if it is null, in which case the subclass must override {@link #getAttributeValue}
+   * and {@link #putAttributeValue}.
+   */
+  AttributeContainer(
+      RuleClass ruleClass, Location[] locations, @Nullable Object[] attributeValues) {
     int n = ruleClass.getAttributeCount();
     if (n > 254) {
       // We reserve the zero byte as a hole/sentinel inside state[].
@@ -65,7 +75,7 @@ public class AttributeContainer {
       throw new AssertionError("can't pack " + n + " rule indices into bytes");
     }
     this.ruleClass = ruleClass;
-    this.attributeValues = new Object[n];
+    this.attributeValues = attributeValues;
     this.state = EMPTY_STATE;
     this.attributeLocations = locations;
   }
@@ -79,7 +89,7 @@ public class AttributeContainer {
   @Nullable
   public Object getAttr(String attrName) {
     Integer idx = ruleClass.getAttributeIndex(attrName);
-    return idx != null ? attributeValues[idx] : null;
+    return idx != null ? getAttributeValue(idx) : null;
   }
 
   /**
@@ -184,13 +194,18 @@ public class AttributeContainer {
     return attributeValues[index];
   }
 
+  /** Stores the value of the attribute with the given index. */
+  void putAttributeValue(int index, Object value) {
+    attributeValues[index] = value;
+  }
+
   void setAttributeValue(Attribute attribute, Object value, boolean explicit) {
     String name = attribute.getName();
     Integer index = ruleClass.getAttributeIndex(name);
     if (!explicit && getExplicit(index)) {
       throw new IllegalArgumentException("attribute " + name + " already explicitly set");
     }
-    attributeValues[index] = value;
+    putAttributeValue(index, value);
     if (explicit) {
       setExplicit(index);
     }
@@ -35,6 +35,8 @@ import com.google.devtools.build.lib.events.StoredEventHandler;
 import com.google.devtools.build.lib.packages.Globber.BadGlobException;
 import com.google.devtools.build.lib.packages.License.DistributionType;
 import com.google.devtools.build.lib.packages.RuleFactory.BuildLangTypedAttributeValuesMap;
+import com.google.devtools.build.lib.skyframe.serialization.DeserializationContext;
+import com.google.devtools.build.lib.skyframe.serialization.SerializationException;
 import com.google.devtools.build.lib.skylarkinterface.Param;
 import com.google.devtools.build.lib.skylarkinterface.SkylarkSignature;
 import com.google.devtools.build.lib.skylarkinterface.SkylarkValue;
@@ -65,6 +67,7 @@ import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.RootedPath;
 import com.google.devtools.build.lib.vfs.UnixGlob;
+import com.google.protobuf.CodedInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -339,6 +342,8 @@ public final class PackageFactory {
 
   private final Package.Builder.Helper packageBuilderHelper;
 
+  private final PackageSerializer packageSerializer;
+
   /** Builder for {@link PackageFactory} instances. Intended to only be used by unit tests. */
   @VisibleForTesting
   public abstract static class BuilderForTesting {
@@ -400,6 +405,7 @@ public final class PackageFactory {
     this.nativeModule = newNativeModule();
     this.workspaceNativeModule = WorkspaceFactory.newNativeModule(ruleClassProvider, version);
     this.packageBuilderHelper = packageBuilderHelper;
+    this.packageSerializer = new PackageSerializer(attributeContainerFactory);
   }
 
  /**
@@ -1372,8 +1378,7 @@ public final class PackageFactory {
     Globber globber =
         createLegacyGlobber(buildFile.asPath().getParentDirectory(), packageId, locator);
     ParserInputSource input =
-        ParserInputSource.create(
-            FileSystemUtils.convertFromLatin1(buildFileBytes), buildFile.asPath().asFragment());
+        ParserInputSource.create(buildFileBytes, buildFile.asPath().asFragment());
 
     Package result =
         createPackage(
@@ -1614,8 +1619,14 @@ public final class PackageFactory {
       ImmutableList<Label> skylarkFileDependencies,
       ImmutableMap<RepositoryName, RepositoryName> repositoryMapping)
       throws InterruptedException {
-    Package.Builder pkgBuilder = new Package.Builder(packageBuilderHelper.createFreshPackage(
-        packageId, ruleClassProvider.getRunfilesPrefix()));
+    Package.Builder pkgBuilder =
+        newPackageBuilder(
+            workspaceName,
+            packageId,
+            buildFilePath,
+            defaultVisibility,
+            skylarkFileDependencies,
+            repositoryMapping);
     StoredEventHandler eventHandler = new StoredEventHandler();
 
     try (Mutability mutability = Mutability.create("package %s", packageId)) {
@@ -1629,15 +1640,6 @@ public final class PackageFactory {
       SkylarkUtils.setPhase(pkgEnv, Phase.LOADING);
       SkylarkUtils.setToolsRepository(pkgEnv, ruleClassProvider.getToolsRepository());
 
-      pkgBuilder.setFilename(buildFilePath)
-          .setDefaultVisibility(defaultVisibility)
-          // "defaultVisibility" comes from the command line. Let's give the BUILD file a chance to
-          // set default_visibility once, be reseting the PackageBuilder.defaultVisibilitySet flag.
-          .setDefaultVisibilitySet(false)
-          .setSkylarkFileDependencies(skylarkFileDependencies)
-          .setWorkspaceName(workspaceName)
-          .setRepositoryMapping(repositoryMapping);
-
       Event.replayEventsOn(eventHandler, pastEvents);
       for (Postable post : pastPosts) {
         eventHandler.post(post);
@@ -1671,6 +1673,59 @@ public final class PackageFactory {
     return pkgBuilder;
   }
 
+  private Package.Builder newPackageBuilder(
+      String workspaceName,
+      PackageIdentifier packageId,
+      RootedPath buildFilePath,
+      RuleVisibility defaultVisibility,
+      ImmutableList<Label> skylarkFileDependencies,
+      ImmutableMap<RepositoryName, RepositoryName> repositoryMapping) {
+    Package.Builder pkgBuilder = new Package.Builder(packageBuilderHelper.createFreshPackage(
+        packageId, ruleClassProvider.getRunfilesPrefix()));
+    return pkgBuilder.setFilename(buildFilePath)
+        .setDefaultVisibility(defaultVisibility)
+        // "defaultVisibility" comes from the command line. Let's give the BUILD file a chance to
+        // set default_visibility once, be reseting the PackageBuilder.defaultVisibilitySet flag.
+        .setDefaultVisibilitySet(false)
+        .setSkylarkFileDependencies(skylarkFileDependencies)
+        .setWorkspaceName(workspaceName)
+        .setRepositoryMapping(repositoryMapping);
+  }
+
+  /** Returns the serializer of the packages created by this factory. */
+  public PackageSerializer getPackageSerializer() {
+    return packageSerializer;
+  }
+
+  /**
+   * Creates a package serialized by {@link #getPackageSerializer} again, without evaluating its
+   * BUILD file. The arguments are those {@link #createPackageFromAst} was called with to create the
+   * package. The context must have a {@link PackageSerializer.RuleClassResolver} dependency.
+   *
+   * @throws SerializationException if the package cannot be created again
+   */
+  public Package.Builder deserializePackage(
+      String workspaceName,
+      ImmutableMap<RepositoryName, RepositoryName> repositoryMapping,
+      PackageIdentifier packageId,
+      RootedPath buildFile,
+      ImmutableList<Label> skylarkFileDependencies,
+      RuleVisibility defaultVisibility,
+      DeserializationContext context,
+      CodedInputStream codedIn)
+      throws IOException, InterruptedException, SerializationException {
+    Package.Builder pkgBuilder =
+        newPackageBuilder(
+            workspaceName,
+            packageId,
+            buildFile,
+            defaultVisibility,
+            skylarkFileDependencies,
+            repositoryMapping);
+    packageSerializer.deserializeInto(context, codedIn, pkgBuilder);
+    return pkgBuilder;
+  }
+
   // Reports an error and returns false iff package identifier was illegal.
   private static boolean validatePackageIdentifier(
       PackageIdentifier packageId, Location location, ExtendedEventHandler eventHandler) {
@@ -0,0 +1,335 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.packages;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.cmdline.LabelSyntaxException;
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.events.StoredEventHandler;
+import com.google.devtools.build.lib.packages.Attribute.SkylarkComputedDefaultTemplate.CannotPrecomputeDefaultsException;
+import com.google.devtools.build.lib.packages.License.DistributionType;
+import com.google.devtools.build.lib.packages.Package.NameConflictException;
+import com.google.devtools.build.lib.skyframe.serialization.DeserializationContext;
+import com.google.devtools.build.lib.skyframe.serialization.SerializationContext;
+import com.google.devtools.build.lib.skyframe.serialization.SerializationException;
+import com.google.devtools.build.lib.syntax.EvalException;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Serializes what the BUILD file of a package declared: its defaults, its rules with their
+ * explicitly specified attribute values, its exported files and its package and environment
+ * groups. A package is deserialized by creating these again in a {@link Package.Builder}, which
+ * computes everything else, such as default attribute values and output files, as evaluating the
+ * BUILD file would have.
+ *
+ * <p>Only packages without errors can be serialized. The locations of the attribute values are not
+ * serialized: attributes of deserialized rules have the location of their rule.
+ *
+ * <p>The identity of a package, which is its identifier, BUILD file, workspace name, repository
+ * mapping and Skylark file dependencies, is not serialized either. The {@link Package.Builder} a
+ * package is deserialized into must be created with the same identity, and the rule classes of the
+ * deserialized rules are looked up with a {@link RuleClassResolver}. Both are dependencies of the
+ * {@link DeserializationContext}.
+ */
+public class PackageSerializer implements PackageSerializerInterface {
+
+  /** Looks up the rule classes of deserialized rules. */
+  public interface RuleClassResolver {
+    /**
+     * Returns the rule class of the given name defined in the given {@code .bzl} file, or natively
+     * if {@code definitionLabel} is null. Returns null if there is none.
+     */
+    @Nullable
+    RuleClass getRuleClass(String name, @Nullable Label definitionLabel);
+  }
+
+  private final Function<RuleClass, AttributeContainer> attributeContainerFactory;
+
+  PackageSerializer(Function<RuleClass, AttributeContainer> attributeContainerFactory) {
+    this.attributeContainerFactory = attributeContainerFactory;
+  }
+
+  @Override
+  public void serialize(SerializationContext context, Package pkg, CodedOutputStream codedOut)
+      throws SerializationException, IOException {
+    if (pkg.containsErrors()) {
+      throw new SerializationException("Package " + pkg + " contains errors");
+    }
+    codedOut.writeBoolNoTag(pkg.isDefaultVisibilitySet());
+    if (pkg.isDefaultVisibilitySet()) {
+      context.serialize(pkg.getDefaultVisibility().getDeclaredLabels(), codedOut);
+    }
+    codedOut.writeBoolNoTag(pkg.getDefaultTestOnly());
+    context.serialize(pkg.getDefaultDeprecation(), codedOut);
+    context.serialize(pkg.isDefaultHdrsCheckSet() ? pkg.getDefaultHdrsCheck() : null, codedOut);
+    context.serialize(pkg.getDefaultCopts(), codedOut);
+    context.serialize(ImmutableList.copyOf(pkg.getFeatures()), codedOut);
+    context.serialize(pkg.getDefaultLicense(), codedOut);
+    context.serialize(ImmutableList.copyOf(pkg.getDefaultDistribs()), codedOut);
+    context.serialize(ImmutableList.copyOf(pkg.getDefaultCompatibleWith()), codedOut);
+    context.serialize(ImmutableList.copyOf(pkg.getDefaultRestrictedTo()), codedOut);
+    context.serialize(pkg.getMakeEnvironment(), codedOut);
+
+    List<Rule> rules = ImmutableList.copyOf(pkg.getTargets(Rule.class));
+    codedOut.writeInt32NoTag(rules.size());
+    for (Rule rule : rules) {
+      serializeRule(context, rule, codedOut);
+    }
+    List<InputFile> inputFiles = ImmutableList.copyOf(pkg.getTargets(InputFile.class));
+    codedOut.writeInt32NoTag(inputFiles.size());
+    for (InputFile inputFile : inputFiles) {
+      context.serialize(inputFile.getName(), codedOut);
+      context.serialize(inputFile.getLocation(), codedOut);
+      context.serialize(
+          inputFile.isVisibilitySpecified()
+              ? inputFile.getVisibility().getDeclaredLabels()
+              : null,
+          codedOut);
+      context.serialize(inputFile.isLicenseSpecified() ? inputFile.getLicense() : null, codedOut);
+    }
+    List<PackageGroup> packageGroups = ImmutableList.copyOf(pkg.getTargets(PackageGroup.class));
+    codedOut.writeInt32NoTag(packageGroups.size());
+    for (PackageGroup packageGroup : packageGroups) {
+      context.serialize(packageGroup.getName(), codedOut);
+      context.serialize(packageGroup.getLocation(), codedOut);
+      context.serialize(
+          packageGroup
+              .getPackageSpecifications()
+              .containedPackagesWithoutRepository()
+              .collect(ImmutableList.toImmutableList()),
+          codedOut);
+      context.serialize(ImmutableList.copyOf(packageGroup.getIncludes()), codedOut);
+    }
+    List<EnvironmentGroup> environmentGroups =
+        ImmutableList.copyOf(pkg.getTargets(EnvironmentGroup.class));
+    codedOut.writeInt32NoTag(environmentGroups.size());
+    for (EnvironmentGroup environmentGroup : environmentGroups) {
+      context.serialize(environmentGroup.getName(), codedOut);
+      context.serialize(environmentGroup.getLocation(), codedOut);
+      context.serialize(ImmutableList.copyOf(environmentGroup.getEnvironments()), codedOut);
+      context.serialize(ImmutableList.copyOf(environmentGroup.getDefaults()), codedOut);
+    }
+  }
+
+  private static void serializeRule(
+      SerializationContext context, Rule rule, CodedOutputStream codedOut)
+      throws SerializationException, IOException {
+    RuleClass ruleClass = rule.getRuleClassObject();
+    context.serialize(ruleClass.getName(), codedOut);
+    context.serialize(ruleClass.getRuleDefinitionEnvironmentLabel(), codedOut);
+    context.serialize(ruleClass.getKey(), codedOut);
+    context.serialize(rule.getName(), codedOut);
+    context.serialize(rule.getLocation(), codedOut);
+    List<Attribute> explicitAttributes = new ArrayList<>();
+    for (Attribute attribute : ruleClass.getAttributes()) {
+      if (rule.isAttributeValueExplicitlySpecified(attribute)) {
+        explicitAttributes.add(attribute);
+      }
+    }
+    codedOut.writeInt32NoTag(explicitAttributes.size());
+    for (Attribute attribute : explicitAttributes) {
+      context.serialize(attribute.getName(), codedOut);
+      context.serialize(rule.getAttributeContainer().getAttr(attribute.getName()), codedOut);
+    }
+  }
+
+  /**
+   * Deserializes a package into the {@link Package.Builder} dependency of the context, and builds
+   * it.
+   */
+  @Override
+  public Package deserialize(DeserializationContext context, CodedInputStream codedIn)
+      throws IOException, InterruptedException, SerializationException {
+    Package.Builder pkgBuilder = context.getDependency(Package.Builder.class);
+    deserializeInto(context, codedIn, pkgBuilder);
+    try {
+      return pkgBuilder.build();
+    } catch (NoSuchPackageException e) {
+      throw new SerializationException("Failed to build deserialized package", e);
+    }
+  }
+
+  /**
+   * Deserializes a package into the given builder, which must have been created with the identity
+   * of the serialized package and be otherwise empty.
+   *
+   * @throws SerializationException if the package cannot be created again as it was serialized,
+   *     for example because the rule class of one of its rules changed since
+   */
+  void deserializeInto(
+      DeserializationContext context, CodedInputStream codedIn, Package.Builder pkgBuilder)
+      throws IOException, InterruptedException, SerializationException {
+    RuleClassResolver ruleClassResolver = context.getDependency(RuleClassResolver.class);
+    StoredEventHandler eventHandler = new StoredEventHandler();
+    try {
+      if (codedIn.readBool()) {
+        pkgBuilder.setDefaultVisibility(
+            PackageFactory.getVisibility(
+                pkgBuilder.getBuildFileLabel(), context.<List<Label>>deserialize(codedIn)));
+      }
+      pkgBuilder.setDefaultTestonly(codedIn.readBool());
+      pkgBuilder.setDefaultDeprecation(context.deserialize(codedIn));
+      String defaultHdrsCheck = context.deserialize(codedIn);
+      if (defaultHdrsCheck != null) {
+        pkgBuilder.setDefaultHdrsCheck(defaultHdrsCheck);
+      }
+      pkgBuilder.setDefaultCopts(context.deserialize(codedIn));
+      pkgBuilder.addFeatures(context.<List<String>>deserialize(codedIn));
+      pkgBuilder.setDefaultLicense(context.deserialize(codedIn));
+      pkgBuilder.setDefaultDistribs(
+          ImmutableSet.copyOf(context.<List<DistributionType>>deserialize(codedIn)));
+      Location buildFileLocation =
+          Location.fromPathFragment(pkgBuilder.getFilename().asPath().asFragment());
+      pkgBuilder.setDefaultCompatibleWith(
+          context.deserialize(codedIn),
+          Package.DEFAULT_COMPATIBLE_WITH_ATTRIBUTE,
+          buildFileLocation);
+      pkgBuilder.setDefaultRestrictedTo(
+          context.deserialize(codedIn), Package.DEFAULT_RESTRICTED_TO_ATTRIBUTE, buildFileLocation);
+      for (Map.Entry<String, String> entry :
+          context.<Map<String, String>>deserialize(codedIn).entrySet()) {
+        pkgBuilder.setMakeVariable(entry.getKey(), entry.getValue());
+      }
+
+      for (int i = codedIn.readInt32(); i > 0; i--) {
+        deserializeRule(context, codedIn, pkgBuilder, ruleClassResolver, eventHandler);
+      }
+      for (int i = codedIn.readInt32(); i > 0; i--) {
+        String name = context.deserialize(codedIn);
+        InputFile inputFile = pkgBuilder.createInputFile(name, context.deserialize(codedIn));
+        List<Label> visibility = context.deserialize(codedIn);
+        License license = context.deserialize(codedIn);
+        if (visibility != null || license != null) {
+          pkgBuilder.setVisibilityAndLicense(
+              inputFile,
+              visibility == null
+                  ? null
+                  : PackageFactory.getVisibility(inputFile.getLabel(), visibility),
+              license);
+        }
+      }
+      for (int i = codedIn.readInt32(); i > 0; i--) {
+        String name = context.deserialize(codedIn);
+        Location groupLocation = context.deserialize(codedIn);
+        pkgBuilder.addPackageGroup(
+            name,
+            context.<List<String>>deserialize(codedIn),
+            context.<List<Label>>deserialize(codedIn),
+            eventHandler,
+            groupLocation);
+      }
+      for (int i = codedIn.readInt32(); i > 0; i--) {
+        String name = context.deserialize(codedIn);
+        Location groupLocation = context.deserialize(codedIn);
+        pkgBuilder.addEnvironmentGroup(
+            name,
+            context.<List<Label>>deserialize(codedIn),
+            context.<List<Label>>deserialize(codedIn),
+            eventHandler,
+            groupLocation);
+      }
+    } catch (EvalException | LabelSyntaxException | NameConflictException e) {
+      throw new SerializationException("Failed to create deserialized package", e);
+    }
+    if (!eventHandler.isEmpty() || pkgBuilder.containsErrors()) {
+      throw new SerializationException(
+          "Deserialized package has errors: " + eventHandler.getEvents());
+    }
+  }
+
+  private void deserializeRule(
+      DeserializationContext context,
+      CodedInputStream codedIn,
+      Package.Builder pkgBuilder,
+      RuleClassResolver ruleClassResolver,
+      StoredEventHandler eventHandler)
+      throws IOException, InterruptedException, SerializationException, LabelSyntaxException,
+          NameConflictException {
+    String ruleClassName = context.deserialize(codedIn);
+    Label definitionLabel = context.deserialize(codedIn);
+    String ruleClassKey = context.deserialize(codedIn);
+    RuleClass ruleClass = ruleClassResolver.getRuleClass(ruleClassName, definitionLabel);
+    if (ruleClass == null || !ruleClass.getKey().equals(ruleClassKey)) {
+      throw new SerializationException("No rule class " + ruleClassKey);
+    }
+    Label label = pkgBuilder.createLabel(context.deserialize(codedIn));
+    Location location = context.deserialize(codedIn);
+    ImmutableMap.Builder<String, Object> attributeValues = ImmutableMap.builder();
+    for (int i = codedIn.readInt32(); i > 0; i--) {
+      String name = context.deserialize(codedIn);
+      attributeValues.put(name, context.deserialize(codedIn));
+    }
+    Rule rule;
+    try {
+      rule =
+          ruleClass.createRule(
+              pkgBuilder,
+              label,
+              new NativeAttributeValues(attributeValues.build()),
+              eventHandler,
+              /*ast=*/ null,
+              location,
+              attributeContainerFactory.apply(ruleClass));
+    } catch (CannotPrecomputeDefaultsException e) {
+      throw new SerializationException("Failed to create deserialized rule " + label, e);
+    }
+    pkgBuilder.addRule(rule);
+  }
+
+  /** The explicitly specified attribute values of a rule, of native types. */
+  private static final class NativeAttributeValues
+      implements RuleFactory.AttributeValues<Map.Entry<String, Object>> {
+    private final ImmutableMap<String, Object> values;
+
+    private NativeAttributeValues(ImmutableMap<String, Object> values) {
+      this.values = values;
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, Object>> getAttributeAccessors() {
+      return values.entrySet();
+    }
+
+    @Override
+    public String getName(Map.Entry<String, Object> attributeAccessor) {
+      return attributeAccessor.getKey();
+    }
+
+    @Override
+    public Object getValue(Map.Entry<String, Object> attributeAccessor) {
+      return attributeAccessor.getValue();
+    }
+
+    @Override
+    public boolean isExplicitlySpecified(Map.Entry<String, Object> attributeAccessor) {
+      return true;
+    }
+
+    @Override
+    public boolean valuesAreBuildLanguageTyped() {
+      return false;
+    }
+  }
+}
@@ -118,6 +118,18 @@ public class SkylarkSemanticsOptions extends OptionsBase implements Serializable
           + "debugging.")
   public boolean experimentalPlatformsApi;
 
+  @Option(
+      name = "experimental_starlark_bytecode",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {OptionEffectTag.LOADING_AND_ANALYSIS},
+      metadataTags = {OptionMetadataTag.EXPERIMENTAL},
+      help =
+          "If set to true, the statements of Starlark functions and of the top level of BUILD and "
+              + ".bzl files are compiled to a flat instruction sequence before being executed, "
+              + "instead of being interpreted by walking the syntax tree.")
+  public boolean experimentalStarlarkBytecode;
+
   // TODO(cparsons): Resolve and finalize the transition() API. The transition implementation
   // function should accept two mandatory parameters, 'settings' and 'attr'.
   @Option(
@@ -553,6 +565,7 @@ public class SkylarkSemanticsOptions extends OptionsBase implements Serializable
         .experimentalEnableRepoMapping(experimentalEnableRepoMapping)
         .experimentalRemapMainRepo(experimentalRemapMainRepo)
         .experimentalPlatformsApi(experimentalPlatformsApi)
+        .experimentalStarlarkBytecode(experimentalStarlarkBytecode)
         .experimentalStarlarkConfigTransitions(experimentalStarlarkConfigTransitions)
         .incompatibleBzlDisallowLoadAfterStatement(incompatibleBzlDisallowLoadAfterStatement)
         .incompatibleDepsetIsNotIterable(incompatibleDepsetIsNotIterable)
@@ -0,0 +1,115 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import com.google.common.base.Predicates;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.devtools.build.lib.events.Location;
+import java.util.Arrays;
+
+/**
+ * An {@link AttributeContainer} that only stores the values that differ from the defaults of the
+ * rule class, for rule classes with many attributes of which most rules only set a few.
+ *
+ * <p>The default values are computed once per {@link RuleClass} and shared by all its containers.
+ * A value is considered a default if it is the same object as the shared one, which is the case of
+ * the values set by {@link RuleClass} for the attributes that are not given in the BUILD file. Each
+ * container keeps one bit per attribute recording that its value was set, so that the attributes
+ * that were never set are still reported as null; the other values are kept in two small parallel
+ * arrays, of attribute indices and of values.
+ */
+public final class SparseAttributeContainer extends AttributeContainer {
+
+  /** The shared default value of each attribute, keyed by attribute index. */
+  private static final LoadingCache<RuleClass, Object[]> DEFAULT_VALUES =
+      CacheBuilder.newBuilder()
+          .weakKeys()
+          .build(CacheLoader.from(SparseAttributeContainer::computeDefaultValues));
+
+  private static final Location[] EMPTY_LOCATIONS = {};
+  private static final byte[] EMPTY_INDICES = {};
+  private static final Object[] EMPTY_VALUES = {};
+
+  private final Object[] defaultValues;
+
+  // Bit i is set iff a value was set for attribute i, be it the default or not.
+  private final long[] setBits;
+
+  // Indices and values of the attributes whose value is not the default, in the order they were
+  // first set. The arrays are exactly as long as needed: most rules only set a few attributes.
+  private byte[] storedIndices = EMPTY_INDICES;
+  private Object[] storedValues = EMPTY_VALUES;
+
+  /** Create a container for a rule of the given rule class. */
+  public SparseAttributeContainer(RuleClass ruleClass) {
+    super(ruleClass, EMPTY_LOCATIONS, /*attributeValues=*/ null);
+    this.defaultValues = DEFAULT_VALUES.getUnchecked(ruleClass);
+    this.setBits = new long[(defaultValues.length + 63) >> 6];
+  }
+
+  private static Object[] computeDefaultValues(RuleClass ruleClass) {
+    Object[] defaultValues = new Object[ruleClass.getAttributeCount()];
+    for (int i = 0; i < defaultValues.length; i++) {
+      Attribute attr = ruleClass.getAttribute(i);
+      if (attr.isLateBound()) {
+        defaultValues[i] = attr.getLateBoundDefault();
+      } else if (attr.getCondition() == Predicates.<AttributeMap>alwaysTrue()) {
+        // Conditions may need the rule to be evaluated, so conditional attributes have no shared
+        // default and their values are always stored.
+        defaultValues[i] = attr.getDefaultValue(null);
+      }
+    }
+    return defaultValues;
+  }
+
+  @Override
+  Object getAttributeValue(int index) {
+    int storedIndex = findStoredIndex(index);
+    if (storedIndex >= 0) {
+      return storedValues[storedIndex];
+    }
+    return (setBits[index >> 6] & (1L << index)) != 0 ? defaultValues[index] : null;
+  }
+
+  @Override
+  void putAttributeValue(int index, Object value) {
+    setBits[index >> 6] |= 1L << index;
+    int storedIndex = findStoredIndex(index);
+    if (storedIndex >= 0) {
+      storedValues[storedIndex] = value;
+    } else if (value != defaultValues[index]) {
+      int n = storedIndices.length;
+      storedIndices = Arrays.copyOf(storedIndices, n + 1);
+      storedValues = Arrays.copyOf(storedValues, n + 1);
+      storedIndices[n] = (byte) index;
+      storedValues[n] = value;
+    }
+  }
+
+  /** Returns the number of values that differ from the defaults of the rule class. */
+  int getStoredValueCount() {
+    return storedIndices.length;
+  }
+
+  private int findStoredIndex(int index) {
+    for (int i = 0; i < storedIndices.length; i++) {
+      if ((0xff & storedIndices[i]) == index) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
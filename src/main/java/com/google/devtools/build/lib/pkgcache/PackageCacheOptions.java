@@ -152,6 +152,45 @@ public class PackageCacheOptions extends OptionsBase {
   )
   public boolean checkOutputFiles;
 
+  @Option(
+    name = "experimental_persistent_skylark_ast_cache",
+    defaultValue = "false",
+    documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+    effectTags = {OptionEffectTag.LOADING_AND_ANALYSIS},
+    metadataTags = {OptionMetadataTag.EXPERIMENTAL},
+    help =
+        "If true, the parsed and validated syntax trees of .bzl files are stored in the output "
+            + "base, so that a new server does not parse the files that did not change again."
+  )
+  public boolean persistentSkylarkAstCache;
+
+  @Option(
+    name = "experimental_persistent_package_cache",
+    defaultValue = "false",
+    documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+    effectTags = {OptionEffectTag.LOADING_AND_ANALYSIS},
+    metadataTags = {OptionMetadataTag.EXPERIMENTAL},
+    help =
+        "If true, the packages created by evaluating BUILD files are stored in the output base, "
+            + "so that a new server creates the packages whose BUILD files, loaded .bzl files and "
+            + "globs did not change from there instead of evaluating their BUILD files again."
+  )
+  public boolean persistentPackageCache;
+
+  @Option(
+    name = "experimental_skyframe_globbing",
+    defaultValue = "false",
+    documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+    effectTags = {OptionEffectTag.LOADING_AND_ANALYSIS},
+    metadataTags = {OptionMetadataTag.EXPERIMENTAL},
+    help =
+        "If true, the globs of a BUILD file whose arguments are literals are evaluated by "
+            + "Skyframe, which memoizes the matches of each directory, before the BUILD file is "
+            + "evaluated, instead of by a separate thread pool when they are not cached. Only the "
+            + "other globs are evaluated by the thread pool."
+  )
+  public boolean skyframeGlobbing;
+
   @Option(
       name = "incompatible_disable_tools_defaults_package",
       defaultValue = "false",
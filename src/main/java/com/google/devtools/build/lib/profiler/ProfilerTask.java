@@ -89,6 +89,7 @@ public enum ProfilerTask {
   STARLARK_BUILTIN_FN("Starlark builtin function call", 0x990033),
   STARLARK_USER_COMPILED_FN("Starlark compiled user function call", 0xCC0033),
   ACTION_FS_STAGING("Staging per-action file system", 0x000000),
+  SANDBOX_DELETION("Deleting sandbox directories", 0x000000),
   UNKNOWN("Unknown event",  0x339966);
 
   // Size of the ProfilerTask value space.
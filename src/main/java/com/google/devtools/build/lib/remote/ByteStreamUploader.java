@@ -16,22 +16,29 @@ package com.google.devtools.build.lib.remote;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.devtools.build.lib.remote.ContentDefinedChunker.SPLICES;
 import static java.lang.String.format;
 import static java.util.Collections.singletonList;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import build.bazel.remote.execution.v2.ContentAddressableStorageGrpc;
 import build.bazel.remote.execution.v2.Digest;
+import build.bazel.remote.execution.v2.FindMissingBlobsRequest;
+import build.bazel.remote.execution.v2.FindMissingBlobsResponse;
 import com.google.bytestream.ByteStreamGrpc;
 import com.google.bytestream.ByteStreamProto.WriteRequest;
 import com.google.bytestream.ByteStreamProto.WriteResponse;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.remote.ContentDefinedChunker.ChunkRange;
 import com.google.devtools.build.lib.remote.Retrier.RetryException;
 import com.google.devtools.build.lib.remote.util.TracingMetadataUtils;
 import io.grpc.CallCredentials;
@@ -45,13 +52,18 @@ import io.netty.util.AbstractReferenceCounted;
 import io.netty.util.ReferenceCounted;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -65,16 +77,36 @@ import javax.annotation.concurrent.GuardedBy;
  * different lifecyles. After instantiation the reference count is {@code 1}.
  *
  * See {@link ReferenceCounted} for more information on reference counting.
+ *
+ * <p>If constructed with a {@link ContentDefinedChunker}, blobs larger than its maximum chunk size
+ * are split into content-defined chunks on a separate thread pool. Only the chunks missing from the
+ * remote CAS are uploaded, followed by a splice manifest from which the server reassembles the
+ * blob. Splicing is an extension of the {@code ByteStream} service that is not part of the Remote
+ * Execution API, and that servers do not advertise in their capabilities; the chunker is therefore
+ * only passed when the user opted in with {@code --experimental_remote_content_defined_chunking}.
+ * See {@link ContentDefinedChunker} for the format of the manifests. Once a splice fails, all
+ * further blobs are uploaded whole. The blob of the failed splice is only uploaded whole if the
+ * server rejected the splice as unsupported; otherwise its upload fails like that of any other
+ * blob.
  */
 class ByteStreamUploader extends AbstractReferenceCounted {
 
   private static final Logger logger = Logger.getLogger(ByteStreamUploader.class.getName());
 
+  /** The resource name component marking a {@code Write} of a blob. */
+  private static final String BLOBS = "blobs";
+
+  /** Keeps FindMissingBlobs requests for the chunks of a blob below the gRPC message limit. */
+  private static final int MAX_DIGESTS_PER_FIND_MISSING_REQUEST = 8192;
+
   private final String instanceName;
   private final ReferenceCountedChannel channel;
   private final CallCredentials callCredentials;
   private final long callTimeoutSecs;
   private final RemoteRetrier retrier;
+  @Nullable private final ContentDefinedChunker contentDefinedChunker;
+  // Splits blobs with contentDefinedChunker, which reads and hashes them whole.
+  @Nullable private final ExecutorService splitExecutor;
 
   private final Object lock = new Object();
 
@@ -88,6 +120,10 @@ class ByteStreamUploader extends AbstractReferenceCounted {
   @GuardedBy("lock")
   private boolean isShutdown;
 
+  /** Set once the upload of a splice manifest failed, after which blobs are uploaded whole. */
+  @GuardedBy("lock")
+  private boolean splicingDisabled;
+
   /**
    * Creates a new instance.
    *
@@ -106,6 +142,24 @@ class ByteStreamUploader extends AbstractReferenceCounted {
       @Nullable CallCredentials callCredentials,
       long callTimeoutSecs,
       RemoteRetrier retrier) {
+    this(instanceName, channel, callCredentials, callTimeoutSecs, retrier, null);
+  }
+
+  /**
+   * Creates a new instance that uploads large blobs in content-defined chunks.
+   *
+   * @param contentDefinedChunker the chunker to split large blobs with. May be {@code null}, in
+   *     which case all blobs are uploaded whole. Must only be set if the user asserted that the
+   *     server supports splicing, which is not part of the Remote Execution API
+   * @see #ByteStreamUploader(String, ReferenceCountedChannel, CallCredentials, long, RemoteRetrier)
+   */
+  public ByteStreamUploader(
+      @Nullable String instanceName,
+      ReferenceCountedChannel channel,
+      @Nullable CallCredentials callCredentials,
+      long callTimeoutSecs,
+      RemoteRetrier retrier,
+      @Nullable ContentDefinedChunker contentDefinedChunker) {
     checkArgument(callTimeoutSecs > 0, "callTimeoutSecs must be gt 0.");
 
     this.instanceName = instanceName;
@@ -113,6 +167,16 @@ class ByteStreamUploader extends AbstractReferenceCounted {
     this.callCredentials = callCredentials;
     this.callTimeoutSecs = callTimeoutSecs;
     this.retrier = retrier;
+    this.contentDefinedChunker = contentDefinedChunker;
+    this.splitExecutor =
+        contentDefinedChunker != null
+            ? Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder()
+                    .setNameFormat("remote-content-defined-chunking-%d")
+                    .setDaemon(true)
+                    .build())
+            : null;
   }
 
   /**
@@ -195,6 +259,9 @@ class ByteStreamUploader extends AbstractReferenceCounted {
         upload.cancel(true);
       }
     }
+    if (splitExecutor != null) {
+      splitExecutor.shutdownNow();
+    }
   }
 
   /**
@@ -216,6 +283,8 @@ class ByteStreamUploader extends AbstractReferenceCounted {
   public ListenableFuture<Void> uploadBlobAsync(Chunker chunker, boolean forceUpload) {
     Digest digest = checkNotNull(chunker.digest());
     HashCode hash = HashCode.fromString(digest.getHash());
+    final SettableFuture<Void> uploadResult;
+    Context ctx = Context.current();
 
     synchronized (lock) {
       checkState(!isShutdown, "Must not call uploadBlobs after shutdown.");
@@ -229,7 +298,7 @@ class ByteStreamUploader extends AbstractReferenceCounted {
         return inProgress;
       }
 
-      final SettableFuture<Void> uploadResult = SettableFuture.create();
+      uploadResult = SettableFuture.create();
       uploadResult.addListener(
           () -> {
             synchronized (lock) {
@@ -238,12 +307,146 @@ class ByteStreamUploader extends AbstractReferenceCounted {
             }
           },
           MoreExecutors.directExecutor());
-      Context ctx = Context.current();
-      retrier.executeAsync(
-          () -> ctx.call(() -> startAsyncUpload(chunker, uploadResult)), uploadResult);
+      // Register the upload before starting it, as it may complete (and run the listener above)
+      // before returning.
       uploadsInProgress.put(digest, uploadResult);
-      return uploadResult;
+      if (!shouldUploadInChunks(digest)) {
+        retrier.executeAsync(
+            () -> ctx.call(() -> startAsyncUpload(chunker, BLOBS, digest, uploadResult)),
+            uploadResult);
+        return uploadResult;
+      }
     }
+
+    // Splitting reads and hashes the whole blob, so do it neither under the lock nor on the calling
+    // thread.
+    uploadResult.setFuture(Futures.submitAsync(() -> uploadInChunks(chunker, ctx), splitExecutor));
+    return uploadResult;
+  }
+
+  @GuardedBy("lock")
+  private boolean shouldUploadInChunks(Digest digest) {
+    return contentDefinedChunker != null
+        && !splicingDisabled
+        && digest.getSizeBytes() > contentDefinedChunker.getMaxChunkSize();
+  }
+
+  /** Uploads the chunks of the blob that are missing remotely, and then its splice manifest. */
+  private ListenableFuture<Void> uploadInChunks(Chunker chunker, Context ctx) throws IOException {
+    Executor executor = ctx.fixedContextExecutor(MoreExecutors.directExecutor());
+    ImmutableList<ChunkRange> ranges = contentDefinedChunker.split(chunker);
+    Map<Digest, ChunkRange> distinctChunks = new LinkedHashMap<>();
+    for (ChunkRange range : ranges) {
+      distinctChunks.putIfAbsent(range.getDigest(), range);
+    }
+    ListenableFuture<Void> chunksUploaded =
+        Futures.transformAsync(
+            findMissingChunks(distinctChunks.keySet(), ctx),
+            (missingChunks) -> {
+              List<ListenableFuture<Void>> uploads = new ArrayList<>();
+              for (Digest chunkDigest : missingChunks) {
+                ChunkRange range = distinctChunks.get(chunkDigest);
+                uploads.add(
+                    uploadBlobAsync(
+                        chunker.slice(range.getOffset(), range.getLength(), chunkDigest),
+                        /* forceUpload= */ true));
+              }
+              return Futures.whenAllSucceed(uploads).call(() -> null, executor);
+            },
+            executor);
+    Chunker manifest = contentDefinedChunker.newSpliceManifest(ranges);
+    return Futures.transformAsync(
+        chunksUploaded, (unused) -> splice(chunker, manifest, ctx), executor);
+  }
+
+  /**
+   * Uploads the splice manifest of the blob in {@code chunker}. If that fails, disables splicing
+   * for all further blobs, and uploads this one whole if the server does not support splicing.
+   */
+  private ListenableFuture<Void> splice(Chunker chunker, Chunker manifest, Context ctx) {
+    Digest digest = chunker.digest();
+    Executor executor = ctx.fixedContextExecutor(MoreExecutors.directExecutor());
+    SettableFuture<Void> spliceResult = SettableFuture.create();
+    retrier.executeAsync(
+        () -> ctx.call(() -> startAsyncUpload(manifest, SPLICES, digest, spliceResult)),
+        spliceResult);
+    return Futures.catchingAsync(
+        spliceResult,
+        Exception.class,
+        (e) -> {
+          synchronized (lock) {
+            if (!splicingDisabled) {
+              logger.log(Level.WARNING, "Splicing failed, uploading blobs whole from now on.", e);
+              splicingDisabled = true;
+            }
+          }
+          Status.Code code = Status.fromThrowable(e).getCode();
+          if (code != Status.Code.UNIMPLEMENTED && code != Status.Code.INVALID_ARGUMENT) {
+            // The chunks are in the CAS, so uploading the blob whole would transfer it twice.
+            throw e;
+          }
+          SettableFuture<Void> wholeResult = SettableFuture.create();
+          retrier.executeAsync(
+              () -> ctx.call(() -> startAsyncUpload(chunker, BLOBS, digest, wholeResult)),
+              wholeResult);
+          return wholeResult;
+        },
+        executor);
+  }
+
+  /**
+   * Returns the chunks among {@code chunkDigests} that the remote CAS is missing. Chunks this
+   * uploader already uploaded are assumed to be present and are not queried.
+   */
+  private ListenableFuture<List<Digest>> findMissingChunks(
+      Collection<Digest> chunkDigests, Context ctx) {
+    List<ListenableFuture<FindMissingBlobsResponse>> responses = new ArrayList<>();
+    FindMissingBlobsRequest.Builder request = FindMissingBlobsRequest.newBuilder();
+    if (instanceName != null) {
+      request.setInstanceName(instanceName);
+    }
+    synchronized (lock) {
+      for (Digest chunkDigest : chunkDigests) {
+        if (uploadedBlobs.contains(HashCode.fromString(chunkDigest.getHash()))) {
+          continue;
+        }
+        request.addBlobDigests(chunkDigest);
+        if (request.getBlobDigestsCount() == MAX_DIGESTS_PER_FIND_MISSING_REQUEST) {
+          responses.add(findMissingBlobs(request.build(), ctx));
+          request.clearBlobDigests();
+        }
+      }
+    }
+    if (request.getBlobDigestsCount() > 0) {
+      responses.add(findMissingBlobs(request.build(), ctx));
+    }
+    return Futures.transform(
+        Futures.allAsList(responses),
+        (responseList) -> {
+          List<Digest> missing = new ArrayList<>();
+          for (FindMissingBlobsResponse response : responseList) {
+            missing.addAll(response.getMissingBlobDigestsList());
+          }
+          return missing;
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private ListenableFuture<FindMissingBlobsResponse> findMissingBlobs(
+      FindMissingBlobsRequest request, Context ctx) {
+    SettableFuture<FindMissingBlobsResponse> result = SettableFuture.create();
+    retrier.executeAsync(
+        () ->
+            ctx.call(
+                () ->
+                    ContentAddressableStorageGrpc.newFutureStub(channel)
+                        .withInterceptors(
+                            TracingMetadataUtils.attachMetadataFromContextInterceptor())
+                        .withCallCredentials(callCredentials)
+                        .withDeadlineAfter(callTimeoutSecs, SECONDS)
+                        .findMissingBlobs(request)),
+        result);
+    return result;
   }
 
   @VisibleForTesting
@@ -258,7 +461,10 @@ class ByteStreamUploader extends AbstractReferenceCounted {
    * overallUploadResult} future propagates cancellations from the caller to the upload.
    */
   private ListenableFuture<Void> startAsyncUpload(
-      Chunker chunker, ListenableFuture<Void> overallUploadResult) {
+      Chunker chunker,
+      String resourceType,
+      Digest resourceDigest,
+      ListenableFuture<Void> overallUploadResult) {
     SettableFuture<Void> currUpload = SettableFuture.create();
     try {
       chunker.reset();
@@ -269,7 +475,12 @@ class ByteStreamUploader extends AbstractReferenceCounted {
 
     AsyncUpload newUpload =
         new AsyncUpload(
-            channel, callCredentials, callTimeoutSecs, instanceName, chunker, currUpload);
+            channel,
+            callCredentials,
+            callTimeoutSecs,
+            newResourceName(resourceType, resourceDigest),
+            chunker,
+            currUpload);
     overallUploadResult.addListener(
         () -> {
           if (overallUploadResult.isCancelled()) {
@@ -281,6 +492,17 @@ class ByteStreamUploader extends AbstractReferenceCounted {
     return currUpload;
   }
 
+  private String newResourceName(String resourceType, Digest digest) {
+    String resourceName =
+        format(
+            "uploads/%s/%s/%s/%d",
+            UUID.randomUUID(), resourceType, digest.getHash(), digest.getSizeBytes());
+    if (!Strings.isNullOrEmpty(instanceName)) {
+      resourceName = instanceName + "/" + resourceName;
+    }
+    return resourceName;
+  }
+
   @Override
   public ByteStreamUploader retain() {
     return (ByteStreamUploader) super.retain();
@@ -307,7 +529,7 @@ class ByteStreamUploader extends AbstractReferenceCounted {
     private final Channel channel;
     private final CallCredentials callCredentials;
     private final long callTimeoutSecs;
-    private final String instanceName;
+    private final String resourceName;
     private final Chunker chunker;
     private final SettableFuture<Void> uploadResult;
 
@@ -317,13 +539,13 @@ class ByteStreamUploader extends AbstractReferenceCounted {
         Channel channel,
         CallCredentials callCredentials,
         long callTimeoutSecs,
-        String instanceName,
+        String resourceName,
         Chunker chunker,
         SettableFuture<Void> uploadResult) {
       this.channel = channel;
       this.callCredentials = callCredentials;
       this.callTimeoutSecs = callTimeoutSecs;
-      this.instanceName = instanceName;
+      this.resourceName = resourceName;
       this.chunker = chunker;
       this.uploadResult = uploadResult;
     }
@@ -376,7 +598,7 @@ class ByteStreamUploader extends AbstractReferenceCounted {
 
                   if (chunk.getOffset() == 0) {
                     // Resource name only needs to be set on the first write for each file.
-                    requestBuilder.setResourceName(newResourceName(chunk.getDigest()));
+                    requestBuilder.setResourceName(resourceName);
                   }
 
                   boolean isLastChunk = !chunker.hasNext();
@@ -402,17 +624,6 @@ class ByteStreamUploader extends AbstractReferenceCounted {
                 }
               }
             }
-
-            private String newResourceName(Digest digest) {
-              String resourceName =
-                  format(
-                      "uploads/%s/blobs/%s/%d",
-                      UUID.randomUUID(), digest.getHash(), digest.getSizeBytes());
-              if (!Strings.isNullOrEmpty(instanceName)) {
-                resourceName = instanceName + "/" + resourceName;
-              }
-              return resourceName;
-            }
           };
       call.start(callListener, TracingMetadataUtils.headersFromCurrentContext());
       call.request(1);
@@ -14,6 +14,7 @@
 
 package com.google.devtools.build.lib.remote;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
@@ -105,6 +106,7 @@ public final class Chunker {
   private final Supplier<InputStream> dataSupplier;
   private final Digest digest;
   private final int chunkSize;
+  private final DigestUtil digestUtil;
   private final Chunk emptyChunk;
 
   private InputStream data;
@@ -119,6 +121,7 @@ public final class Chunker {
     this.dataSupplier = checkNotNull(dataSupplier);
     this.digest = checkNotNull(digest);
     this.chunkSize = chunkSize;
+    this.digestUtil = digestUtil;
     this.emptyChunk = new Chunk(digestUtil.compute(new byte[0]), ByteString.EMPTY, 0);
   }
 
@@ -126,6 +129,32 @@ public final class Chunker {
     return digest;
   }
 
+  /**
+   * Returns a new {@link Chunker} over the {@code length} bytes of this chunker's data source that
+   * start at {@code offset}, and whose digest is {@code sliceDigest}. The slice opens the data
+   * source by itself, so it does not affect the state of this chunker.
+   */
+  Chunker slice(long offset, long length, Digest sliceDigest) {
+    checkArgument(offset >= 0 && length >= 0 && offset + length <= digest.getSizeBytes());
+    checkArgument(sliceDigest.getSizeBytes() == length, sliceDigest);
+    Supplier<InputStream> sliceSupplier =
+        () -> {
+          InputStream in = dataSupplier.get();
+          try {
+            ByteStreams.skipFully(in, offset);
+          } catch (IOException e) {
+            try {
+              in.close();
+            } catch (IOException e1) {
+              e.addSuppressed(e1);
+            }
+            throw new RuntimeException(e);
+          }
+          return ByteStreams.limit(in, length);
+        };
+    return new Chunker(sliceSupplier, sliceDigest, chunkSize, digestUtil);
+  }
+
   /**
    * Reset the {@link Chunker} state to when it was newly constructed.
    *
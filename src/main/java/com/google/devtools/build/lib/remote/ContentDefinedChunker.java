@@ -0,0 +1,167 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import build.bazel.remote.execution.v2.Digest;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Splits a blob into chunks whose boundaries are defined by the blob's content rather than by
+ * fixed offsets, so that inserting or removing bytes only changes the chunks around the edit.
+ *
+ * <p>Boundaries are found with a gear rolling hash, as in FastCDC: a boundary is placed after a
+ * byte if the top bits of the hash over the preceding 64 bytes are all zero, subject to a minimum
+ * and a maximum chunk size. The gear table is generated from a fixed seed, so all clients agree on
+ * the boundaries of a blob.
+ *
+ * <p>A blob uploaded in chunks is reassembled by the server from a splice manifest, which is
+ * written to the resource name {@code [{instance_name}/]uploads/{uuid}/splices/{hash}/{size}}
+ * with the digest of the reassembled blob. The manifest lists the digests of the blob's chunks in
+ * order, each as a length-delimited {@link Digest} message.
+ */
+public final class ContentDefinedChunker {
+
+  /** The resource name component marking a {@code Write} of a splice manifest. */
+  public static final String SPLICES = "splices";
+
+  static final int DEFAULT_MIN_CHUNK_SIZE = 16 * 1024;
+  static final int DEFAULT_AVG_CHUNK_SIZE = 64 * 1024;
+  static final int DEFAULT_MAX_CHUNK_SIZE = 256 * 1024;
+
+  private static final long[] GEAR = createGearTable();
+
+  /** A range of a blob ending at a content-defined boundary, with the digest of its contents. */
+  static final class ChunkRange {
+    private final long offset;
+    private final Digest digest;
+
+    private ChunkRange(long offset, Digest digest) {
+      this.offset = offset;
+      this.digest = digest;
+    }
+
+    long getOffset() {
+      return offset;
+    }
+
+    long getLength() {
+      return digest.getSizeBytes();
+    }
+
+    Digest getDigest() {
+      return digest;
+    }
+  }
+
+  private final DigestUtil digestUtil;
+  private final int minChunkSize;
+  private final int maxChunkSize;
+  private final long boundaryMask;
+
+  ContentDefinedChunker(DigestUtil digestUtil) {
+    this(digestUtil, DEFAULT_MIN_CHUNK_SIZE, DEFAULT_AVG_CHUNK_SIZE, DEFAULT_MAX_CHUNK_SIZE);
+  }
+
+  @VisibleForTesting
+  ContentDefinedChunker(
+      DigestUtil digestUtil, int minChunkSize, int avgChunkSize, int maxChunkSize) {
+    checkArgument(Integer.bitCount(avgChunkSize) == 1, "avgChunkSize must be a power of two");
+    checkArgument(0 < minChunkSize && minChunkSize <= avgChunkSize && avgChunkSize <= maxChunkSize);
+    this.digestUtil = digestUtil;
+    this.minChunkSize = minChunkSize;
+    this.maxChunkSize = maxChunkSize;
+    // Past the minimum size, each byte ends a chunk with probability 1 / avgChunkSize.
+    this.boundaryMask = ~(-1L >>> Integer.numberOfTrailingZeros(avgChunkSize));
+  }
+
+  int getMaxChunkSize() {
+    return maxChunkSize;
+  }
+
+  /**
+   * Reads the whole blob of {@code chunker} and returns its content-defined chunks in order. The
+   * chunker is reset before and after reading.
+   */
+  ImmutableList<ChunkRange> split(Chunker chunker) throws IOException {
+    ImmutableList.Builder<ChunkRange> ranges = ImmutableList.builder();
+    byte[] chunk = new byte[maxChunkSize];
+    int length = 0;
+    long offset = 0;
+    long hash = 0;
+    chunker.reset();
+    try {
+      while (chunker.hasNext()) {
+        byte[] data = chunker.next().getData().toByteArray();
+        for (byte b : data) {
+          chunk[length++] = b;
+          hash = (hash << 1) + GEAR[b & 0xff];
+          if ((length >= minChunkSize && (hash & boundaryMask) == 0) || length == maxChunkSize) {
+            ranges.add(newChunkRange(offset, chunk, length));
+            offset += length;
+            length = 0;
+          }
+        }
+      }
+    } finally {
+      chunker.reset();
+    }
+    if (length > 0) {
+      ranges.add(newChunkRange(offset, chunk, length));
+    }
+    return ranges.build();
+  }
+
+  private ChunkRange newChunkRange(long offset, byte[] chunk, int length) {
+    byte[] contents = new byte[length];
+    System.arraycopy(chunk, 0, contents, 0, length);
+    return new ChunkRange(offset, digestUtil.compute(contents));
+  }
+
+  /** Returns a {@link Chunker} over the splice manifest of a blob split into {@code ranges}. */
+  Chunker newSpliceManifest(Iterable<ChunkRange> ranges) throws IOException {
+    ByteString.Output manifest = ByteString.newOutput();
+    for (ChunkRange range : ranges) {
+      range.getDigest().writeDelimitedTo(manifest);
+    }
+    return Chunker.builder(digestUtil).setInput(manifest.toByteString().toByteArray()).build();
+  }
+
+  /** Parses the chunk digests of a splice manifest. */
+  public static ImmutableList<Digest> parseSpliceManifest(InputStream in) throws IOException {
+    ImmutableList.Builder<Digest> digests = ImmutableList.builder();
+    Digest digest;
+    while ((digest = Digest.parseDelimitedFrom(in)) != null) {
+      digests.add(digest);
+    }
+    return digests.build();
+  }
+
+  private static long[] createGearTable() {
+    // java.util.Random is specified to produce the same sequence for a given seed on every JVM.
+    Random random = new Random(0x5ca1ab1e0ddba11L);
+    long[] gear = new long[256];
+    for (int i = 0; i < gear.length; i++) {
+      gear[i] = random.nextLong();
+    }
+    return gear;
+  }
+}
@@ -34,6 +34,8 @@ import com.google.bytestream.ByteStreamProto.ReadResponse;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -71,11 +73,21 @@ import java.util.concurrent.atomic.AtomicBoolean;
 /** A RemoteActionCache implementation that uses gRPC calls to a remote cache server. */
 @ThreadSafe
 public class GrpcRemoteCache extends AbstractRemoteActionCache {
+  /**
+   * Bounds the actions remembered by {@link #ensureInputsPresent}. An action whose inputs the
+   * remote executor reports missing is retried right away, so only recent actions need be kept.
+   */
+  private static final int MAX_ACTIONS_WITH_INPUTS_PRESENT = 100_000;
+
   private final CallCredentials credentials;
   private final ReferenceCountedChannel channel;
   private final RemoteRetrier retrier;
   private final ByteStreamUploader uploader;
   private final int maxMissingBlobsDigestsPerMessage;
+  private final MissingDigestsFinder missingDigestsFinder;
+  /** The most recent actions whose inputs were uploaded by {@link #ensureInputsPresent}. */
+  private final Cache<Digest, Boolean> actionsWithInputsPresent =
+      CacheBuilder.newBuilder().maximumSize(MAX_ACTIONS_WITH_INPUTS_PRESENT).build();
 
   private AtomicBoolean closed = new AtomicBoolean();
 
@@ -95,6 +107,12 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
     maxMissingBlobsDigestsPerMessage = computeMaxMissingBlobsDigestsPerMessage();
     Preconditions.checkState(
         maxMissingBlobsDigestsPerMessage > 0, "Error: gRPC message size too small.");
+    missingDigestsFinder =
+        new MissingDigestsFinder(
+            options.remoteInstanceName,
+            maxMissingBlobsDigestsPerMessage,
+            options.experimentalRemoteFindMissingBlobsBatchWindowMillis,
+            this::getMissingDigests);
   }
 
   private int computeMaxMissingBlobsDigestsPerMessage() {
@@ -140,6 +158,7 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
     if (closed.getAndSet(true)) {
       return;
     }
+    missingDigestsFinder.close();
     uploader.release();
     channel.release();
   }
@@ -158,34 +177,24 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
 
   private ImmutableSet<Digest> getMissingDigests(Iterable<Digest> digests)
       throws IOException, InterruptedException {
+    return getMissingDigests(digests, /* trustKnownPresent= */ true);
+  }
+
+  private ImmutableSet<Digest> getMissingDigests(
+      Iterable<Digest> digests, boolean trustKnownPresent)
+      throws IOException, InterruptedException {
     if (Iterables.isEmpty(digests)) {
       return ImmutableSet.of();
     }
-    // Need to potentially split the digests into multiple requests.
-    FindMissingBlobsRequest.Builder requestBuilder =
-        FindMissingBlobsRequest.newBuilder().setInstanceName(options.remoteInstanceName);
-    List<ListenableFuture<FindMissingBlobsResponse>> callFutures = new ArrayList<>();
-    for (Digest digest : digests) {
-      requestBuilder.addBlobDigests(digest);
-      if (requestBuilder.getBlobDigestsCount() == maxMissingBlobsDigestsPerMessage) {
-        callFutures.add(getMissingDigests(requestBuilder.build()));
-        requestBuilder.clearBlobDigests();
-      }
-    }
-    if (requestBuilder.getBlobDigestsCount() > 0) {
-      callFutures.add(getMissingDigests(requestBuilder.build()));
-    }
-    ImmutableSet.Builder<Digest> result = ImmutableSet.builder();
+    // The finder splits the digests into multiple requests if needed, and batches them with the
+    // digests of concurrently executing actions.
     try {
-      for (ListenableFuture<FindMissingBlobsResponse> callFuture : callFutures) {
-        result.addAll(callFuture.get().getMissingBlobDigestsList());
-      }
+      return missingDigestsFinder.findMissingDigests(digests, trustKnownPresent).get();
     } catch (ExecutionException e) {
       Throwable cause = e.getCause();
       Throwables.propagateIfInstanceOf(cause, IOException.class);
       throw new RuntimeException(cause);
     }
-    return result.build();
   }
 
   /**
@@ -199,11 +208,16 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
     repository.computeMerkleDigests(root);
     Digest actionDigest = digestUtil.compute(action);
     Digest commandDigest = digestUtil.compute(command);
+    // If the inputs of this action were uploaded before, the remote executor must have reported
+    // some of them missing, so don't trust the digests previously found present.
+    boolean trustKnownPresent =
+        actionsWithInputsPresent.asMap().putIfAbsent(actionDigest, true) == null;
     // TODO(olaola): avoid querying all the digests, only ask for novel subtrees.
     ImmutableSet<Digest> missingDigests =
         getMissingDigests(
             Iterables.concat(
-                repository.getAllDigests(root), ImmutableList.of(actionDigest, commandDigest)));
+                repository.getAllDigests(root), ImmutableList.of(actionDigest, commandDigest)),
+            trustKnownPresent);
 
     List<Chunker> toUpload = new ArrayList<>();
     // Only upload data that was missing from the cache.
@@ -212,7 +226,8 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
     HashSet<Digest> missingTreeDigests = new HashSet<>(missingDigests);
     missingTreeDigests.remove(commandDigest);
     missingTreeDigests.remove(actionDigest);
-    repository.getDataFromDigests(missingTreeDigests, missingActionInputs, missingTreeNodes);
+    repository.getDataFromDigests(
+        root, missingTreeDigests, missingActionInputs, missingTreeNodes);
 
     if (missingDigests.contains(actionDigest)) {
       toUpload.add(
@@ -237,6 +252,7 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
       }
     }
     uploader.uploadBlobs(toUpload, true);
+    missingDigestsFinder.markPresent(missingDigests);
   }
 
   @Override
@@ -375,6 +391,7 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
 
     if (!filesToUpload.isEmpty()) {
       uploader.uploadBlobs(filesToUpload, /*forceUpload=*/true);
+      missingDigestsFinder.markPresent(digestsToUpload);
     }
 
     // TODO(olaola): inline small stdout/stderr here.
@@ -399,6 +416,7 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
     ImmutableSet<Digest> missing = getMissingDigests(ImmutableList.of(digest));
     if (!missing.isEmpty()) {
       uploader.uploadBlob(Chunker.builder(digestUtil).setInput(digest, file).build(), true);
+      missingDigestsFinder.markPresent(missing);
     }
     return digest;
   }
@@ -408,6 +426,7 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
     ImmutableSet<Digest> missing = getMissingDigests(ImmutableList.of(digest));
     if (!missing.isEmpty()) {
       uploader.uploadBlob(Chunker.builder(digestUtil).setInput(digest, blob).build(), true);
+      missingDigestsFinder.markPresent(missing);
     }
     return digest;
   }
@@ -0,0 +1,313 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import build.bazel.remote.execution.v2.Digest;
+import build.bazel.remote.execution.v2.FindMissingBlobsRequest;
+import build.bazel.remote.execution.v2.FindMissingBlobsResponse;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.remote.util.TracingMetadataUtils;
+import io.grpc.Context;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Answers which digests the remote CAS is missing, coalescing the queries of concurrently
+ * executing actions into as few {@code FindMissingBlobs} calls as possible.
+ *
+ * <p>Digests queried within a batching window are sent together, split only to respect the
+ * maximum number of digests per request. A digest that is already being queried is not sent again,
+ * and a digest the CAS reported present (or that was uploaded) is not queried again during the
+ * lifetime of this object, which is one build.
+ */
+@ThreadSafe
+final class MissingDigestsFinder {
+
+  private static final Logger logger = Logger.getLogger(MissingDigestsFinder.class.getName());
+
+  /** The action id of the request metadata of batched calls, which are for several actions. */
+  private static final String BATCH_ACTION_ID = "find-missing-blobs";
+
+  /** Sends a single {@code FindMissingBlobs} request. */
+  @FunctionalInterface
+  interface FindMissingBlobsCall {
+    ListenableFuture<FindMissingBlobsResponse> call(FindMissingBlobsRequest request)
+        throws IOException, InterruptedException;
+  }
+
+  private final String instanceName;
+  private final int maxDigestsPerRequest;
+  private final long batchWindowMillis;
+  private final FindMissingBlobsCall findMissingBlobs;
+  @Nullable private final ScheduledExecutorService batchScheduler;
+
+  private final Set<Digest> knownPresent = ConcurrentHashMap.newKeySet();
+
+  private final Object lock = new Object();
+
+  /**
+   * The digests being queried, whether sent already or waiting in {@link #queued}. The future
+   * completes with whether the digest is missing.
+   */
+  @GuardedBy("lock")
+  private final Map<Digest, SettableFuture<Boolean>> queries = new HashMap<>();
+
+  @GuardedBy("lock")
+  private final List<Digest> queued = new ArrayList<>();
+
+  /** The context to send {@link #queued} in, which has the request metadata of the build. */
+  @GuardedBy("lock")
+  private Context queuedContext;
+
+  @GuardedBy("lock")
+  private boolean flushScheduled;
+
+  private final AtomicLong lookups = new AtomicLong();
+  private final AtomicLong digestsLookedUp = new AtomicLong();
+  private final AtomicLong rpcs = new AtomicLong();
+  private final AtomicLong digestsSent = new AtomicLong();
+
+  MissingDigestsFinder(
+      String instanceName,
+      int maxDigestsPerRequest,
+      long batchWindowMillis,
+      FindMissingBlobsCall findMissingBlobs) {
+    checkArgument(maxDigestsPerRequest > 0, "maxDigestsPerRequest must be gt 0.");
+    checkArgument(batchWindowMillis >= 0, "batchWindowMillis must be ge 0.");
+    this.instanceName = instanceName;
+    this.maxDigestsPerRequest = maxDigestsPerRequest;
+    this.batchWindowMillis = batchWindowMillis;
+    this.findMissingBlobs = findMissingBlobs;
+    this.batchScheduler =
+        batchWindowMillis > 0
+            ? Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                    .setNameFormat("find-missing-blobs-%d")
+                    .setDaemon(true)
+                    .build())
+            : null;
+  }
+
+  /** Returns the subset of {@code digests} that the remote CAS is missing. */
+  ListenableFuture<ImmutableSet<Digest>> findMissingDigests(Iterable<Digest> digests) {
+    return findMissingDigests(digests, /* trustKnownPresent= */ true);
+  }
+
+  /**
+   * Returns the subset of {@code digests} that the remote CAS is missing. If {@code
+   * trustKnownPresent} is false, digests previously found present are queried again, e.g. because
+   * the remote executor reported them missing.
+   */
+  ListenableFuture<ImmutableSet<Digest>> findMissingDigests(
+      Iterable<Digest> digests, boolean trustKnownPresent) {
+    lookups.incrementAndGet();
+    Set<Digest> seen = new HashSet<>();
+    Map<Digest, ListenableFuture<Boolean>> results = new LinkedHashMap<>();
+    List<List<Digest>> fullBatches = new ArrayList<>();
+    // A batch carries the digests of several callers, so it must not be cancelled with one of them
+    // nor be attributed to one of them.
+    Context ctx =
+        batchScheduler == null
+            ? Context.current()
+            : TracingMetadataUtils.rootContextWithActionId(BATCH_ACTION_ID);
+    synchronized (lock) {
+      for (Digest digest : digests) {
+        if (!seen.add(digest)) {
+          continue;
+        }
+        digestsLookedUp.incrementAndGet();
+        if (trustKnownPresent && knownPresent.contains(digest)) {
+          continue;
+        }
+        SettableFuture<Boolean> query = queries.get(digest);
+        if (query == null) {
+          query = SettableFuture.create();
+          queries.put(digest, query);
+          if (queued.isEmpty()) {
+            queuedContext = ctx;
+          }
+          queued.add(digest);
+          if (queued.size() == maxDigestsPerRequest) {
+            fullBatches.add(takeQueued());
+          }
+        }
+        results.put(digest, query);
+      }
+      if (!queued.isEmpty()) {
+        if (batchScheduler == null) {
+          fullBatches.add(takeQueued());
+        } else if (!flushScheduled) {
+          flushScheduled = true;
+          batchScheduler.schedule(this::flush, batchWindowMillis, TimeUnit.MILLISECONDS);
+        }
+      }
+    }
+    for (List<Digest> batch : fullBatches) {
+      send(batch, ctx);
+    }
+
+    if (results.isEmpty()) {
+      return Futures.immediateFuture(ImmutableSet.of());
+    }
+    ImmutableList<Digest> resultDigests = ImmutableList.copyOf(results.keySet());
+    return Futures.transform(
+        Futures.allAsList(results.values()),
+        (missing) -> {
+          ImmutableSet.Builder<Digest> missingDigests = ImmutableSet.builder();
+          for (int i = 0; i < missing.size(); i++) {
+            if (missing.get(i)) {
+              missingDigests.add(resultDigests.get(i));
+            }
+          }
+          return missingDigests.build();
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Records that the remote CAS now has {@code digests}, e.g. because they were just uploaded, so
+   * that they are not queried again.
+   */
+  void markPresent(Iterable<Digest> digests) {
+    for (Digest digest : digests) {
+      knownPresent.add(digest);
+    }
+  }
+
+  void close() {
+    if (batchScheduler != null) {
+      batchScheduler.shutdownNow();
+      List<SettableFuture<Boolean>> unsent = new ArrayList<>();
+      synchronized (lock) {
+        for (Digest digest : takeQueued()) {
+          unsent.add(queries.remove(digest));
+        }
+      }
+      for (SettableFuture<Boolean> query : unsent) {
+        query.setException(new IOException("The remote cache was closed."));
+      }
+    }
+    long lookups = this.lookups.get();
+    if (lookups > 0) {
+      logger.info(
+          String.format(
+              "FindMissingBlobs: %d lookups of %d digests were sent as %d calls with %d digests.",
+              lookups, digestsLookedUp.get(), rpcs.get(), digestsSent.get()));
+    }
+  }
+
+  long getRpcCount() {
+    return rpcs.get();
+  }
+
+  long getDigestsSentCount() {
+    return digestsSent.get();
+  }
+
+  @GuardedBy("lock")
+  private List<Digest> takeQueued() {
+    List<Digest> batch = new ArrayList<>(queued);
+    queued.clear();
+    return batch;
+  }
+
+  private void flush() {
+    List<Digest> batch;
+    Context ctx;
+    synchronized (lock) {
+      flushScheduled = false;
+      if (queued.isEmpty()) {
+        return;
+      }
+      batch = takeQueued();
+      ctx = queuedContext;
+    }
+    // Digests queued while this batch is being sent go into the next batch.
+    for (int start = 0; start < batch.size(); start += maxDigestsPerRequest) {
+      send(batch.subList(start, Math.min(batch.size(), start + maxDigestsPerRequest)), ctx);
+    }
+  }
+
+  private void send(List<Digest> batch, Context ctx) {
+    rpcs.incrementAndGet();
+    digestsSent.addAndGet(batch.size());
+    FindMissingBlobsRequest request =
+        FindMissingBlobsRequest.newBuilder()
+            .setInstanceName(instanceName)
+            .addAllBlobDigests(batch)
+            .build();
+    ListenableFuture<FindMissingBlobsResponse> response;
+    try {
+      response = ctx.call(() -> findMissingBlobs.call(request));
+    } catch (Exception e) {
+      response = Futures.immediateFailedFuture(e);
+    }
+    ListenableFuture<FindMissingBlobsResponse> finalResponse = response;
+    response.addListener(() -> complete(batch, finalResponse), MoreExecutors.directExecutor());
+  }
+
+  private void complete(List<Digest> batch, ListenableFuture<FindMissingBlobsResponse> response) {
+    Set<Digest> missing = null;
+    Throwable error = null;
+    try {
+      missing = new HashSet<>(Futures.getDone(response).getMissingBlobDigestsList());
+    } catch (ExecutionException e) {
+      error = e.getCause();
+    } catch (CancellationException e) {
+      error = e;
+    }
+    List<SettableFuture<Boolean>> batchQueries = new ArrayList<>(batch.size());
+    synchronized (lock) {
+      for (Digest digest : batch) {
+        if (missing != null && !missing.contains(digest)) {
+          knownPresent.add(digest);
+        }
+        batchQueries.add(queries.remove(digest));
+      }
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      SettableFuture<Boolean> query = batchQueries.get(i);
+      if (error != null) {
+        query.setException(error);
+      } else {
+        query.set(missing.contains(batch.get(i)));
+      }
+    }
+  }
+}
@@ -19,6 +19,7 @@ import build.bazel.remote.execution.v2.ServerCapabilities;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.devtools.build.lib.authandtls.AuthAndTLSOptions;
@@ -26,9 +27,12 @@ import com.google.devtools.build.lib.authandtls.GoogleAuthUtils;
 import com.google.devtools.build.lib.buildeventstream.BuildEventArtifactUploader;
 import com.google.devtools.build.lib.buildeventstream.LocalFilesArtifactUploader;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.buildtool.buildevent.BuildCompleteEvent;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.exec.ExecutorBuilder;
+import com.google.devtools.build.lib.remote.blobstore.OnDiskBlobStore;
+import com.google.devtools.build.lib.remote.blobstore.SimpleBlobStore;
 import com.google.devtools.build.lib.remote.logging.LoggingInterceptor;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
 import com.google.devtools.build.lib.remote.util.TracingMetadataUtils;
@@ -55,10 +59,12 @@ import io.grpc.Context;
 import io.grpc.Status.Code;
 import io.grpc.protobuf.StatusProto;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
 /** RemoteModule provides distributed cache and remote execution for Bazel. */
 public final class RemoteModule extends BlazeModule {
@@ -68,6 +74,13 @@ public final class RemoteModule extends BlazeModule {
   private final ListeningScheduledExecutorService retryScheduler =
       MoreExecutors.listeningDecorator(Executors.newScheduledThreadPool(1));
   private RemoteActionContextProvider actionContextProvider;
+  /** The disk cache of the current command, whose stats are reported. */
+  @Nullable private OnDiskBlobStore diskCache;
+  /**
+   * The size-bounded disk cache, kept across commands like the action cache, so that its index is
+   * not read from disk again by every command.
+   */
+  @Nullable private OnDiskBlobStore boundedDiskCache;
 
   private final BuildEventArtifactUploaderFactoryDelegate
       buildEventArtifactUploaderFactoryDelegate = new BuildEventArtifactUploaderFactoryDelegate();
@@ -226,7 +239,12 @@ public final class RemoteModule extends BlazeModule {
                 cacheChannel.retain(),
                 credentials,
                 remoteOptions.remoteTimeout,
-                rpcRetrier);
+                rpcRetrier,
+                // Splicing is a protocol extension that servers do not advertise, so it is only
+                // used if the user asserted that the server supports it.
+                remoteOptions.experimentalRemoteContentDefinedChunking
+                    ? new ContentDefinedChunker(digestUtil)
+                    : null);
         cacheChannel.release();
         cache =
             new GrpcRemoteCache(
@@ -255,15 +273,18 @@ public final class RemoteModule extends BlazeModule {
                 retryScheduler,
                 Retrier.ALLOW_ALL_CALLS);
         executeRetrier = null;
-        cache =
-            new SimpleBlobStoreActionCache(
-                remoteOptions,
-                SimpleBlobStoreFactory.create(
+        SimpleBlobStore blobStore =
+            enableDiskCache && !enableRestCache && remoteOptions.experimentalDiskCacheMaxSizeMb > 0
+                ? getBoundedDiskCache(env, remoteOptions)
+                : SimpleBlobStoreFactory.create(
                     remoteOptions,
                     GoogleAuthUtils.newCredentials(authAndTlsOptions),
-                    env.getWorkingDirectory()),
-                retrier,
-                digestUtil);
+                    env.getWorkingDirectory(),
+                    env.getOutputBase());
+        if (blobStore instanceof OnDiskBlobStore) {
+          diskCache = (OnDiskBlobStore) blobStore;
+        }
+        cache = new SimpleBlobStoreActionCache(remoteOptions, blobStore, retrier, digestUtil);
       }
 
       GrpcRemoteExecutor executor = null;
@@ -292,6 +313,32 @@ public final class RemoteModule extends BlazeModule {
     }
   }
 
+  /**
+   * Returns the size-bounded disk cache of the previous commands if it has the same settings and
+   * its directory still exists. Otherwise, shuts it down and replaces it with a new one.
+   */
+  private OnDiskBlobStore getBoundedDiskCache(CommandEnvironment env, RemoteOptions options)
+      throws IOException {
+    Path cacheDir = env.getWorkingDirectory().getRelative(options.diskCache);
+    long maxSizeBytes = options.experimentalDiskCacheMaxSizeMb * 1024 * 1024;
+    if (boundedDiskCache != null
+        && boundedDiskCache.hasSettings(cacheDir, maxSizeBytes)
+        && cacheDir.exists()) {
+      boundedDiskCache.resetStats();
+      return boundedDiskCache;
+    }
+    if (boundedDiskCache != null) {
+      boundedDiskCache.shutdown();
+    }
+    boundedDiskCache =
+        SimpleBlobStoreFactory.createDiskCache(
+            env.getWorkingDirectory(),
+            options.diskCache,
+            options.experimentalDiskCacheMaxSizeMb,
+            env.getOutputBase());
+    return boundedDiskCache;
+  }
+
   private void checkClientServerCompatibility(
       ServerCapabilities capabilities,
       RemoteOptions remoteOptions,
@@ -313,8 +360,24 @@ public final class RemoteModule extends BlazeModule {
     }
   }
 
+  @Subscribe
+  public void buildComplete(BuildCompleteEvent event) {
+    if (diskCache != null) {
+      event
+          .getResult()
+          .getBuildToolLogCollection()
+          .addDirectValue(
+              "disk cache stats", diskCache.getStatsSummary().getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
   @Override
   public void afterCommand() {
+    if (diskCache != null) {
+      // Usually saved at the end of the execution phase already, but not if there was none.
+      diskCache.close();
+      diskCache = null;
+    }
     if (rpcLogFile != null) {
       try {
         rpcLogFile.close();
@@ -327,6 +390,14 @@ public final class RemoteModule extends BlazeModule {
     buildEventArtifactUploaderFactoryDelegate.reset();
   }
 
+  @Override
+  public void blazeShutdown() {
+    if (boundedDiskCache != null) {
+      boundedDiskCache.shutdown();
+      boundedDiskCache = null;
+    }
+  }
+
   @Override
   public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
     if (actionContextProvider != null) {
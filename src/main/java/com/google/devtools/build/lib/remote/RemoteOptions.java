@@ -207,6 +207,18 @@ public final class RemoteOptions extends OptionsBase {
   )
   public PathFragment diskCache;
 
+  @Option(
+      name = "experimental_disk_cache_max_size_mb",
+      defaultValue = "0",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      metadataTags = {OptionMetadataTag.EXPERIMENTAL},
+      help =
+          "The maximum size of the --disk_cache directory in megabytes. Once it is exceeded, the "
+              + "least recently used entries are deleted in the background. If 0, the disk cache "
+              + "grows without bound.")
+  public long experimentalDiskCacheMaxSizeMb;
+
   @Option(
     name = "experimental_guard_against_concurrent_changes",
     defaultValue = "false",
@@ -252,6 +264,36 @@ public final class RemoteOptions extends OptionsBase {
               + "symlinks and represent them as files. See #6631 for details.")
   public boolean incompatibleRemoteSymlinks;
 
+  @Option(
+      name = "experimental_remote_content_defined_chunking",
+      defaultValue = "false",
+      category = "remote",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {OptionEffectTag.EXECUTION},
+      metadataTags = {OptionMetadataTag.EXPERIMENTAL},
+      help =
+          "If set to true, large blobs are uploaded to the remote cache in content-defined "
+              + "chunks, and only the chunks the cache does not have yet are transferred. The "
+              + "cache then reassembles each blob from a splice manifest written to the ByteStream "
+              + "resource name '[{instance_name}/]uploads/{uuid}/splices/{hash}/{size}'. This is "
+              + "not part of the Remote Execution API and servers do not advertise it, so only "
+              + "set this if the cache is known to support it. Once a splice fails, blobs are "
+              + "uploaded whole for the rest of the command.")
+  public boolean experimentalRemoteContentDefinedChunking;
+
+  @Option(
+      name = "experimental_remote_find_missing_blobs_batch_window_millis",
+      defaultValue = "0",
+      category = "remote",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      metadataTags = {OptionMetadataTag.EXPERIMENTAL},
+      help =
+          "The time in milliseconds for which the remote cache lookups of concurrently executing "
+              + "actions are collected and sent together in batched FindMissingBlobs calls. If 0, "
+              + "each action's lookup is sent immediately.")
+  public long experimentalRemoteFindMissingBlobsBatchWindowMillis;
+
   @Option(
       name = "build_event_upload_max_threads",
       defaultValue = "100",
@@ -68,6 +68,8 @@ final class RemoteSpawnCache implements SpawnCache {
   private final Set<String> reportedErrors = new HashSet<>();
 
   private final DigestUtil digestUtil;
+  private final TreeNodeRepository.MerkleTreeCache merkleTreeCache =
+      new TreeNodeRepository.MerkleTreeCache();
 
   RemoteSpawnCache(
       Path execRoot,
@@ -102,7 +104,8 @@ final class RemoteSpawnCache implements SpawnCache {
             execRoot,
             context.getMetadataProvider(),
             digestUtil,
-            options.incompatibleRemoteSymlinks);
+            options.incompatibleRemoteSymlinks,
+            merkleTreeCache);
     TreeNode inputRoot;
     try (SilentCloseable c = Profiler.instance().profile("RemoteCache.computeMerkleDigests")) {
       inputRoot = repository.buildFromActionInputs(inputMap);
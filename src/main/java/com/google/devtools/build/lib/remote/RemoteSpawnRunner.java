@@ -98,6 +98,8 @@ class RemoteSpawnRunner implements SpawnRunner {
   private final String commandId;
   private final DigestUtil digestUtil;
   private final Path logDir;
+  private final TreeNodeRepository.MerkleTreeCache merkleTreeCache =
+      new TreeNodeRepository.MerkleTreeCache();
 
   // Used to ensure that a warning is reported only once.
   private final AtomicBoolean warningReported = new AtomicBoolean();
@@ -148,7 +150,11 @@ class RemoteSpawnRunner implements SpawnRunner {
     MetadataProvider inputFileCache = context.getMetadataProvider();
     TreeNodeRepository repository =
         new TreeNodeRepository(
-            execRoot, inputFileCache, digestUtil, remoteOptions.incompatibleRemoteSymlinks);
+            execRoot,
+            inputFileCache,
+            digestUtil,
+            remoteOptions.incompatibleRemoteSymlinks,
+            merkleTreeCache);
     SortedMap<PathFragment, ActionInput> inputMap = context.getInputMapping(true);
     TreeNode inputRoot;
     try (SilentCloseable c = Profiler.instance().profile("Remote.computeMerkleDigests")) {
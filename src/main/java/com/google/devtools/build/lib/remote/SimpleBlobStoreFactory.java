@@ -20,6 +20,7 @@ import com.google.auth.Credentials;
 import com.google.devtools.build.lib.remote.blobstore.OnDiskBlobStore;
 import com.google.devtools.build.lib.remote.blobstore.SimpleBlobStore;
 import com.google.devtools.build.lib.remote.blobstore.http.HttpBlobStore;
+import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import io.netty.channel.unix.DomainSocketAddress;
@@ -59,21 +60,43 @@ public final class SimpleBlobStoreFactory {
 
   public static SimpleBlobStore createDiskCache(Path workingDirectory, PathFragment diskCachePath)
       throws IOException {
+    return createDiskCache(workingDirectory, diskCachePath, 0, /* outputBase= */ null);
+  }
+
+  /**
+   * Creates an {@link OnDiskBlobStore} that evicts least recently used entries once it grows past
+   * {@code maxSizeMb} megabytes, or never if {@code maxSizeMb} is 0. The index of the entries is
+   * kept per {@code outputBase}.
+   */
+  public static OnDiskBlobStore createDiskCache(
+      Path workingDirectory, PathFragment diskCachePath, long maxSizeMb, Path outputBase)
+      throws IOException {
     Path cacheDir = workingDirectory.getRelative(checkNotNull(diskCachePath));
     if (!cacheDir.exists()) {
       cacheDir.createDirectoryAndParents();
     }
-    return new OnDiskBlobStore(cacheDir);
+    // Only one server uses an output base at a time, and it does so from whichever subdirectory of
+    // the workspace it is run from.
+    return maxSizeMb > 0
+        ? new OnDiskBlobStore(
+            cacheDir,
+            maxSizeMb * 1024 * 1024,
+            Fingerprint.getHexDigest(outputBase.getPathString()))
+        : new OnDiskBlobStore(cacheDir);
   }
 
   public static SimpleBlobStore create(
-      RemoteOptions options, @Nullable Credentials creds, @Nullable Path workingDirectory)
+      RemoteOptions options,
+      @Nullable Credentials creds,
+      @Nullable Path workingDirectory,
+      @Nullable Path outputBase)
       throws IOException {
     if (isRestUrlOptions(options)) {
       return createRest(options, creds);
     }
-    if (workingDirectory != null && isDiskCache(options)) {
-      return createDiskCache(workingDirectory, options.diskCache);
+    if (workingDirectory != null && outputBase != null && isDiskCache(options)) {
+      return createDiskCache(
+          workingDirectory, options.diskCache, options.experimentalDiskCacheMaxSizeMb, outputBase);
     }
     throw new IllegalArgumentException(
         "Unrecognized concurrent map RemoteOptions: must specify "
@@ -14,19 +14,20 @@
 
 package com.google.devtools.build.lib.remote;
 
-import static java.nio.charset.StandardCharsets.US_ASCII;
-
 import build.bazel.remote.execution.v2.Digest;
 import build.bazel.remote.execution.v2.Directory;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Interner;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 import com.google.common.graph.Traverser;
-import com.google.common.io.BaseEncoding;
 import com.google.devtools.build.lib.actions.ActionInput;
 import com.google.devtools.build.lib.actions.ActionInputHelper;
 import com.google.devtools.build.lib.actions.DigestOfDirectoryException;
@@ -42,16 +43,15 @@ import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.Symlinks;
-import com.google.protobuf.ByteString;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.concurrent.ConcurrentHashMap;
 import javax.annotation.Nullable;
@@ -62,8 +62,6 @@ import javax.annotation.Nullable;
  */
 @ThreadSafe
 public final class TreeNodeRepository {
-  private static final BaseEncoding LOWER_CASE_HEX = BaseEncoding.base16().lowerCase();
-
   private final Traverser<TreeNode> traverser =
       Traverser.forTree((TreeNode node) -> children(node));
 
@@ -213,23 +211,65 @@ public final class TreeNodeRepository {
     }
   }
 
+  /**
+   * The {@link Directory} message of a directory {@link TreeNode}, and its Merkle digest.
+   */
+  @Immutable
+  private static final class DirectoryNode {
+    private final Directory directory;
+    private final Digest digest;
+
+    private DirectoryNode(Directory directory, Digest digest) {
+      this.directory = directory;
+      this.digest = digest;
+    }
+  }
+
+  /**
+   * Interns {@link TreeNode}s and caches the {@link Directory} messages and Merkle digests of
+   * directories, to be shared by the repositories of all actions of a build. Actions often have
+   * large parts of their inputs in common (e.g. the same classpath), whose subtrees are then
+   * interned to the same nodes and digested only once.
+   *
+   * <p>The cache is bounded. Evicted directories are digested again when needed.
+   */
+  @ThreadSafe
+  public static final class MerkleTreeCache {
+    private static final long DEFAULT_MAX_DIRECTORIES = 100_000;
+
+    // Keep only one canonical instance of every TreeNode.
+    private final Interner<TreeNode> interner = BlazeInterners.newWeakInterner();
+    private final Cache<TreeNode, DirectoryNode> directories;
+
+    public MerkleTreeCache() {
+      this(DEFAULT_MAX_DIRECTORIES);
+    }
+
+    @VisibleForTesting
+    MerkleTreeCache(long maxDirectories) {
+      directories =
+          CacheBuilder.newBuilder()
+              .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+              .maximumSize(maxDirectories)
+              .build();
+    }
+
+    @VisibleForTesting
+    long size() {
+      return directories.size();
+    }
+  }
+
   private static final TreeNode EMPTY_NODE =
       new TreeNode(ImmutableList.<TreeNode.ChildEntry>of(), null);
 
-  // Keep only one canonical instance of every TreeNode in the repository.
-  private final Interner<TreeNode> interner = BlazeInterners.newWeakInterner();
+  private final Interner<TreeNode> interner;
+  private final Cache<TreeNode, DirectoryNode> directoryCache;
   // Merkle hashes are computed and cached by the repository, therefore execRoot must
   // be part of the state.
   private final Path execRoot;
   private final MetadataProvider inputFileCache;
-  private final Map<ByteString, ActionInput> reverseInputMap = new ConcurrentHashMap<>();
-  // For directories that are themselves artifacts, map of the ActionInput to the Merkle hash
-  private final Map<ActionInput, Digest> inputDirectoryDigestCache = new HashMap<>();
-  private final Map<TreeNode, Digest> treeNodeDigestCache = new HashMap<>();
-  private final Map<Digest, TreeNode> digestTreeNodeCache = new HashMap<>();
-  private final Map<TreeNode, Directory> directoryCache = new HashMap<>();
-  private final Map<VirtualActionInput, Digest> virtualInputDigestCache = new HashMap<>();
-  private final Map<Digest, VirtualActionInput> digestVirtualInputCache = new HashMap<>();
+  private final Map<VirtualActionInput, Digest> virtualInputDigestCache = new ConcurrentHashMap<>();
   private final DigestUtil digestUtil;
   private final boolean uploadSymlinks;
 
@@ -238,10 +278,25 @@ public final class TreeNodeRepository {
       MetadataProvider inputFileCache,
       DigestUtil digestUtil,
       boolean uploadSymlinks) {
+    this(execRoot, inputFileCache, digestUtil, uploadSymlinks, new MerkleTreeCache());
+  }
+
+  /**
+   * Creates a repository sharing {@code merkleTreeCache} with other repositories. All of them must
+   * see the same metadata for the same inputs, i.e. belong to the same build.
+   */
+  public TreeNodeRepository(
+      Path execRoot,
+      MetadataProvider inputFileCache,
+      DigestUtil digestUtil,
+      boolean uploadSymlinks,
+      MerkleTreeCache merkleTreeCache) {
     this.execRoot = execRoot;
     this.inputFileCache = inputFileCache;
     this.digestUtil = digestUtil;
     this.uploadSymlinks = uploadSymlinks;
+    this.interner = merkleTreeCache.interner;
+    this.directoryCache = merkleTreeCache.directories;
   }
 
   public MetadataProvider getInputFileCache() {
@@ -382,166 +437,150 @@ public final class TreeNodeRepository {
     return interner.intern(new TreeNode(entries, null));
   }
 
-  private synchronized Directory getOrComputeDirectory(TreeNode node) throws IOException {
-    // Assumes all child digests have already been computed!
+  private DirectoryNode getOrComputeDirectory(TreeNode node) throws IOException {
     Preconditions.checkArgument(!node.isLeaf());
-    Directory directory = directoryCache.get(node);
-    if (directory == null) {
-      Directory.Builder b = Directory.newBuilder();
-      for (TreeNode.ChildEntry entry : node.getChildEntries()) {
-        TreeNode child = entry.getChild();
-        if (child.isLeaf()) {
-          ActionInput input = child.getActionInput();
-          if (input instanceof VirtualActionInput) {
-            VirtualActionInput virtualInput = (VirtualActionInput) input;
-            Digest digest = digestUtil.compute(virtualInput);
-            virtualInputDigestCache.put(virtualInput, digest);
-            // There may be multiple inputs with the same digest. In that case, we don't care which
-            // one we get back from the digestVirtualInputCache later.
-            digestVirtualInputCache.put(digest, virtualInput);
-            b.addFilesBuilder().setName(entry.getSegment()).setDigest(digest).setIsExecutable(true);
-            continue;
-          }
-          if (uploadSymlinks) {
-            // We need to stat the input to check whether it is a symlink.
-            // getInputMetadata only gives target metadata.
-            Path inputPath = execRoot.getRelative(input.getExecPath());
-            FileStatus stat = inputPath.stat(Symlinks.NOFOLLOW);
-            if (stat.isSymbolicLink()) {
-              PathFragment target = inputPath.readSymbolicLink();
-              if (!target.isAbsolute()) {
-                b.addSymlinksBuilder().setName(entry.getSegment()).setTarget(target.toString());
-                continue;
-              }
-            }
-          }
-          Digest digest = DigestUtil.getFromInputCache(input, inputFileCache);
+    DirectoryNode directoryNode = directoryCache.getIfPresent(node);
+    if (directoryNode != null) {
+      // Strong assumption: the cache is valid for the lifetime of the repository.
+      return directoryNode;
+    }
+    Directory.Builder b = Directory.newBuilder();
+    for (TreeNode.ChildEntry entry : node.getChildEntries()) {
+      TreeNode child = entry.getChild();
+      if (child.isLeaf()) {
+        ActionInput input = child.getActionInput();
+        if (input instanceof VirtualActionInput) {
+          Digest digest = getVirtualInputDigest((VirtualActionInput) input);
           b.addFilesBuilder().setName(entry.getSegment()).setDigest(digest).setIsExecutable(true);
-        } else {
-          Digest childDigest = Preconditions.checkNotNull(treeNodeDigestCache.get(child));
-          if (child.getActionInput() != null) {
-            inputDirectoryDigestCache.put(child.getActionInput(), childDigest);
+          continue;
+        }
+        if (uploadSymlinks) {
+          // We need to stat the input to check whether it is a symlink.
+          // getInputMetadata only gives target metadata.
+          Path inputPath = execRoot.getRelative(input.getExecPath());
+          FileStatus stat = inputPath.stat(Symlinks.NOFOLLOW);
+          if (stat.isSymbolicLink()) {
+            PathFragment target = inputPath.readSymbolicLink();
+            if (!target.isAbsolute()) {
+              b.addSymlinksBuilder().setName(entry.getSegment()).setTarget(target.toString());
+              continue;
+            }
           }
-          b.addDirectoriesBuilder().setName(entry.getSegment()).setDigest(childDigest);
         }
+        Digest digest = DigestUtil.getFromInputCache(input, inputFileCache);
+        b.addFilesBuilder().setName(entry.getSegment()).setDigest(digest).setIsExecutable(true);
+      } else {
+        Digest childDigest = getOrComputeDirectory(child).digest;
+        b.addDirectoriesBuilder().setName(entry.getSegment()).setDigest(childDigest);
       }
-      directory = b.build();
-      directoryCache.put(node, directory);
-      Digest digest = digestUtil.compute(directory);
-      treeNodeDigestCache.put(node, digest);
-      digestTreeNodeCache.put(digest, node);
     }
-    return directory;
+    Directory directory = b.build();
+    directoryNode = new DirectoryNode(directory, digestUtil.compute(directory));
+    directoryCache.put(node, directoryNode);
+    return directoryNode;
   }
 
-  // Recursively traverses the tree, expanding and computing Merkle digests for nodes for which
-  // they have not yet been computed and cached.
-  public void computeMerkleDigests(TreeNode root) throws IOException {
-    synchronized (this) {
-      if (directoryCache.get(root) != null) {
-        // Strong assumption: the cache is valid, i.e. parent present implies children present.
-        return;
-      }
+  private Digest getVirtualInputDigest(VirtualActionInput input) throws IOException {
+    Digest digest = virtualInputDigestCache.get(input);
+    if (digest == null) {
+      digest = digestUtil.compute(input);
+      virtualInputDigestCache.put(input, digest);
     }
+    return digest;
+  }
+
+  /**
+   * Computes and caches the Merkle digests of all directories in the tree, unless already cached.
+   */
+  public void computeMerkleDigests(TreeNode root) throws IOException {
     if (!root.isLeaf()) {
-      for (TreeNode child : children(root)) {
-        computeMerkleDigests(child);
-      }
       getOrComputeDirectory(root);
     }
   }
 
   /**
-   * Should only be used after computeMerkleDigests has been called on one of the node ancestors.
-   * Returns the precomputed digest.
+   * Returns the Merkle digest of a directory, or the contents digest of a file. Cheap after
+   * computeMerkleDigests has been called on one of the node ancestors.
    */
   public Digest getMerkleDigest(TreeNode node) throws IOException {
     return node.isLeaf()
         ? actionInputToDigest(node.getActionInput())
-        : treeNodeDigestCache.get(node);
+        : getOrComputeDirectory(node).digest;
   }
 
   /**
-   * Returns the precomputed digests for both data and metadata. Should only be used after
-   * computeMerkleDigests has been called on one of the node ancestors.
+   * Returns the digests for both data and metadata. Cheap after computeMerkleDigests has been
+   * called on one of the node ancestors.
    */
   public ImmutableCollection<Digest> getAllDigests(TreeNode root) throws IOException {
     ImmutableSet.Builder<Digest> digests = ImmutableSet.builder();
     for (TreeNode node : descendants(root)) {
-      digests.add(
-          node.isLeaf()
-              ? actionInputToDigest(node.getActionInput())
-              : Preconditions.checkNotNull(treeNodeDigestCache.get(node)));
+      digests.add(getMerkleDigest(node));
     }
     return digests.build();
   }
 
   private Digest actionInputToDigest(ActionInput input) throws IOException {
     if (input instanceof VirtualActionInput) {
-      return Preconditions.checkNotNull(virtualInputDigestCache.get(input));
+      return getVirtualInputDigest((VirtualActionInput) input);
     }
     FileArtifactValue metadata = getInputMetadata(input);
-    byte[] digest = metadata.getDigest();
-    if (digest == null) {
-      // If the artifact does not have a digest, it is because it is a directory.
-      // We get the digest from the set of Merkle hashes computed in this TreeNodeRepository.
-      return Preconditions.checkNotNull(
-          inputDirectoryDigestCache.get(input),
-          "a directory should have a precomputed Merkle hash (instead of a digest)");
-    }
+    // If the artifact does not have a digest, it is because it is a directory, which is never a
+    // leaf: its Merkle hash is the digest of its TreeNode.
+    Preconditions.checkNotNull(
+        metadata.getDigest(),
+        "a directory should have a precomputed Merkle hash (instead of a digest)");
     return DigestUtil.getFromInputCache(input, inputFileCache);
   }
 
   /**
    * Serializes all of the subtree to a Directory list. TODO(olaola): add a version that only copies
-   * a part of the tree that we are interested in. Should only be used after computeMerkleDigests
-   * has been called on one of the node ancestors.
+   * a part of the tree that we are interested in. Cheap after computeMerkleDigests has been called
+   * on one of the node ancestors.
    */
-  // Note: this is not, strictly speaking, thread safe. If someone is deleting cached Merkle hashes
-  // while this is executing, it will trigger an exception. But I think this is WAI.
-  public ImmutableList<Directory> treeToDirectories(TreeNode root) {
+  public ImmutableList<Directory> treeToDirectories(TreeNode root) throws IOException {
     ImmutableList.Builder<Directory> directories = ImmutableList.builder();
     for (TreeNode node : descendants(root)) {
       if (!node.isLeaf()) {
-        directories.add(Preconditions.checkNotNull(directoryCache.get(node)));
+        directories.add(getOrComputeDirectory(node).directory);
       }
     }
     return directories.build();
   }
 
   /**
-   * Should only be used on digests created by a call to computeMerkleDigests. Looks up ActionInputs
-   * or Directory messages by cached digests and adds them to the lists.
+   * Looks up the ActionInputs or Directory messages of the tree under {@code root} whose digests
+   * are among {@code digests}, and adds them to the maps.
    */
   public void getDataFromDigests(
+      TreeNode root,
       Iterable<Digest> digests,
       Map<Digest, ActionInput> actionInputs,
-      Map<Digest, Directory> nodes) {
-    for (Digest digest : digests) {
-      TreeNode treeNode = digestTreeNodeCache.get(digest);
-      if (treeNode != null) {
-        nodes.put(digest, Preconditions.checkNotNull(directoryCache.get(treeNode)));
-      } else { // If not there, it must be an ActionInput.
-        ByteString hexDigest = ByteString.copyFromUtf8(digest.getHash());
-        ActionInput input = reverseInputMap.get(hexDigest);
-        if (input == null) {
-          // ... or a VirtualActionInput.
-          input = digestVirtualInputCache.get(digest);
+      Map<Digest, Directory> nodes)
+      throws IOException {
+    Set<Digest> wanted = Sets.newHashSet(digests);
+    for (TreeNode node : descendants(root)) {
+      if (wanted.isEmpty()) {
+        return;
+      }
+      if (node.isLeaf()) {
+        Digest digest = actionInputToDigest(node.getActionInput());
+        if (wanted.remove(digest)) {
+          // There may be multiple inputs with the same digest. In that case, we don't care which
+          // one we get.
+          actionInputs.put(digest, node.getActionInput());
+        }
+      } else {
+        DirectoryNode directoryNode = getOrComputeDirectory(node);
+        if (wanted.remove(directoryNode.digest)) {
+          nodes.put(directoryNode.digest, directoryNode.directory);
         }
-        actionInputs.put(digest, Preconditions.checkNotNull(input));
       }
     }
   }
 
   private FileArtifactValue getInputMetadata(ActionInput input) throws IOException {
-    FileArtifactValue metadata =
-        Preconditions.checkNotNull(
-            inputFileCache.getMetadata(input), "Missing metadata for: %s", input);
-    if (metadata.getDigest() != null) {
-      reverseInputMap.put(
-          ByteString.copyFrom(LOWER_CASE_HEX.encode(metadata.getDigest()).getBytes(US_ASCII)),
-          input);
-    }
-    return metadata;
+    return Preconditions.checkNotNull(
+        inputFileCache.getMetadata(input), "Missing metadata for: %s", input);
   }
 }
@@ -15,43 +15,191 @@ package com.google.devtools.build.lib.remote.blobstore;
 
 import static com.google.devtools.build.lib.remote.util.Utils.getFromFuture;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.concurrent.GuardedBy;
 
-/** A on-disk store for the remote action cache. */
+/**
+ * A on-disk store for the remote action cache.
+ *
+ * <p>If a maximum size is given, the store keeps an index of its entries in least recently used
+ * order. Whenever the store grows past its maximum size, the least recently used entries are
+ * deleted in the background until it is back to {@link #LOW_WATERMARK} of the maximum size.
+ *
+ * <p>The index is persisted as a snapshot and a journal of the entries put, used and evicted since
+ * the snapshot. The changes are appended to the journal after each eviction, after every {@link
+ * #CHECKPOINT_INTERVAL} changes, and on {@link #close}. Once the journal has more records than the
+ * index has entries, a new snapshot is written atomically and the journal is started again, so the
+ * cost of persisting the index stays proportional to the changes. If Bazel crashes, the entries
+ * written since the last checkpoint are only counted once they are used again. The directory is
+ * only scanned if there is no usable snapshot. Each output base sharing the directory keeps its own
+ * index, as only one server uses an output base at a time, and entries written by other servers
+ * are added to it when they are used. A server keeps its store, and so the index in memory, across
+ * commands, and only calls {@link #shutdown} when it replaces it.
+ */
 public final class OnDiskBlobStore implements SimpleBlobStore {
-  private final Path root;
+  private static final Logger logger = Logger.getLogger(OnDiskBlobStore.class.getName());
+
   static final String ACTION_KEY_PREFIX = "ac_";
+  // Neither a hash nor a UUID, so it can't collide with an entry or a temporary file.
+  @VisibleForTesting static final String INDEX_FILE = ".lru_index";
+
+  private static final String JOURNAL_SUFFIX = ".journal";
+
+  private static final int INDEX_MAGIC = 0x4c525531;
+  private static final int JOURNAL_MAGIC = 0x4c52554a;
+  private static final int INDEX_VERSION = 2;
+  private static final byte JOURNAL_PUT = 1;
+  private static final byte JOURNAL_USE = 2;
+  private static final byte JOURNAL_REMOVE = 3;
+  private static final double LOW_WATERMARK = 0.9;
+  private static final int CHECKPOINT_INTERVAL = 1000;
+
+  private final Path root;
+  private final long maxSizeBytes;
+  private final Path indexFile;
+  private final Path journalFile;
+
+  /**
+   * Makes eviction and the writes and uses of the same key mutually exclusive, so that an entry
+   * that is put or used again while it is being evicted is not deleted.
+   */
+  private final Striped<Lock> keyLocks = Striped.lock(64);
+
+  /** Entry sizes in least recently used order, or null if the size is not bounded. */
+  @GuardedBy("this")
+  private final LinkedHashMap<String, Long> index;
+
+  @GuardedBy("this")
+  private long sizeBytes;
+
+  @GuardedBy("this")
+  private boolean evictionScheduled;
+
+  /** The changes to the index not yet appended to the journal. */
+  @GuardedBy("this")
+  private ByteArrayOutputStream pendingJournal = new ByteArrayOutputStream();
+
+  @GuardedBy("this")
+  private DataOutputStream pendingJournalOut = new DataOutputStream(pendingJournal);
+
+  @GuardedBy("this")
+  private int pendingJournalRecords;
+
+  /** Identifies the snapshot that the journal applies to. */
+  @GuardedBy("this")
+  private long generation;
+
+  /** The number of records in the journal file. Only used by the eviction thread. */
+  private long journalRecords;
+
+  /** Whether the journal file cannot be appended to. Only used by the eviction thread. */
+  private boolean journalNeedsCompaction;
+
+  @GuardedBy("this")
+  private boolean checkpointScheduled;
+
+  @GuardedBy("this")
+  private boolean closed;
+
+  private final ExecutorService evictionExecutor;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictedEntries = new AtomicLong();
+  private final AtomicLong evictedBytes = new AtomicLong();
 
   public OnDiskBlobStore(Path root) {
     this.root = root;
+    this.maxSizeBytes = 0;
+    this.indexFile = null;
+    this.journalFile = null;
+    this.index = null;
+    this.evictionExecutor = null;
+  }
+
+  /**
+   * Creates a store that evicts the least recently used entries once it grows past {@code
+   * maxSizeBytes}. The index is stored in a file named after {@code serverId}, which must be
+   * distinct for the Bazel servers sharing the directory.
+   */
+  public OnDiskBlobStore(Path root, long maxSizeBytes, String serverId) throws IOException {
+    Preconditions.checkArgument(maxSizeBytes > 0, "maxSizeBytes must be gt 0.");
+    this.root = root;
+    this.maxSizeBytes = maxSizeBytes;
+    this.indexFile = root.getChild(INDEX_FILE + "_" + serverId);
+    this.journalFile = root.getChild(indexFile.getBaseName() + JOURNAL_SUFFIX);
+    this.index = new LinkedHashMap<>(16, 0.75f, /* accessOrder= */ true);
+    this.evictionExecutor =
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("disk-cache-eviction-%d")
+                .setDaemon(true)
+                .build());
+    synchronized (this) {
+      loadIndex();
+      maybeScheduleEviction();
+    }
   }
 
   @Override
   public boolean containsKey(String key) {
-    return toPath(key).exists();
+    return recordAccess(key, toPath(key));
   }
 
   @Override
   public ListenableFuture<Boolean> get(String key, OutputStream out) {
     SettableFuture<Boolean> f = SettableFuture.create();
     Path p = toPath(key);
-    if (!p.exists()) {
+    // An entry can be evicted at any time, so a missing file is a miss rather than an error.
+    try (InputStream in = p.getInputStream()) {
+      ByteStreams.copy(in, out);
+      hits.incrementAndGet();
+      recordAccess(key, p);
+      f.set(true);
+    } catch (FileNotFoundException | NoSuchFileException e) {
+      misses.incrementAndGet();
       f.set(false);
-    } else {
-      try (InputStream in = p.getInputStream()) {
-        ByteStreams.copy(in, out);
-        f.set(true);
-      } catch (IOException e) {
-        f.setException(e);
-      }
+    } catch (IOException e) {
+      f.setException(e);
     }
     return f;
   }
@@ -65,18 +213,35 @@ public final class OnDiskBlobStore implements SimpleBlobStore {
   @Override
   public void put(String key, long length, InputStream in) throws IOException {
     Path target = toPath(key);
-    if (target.exists()) {
+    if (recordAccess(key, target)) {
       return;
     }
 
     // Write a temporary file first, and then rename, to avoid data corruption in case of a crash.
     Path temp = toPath(UUID.randomUUID().toString());
+    long size;
     try (OutputStream out = temp.getOutputStream()) {
-      ByteStreams.copy(in, out);
+      size = ByteStreams.copy(in, out);
     }
     // TODO(ulfjack): Fsync temp here before we rename it to avoid data loss in the case of machine
     // crashes (the OS may reorder the writes and the rename).
-    temp.renameTo(target);
+    if (index == null) {
+      temp.renameTo(target);
+      return;
+    }
+    Lock lock = keyLocks.get(key);
+    lock.lock();
+    try {
+      temp.renameTo(target);
+      synchronized (this) {
+        Long previous = index.put(key, size);
+        sizeBytes += size - (previous == null ? 0 : previous);
+        journal(JOURNAL_PUT, key, size);
+        maybeScheduleEviction();
+      }
+    } finally {
+      lock.unlock();
+    }
   }
 
   @Override
@@ -84,10 +249,405 @@ public final class OnDiskBlobStore implements SimpleBlobStore {
     put(ACTION_KEY_PREFIX + key, in.length, new ByteArrayInputStream(in));
   }
 
+  /**
+   * Persists the index once the eviction that is currently scheduled, if any, has finished. The
+   * store stays usable, so that it can be kept for the next command; see {@link #shutdown}.
+   */
   @Override
-  public void close() {}
+  public void close() {
+    if (index == null) {
+      return;
+    }
+    try {
+      evictionExecutor.submit(this::checkpoint).get();
+    } catch (RejectedExecutionException e) {
+      // Shut down, so the index was saved already.
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Waits for the eviction to finish, persists the index and stops the eviction thread. Only the
+   * first call has an effect. Entries put afterwards are neither indexed nor evicted.
+   */
+  public void shutdown() {
+    if (index == null) {
+      return;
+    }
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    evictionExecutor.shutdown();
+    try {
+      while (!evictionExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+        logger.warning("Still waiting for the disk cache eviction to finish.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    checkpoint();
+  }
+
+  /** Returns whether this store is in {@code root} and evicts entries past {@code maxSizeBytes}. */
+  public boolean hasSettings(Path root, long maxSizeBytes) {
+    return this.root.equals(root) && this.maxSizeBytes == maxSizeBytes;
+  }
+
+  /** Starts counting the hits, misses and evictions reported by {@link #getStatsSummary} anew. */
+  public void resetStats() {
+    hits.set(0);
+    misses.set(0);
+    evictedEntries.set(0);
+    evictedBytes.set(0);
+  }
+
+  /** Returns a summary of the hits, misses and evictions of this store, and its size. */
+  public String getStatsSummary() {
+    StringBuilder summary =
+        new StringBuilder()
+            .append(hits.get())
+            .append(" hits, ")
+            .append(misses.get())
+            .append(" misses");
+    if (index != null) {
+      synchronized (this) {
+        summary
+            .append(", ")
+            .append(evictedEntries.get())
+            .append(" entries (")
+            .append(evictedBytes.get())
+            .append(" bytes) evicted, ")
+            .append(index.size())
+            .append(" entries (")
+            .append(sizeBytes)
+            .append(" bytes) of at most ")
+            .append(maxSizeBytes)
+            .append(" bytes stored");
+      }
+    }
+    return summary.toString();
+  }
+
+  @VisibleForTesting
+  synchronized long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  @VisibleForTesting
+  Path getIndexFile() {
+    return indexFile;
+  }
+
+  /** Blocks until the eviction that is currently scheduled, if any, has finished. */
+  @VisibleForTesting
+  void waitForEviction() throws Exception {
+    evictionExecutor.submit(() -> {}).get();
+  }
 
   private Path toPath(String key) {
     return root.getChild(key);
   }
+
+  /** Returns whether the entry exists, and if so, makes it the most recently used one. */
+  private boolean recordAccess(String key, Path p) {
+    if (index == null) {
+      return p.exists();
+    }
+    Lock lock = keyLocks.get(key);
+    lock.lock();
+    try {
+      FileStatus stat = p.statIfFound(Symlinks.NOFOLLOW);
+      if (stat == null) {
+        return false;
+      }
+      synchronized (this) {
+        // Looking up the entry makes it the most recently used one.
+        if (index.get(key) == null) {
+          // Written by another Bazel server sharing the directory, or before a crash.
+          index.put(key, stat.getSize());
+          sizeBytes += stat.getSize();
+          journal(JOURNAL_PUT, key, stat.getSize());
+          maybeScheduleEviction();
+        } else {
+          journal(JOURNAL_USE, key, 0);
+        }
+      }
+      return true;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Records a change of the index, to be appended to the journal by the next checkpoint. */
+  @GuardedBy("this")
+  private void journal(byte op, String key, long size) {
+    try {
+      pendingJournalOut.writeByte(op);
+      pendingJournalOut.writeUTF(key);
+      if (op == JOURNAL_PUT) {
+        pendingJournalOut.writeLong(size);
+      }
+    } catch (IOException e) {
+      // Not thrown by a ByteArrayOutputStream.
+      throw new IllegalStateException(e);
+    }
+    if (++pendingJournalRecords >= CHECKPOINT_INTERVAL
+        && !checkpointScheduled
+        && !evictionExecutor.isShutdown()) {
+      checkpointScheduled = true;
+      evictionExecutor.execute(this::checkpoint);
+    }
+  }
+
+  @GuardedBy("this")
+  private void maybeScheduleEviction() {
+    if (sizeBytes > maxSizeBytes && !evictionScheduled && !evictionExecutor.isShutdown()) {
+      evictionScheduled = true;
+      evictionExecutor.execute(this::evict);
+    }
+  }
+
+  /**
+   * Appends the pending changes to the journal, and compacts it into a new snapshot once it has
+   * more records than the index has entries. Only called by the eviction thread, or once it is shut
+   * down.
+   */
+  private void checkpoint() {
+    byte[] records;
+    int count;
+    long journalGeneration;
+    int indexSize;
+    synchronized (this) {
+      checkpointScheduled = false;
+      records = pendingJournal.toByteArray();
+      count = pendingJournalRecords;
+      journalGeneration = generation;
+      indexSize = index.size();
+      pendingJournal = new ByteArrayOutputStream();
+      pendingJournalOut = new DataOutputStream(pendingJournal);
+      pendingJournalRecords = 0;
+    }
+    try {
+      if (journalNeedsCompaction
+          || !indexFile.exists()
+          || journalRecords + count > Math.max(indexSize, CHECKPOINT_INTERVAL)) {
+        saveIndex();
+        return;
+      }
+      if (count == 0) {
+        return;
+      }
+      boolean newJournal = !journalFile.exists();
+      try (DataOutputStream out =
+          new DataOutputStream(
+              new BufferedOutputStream(journalFile.getOutputStream(/* append= */ true)))) {
+        if (newJournal) {
+          out.writeInt(JOURNAL_MAGIC);
+          out.writeInt(INDEX_VERSION);
+          out.writeLong(journalGeneration);
+        }
+        out.write(records);
+      }
+      journalRecords += count;
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to save the disk cache index.", e);
+    }
+  }
+
+  private void evict() {
+    List<Map.Entry<String, Long>> evicted = new ArrayList<>();
+    synchronized (this) {
+      evictionScheduled = false;
+      long targetSizeBytes = (long) (maxSizeBytes * LOW_WATERMARK);
+      Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+      while (sizeBytes > targetSizeBytes && it.hasNext()) {
+        Map.Entry<String, Long> entry = it.next();
+        sizeBytes -= entry.getValue();
+        evicted.add(new SimpleImmutableEntry<>(entry));
+        journal(JOURNAL_REMOVE, entry.getKey(), 0);
+        it.remove();
+      }
+    }
+    // A file still being read by someone else is only unlinked.
+    for (Map.Entry<String, Long> entry : evicted) {
+      String key = entry.getKey();
+      Lock lock = keyLocks.get(key);
+      lock.lock();
+      try {
+        synchronized (this) {
+          if (index.containsKey(key)) {
+            // Put or used again since it was chosen.
+            continue;
+          }
+        }
+        if (toPath(key).delete()) {
+          evictedEntries.incrementAndGet();
+          evictedBytes.addAndGet(entry.getValue());
+        }
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Failed to evict " + key + " from the disk cache.", e);
+      } finally {
+        lock.unlock();
+      }
+    }
+    checkpoint();
+  }
+
+  @GuardedBy("this")
+  private void loadIndex() throws IOException {
+    if (indexFile.exists()) {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(indexFile.getInputStream()))) {
+        if (in.readInt() == INDEX_MAGIC && in.readInt() == INDEX_VERSION) {
+          generation = in.readLong();
+          int count = in.readInt();
+          for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            long size = in.readLong();
+            index.put(key, size);
+            sizeBytes += size;
+          }
+          replayJournal();
+          return;
+        }
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Failed to read the disk cache index, rescanning.", e);
+      }
+      index.clear();
+      sizeBytes = 0;
+      indexFile.delete();
+    }
+    journalFile.delete();
+    scan();
+  }
+
+  /**
+   * Applies the journal of the loaded snapshot to the index. A journal of another snapshot, left by
+   * a crash during a compaction, is deleted. A journal that cannot be read to its end, for example
+   * because of a partial record written by a crash, is compacted by the next checkpoint, since
+   * records appended to it would be misread.
+   */
+  @GuardedBy("this")
+  private void replayJournal() throws IOException {
+    if (!journalFile.exists()) {
+      return;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(journalFile.getInputStream()))) {
+      if (in.readInt() != JOURNAL_MAGIC
+          || in.readInt() != INDEX_VERSION
+          || in.readLong() != generation) {
+        journalFile.delete();
+        return;
+      }
+      int op;
+      while ((op = in.read()) != -1) {
+        String key = in.readUTF();
+        switch (op) {
+          case JOURNAL_PUT:
+            long size = in.readLong();
+            Long previous = index.put(key, size);
+            sizeBytes += size - (previous == null ? 0 : previous);
+            break;
+          case JOURNAL_USE:
+            index.get(key);
+            break;
+          case JOURNAL_REMOVE:
+            Long removed = index.remove(key);
+            sizeBytes -= removed == null ? 0 : removed;
+            break;
+          default:
+            throw new IOException("Unknown disk cache journal record " + op);
+        }
+        journalRecords++;
+      }
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to read the disk cache journal to its end.", e);
+      journalNeedsCompaction = true;
+    }
+  }
+
+  /** Rebuilds the index from the files in the store, ordered by their modification time. */
+  @GuardedBy("this")
+  private void scan() throws IOException {
+    List<ScannedEntry> entries = new ArrayList<>();
+    for (Dirent dirent : root.readdir(Symlinks.NOFOLLOW)) {
+      String key = dirent.getName();
+      // Skip temporary files, named by a UUID.
+      if (dirent.getType() != Dirent.Type.FILE || key.startsWith(".") || key.contains("-")) {
+        continue;
+      }
+      FileStatus stat = root.getChild(key).statIfFound(Symlinks.NOFOLLOW);
+      if (stat != null) {
+        entries.add(new ScannedEntry(key, stat.getSize(), stat.getLastModifiedTime()));
+      }
+    }
+    entries.sort(Comparator.comparingLong(entry -> entry.lastModifiedTime));
+    for (ScannedEntry entry : entries) {
+      index.put(entry.key, entry.size);
+      sizeBytes += entry.size;
+    }
+  }
+
+  private static final class ScannedEntry {
+    private final String key;
+    private final long size;
+    private final long lastModifiedTime;
+
+    private ScannedEntry(String key, long size, long lastModifiedTime) {
+      this.key = key;
+      this.size = size;
+      this.lastModifiedTime = lastModifiedTime;
+    }
+  }
+
+  /**
+   * Writes a snapshot of the index and starts a new journal. Only called by the eviction thread, or
+   * once it is shut down.
+   */
+  private void saveIndex() throws IOException {
+    String[] keys;
+    long[] sizes;
+    long snapshotGeneration;
+    synchronized (this) {
+      // The snapshot includes the pending changes.
+      pendingJournal = new ByteArrayOutputStream();
+      pendingJournalOut = new DataOutputStream(pendingJournal);
+      pendingJournalRecords = 0;
+      snapshotGeneration = ++generation;
+      keys = new String[index.size()];
+      sizes = new long[index.size()];
+      int i = 0;
+      for (Map.Entry<String, Long> entry : index.entrySet()) {
+        keys[i] = entry.getKey();
+        sizes[i++] = entry.getValue();
+      }
+    }
+    Path temp = root.getChild(indexFile.getBaseName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(temp.getOutputStream()))) {
+      out.writeInt(INDEX_MAGIC);
+      out.writeInt(INDEX_VERSION);
+      out.writeLong(snapshotGeneration);
+      out.writeInt(keys.length);
+      for (int i = 0; i < keys.length; i++) {
+        out.writeUTF(keys[i]);
+        out.writeLong(sizes[i]);
+      }
+    }
+    temp.renameTo(indexFile);
+    // A journal left behind by a crash here belongs to the previous snapshot and is ignored.
+    journalFile.delete();
+    journalRecords = 0;
+    journalNeedsCompaction = false;
+  }
 }
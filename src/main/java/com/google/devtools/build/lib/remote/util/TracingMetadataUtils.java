@@ -81,6 +81,20 @@ public class TracingMetadataUtils {
     return Context.current().withValue(CONTEXT_KEY, metadata.build());
   }
 
+  /**
+   * Returns a new gRPC context derived from the root context, for a call made on behalf of several
+   * actions. It has the {@link RequestMetadata} of the current context with the given action id,
+   * and is not cancelled with the current context. If the current context has no {@link
+   * RequestMetadata}, neither has the returned context.
+   */
+  public static Context rootContextWithActionId(String actionId) {
+    RequestMetadata metadata = CONTEXT_KEY.get();
+    if (metadata == null) {
+      return Context.ROOT;
+    }
+    return Context.ROOT.withValue(CONTEXT_KEY, metadata.toBuilder().setActionId(actionId).build());
+  }
+
   /**
    * Fetches a {@link RequestMetadata} defined on the current context.
    *
@@ -40,6 +40,7 @@ import com.google.devtools.build.lib.exec.BinTools;
 import com.google.devtools.build.lib.packages.Package;
 import com.google.devtools.build.lib.packages.PackageFactory;
 import com.google.devtools.build.lib.packages.RuleClassProvider;
+import com.google.devtools.build.lib.packages.SparseAttributeContainer;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
 import com.google.devtools.build.lib.profiler.MemoryProfiler;
 import com.google.devtools.build.lib.profiler.ProfilePhase;
@@ -572,7 +573,11 @@ public final class BlazeRuntime {
     }
 
     env.getReporter().clearEventBus();
-    actionKeyContext.clear();
+    if (commonOptions.keepNestedSetFingerprints && commonOptions.keepStateAfterBuild) {
+      actionKeyContext.clearForNextCommand();
+    } else {
+      actionKeyContext.clear();
+    }
     flushServerLog();
     return finalCommandResult;
   }
@@ -1390,6 +1395,11 @@ public final class BlazeRuntime {
       for (BlazeModule module : blazeModules) {
         module.serverInit(startupOptionsProvider, serverBuilder);
       }
+      BlazeServerStartupOptions startupOptions =
+          startupOptionsProvider.getOptions(BlazeServerStartupOptions.class);
+      if (startupOptions != null && startupOptions.sparseAttributeContainers) {
+        serverBuilder.setAttributeContainerFactory(SparseAttributeContainer::new);
+      }
 
       ConfiguredRuleClassProvider.Builder ruleClassBuilder =
           new ConfiguredRuleClassProvider.Builder();
@@ -441,6 +441,46 @@ public class BlazeServerStartupOptions extends OptionsBase {
               + "point expansion between normal rc options and command-line specified options.")
   public boolean expandConfigsInPlace;
 
+  @Option(
+      name = "experimental_compact_skyframe_graph",
+      defaultValue = "false", // NOTE: only for documentation, value is always passed by the client.
+      documentationCategory = OptionDocumentationCategory.BAZEL_CLIENT_OPTIONS,
+      effectTags = {
+        OptionEffectTag.LOSES_INCREMENTAL_STATE,
+        OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS,
+      },
+      metadataTags = OptionMetadataTag.EXPERIMENTAL,
+      help =
+          "If set, the Skyframe graph keeps its nodes in an open-addressed hash table, which "
+              + "retains less memory per node than the default table.")
+  public boolean compactSkyframeGraph;
+
+  @Option(
+      name = "experimental_mapped_action_cache",
+      defaultValue = "false", // NOTE: only for documentation, value is always passed by the client.
+      documentationCategory = OptionDocumentationCategory.BAZEL_CLIENT_OPTIONS,
+      effectTags = {
+        OptionEffectTag.LOSES_INCREMENTAL_STATE,
+        OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS,
+      },
+      metadataTags = OptionMetadataTag.EXPERIMENTAL,
+      help =
+          "If set, the action cache is kept in a memory-mapped, append-only log that is read "
+              + "lazily, instead of being loaded into memory when the server starts. The two "
+              + "formats use separate files, so switching loses the cached action results.")
+  public boolean mappedActionCache;
+
+  @Option(
+      name = "experimental_sparse_attribute_containers",
+      defaultValue = "false", // NOTE: only for documentation, value is always passed by the client.
+      documentationCategory = OptionDocumentationCategory.BAZEL_CLIENT_OPTIONS,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      metadataTags = OptionMetadataTag.EXPERIMENTAL,
+      help =
+          "If set, rules only store the values of the attributes that differ from the defaults "
+              + "of their rule class, which retains less memory for loaded packages.")
+  public boolean sparseAttributeContainers;
+
   @Option(
       name = "idle_server_tasks",
       defaultValue = "true", // NOTE: only for documentation, value is set and used by the client.
@@ -22,6 +22,7 @@ import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.SubscriberExceptionHandler;
 import com.google.devtools.build.lib.actions.cache.ActionCache;
 import com.google.devtools.build.lib.actions.cache.CompactPersistentActionCache;
+import com.google.devtools.build.lib.actions.cache.MappedPersistentActionCache;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.analysis.WorkspaceStatusAction;
 import com.google.devtools.build.lib.events.Event;
@@ -242,7 +243,7 @@ public final class BlazeWorkspace {
     if (actionCache == null) {
       try (AutoProfiler p = profiledAndLogged("Loading action cache", ProfilerTask.INFO, logger)) {
         try {
-          actionCache = new CompactPersistentActionCache(getCacheDirectory(), runtime.getClock());
+          actionCache = createActionCache();
         } catch (IOException e) {
           logger.log(Level.WARNING, "Failed to load action cache: " + e.getMessage(), e);
           LoggingUtil.logToRemote(
@@ -255,13 +256,23 @@ public final class BlazeWorkspace {
                       + getCacheDirectory()
                       + "/*.bad'. "
                       + "Bazel will now reset action cache data, causing a full rebuild"));
-          actionCache = new CompactPersistentActionCache(getCacheDirectory(), runtime.getClock());
+          actionCache = createActionCache();
         }
       }
     }
     return actionCache;
   }
 
+  private ActionCache createActionCache() throws IOException {
+    if (runtime
+        .getStartupOptionsProvider()
+        .getOptions(BlazeServerStartupOptions.class)
+        .mappedActionCache) {
+      return new MappedPersistentActionCache(getCacheDirectory(), runtime.getClock());
+    }
+    return new CompactPersistentActionCache(getCacheDirectory(), runtime.getClock());
+  }
+
   /**
    * Generates a README file in the output base directory. This README file
    * contains the name of the workspace directory, so that users can figure out
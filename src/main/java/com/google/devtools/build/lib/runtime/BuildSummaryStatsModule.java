@@ -19,6 +19,7 @@ import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import com.google.devtools.build.lib.actions.ActionKeyContext;
 import com.google.devtools.build.lib.actions.ActionResultReceivedEvent;
+import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.buildtool.ExecutionFinishedEvent;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildCompleteEvent;
@@ -31,9 +32,12 @@ import com.google.devtools.build.lib.exec.ExecutorBuilder;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.profiler.SilentCloseable;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -43,11 +47,28 @@ public class BuildSummaryStatsModule extends BlazeModule {
 
   private static final Logger logger = Logger.getLogger(BuildSummaryStatsModule.class.getName());
 
+  /** Name of the file in the action cache directory holding the critical path history. */
+  private static final String CRITICAL_PATH_HISTORY_FILE_NAME = "critical_path_v1.blaze";
+
+  /** Maximum number of actions whose critical path length is remembered. */
+  private static final int MAX_CRITICAL_PATH_HISTORY_SIZE = 500_000;
+
   private ActionKeyContext actionKeyContext;
   private CriticalPathComputer criticalPathComputer;
   private EventBus eventBus;
   private Reporter reporter;
   private boolean enabled;
+  private boolean scheduleCriticalPathFirst;
+
+  /**
+   * Critical path lengths of the actions of previous builds, loaded from {@link
+   * #criticalPathHistoryFile} by the first command of this server that uses them. Holds at most
+   * {@link #MAX_CRITICAL_PATH_HISTORY_SIZE} actions, and is dropped by commands that don't
+   * schedule the critical path first.
+   */
+  private CriticalPathHistory criticalPathHistory;
+
+  private Path criticalPathHistoryFile;
 
   private boolean statsSummary;
   private long commandStartMillis;
@@ -67,6 +88,9 @@ public class BuildSummaryStatsModule extends BlazeModule {
 
   @Override
   public void afterCommand() {
+    if (scheduleCriticalPathFirst) {
+      ResourceManager.instance().setPrioritizer(null);
+    }
     this.criticalPathComputer = null;
     this.eventBus = null;
     this.reporter = null;
@@ -75,7 +99,46 @@ public class BuildSummaryStatsModule extends BlazeModule {
 
   @Override
   public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
-    enabled = env.getOptions().getOptions(ExecutionOptions.class).enableCriticalPathProfiling;
+    ExecutionOptions options = env.getOptions().getOptions(ExecutionOptions.class);
+    enabled = options.enableCriticalPathProfiling;
+    scheduleCriticalPathFirst = enabled && options.scheduleCriticalPathFirst;
+    if (scheduleCriticalPathFirst) {
+      Path file =
+          env.getBlazeWorkspace().getCacheDirectory().getChild(CRITICAL_PATH_HISTORY_FILE_NAME);
+      // The file is only read once per server, and again after a clean: once loaded, the history
+      // in memory is at least as recent as what was saved.
+      if (criticalPathHistory == null || !file.equals(criticalPathHistoryFile) || !file.exists()) {
+        criticalPathHistory = loadCriticalPathHistory(file);
+        criticalPathHistoryFile = file;
+      }
+    } else {
+      // Don't keep the history of earlier commands alive; it was saved and is loaded again by the
+      // next command that uses it.
+      criticalPathHistory = null;
+      criticalPathHistoryFile = null;
+    }
+  }
+
+  private static CriticalPathHistory loadCriticalPathHistory(Path file) {
+    try {
+      CriticalPathHistory history =
+          CriticalPathHistory.load(file, MAX_CRITICAL_PATH_HISTORY_SIZE);
+      logger.info("Loaded the critical path lengths of " + history.size() + " actions");
+      return history;
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to load the critical path history from " + file, e);
+      return new CriticalPathHistory(MAX_CRITICAL_PATH_HISTORY_SIZE);
+    }
+  }
+
+  private void saveCriticalPathHistory() {
+    try {
+      criticalPathHistoryFile.getParentDirectory().createDirectoryAndParents();
+      criticalPathHistory.save(criticalPathHistoryFile);
+    } catch (IOException e) {
+      logger.log(
+          Level.WARNING, "Failed to save the critical path history to " + criticalPathHistoryFile, e);
+    }
   }
 
   @Subscribe
@@ -86,6 +149,10 @@ public class BuildSummaryStatsModule extends BlazeModule {
       criticalPathComputer = new CriticalPathComputer(actionKeyContext, BlazeClock.instance());
       eventBus.register(criticalPathComputer);
     }
+    if (scheduleCriticalPathFirst) {
+      ResourceManager.instance()
+          .setPrioritizer(criticalPathHistory::getRemainingCriticalPathNanos);
+    }
   }
 
   @Subscribe
@@ -121,6 +188,10 @@ public class BuildSummaryStatsModule extends BlazeModule {
               .addDirectValue(
                   "critical path", criticalPath.toString().getBytes(StandardCharsets.UTF_8));
           logger.info(criticalPath.toString());
+          if (scheduleCriticalPathFirst) {
+            criticalPathHistory.update(criticalPathComputer.getRemainingCriticalPathNanos());
+            saveCriticalPathHistory();
+          }
           logger.info(
               "Slowest actions:\n  "
                   + Joiner.on("\n  ").join(criticalPathComputer.getSlowestComponents()));
@@ -20,13 +20,23 @@ import com.google.devtools.build.lib.actions.cache.DigestUtils;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.exec.ExecutorBuilder;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-/** Enables the caching of file digests in {@link DigestUtils}. */
+/**
+ * Enables the caching of file digests in {@link DigestUtils}, optionally persisting the cache in
+ * the output base across server restarts.
+ */
 public class CacheFileDigestsModule extends BlazeModule {
 
   private static final Logger logger = Logger.getLogger(CacheFileDigestsModule.class.getName());
 
+  /** Name of the file in the action cache directory holding the persisted digests. */
+  private static final String DIGEST_CACHE_FILE_NAME = "file_digests_v1.blaze";
+
   /** Stats gathered at the beginning of a command, to compute deltas on completion. */
   private CacheStats stats;
 
@@ -36,6 +46,12 @@ public class CacheFileDigestsModule extends BlazeModule {
    */
   private Long lastKnownCacheSize;
 
+  /** File to save the cache to when a command completes, or null if it is not persisted. */
+  private Path digestCacheFile;
+
+  /** Hash function of the server's file system, recorded in the persisted cache. */
+  private DigestHashFunction digestFunction;
+
   public CacheFileDigestsModule() {}
 
   /**
@@ -57,20 +73,60 @@ public class CacheFileDigestsModule extends BlazeModule {
             + stats.evictionCount());
   }
 
+  private void loadDigests(Path file) {
+    try {
+      int count = DigestUtils.loadCache(file, digestFunction);
+      logger.info("Loaded " + count + " file digests from " + file);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to load file digests from " + file, e);
+      try {
+        file.delete();
+      } catch (IOException e2) {
+        logger.log(Level.WARNING, "Failed to delete " + file, e2);
+      }
+    }
+  }
+
+  private void saveDigests(Path file) {
+    try {
+      file.getParentDirectory().createDirectoryAndParents();
+      int count = DigestUtils.saveCache(file, digestFunction);
+      logger.info("Saved " + count + " file digests to " + file);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to save file digests to " + file, e);
+    }
+  }
+
   @Override
   public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
     ExecutionOptions options = request.getOptions(ExecutionOptions.class);
+    boolean reconfigured = false;
     if (lastKnownCacheSize == null
         || options.cacheSizeForComputedFileDigests != lastKnownCacheSize) {
       logger.info("Reconfiguring cache with size=" + options.cacheSizeForComputedFileDigests);
       DigestUtils.configureCache(options.cacheSizeForComputedFileDigests);
       lastKnownCacheSize = options.cacheSizeForComputedFileDigests;
+      reconfigured = true;
     }
 
     if (options.cacheSizeForComputedFileDigests == 0) {
       stats = null;
+      digestCacheFile = null;
       logger.info("Disabled cache");
     } else {
+      if (options.persistComputedFileDigests) {
+        Path file =
+            env.getBlazeWorkspace().getCacheDirectory().getChild(DIGEST_CACHE_FILE_NAME);
+        digestFunction = env.getRuntime().getFileSystem().getDigestFunction();
+        // The file is only read into a freshly configured cache: once it is populated, the cache
+        // in memory is at least as recent as what was saved.
+        if (reconfigured || digestCacheFile == null) {
+          loadDigests(file);
+        }
+        digestCacheFile = file;
+      } else {
+        digestCacheFile = null;
+      }
       stats = DigestUtils.getCacheStats();
       logStats("Accumulated cache stats before command", stats);
     }
@@ -83,6 +139,10 @@ public class CacheFileDigestsModule extends BlazeModule {
       Preconditions.checkNotNull(newStats, "The cache is enabled so we must get some stats back");
       logStats("Accumulated cache stats after command", newStats);
       logStats("Cache stats for finished command", newStats.minus(stats));
+      // Every miss adds an entry, so there is nothing new to save if there were no misses.
+      if (digestCacheFile != null && newStats.missCount() > stats.missCount()) {
+        saveDigests(digestCacheFile);
+      }
       stats = null; // Silence stats until next command that uses the executor.
     }
   }
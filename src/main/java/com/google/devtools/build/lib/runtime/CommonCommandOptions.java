@@ -414,4 +414,16 @@ public class CommonCommandOptions extends OptionsBase {
               + "one."
   )
   public boolean keepStateAfterBuild;
+
+  @Option(
+      name = "experimental_keep_nested_set_fingerprints",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {OptionEffectTag.BAZEL_INTERNAL_CONFIGURATION},
+      help =
+          "If true, the fingerprints of the nested sets used by action keys are kept after the "
+              + "command, so that the next command only fingerprints the nested sets it created. "
+              + "They are dropped when the analysis cache is discarded."
+  )
+  public boolean keepNestedSetFingerprints;
 }
@@ -17,6 +17,7 @@ package com.google.devtools.build.lib.runtime;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Comparators;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.Subscribe;
@@ -35,12 +36,15 @@ import com.google.devtools.build.lib.actions.SpawnResult;
 import com.google.devtools.build.lib.clock.Clock;
 import java.time.Duration;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BinaryOperator;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -199,6 +203,40 @@ public class CriticalPathComputer {
                 Comparator.comparingLong(CriticalPathComponent::getElapsedTimeNanos)));
   }
 
+  /**
+   * Returns, by the exec path of their primary output, the length in nanoseconds of the longest
+   * path from the start of each finished action to the end of the build.
+   *
+   * <p>Only the dependency on the critical path of each action is recorded, so a path only
+   * continues from an action to those of its dependents of which it is on the critical path. The
+   * result is therefore a lower bound, which is exact for the actions on the critical path of the
+   * build.
+   */
+  public ImmutableMap<String, Long> getRemainingCriticalPathNanos() {
+    List<Map.Entry<Artifact, CriticalPathComponent>> finished =
+        outputArtifactToComponent.entrySet().stream()
+            .filter((e) -> e.getValue().isPrimaryOutput(e.getKey()) && !e.getValue().isRunning())
+            .sorted(
+                Comparator.comparingLong(
+                    (Map.Entry<Artifact, CriticalPathComponent> e) ->
+                        -e.getValue().getFinishTimeNanos()))
+            .collect(Collectors.toList());
+    // Dependents finish after their dependencies, so they have all been visited before an action.
+    Map<CriticalPathComponent, Long> longestDependentPath = new HashMap<>();
+    Map<String, Long> remaining = new HashMap<>();
+    for (Map.Entry<Artifact, CriticalPathComponent> e : finished) {
+      CriticalPathComponent component = e.getValue();
+      long path =
+          component.getElapsedTimeNanos() + longestDependentPath.getOrDefault(component, 0L);
+      remaining.merge(e.getKey().getExecPathString(), path, Math::max);
+      CriticalPathComponent child = component.getChild();
+      if (child != null) {
+        longestDependentPath.merge(child, path, Math::max);
+      }
+    }
+    return ImmutableMap.copyOf(remaining);
+  }
+
   private Stream<CriticalPathComponent> uniqueActions() {
     return outputArtifactToComponent.entrySet().stream()
         .filter((e) -> e.getValue().isPrimaryOutput(e.getKey()))
@@ -0,0 +1,140 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.runtime;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.actions.ActionExecutionMetadata;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The length of the longest path from the start of each action to the end of the build, as of the
+ * last build that ran the action, keyed by the exec path of the action's primary output.
+ *
+ * <p>The history can be saved to and loaded from a file, so that it survives server restarts. It
+ * holds at most a fixed number of actions; when it grows past that, the actions with the shortest
+ * paths are dropped, as they matter least when deciding which action to start first.
+ */
+final class CriticalPathHistory {
+
+  /** Magic number at the start of a file written by {@link #save}. */
+  private static final int FILE_MAGIC = 0x43504854;
+
+  /** Version of the format written by {@link #save}. Bump when changing the format. */
+  private static final int FILE_VERSION = 1;
+
+  private final int maxEntries;
+  private volatile ImmutableMap<String, Long> remainingNanos;
+
+  CriticalPathHistory(int maxEntries) {
+    this(maxEntries, ImmutableMap.of());
+  }
+
+  private CriticalPathHistory(int maxEntries, ImmutableMap<String, Long> remainingNanos) {
+    Preconditions.checkArgument(maxEntries > 0, "maxEntries must be gt 0.");
+    this.maxEntries = maxEntries;
+    this.remainingNanos = remainingNanos;
+  }
+
+  /** Returns the recorded path length of the action with the given primary output, or 0. */
+  long getRemainingCriticalPathNanos(String primaryOutputExecPath) {
+    return remainingNanos.getOrDefault(primaryOutputExecPath, 0L);
+  }
+
+  /**
+   * Returns the recorded path length of {@code action}, by its primary output, or 0. Used to start
+   * the actions with the longest paths first.
+   */
+  long getRemainingCriticalPathNanos(ActionExecutionMetadata action) {
+    Artifact primaryOutput = action.getPrimaryOutput();
+    return primaryOutput == null
+        ? 0
+        : getRemainingCriticalPathNanos(primaryOutput.getExecPathString());
+  }
+
+  int size() {
+    return remainingNanos.size();
+  }
+
+  /**
+   * Records the path lengths of the actions of a build, replacing those recorded before for the
+   * same actions.
+   */
+  synchronized void update(Map<String, Long> buildRemainingNanos) {
+    Map<String, Long> merged = new HashMap<>(remainingNanos);
+    merged.putAll(buildRemainingNanos);
+    if (merged.size() > maxEntries) {
+      List<Map.Entry<String, Long>> entries = new ArrayList<>(merged.entrySet());
+      entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+      merged.clear();
+      for (Map.Entry<String, Long> entry : entries.subList(0, maxEntries)) {
+        merged.put(entry.getKey(), entry.getValue());
+      }
+    }
+    remainingNanos = ImmutableMap.copyOf(merged);
+  }
+
+  /** Writes the history to {@code file}, replacing it atomically. */
+  void save(Path file) throws IOException {
+    ImmutableMap<String, Long> entries = remainingNanos;
+    Path tempFile = file.getParentDirectory().getChild(file.getBaseName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(tempFile.getOutputStream()))) {
+      out.writeInt(FILE_MAGIC);
+      out.writeInt(FILE_VERSION);
+      out.writeInt(entries.size());
+      for (Map.Entry<String, Long> entry : entries.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeLong(entry.getValue());
+      }
+    }
+    tempFile.renameTo(file);
+  }
+
+  /**
+   * Reads a history written by {@link #save}. Returns an empty history if {@code file} does not
+   * exist.
+   *
+   * @throws IOException if reading the file fails or the file is malformed
+   */
+  static CriticalPathHistory load(Path file, int maxEntries) throws IOException {
+    CriticalPathHistory history = new CriticalPathHistory(maxEntries);
+    if (!file.exists()) {
+      return history;
+    }
+    Map<String, Long> entries = new HashMap<>();
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(file.getInputStream()))) {
+      if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+        throw new IOException("Unexpected header in critical path history file " + file);
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        entries.put(in.readUTF(), in.readLong());
+      }
+    }
+    history.update(entries);
+    return history;
+  }
+}
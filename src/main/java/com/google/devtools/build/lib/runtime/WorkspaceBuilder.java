@@ -29,6 +29,7 @@ import com.google.devtools.build.lib.skyframe.SkyValueDirtinessChecker;
 import com.google.devtools.build.lib.skyframe.SkyframeExecutor;
 import com.google.devtools.build.lib.skyframe.SkyframeExecutorFactory;
 import com.google.devtools.build.lib.util.AbruptExitException;
+import com.google.devtools.build.skyframe.InMemoryMemoizingEvaluator;
 import com.google.devtools.build.skyframe.SkyFunction;
 import com.google.devtools.build.skyframe.SkyFunctionName;
 import java.util.Map;
@@ -65,8 +66,14 @@ public final class WorkspaceBuilder {
       SubscriberExceptionHandler eventBusExceptionHandler) throws AbruptExitException {
     // Set default values if none are set.
     if (skyframeExecutorFactory == null) {
+      BlazeServerStartupOptions startupOptions =
+          runtime.getStartupOptionsProvider().getOptions(BlazeServerStartupOptions.class);
       skyframeExecutorFactory =
-          new SequencedSkyframeExecutorFactory(runtime.getDefaultBuildOptions());
+          new SequencedSkyframeExecutorFactory(
+              runtime.getDefaultBuildOptions(),
+              startupOptions.compactSkyframeGraph
+                  ? InMemoryMemoizingEvaluator.COMPACT_GRAPH_SUPPLIER
+                  : InMemoryMemoizingEvaluator.SUPPLIER);
     }
 
     SkyframeExecutor skyframeExecutor =
@@ -17,14 +17,18 @@ package com.google.devtools.build.lib.sandbox;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
+import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * Implements the general flow of a sandboxed spawn that uses a container directory to build an
@@ -38,6 +42,10 @@ public abstract class AbstractContainerizingSandboxedSpawn implements SandboxedS
   private final Map<PathFragment, Path> inputs;
   private final SandboxOutputs outputs;
   private final Set<Path> writableDirs;
+  @Nullable private final SandboxStash sandboxStash;
+  private final String mnemonic;
+  private final TreeDeleter treeDeleter;
+  private boolean successful;
 
   public AbstractContainerizingSandboxedSpawn(
       Path sandboxPath,
@@ -47,6 +55,36 @@ public abstract class AbstractContainerizingSandboxedSpawn implements SandboxedS
       Map<PathFragment, Path> inputs,
       SandboxOutputs outputs,
       Set<Path> writableDirs) {
+    this(
+        sandboxPath,
+        sandboxExecRoot,
+        arguments,
+        environment,
+        inputs,
+        outputs,
+        writableDirs,
+        /*sandboxStash=*/ null,
+        /*mnemonic=*/ "",
+        SynchronousTreeDeleter.INSTANCE);
+  }
+
+  /**
+   * Creates a sandboxed spawn that takes over the execution root of a finished spawn with the same
+   * mnemonic from {@code sandboxStash} if there is one, and stashes its own execution root when
+   * deleted after {@link #markSuccessful}. The rest of the sandbox is deleted with {@code
+   * treeDeleter}.
+   */
+  protected AbstractContainerizingSandboxedSpawn(
+      Path sandboxPath,
+      Path sandboxExecRoot,
+      List<String> arguments,
+      Map<String, String> environment,
+      Map<PathFragment, Path> inputs,
+      SandboxOutputs outputs,
+      Set<Path> writableDirs,
+      @Nullable SandboxStash sandboxStash,
+      String mnemonic,
+      TreeDeleter treeDeleter) {
     this.sandboxPath = sandboxPath;
     this.sandboxExecRoot = sandboxExecRoot;
     this.arguments = arguments;
@@ -54,6 +92,9 @@ public abstract class AbstractContainerizingSandboxedSpawn implements SandboxedS
     this.inputs = inputs;
     this.outputs = outputs;
     this.writableDirs = writableDirs;
+    this.sandboxStash = sandboxStash;
+    this.mnemonic = mnemonic;
+    this.treeDeleter = treeDeleter;
   }
 
   @Override
@@ -73,8 +114,50 @@ public abstract class AbstractContainerizingSandboxedSpawn implements SandboxedS
 
   @Override
   public void createFileSystem() throws IOException {
+    Map<PathFragment, Path> inputsToCreate = inputs;
+    if (sandboxStash != null && sandboxStash.takeStashedSandbox(sandboxExecRoot, mnemonic)) {
+      inputsToCreate = new HashMap<>(inputs);
+      Set<PathFragment> dirsToKeep = new LinkedHashSet<>();
+      for (PathFragment path :
+          Iterables.concat(inputs.keySet(), outputs.files(), outputs.dirs())) {
+        for (int i = 0; i < path.segmentCount(); i++) {
+          dirsToKeep.add(path.subFragment(0, i));
+        }
+      }
+      dirsToKeep.addAll(outputs.dirs());
+      deleteStaleEntries(sandboxExecRoot, PathFragment.EMPTY_FRAGMENT, inputsToCreate, dirsToKeep);
+    }
     createDirectories();
-    createInputs(inputs);
+    createInputs(inputsToCreate);
+  }
+
+  /**
+   * Deletes the entries of a reused execution root that this spawn would not have created, and
+   * removes the inputs that are already there from {@code inputsToCreate}. Only the symlinks to
+   * the same input files are kept, so no output or file written by the previous spawn remains.
+   */
+  private void deleteStaleEntries(
+      Path dir,
+      PathFragment dirFragment,
+      Map<PathFragment, Path> inputsToCreate,
+      Set<PathFragment> dirsToKeep)
+      throws IOException {
+    for (Dirent dirent : dir.readdir(Symlinks.NOFOLLOW)) {
+      PathFragment fragment = dirFragment.getChild(dirent.getName());
+      Path path = dir.getChild(dirent.getName());
+      if (dirent.getType() == Dirent.Type.SYMLINK) {
+        Path input = inputs.get(fragment);
+        if (input != null && path.readSymbolicLink().equals(input.asFragment())) {
+          inputsToCreate.remove(fragment);
+        } else {
+          path.delete();
+        }
+      } else if (dirent.getType() == Dirent.Type.DIRECTORY && dirsToKeep.contains(fragment)) {
+        deleteStaleEntries(path, fragment, inputsToCreate, dirsToKeep);
+      } else {
+        FileSystemUtils.deleteTree(path);
+      }
+    }
   }
 
   /**
@@ -134,10 +217,20 @@ public abstract class AbstractContainerizingSandboxedSpawn implements SandboxedS
     SandboxedSpawn.moveOutputs(outputs, sandboxExecRoot, execRoot);
   }
 
+  @Override
+  public void markSuccessful() {
+    successful = true;
+  }
+
   @Override
   public void delete() {
+    // The execution root of a spawn that failed or was interrupted may be in any state, so only
+    // those of successful spawns are reused.
+    if (sandboxStash != null && successful) {
+      sandboxStash.stashSandbox(sandboxExecRoot, mnemonic);
+    }
     try {
-      FileSystemUtils.deleteTree(sandboxPath);
+      treeDeleter.deleteTree(sandboxPath);
     } catch (IOException e) {
       // This usually means that the Spawn itself exited, but still has children running that
       // we couldn't wait for, which now block deletion of the sandbox directory. On Linux this
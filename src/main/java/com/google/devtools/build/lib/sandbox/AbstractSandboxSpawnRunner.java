@@ -42,6 +42,7 @@ import com.google.devtools.build.lib.vfs.Path;
 import java.io.IOException;
 import java.time.Duration;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /** Abstract common ancestor for sandbox spawn runners implementing the common parts. */
 abstract class AbstractSandboxSpawnRunner implements SpawnRunner {
@@ -106,6 +107,9 @@ abstract class AbstractSandboxSpawnRunner implements SpawnRunner {
       } catch (IOException e) {
         throw new IOException("Could not move output artifacts from sandboxed execution", e);
       }
+      if (result.status() == Status.SUCCESS) {
+        sandbox.markSuccessful();
+      }
       return result;
     } finally {
       if (!sandboxOptions.sandboxDebug) {
@@ -283,4 +287,19 @@ abstract class AbstractSandboxSpawnRunner implements SpawnRunner {
   protected SandboxOptions getSandboxOptions() {
     return sandboxOptions;
   }
+
+  /**
+   * Returns a stash for the execution roots of the sandboxes of this runner under {@code
+   * sandboxBase}, or null if they are not reused.
+   *
+   * <p>Only runners that guarantee that no process of a spawn outlives it, such as by running it in
+   * its own PID namespace, may reuse sandboxes: a stashed execution root must not be written to by
+   * a leftover process once another spawn took it over.
+   */
+  @Nullable
+  protected SandboxStash createSandboxStash(Path sandboxBase) {
+    return sandboxOptions.reuseSandboxDirectories
+        ? new SandboxStash(sandboxBase.getRelative("stash").getRelative(getName()))
+        : null;
+  }
 }
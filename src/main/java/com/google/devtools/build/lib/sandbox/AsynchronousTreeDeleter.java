@@ -0,0 +1,169 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.clock.BlazeClock;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A {@link TreeDeleter} that moves the trees to a trash directory and deletes them on background
+ * threads, so that neither the actions nor the end of the command wait for the deletion.
+ *
+ * <p>The trees are deleted in batches by at most the given number of threads. Each batch is
+ * recorded in the profile as a {@link ProfilerTask#SANDBOX_DELETION} task. Trees left in the
+ * trash directory by a previous server are deleted when the deleter is created.
+ */
+@ThreadSafe
+final class AsynchronousTreeDeleter implements TreeDeleter {
+  private static final Logger logger = Logger.getLogger(AsynchronousTreeDeleter.class.getName());
+
+  /** Number of trees deleted between two looks at the queue and recorded as one profile task. */
+  private static final int BATCH_SIZE = 32;
+
+  private final Path trashBase;
+  private volatile int threads;
+  private final ExecutorService executor;
+  private final ConcurrentLinkedQueue<Path> pendingTrees = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger activeDeleters = new AtomicInteger();
+
+  /** Distinguishes the trees moved by this deleter from the ones left by a previous one. */
+  private final String trashPrefix = UUID.randomUUID().toString();
+
+  private final AtomicLong trashCount = new AtomicLong();
+
+  /**
+   * Creates a deleter that moves the trees to {@code trashBase}, which must be on the same file
+   * system as the trees, and deletes them with up to {@code threads} threads.
+   *
+   * @throws IOException if the trash directory cannot be created or read
+   */
+  AsynchronousTreeDeleter(Path trashBase, int threads) throws IOException {
+    Preconditions.checkArgument(threads > 0, threads);
+    this.trashBase = trashBase;
+    this.threads = threads;
+    this.executor =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("sandbox-delete-%d").setDaemon(true).build());
+    trashBase.createDirectoryAndParents();
+    pendingTrees.addAll(trashBase.getDirectoryEntries());
+    maybeStartDeleter();
+  }
+
+  /** Returns the directory the trees are moved to before being deleted. */
+  Path getTrashBase() {
+    return trashBase;
+  }
+
+  /** Changes the maximum number of threads deleting trees at the same time. */
+  void setThreads(int threads) {
+    Preconditions.checkArgument(threads > 0, threads);
+    this.threads = threads;
+    maybeStartDeleter();
+  }
+
+  /**
+   * Stops the deleter, which must not be given trees anymore. The threads that are deleting trees
+   * go on until the trash is empty; the trees left in it are deleted by the next deleter created
+   * for the same trash directory.
+   */
+  void shutdown() {
+    executor.shutdown();
+  }
+
+  @Override
+  public void deleteTree(Path path) throws IOException {
+    Path trashPath = trashBase.getChild(trashPrefix + "-" + trashCount.incrementAndGet());
+    try {
+      path.renameTo(trashPath);
+    } catch (IOException e) {
+      // The tree is missing, or cannot be moved to the trash, for instance because it is on
+      // another file system.
+      FileSystemUtils.deleteTree(path);
+      return;
+    }
+    pendingTrees.add(trashPath);
+    maybeStartDeleter();
+  }
+
+  /** Starts a thread deleting the pending trees, unless enough of them are running already. */
+  private void maybeStartDeleter() {
+    while (!pendingTrees.isEmpty()) {
+      int active = activeDeleters.get();
+      if (active >= threads) {
+        return;
+      }
+      if (activeDeleters.compareAndSet(active, active + 1)) {
+        try {
+          executor.execute(this::deletePendingTrees);
+        } catch (RejectedExecutionException e) {
+          // The deleter was shut down.
+          activeDeleters.decrementAndGet();
+        }
+        return;
+      }
+    }
+  }
+
+  private void deletePendingTrees() {
+    try {
+      List<Path> batch = new ArrayList<>(BATCH_SIZE);
+      while (true) {
+        Path path;
+        while (batch.size() < BATCH_SIZE && (path = pendingTrees.poll()) != null) {
+          batch.add(path);
+        }
+        if (batch.isEmpty()) {
+          break;
+        }
+        long startTime = BlazeClock.nanoTime();
+        for (Path tree : batch) {
+          try {
+            FileSystemUtils.deleteTree(tree);
+          } catch (IOException e) {
+            // Retried when the next server creates its deleter.
+            logger.warning("Failed to delete sandbox directory " + tree + ": " + e);
+          }
+        }
+        Profiler.instance()
+            .logSimpleTask(
+                startTime,
+                ProfilerTask.SANDBOX_DELETION,
+                "deleting " + batch.size() + " sandbox directories");
+        batch.clear();
+      }
+    } finally {
+      activeDeleters.decrementAndGet();
+    }
+    // A tree may have been added after the queue was found empty but before this thread stopped
+    // counting as active, in which case no thread was started for it.
+    maybeStartDeleter();
+  }
+}
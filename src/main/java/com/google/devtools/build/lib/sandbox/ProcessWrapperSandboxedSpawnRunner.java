@@ -40,6 +40,7 @@ final class ProcessWrapperSandboxedSpawnRunner extends AbstractSandboxSpawnRunne
   private final Path sandboxBase;
   private final LocalEnvProvider localEnvProvider;
   private final Duration timeoutKillDelay;
+  private final TreeDeleter treeDeleter;
 
   /**
    * Creates a sandboxed spawn runner that uses the {@code process-wrapper} tool.
@@ -48,9 +49,14 @@ final class ProcessWrapperSandboxedSpawnRunner extends AbstractSandboxSpawnRunne
    * @param sandboxBase path to the sandbox base directory
    * @param productName the product name to use
    * @param timeoutKillDelay additional grace period before killing timing out commands
+   * @param treeDeleter deleter of the sandboxes of the finished spawns
    */
   ProcessWrapperSandboxedSpawnRunner(
-      CommandEnvironment cmdEnv, Path sandboxBase, String productName, Duration timeoutKillDelay) {
+      CommandEnvironment cmdEnv,
+      Path sandboxBase,
+      String productName,
+      Duration timeoutKillDelay,
+      TreeDeleter treeDeleter) {
     super(cmdEnv);
     this.processWrapper = ProcessWrapperUtil.getProcessWrapper(cmdEnv);
     this.execRoot = cmdEnv.getExecRoot();
@@ -60,6 +66,7 @@ final class ProcessWrapperSandboxedSpawnRunner extends AbstractSandboxSpawnRunne
             : new PosixLocalEnvProvider(cmdEnv.getClientEnv());
     this.sandboxBase = sandboxBase;
     this.timeoutKillDelay = timeoutKillDelay;
+    this.treeDeleter = treeDeleter;
   }
 
   @Override
@@ -107,7 +114,10 @@ final class ProcessWrapperSandboxedSpawnRunner extends AbstractSandboxSpawnRunne
                 execRoot,
                 getSandboxOptions().symlinkedSandboxExpandsTreeArtifactsInRunfilesTree),
             SandboxHelpers.getOutputs(spawn),
-            getWritableDirs(sandboxExecRoot, environment));
+            getWritableDirs(sandboxExecRoot, environment),
+            /*sandboxStash=*/ null,
+            spawn.getMnemonic(),
+            treeDeleter);
 
     return runSpawn(spawn, sandbox, context, execRoot, timeout, statisticsPath);
   }
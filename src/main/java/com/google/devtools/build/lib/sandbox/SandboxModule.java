@@ -44,7 +44,6 @@ import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.util.OS;
 import com.google.devtools.build.lib.vfs.FileSystem;
-import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.common.options.OptionsBase;
@@ -73,6 +72,15 @@ public final class SandboxModule extends BlazeModule {
    */
   private boolean shouldCleanupSandboxBase;
 
+  /** Deleter of the sandbox directories of the running command. */
+  private @Nullable TreeDeleter treeDeleter;
+
+  /**
+   * Deleter of the sandbox directories in the background, kept across commands so that deleting
+   * the directories of a command does not delay the next one.
+   */
+  private @Nullable AsynchronousTreeDeleter asynchronousTreeDeleter;
+
   @Override
   public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
     return "build".equals(command.name())
@@ -124,12 +132,13 @@ public final class SandboxModule extends BlazeModule {
       throws IOException {
     SandboxOptions options = checkNotNull(env.getOptions().getOptions(SandboxOptions.class));
     sandboxBase = computeSandboxBase(options, env);
+    treeDeleter = getTreeDeleter(options, sandboxBase);
 
     // Ensure that each build starts with a clean sandbox base directory. Otherwise using the `id`
     // that is provided by SpawnExecutionPolicy#getId to compute a base directory for a sandbox
     // might result in an already existing directory.
     if (sandboxBase.exists()) {
-      FileSystemUtils.deleteTree(sandboxBase);
+      treeDeleter.deleteTree(sandboxBase);
     }
 
     sandboxBase.createDirectoryAndParents();
@@ -157,7 +166,11 @@ public final class SandboxModule extends BlazeModule {
           withFallback(
               cmdEnv,
               new ProcessWrapperSandboxedSpawnRunner(
-                  cmdEnv, sandboxBase, cmdEnv.getRuntime().getProductName(), timeoutKillDelay));
+                  cmdEnv,
+                  sandboxBase,
+                  cmdEnv.getRuntime().getProductName(),
+                  timeoutKillDelay,
+                  treeDeleter));
       builder.addActionContext(
           new ProcessWrapperSandboxedStrategy(cmdEnv.getExecRoot(), spawnRunner));
     }
@@ -196,7 +209,7 @@ public final class SandboxModule extends BlazeModule {
           withFallback(
               cmdEnv,
               LinuxSandboxedStrategy.create(
-                  cmdEnv, sandboxBase, timeoutKillDelay, sandboxfsProcess));
+                  cmdEnv, sandboxBase, timeoutKillDelay, sandboxfsProcess, treeDeleter));
       builder.addActionContext(new LinuxSandboxedStrategy(cmdEnv.getExecRoot(), spawnRunner));
     }
 
@@ -206,7 +219,7 @@ public final class SandboxModule extends BlazeModule {
           withFallback(
               cmdEnv,
               new DarwinSandboxedSpawnRunner(
-                  cmdEnv, sandboxBase, timeoutKillDelay, sandboxfsProcess));
+                  cmdEnv, sandboxBase, timeoutKillDelay, sandboxfsProcess, treeDeleter));
       builder.addActionContext(new DarwinSandboxedStrategy(cmdEnv.getExecRoot(), spawnRunner));
     }
 
@@ -225,6 +238,39 @@ public final class SandboxModule extends BlazeModule {
     shouldCleanupSandboxBase = !options.sandboxDebug;
   }
 
+  /**
+   * Returns the deleter of the sandbox directories for the given options, which deletes them in
+   * the background if {@code --experimental_sandbox_async_tree_delete_threads} is set.
+   */
+  private TreeDeleter getTreeDeleter(SandboxOptions options, Path sandboxBase)
+      throws IOException {
+    if (options.asyncTreeDeleteThreads <= 0) {
+      if (asynchronousTreeDeleter != null) {
+        // It still deletes the trees it was given in the background.
+        asynchronousTreeDeleter.shutdown();
+        asynchronousTreeDeleter = null;
+      }
+      return SynchronousTreeDeleter.INSTANCE;
+    }
+    // The trash is next to the sandbox base, so that moving a tree to it is a rename but deleting
+    // the sandbox base does not delete it.
+    Path trashBase =
+        sandboxBase.getParentDirectory().getRelative(sandboxBase.getBaseName() + "-trash");
+    if (asynchronousTreeDeleter != null
+        && asynchronousTreeDeleter.getTrashBase().equals(trashBase)) {
+      // A second deleter of the same trash would delete the trees of the first one again.
+      asynchronousTreeDeleter.setThreads(options.asyncTreeDeleteThreads);
+    } else {
+      if (asynchronousTreeDeleter != null) {
+        // It still deletes the trees it was given in the background.
+        asynchronousTreeDeleter.shutdown();
+      }
+      asynchronousTreeDeleter =
+          new AsynchronousTreeDeleter(trashBase, options.asyncTreeDeleteThreads);
+    }
+    return asynchronousTreeDeleter;
+  }
+
   private static Path getPathToDockerClient(CommandEnvironment cmdEnv) {
     String path = cmdEnv.getClientEnv().getOrDefault("PATH", "");
 
@@ -324,7 +370,7 @@ public final class SandboxModule extends BlazeModule {
 
     if (shouldCleanupSandboxBase) {
       try {
-        FileSystemUtils.deleteTree(sandboxBase);
+        treeDeleter.deleteTree(sandboxBase);
       } catch (IOException e) {
         env.getReporter().handle(Event.warn("Failed to delete sandbox base " + sandboxBase
             + ": " + e));
@@ -335,6 +381,7 @@ public final class SandboxModule extends BlazeModule {
     checkState(sandboxfsProcess == null, "sandboxfs instance should have been shut down at this "
         + "point; were the buildComplete/buildInterrupted events sent?");
     sandboxBase = null;
+    treeDeleter = null;
 
     env.getEventBus().unregister(this);
     env = null;
@@ -295,4 +295,29 @@ public class SandboxOptions extends OptionsBase {
           "If enabled, the sandbox will expand tree artifacts in runfiles, thus the files that "
               + "are contained in the tree artifact will be symlinked as individual files.")
   public boolean symlinkedSandboxExpandsTreeArtifactsInRunfilesTree;
+
+  @Option(
+      name = "experimental_reuse_sandbox_directories",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If enabled, the execution roots of the symlinked sandboxes of linux-sandbox are kept "
+              + "after the actions succeed and reused by later actions with the same mnemonic, "
+              + "which then only have to create and delete the symlinks to the inputs that "
+              + "differ. This makes setting up and tearing down sandboxes for actions with many "
+              + "inputs faster.")
+  public boolean reuseSandboxDirectories;
+
+  @Option(
+      name = "experimental_sandbox_async_tree_delete_threads",
+      defaultValue = "0",
+      documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If greater than 0, the sandbox directories of the finished actions and the sandbox base "
+              + "at the end of the build are moved to a trash directory and deleted in the "
+              + "background by up to this many threads, instead of being deleted before the "
+              + "actions and the build complete.")
+  public int asyncTreeDeleteThreads;
 }
@@ -0,0 +1,86 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the execution roots of finished sandboxed spawns by mnemonic, so that a later spawn with
+ * the same mnemonic, which usually shares most of its inputs, can take one over and only update
+ * the entries that differ instead of creating all of its inputs.
+ *
+ * <p>The stashed execution roots are moved under a directory of the sandbox base, so they are
+ * deleted with it at the end of the command.
+ */
+@ThreadSafe
+final class SandboxStash {
+  private final Path stashBase;
+  private final AtomicInteger stashCount = new AtomicInteger();
+  private final ConcurrentHashMap<String, Deque<Path>> stashesByMnemonic =
+      new ConcurrentHashMap<>();
+
+  SandboxStash(Path stashBase) {
+    this.stashBase = stashBase;
+  }
+
+  /**
+   * Moves the most recently stashed execution root of a spawn with the given mnemonic to {@code
+   * sandboxExecRoot}, which must be missing or an empty directory.
+   *
+   * @return false if no execution root could be taken over, in which case {@code sandboxExecRoot}
+   *     is an empty directory
+   * @throws IOException if {@code sandboxExecRoot} cannot be replaced
+   */
+  boolean takeStashedSandbox(Path sandboxExecRoot, String mnemonic) throws IOException {
+    Deque<Path> stashes = stashesByMnemonic.get(mnemonic);
+    Path stashed = stashes != null ? stashes.pollLast() : null;
+    if (stashed == null) {
+      return false;
+    }
+    sandboxExecRoot.delete();
+    try {
+      stashed.renameTo(sandboxExecRoot);
+      return true;
+    } catch (IOException e) {
+      // The stashed execution root, if it is still there, is deleted with the sandbox base.
+      sandboxExecRoot.createDirectory();
+      return false;
+    }
+  }
+
+  /**
+   * Moves {@code sandboxExecRoot} to the stash of the given mnemonic.
+   *
+   * @return false if it could not be moved, in which case it should be deleted
+   */
+  boolean stashSandbox(Path sandboxExecRoot, String mnemonic) {
+    Path stashed = stashBase.getRelative(Integer.toString(stashCount.incrementAndGet()));
+    try {
+      stashBase.createDirectoryAndParents();
+      sandboxExecRoot.renameTo(stashed);
+    } catch (IOException e) {
+      return false;
+    }
+    stashesByMnemonic
+        .computeIfAbsent(mnemonic, m -> new ConcurrentLinkedDeque<>())
+        .addLast(stashed);
+    return true;
+  }
+}
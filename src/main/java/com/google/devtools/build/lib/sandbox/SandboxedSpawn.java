@@ -56,6 +56,12 @@ interface SandboxedSpawn {
    */
   void copyOutputs(Path execRoot) throws IOException;
 
+  /**
+   * Records that the subprocess exited successfully and that its outputs were moved out of the
+   * sandbox, after which the sandbox may be kept for reuse instead of deleted.
+   */
+  default void markSuccessful() {}
+
   /**
    * Deletes the sandbox directory.
    */
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * Creates an execRoot for a Spawn that contains input files as symlinks to their original
@@ -39,6 +40,35 @@ public class SymlinkedSandboxedSpawn extends AbstractContainerizingSandboxedSpaw
     super(sandboxPath, sandboxExecRoot, arguments, environment, inputs, outputs, writableDirs);
   }
 
+  /**
+   * Creates a spawn that reuses the execution roots of finished spawns with the same mnemonic from
+   * {@code sandboxStash}, if not null, keeping the symlinks to the inputs they have in common, and
+   * deletes its sandbox with {@code treeDeleter}.
+   */
+  SymlinkedSandboxedSpawn(
+      Path sandboxPath,
+      Path sandboxExecRoot,
+      List<String> arguments,
+      Map<String, String> environment,
+      Map<PathFragment, Path> inputs,
+      SandboxOutputs outputs,
+      Set<Path> writableDirs,
+      @Nullable SandboxStash sandboxStash,
+      String mnemonic,
+      TreeDeleter treeDeleter) {
+    super(
+        sandboxPath,
+        sandboxExecRoot,
+        arguments,
+        environment,
+        inputs,
+        outputs,
+        writableDirs,
+        sandboxStash,
+        mnemonic,
+        treeDeleter);
+  }
+
   @Override
   protected void copyFile(Path source, Path target) throws IOException {
     target.createSymbolicLink(source);
@@ -0,0 +1,30 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+
+/** A {@link TreeDeleter} that deletes the trees on the calling thread. */
+final class SynchronousTreeDeleter implements TreeDeleter {
+  static final SynchronousTreeDeleter INSTANCE = new SynchronousTreeDeleter();
+
+  private SynchronousTreeDeleter() {}
+
+  @Override
+  public void deleteTree(Path path) throws IOException {
+    FileSystemUtils.deleteTree(path);
+  }
+}
@@ -0,0 +1,29 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+
+/** Deletes the directory trees of the sandboxes. */
+interface TreeDeleter {
+
+  /**
+   * Deletes the tree rooted at {@code path}. When this returns, {@code path} no longer exists, but
+   * the files it contained may only be deleted later.
+   *
+   * @throws IOException if the tree cannot be deleted
+   */
+  void deleteTree(Path path) throws IOException;
+}
@@ -17,6 +17,7 @@ package com.google.devtools.build.lib.skyframe;
 import com.google.devtools.build.lib.actions.FileValue;
 import com.google.devtools.build.lib.actions.InconsistentFilesystemException;
 import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.events.StoredEventHandler;
 import com.google.devtools.build.lib.packages.BuildFileNotFoundException;
 import com.google.devtools.build.lib.packages.RuleClassProvider;
 import com.google.devtools.build.lib.syntax.BuildFileAST;
@@ -34,6 +35,7 @@ import com.google.devtools.build.skyframe.SkyFunctionException.Transience;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 
 /**
@@ -47,9 +49,21 @@ import javax.annotation.Nullable;
 public class ASTFileLookupFunction implements SkyFunction {
 
   private final RuleClassProvider ruleClassProvider;
+  private final AtomicReference<PersistentASTFileCache> persistentCache;
 
   public ASTFileLookupFunction(RuleClassProvider ruleClassProvider) {
+    this(ruleClassProvider, new AtomicReference<>());
+  }
+
+  /**
+   * Creates a function that reuses the ASTs stored in {@code persistentCache}, if it holds a cache,
+   * and stores the ASTs it computes there.
+   */
+  public ASTFileLookupFunction(
+      RuleClassProvider ruleClassProvider,
+      AtomicReference<PersistentASTFileCache> persistentCache) {
     this.ruleClassProvider = ruleClassProvider;
+    this.persistentCache = persistentCache;
   }
 
   @Override
@@ -110,7 +124,15 @@ public class ASTFileLookupFunction implements SkyFunction {
     // Both the package and the file exist; load the file and parse it as an AST.
     BuildFileAST ast = null;
     Path path = rootedPath.asPath();
+    PersistentASTFileCache cache = persistentCache.get();
     try {
+      byte[] digest = path.getDigest();
+      if (cache != null && digest != null) {
+        ast = cache.get(path.asFragment(), digest, skylarkSemantics);
+        if (ast != null) {
+          return ASTFileLookupValue.withFile(ast);
+        }
+      }
       long astFileSize = fileValue.getSize();
       try (Mutability mutability = Mutability.create("validate")) {
         com.google.devtools.build.lib.syntax.Environment validationEnv =
@@ -126,10 +148,15 @@ public class ASTFileLookupFunction implements SkyFunction {
                 .setupDynamic(Runtime.PKG_NAME, Runtime.NONE)
                 .setupDynamic(Runtime.REPOSITORY_NAME, Runtime.NONE);
         byte[] bytes = FileSystemUtils.readWithKnownFileSize(path, astFileSize);
-        ast =
-            BuildFileAST.parseSkylarkFile(
-                bytes, path.getDigest(), path.asFragment(), env.getListener());
-        ast = ast.validate(validationEnv, env.getListener());
+        // The events of a cached AST would not be reported again, so only ASTs that report none
+        // are cached.
+        StoredEventHandler eventHandler = new StoredEventHandler();
+        ast = BuildFileAST.parseSkylarkFile(bytes, digest, path.asFragment(), eventHandler);
+        ast = ast.validate(validationEnv, eventHandler);
+        eventHandler.replayOn(env.getListener());
+        if (cache != null && digest != null && eventHandler.isEmpty() && !ast.containsErrors()) {
+          cache.put(path.asFragment(), digest, skylarkSemantics, ast);
+        }
       }
     } catch (IOException e) {
       throw new ASTLookupFunctionException(new ErrorReadingSkylarkExtensionException(e),
@@ -0,0 +1,71 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.events.ExtendedEventHandler;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+import javax.annotation.Nullable;
+
+/**
+ * Posted when the package path entries have been checked for modified files at the start of a
+ * command, with the files that {@link DiffAwareness} reported as modified since the previous check.
+ * Lets the caches of the file system that are kept outside of Skyframe across commands only drop
+ * the entries of the modified files.
+ */
+public final class ModifiedSourceFilesEvent implements ExtendedEventHandler.Postable {
+  private final ImmutableList<Root> pathEntries;
+  @Nullable private final ImmutableSet<PathFragment> modifiedSourceFiles;
+
+  private ModifiedSourceFilesEvent(
+      ImmutableList<Root> pathEntries, @Nullable ImmutableSet<PathFragment> modifiedSourceFiles) {
+    this.pathEntries = pathEntries;
+    this.modifiedSourceFiles = modifiedSourceFiles;
+  }
+
+  /** Creates an event for path entries whose diff awareness gave an exact diff. */
+  static ModifiedSourceFilesEvent create(
+      ImmutableList<Root> pathEntries, ImmutableSet<PathFragment> modifiedSourceFiles) {
+    return new ModifiedSourceFilesEvent(pathEntries, modifiedSourceFiles);
+  }
+
+  /** Creates an event for path entries of which any file may have been modified. */
+  static ModifiedSourceFilesEvent everythingModified(ImmutableList<Root> pathEntries) {
+    return new ModifiedSourceFilesEvent(pathEntries, /*modifiedSourceFiles=*/ null);
+  }
+
+  /** The package path entries that were checked. */
+  public ImmutableList<Root> getPathEntries() {
+    return pathEntries;
+  }
+
+  /**
+   * Returns true if diff awareness could not tell which files were modified under some path entry,
+   * in which case any file may have been modified, created or deleted.
+   */
+  public boolean isEverythingModified() {
+    return modifiedSourceFiles == null;
+  }
+
+  /**
+   * The paths relative to their path entry of the files and directories that were modified,
+   * created or deleted. May only be called if {@link #isEverythingModified} is false.
+   */
+  public ImmutableSet<PathFragment> getModifiedSourceFiles() {
+    return Preconditions.checkNotNull(modifiedSourceFiles, "Everything was modified");
+  }
+}
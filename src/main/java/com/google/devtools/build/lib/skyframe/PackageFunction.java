@@ -42,11 +42,14 @@ import com.google.devtools.build.lib.packages.BuildFileContainsErrorsException;
 import com.google.devtools.build.lib.packages.BuildFileNotFoundException;
 import com.google.devtools.build.lib.packages.CachingPackageLocator;
 import com.google.devtools.build.lib.packages.Globber;
+import com.google.devtools.build.lib.packages.Globber.BadGlobException;
 import com.google.devtools.build.lib.packages.InvalidPackageNameException;
 import com.google.devtools.build.lib.packages.NoSuchPackageException;
 import com.google.devtools.build.lib.packages.Package;
 import com.google.devtools.build.lib.packages.PackageFactory;
 import com.google.devtools.build.lib.packages.PackageFactory.LegacyGlobber;
+import com.google.devtools.build.lib.packages.RuleClass;
+import com.google.devtools.build.lib.packages.RuleFunction;
 import com.google.devtools.build.lib.packages.RuleVisibility;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.profiler.Profiler;
@@ -54,13 +57,21 @@ import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.profiler.SilentCloseable;
 import com.google.devtools.build.lib.skyframe.GlobValue.InvalidGlobPatternException;
 import com.google.devtools.build.lib.skyframe.SkylarkImportLookupFunction.SkylarkImportFailedException;
+import com.google.devtools.build.lib.syntax.Argument;
 import com.google.devtools.build.lib.syntax.BuildFileAST;
 import com.google.devtools.build.lib.syntax.Environment.Extension;
 import com.google.devtools.build.lib.syntax.EvalException;
+import com.google.devtools.build.lib.syntax.Expression;
+import com.google.devtools.build.lib.syntax.FuncallExpression;
+import com.google.devtools.build.lib.syntax.Identifier;
+import com.google.devtools.build.lib.syntax.IntegerLiteral;
+import com.google.devtools.build.lib.syntax.ListLiteral;
 import com.google.devtools.build.lib.syntax.ParserInputSource;
 import com.google.devtools.build.lib.syntax.SkylarkImport;
 import com.google.devtools.build.lib.syntax.SkylarkSemantics;
 import com.google.devtools.build.lib.syntax.Statement;
+import com.google.devtools.build.lib.syntax.StringLiteral;
+import com.google.devtools.build.lib.syntax.SyntaxTreeVisitor;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
@@ -84,6 +95,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 
 /**
@@ -107,6 +119,10 @@ public class PackageFunction implements SkyFunction {
 
   private final IncrementalityIntent incrementalityIntent;
 
+  private final AtomicBoolean skyframeGlobbing;
+
+  private final AtomicReference<PersistentPackageCache> persistentPackageCache;
+
   static final PathFragment DEFAULTS_PACKAGE_NAME = PathFragment.create("tools/defaults");
 
   public PackageFunction(
@@ -120,6 +136,75 @@ public class PackageFunction implements SkyFunction {
       @Nullable PackageProgressReceiver packageProgress,
       ActionOnIOExceptionReadingBuildFile actionOnIOExceptionReadingBuildFile,
       IncrementalityIntent incrementalityIntent) {
+    this(
+        packageFactory,
+        pkgLocator,
+        showLoadingProgress,
+        packageFunctionCache,
+        astCache,
+        numPackagesLoaded,
+        skylarkImportLookupFunctionForInlining,
+        packageProgress,
+        actionOnIOExceptionReadingBuildFile,
+        incrementalityIntent,
+        new AtomicBoolean(false));
+  }
+
+  /**
+   * Creates a function that, if {@code skyframeGlobbing} is set, evaluates the globs of a BUILD
+   * file whose arguments are literals by {@link GlobFunction} before the BUILD file itself. Only
+   * the globs with computed arguments are then evaluated by the legacy {@link
+   * com.google.devtools.build.lib.packages.GlobCache}.
+   */
+  public PackageFunction(
+      PackageFactory packageFactory,
+      CachingPackageLocator pkgLocator,
+      AtomicBoolean showLoadingProgress,
+      Cache<PackageIdentifier, LoadedPackageCacheEntry> packageFunctionCache,
+      Cache<PackageIdentifier, AstParseResult> astCache,
+      AtomicInteger numPackagesLoaded,
+      @Nullable SkylarkImportLookupFunction skylarkImportLookupFunctionForInlining,
+      @Nullable PackageProgressReceiver packageProgress,
+      ActionOnIOExceptionReadingBuildFile actionOnIOExceptionReadingBuildFile,
+      IncrementalityIntent incrementalityIntent,
+      AtomicBoolean skyframeGlobbing) {
+    this(
+        packageFactory,
+        pkgLocator,
+        showLoadingProgress,
+        packageFunctionCache,
+        astCache,
+        numPackagesLoaded,
+        skylarkImportLookupFunctionForInlining,
+        packageProgress,
+        actionOnIOExceptionReadingBuildFile,
+        incrementalityIntent,
+        skyframeGlobbing,
+        new AtomicReference<>());
+  }
+
+  /**
+   * Creates a function that, if {@code persistentPackageCache} is set, stores the packages it
+   * creates in that cache, and creates the packages whose BUILD files, loaded {@code .bzl} files
+   * and globs did not change since from that cache instead of evaluating their BUILD files.
+   *
+   * <p>The cache is only used by functions that are {@link IncrementalityIntent#INCREMENTAL} and do
+   * not inline the Skylark imports, as it relies on the Skyframe dependencies on the globs and
+   * imports of the packages.
+   */
+  public PackageFunction(
+      PackageFactory packageFactory,
+      CachingPackageLocator pkgLocator,
+      AtomicBoolean showLoadingProgress,
+      Cache<PackageIdentifier, LoadedPackageCacheEntry> packageFunctionCache,
+      Cache<PackageIdentifier, AstParseResult> astCache,
+      AtomicInteger numPackagesLoaded,
+      @Nullable SkylarkImportLookupFunction skylarkImportLookupFunctionForInlining,
+      @Nullable PackageProgressReceiver packageProgress,
+      ActionOnIOExceptionReadingBuildFile actionOnIOExceptionReadingBuildFile,
+      IncrementalityIntent incrementalityIntent,
+      AtomicBoolean skyframeGlobbing,
+      AtomicReference<PersistentPackageCache> persistentPackageCache) {
     this.skylarkImportLookupFunctionForInlining = skylarkImportLookupFunctionForInlining;
     // Can be null in tests.
     this.preludeLabel = packageFactory == null
@@ -134,6 +219,8 @@ public class PackageFunction implements SkyFunction {
     this.packageProgress = packageProgress;
     this.actionOnIOExceptionReadingBuildFile = actionOnIOExceptionReadingBuildFile;
     this.incrementalityIntent = incrementalityIntent;
+    this.skyframeGlobbing = skyframeGlobbing;
+    this.persistentPackageCache = persistentPackageCache;
   }
 
   @VisibleForTesting
@@ -209,12 +296,22 @@ public class PackageFunction implements SkyFunction {
     private final Package.Builder builder;
     private final Set<SkyKey> globDepKeys;
     private final long loadTimeNanos;
+    // The key and Skylark file dependencies of the package in the persistent package cache, if it
+    // was evaluated from its BUILD file and is to be stored there.
+    @Nullable private final String persistentCacheKey;
+    @Nullable private final ImmutableList<Label> skylarkFileDependencies;
 
     private LoadedPackageCacheEntry(
-        Package.Builder builder, Set<SkyKey> globDepKeys, long loadTimeNanos) {
+        Package.Builder builder,
+        Set<SkyKey> globDepKeys,
+        long loadTimeNanos,
+        @Nullable String persistentCacheKey,
+        @Nullable ImmutableList<Label> skylarkFileDependencies) {
       this.builder = builder;
       this.globDepKeys = globDepKeys;
       this.loadTimeNanos = loadTimeNanos;
+      this.persistentCacheKey = persistentCacheKey;
+      this.skylarkFileDependencies = skylarkFileDependencies;
     }
   }
 
@@ -440,6 +537,8 @@ public class PackageFunction implements SkyFunction {
     List<Statement> preludeStatements =
         astLookupValue.lookupSuccessful()
             ? astLookupValue.getAST().getStatements() : ImmutableList.<Statement>of();
+    String preludeContentHash =
+        astLookupValue.lookupSuccessful() ? astLookupValue.getAST().getContentHashCode() : "";
     LoadedPackageCacheEntry packageCacheEntry =
         loadPackage(
             workspaceName,
@@ -451,6 +550,7 @@ public class PackageFunction implements SkyFunction {
             defaultVisibility,
             skylarkSemantics,
             preludeStatements,
+            preludeContentHash,
             packageLookupValue.getRoot(),
             env);
     if (packageCacheEntry == null) {
@@ -493,6 +593,21 @@ public class PackageFunction implements SkyFunction {
           e.toNoSuchPackageException(),
           e.isTransient() ? Transience.TRANSIENT : Transience.PERSISTENT);
     }
+    // The events of a cached package would not be reported again, so only packages that report
+    // none are cached.
+    PersistentPackageCache persistentCache = persistentPackageCache.get();
+    List<String> skylarkFileHashes = null;
+    Map<GlobDescriptor, String> globMatches = null;
+    if (persistentCache != null
+        && packageCacheEntry.persistentCacheKey != null
+        && !pkgBuilder.containsErrors()
+        && !packageShouldBeConsideredInErrorFromGlobDeps
+        && pkgBuilder.getEvents().isEmpty()
+        && pkgBuilder.getPosts().isEmpty()) {
+      skylarkFileHashes =
+          getSkylarkFileHashes(packageCacheEntry.skylarkFileDependencies, env);
+      globMatches = getGlobMatches(globKeys, env);
+    }
     if (env.valuesMissing()) {
       return null;
     }
@@ -501,6 +616,14 @@ public class PackageFunction implements SkyFunction {
       pkgBuilder.setContainsErrors();
     }
     Package pkg = pkgBuilder.finishBuild();
+    if (skylarkFileHashes != null && globMatches != null) {
+      persistentCache.put(
+          packageCacheEntry.persistentCacheKey,
+          pkg,
+          packageFactory.getPackageSerializer(),
+          skylarkFileHashes,
+          globMatches);
+    }
 
     Event.replayEventsOn(env.getListener(), pkgBuilder.getEvents());
     for (Postable post : pkgBuilder.getPosts()) {
@@ -514,6 +637,59 @@ public class PackageFunction implements SkyFunction {
     return new PackageValue(pkg);
   }
 
+  /**
+   * Returns the transitive content hashes of the given {@code .bzl} files, in the same order, or
+   * null if one of them is not available.
+   */
+  @Nullable
+  private static List<String> getSkylarkFileHashes(List<Label> labels, Environment env)
+      throws InterruptedException {
+    List<SkyKey> keys = Lists.transform(labels, SkylarkImportLookupValue::key);
+    Map<SkyKey, ValueOrException2<SkylarkImportFailedException, InconsistentFilesystemException>>
+        values =
+            env.getValuesOrThrow(
+                keys, SkylarkImportFailedException.class, InconsistentFilesystemException.class);
+    List<String> hashes = new ArrayList<>(labels.size());
+    try {
+      for (SkyKey key : keys) {
+        SkylarkImportLookupValue value = (SkylarkImportLookupValue) values.get(key).get();
+        String hash =
+            value == null ? null : value.getEnvironmentExtension().getTransitiveContentHashCode();
+        if (hash == null) {
+          return null;
+        }
+        hashes.add(hash);
+      }
+    } catch (SkylarkImportFailedException | InconsistentFilesystemException e) {
+      return null;
+    }
+    return hashes;
+  }
+
+  /**
+   * Returns the fingerprints of the matches of the given globs, or null if one of them is not
+   * available.
+   */
+  @Nullable
+  private static Map<GlobDescriptor, String> getGlobMatches(Set<SkyKey> globKeys, Environment env)
+      throws InterruptedException {
+    Map<SkyKey, ValueOrException2<IOException, BuildFileNotFoundException>> values =
+        env.getValuesOrThrow(globKeys, IOException.class, BuildFileNotFoundException.class);
+    Map<GlobDescriptor, String> matches = Maps.newHashMapWithExpectedSize(globKeys.size());
+    try {
+      for (SkyKey key : globKeys) {
+        GlobValue value = (GlobValue) values.get(key).get();
+        if (value == null) {
+          return null;
+        }
+        matches.put((GlobDescriptor) key, PersistentPackageCache.fingerprintMatches(value));
+      }
+    } catch (IOException | BuildFileNotFoundException e) {
+      return null;
+    }
+    return matches;
+  }
+
   private static FileValue getBuildFileValue(Environment env, RootedPath buildFileRootedPath)
       throws InterruptedException {
     FileValue buildFileValue;
@@ -877,15 +1053,6 @@ public class PackageFunction implements SkyFunction {
       return ImmutableSet.copyOf(globDepsRequested);
     }
 
-    private SkyKey getGlobKey(String pattern, boolean excludeDirs) throws BadGlobException {
-      try {
-        return GlobValue.key(packageId, packageRoot, pattern, excludeDirs,
-              PathFragment.EMPTY_FRAGMENT);
-      } catch (InvalidGlobPatternException e) {
-        throw new BadGlobException(e.getMessage());
-      }
-    }
-
     @Override
     public Token runAsync(List<String> includes, List<String> excludes, boolean excludeDirs)
         throws BadGlobException, InterruptedException {
@@ -898,13 +1065,13 @@ public class PackageFunction implements SkyFunction {
           Maps.newHashMapWithExpectedSize(excludes.size());
 
       for (String pattern : includes) {
-        SkyKey globKey = getGlobKey(pattern, excludeDirs);
+        SkyKey globKey = getGlobKey(packageId, packageRoot, pattern, excludeDirs);
         globKeys.add(globKey);
         includesKeys.add(globKey);
         globKeyToIncludeStringMap.put(globKey, pattern);
       }
       for (String pattern : excludes) {
-        SkyKey globKey = getGlobKey(pattern, excludeDirs);
+        SkyKey globKey = getGlobKey(packageId, packageRoot, pattern, excludeDirs);
         globKeys.add(globKey);
         excludesKeys.add(globKey);
         globKeyToExcludeStringMap.put(globKey, pattern);
@@ -1061,26 +1228,37 @@ public class PackageFunction implements SkyFunction {
         Collections.sort(result);
         return result;
       }
+    }
+  }
 
-      private static NestedSet<PathFragment> getGlobMatches(
-          SkyKey globKey,
-          Map<SkyKey, ValueOrException2<IOException, BuildFileNotFoundException>> globValueMap)
-          throws SkyframeGlobbingIOException {
-        ValueOrException2<IOException, BuildFileNotFoundException> valueOrException =
-            Preconditions.checkNotNull(
-                globValueMap.get(globKey), "%s should not be missing", globKey);
-        try {
-          return Preconditions.checkNotNull(
-                  (GlobValue) valueOrException.get(), "%s should not be missing", globKey)
-              .getMatches();
-        } catch (BuildFileNotFoundException e) {
-          // Legacy package loading is only able to handle an IOException, so a rethrow here is the
-          // best we can do.
-          throw new SkyframeGlobbingIOException(e);
-        } catch (IOException e) {
-          throw new SkyframeGlobbingIOException(e);
-        }
-      }
+  private static SkyKey getGlobKey(
+      PackageIdentifier packageId, Root packageRoot, String pattern, boolean excludeDirs)
+      throws BadGlobException {
+    try {
+      return GlobValue.key(packageId, packageRoot, pattern, excludeDirs,
+            PathFragment.EMPTY_FRAGMENT);
+    } catch (InvalidGlobPatternException e) {
+      throw new BadGlobException(e.getMessage());
+    }
+  }
+
+  private static NestedSet<PathFragment> getGlobMatches(
+      SkyKey globKey,
+      Map<SkyKey, ValueOrException2<IOException, BuildFileNotFoundException>> globValueMap)
+      throws SkyframeGlobbingIOException {
+    ValueOrException2<IOException, BuildFileNotFoundException> valueOrException =
+        Preconditions.checkNotNull(
+            globValueMap.get(globKey), "%s should not be missing", globKey);
+    try {
+      return Preconditions.checkNotNull(
+              (GlobValue) valueOrException.get(), "%s should not be missing", globKey)
+          .getMatches();
+    } catch (BuildFileNotFoundException e) {
+      // Legacy package loading is only able to handle an IOException, so a rethrow here is the
+      // best we can do.
+      throw new SkyframeGlobbingIOException(e);
+    } catch (IOException e) {
+      throw new SkyframeGlobbingIOException(e);
     }
   }
 
@@ -1090,6 +1268,120 @@ public class PackageFunction implements SkyFunction {
     }
   }
 
+  /**
+   * Requests the {@link GlobValue}s of the globs of a BUILD file whose arguments are all literals,
+   * in the same Skyframe restart as its Skylark imports. Returns false if any of them is missing,
+   * in which case the BUILD file must only be evaluated once they are computed.
+   *
+   * <p>This way, the BUILD file is evaluated once, and its literal globs are computed once, by
+   * {@link GlobFunction}. A {@link SkyframeHybridGlobber} without prefetching instead computes the
+   * globs missing from Skyframe with the legacy globber while the BUILD file is evaluated, and then
+   * again as the {@link GlobValue} deps of the package. Globs whose arguments are computed, such as
+   * a glob of the matches of another glob, are still computed by the legacy globber.
+   */
+  private static boolean prefetchLiteralGlobs(
+      PackageIdentifier packageId, Root packageRoot, BuildFileAST ast, Environment env)
+      throws InterruptedException {
+    LiteralGlobCollector collector = new LiteralGlobCollector(packageId, packageRoot);
+    collector.visit(ast);
+    boolean globValuesMissing = false;
+    for (ValueOrException2<IOException, BuildFileNotFoundException> valueOrException :
+        env.getValuesOrThrow(
+                collector.globKeys, IOException.class, BuildFileNotFoundException.class)
+            .values()) {
+      try {
+        if (valueOrException.get() == null) {
+          globValuesMissing = true;
+        }
+      } catch (IOException | BuildFileNotFoundException e) {
+        // Reported when the glob is evaluated with the BUILD file.
+      }
+    }
+    return !globValuesMissing;
+  }
+
+  /**
+   * Collects the {@link GlobValue} keys of the {@code glob()} calls of a BUILD file whose {@code
+   * include}, {@code exclude} and {@code exclude_directories} arguments are literals.
+   */
+  private static class LiteralGlobCollector extends SyntaxTreeVisitor {
+    private final PackageIdentifier packageId;
+    private final Root packageRoot;
+    private final Set<SkyKey> globKeys = new LinkedHashSet<>();
+
+    private LiteralGlobCollector(PackageIdentifier packageId, Root packageRoot) {
+      this.packageId = packageId;
+      this.packageRoot = packageRoot;
+    }
+
+    @Override
+    public void visit(FuncallExpression node) {
+      super.visit(node);
+      if (!(node.getFunction() instanceof Identifier)
+          || !((Identifier) node.getFunction()).getName().equals("glob")) {
+        return;
+      }
+      List<String> includes = null;
+      List<String> excludes = ImmutableList.of();
+      boolean excludeDirs = true;
+      if (node.getNumPositionalArguments() > 1) {
+        return;
+      }
+      for (Argument.Passed arg : node.getArguments()) {
+        if (!arg.isPositional() && !arg.isKeyword()) {
+          // *args or **kwargs.
+          return;
+        }
+        switch (arg.isPositional() ? "include" : arg.getIdentifier().getName()) {
+          case "include":
+            includes = getStringLiterals(arg.getValue());
+            break;
+          case "exclude":
+            excludes = getStringLiterals(arg.getValue());
+            break;
+          case "exclude_directories":
+            if (!(arg.getValue() instanceof IntegerLiteral)) {
+              return;
+            }
+            excludeDirs = ((IntegerLiteral) arg.getValue()).getValue() != 0;
+            break;
+          default:
+            return;
+        }
+      }
+      if (includes == null || excludes == null) {
+        return;
+      }
+      List<SkyKey> keys = new ArrayList<>(includes.size() + excludes.size());
+      try {
+        for (String pattern : Iterables.concat(includes, excludes)) {
+          keys.add(getGlobKey(packageId, packageRoot, pattern, excludeDirs));
+        }
+      } catch (BadGlobException e) {
+        // Reported when the glob is evaluated with the BUILD file.
+        return;
+      }
+      globKeys.addAll(keys);
+    }
+
+    /** Returns the strings of a list literal of string literals, or null for any other value. */
+    @Nullable
+    private static List<String> getStringLiterals(Expression expression) {
+      if (!(expression instanceof ListLiteral)) {
+        return null;
+      }
+      List<Expression> elements = ((ListLiteral) expression).getElements();
+      List<String> strings = new ArrayList<>(elements.size());
+      for (Expression element : elements) {
+        if (!(element instanceof StringLiteral)) {
+          return null;
+        }
+        strings.add(((StringLiteral) element).getValue());
+      }
+      return strings;
+    }
+  }
+
   private GlobberWithSkyframeGlobDeps makeGlobber(
       Path buildFilePath,
       PackageIdentifier packageId,
@@ -1097,6 +1389,10 @@ public class PackageFunction implements SkyFunction {
       SkyFunction.Environment env) {
     LegacyGlobber legacyGlobber = packageFactory.createLegacyGlobber(
         buildFilePath.getParentDirectory(), packageId, packageLocator);
+    if (skyframeGlobbing.get()) {
+      // The literal globs were prefetched, so the legacy globber only computes the others.
+      return new SkyframeHybridGlobber(packageId, packageRoot, env, legacyGlobber);
+    }
     switch (incrementalityIntent) {
       case INCREMENTAL:
         return new SkyframeHybridGlobber(packageId, packageRoot, env, legacyGlobber);
@@ -1119,6 +1415,9 @@ public class PackageFunction implements SkyFunction {
    * <p>Exactly one of {@code replacementContents} and {@code buildFileValue} will be non-{@code
    * null}. The former indicates that we have a faux BUILD file with the given contents and the
    * latter indicates that we have a legitimate BUILD file and should actually read its contents.
+   *
+   * <p>{@code preludeContentHash} is empty if there is no prelude, and null if its content hash is
+   * not known, in which case the persistent package cache is not used.
    */
   @Nullable
   private LoadedPackageCacheEntry loadPackage(
@@ -1131,6 +1430,7 @@ public class PackageFunction implements SkyFunction {
       RuleVisibility defaultVisibility,
       SkylarkSemantics skylarkSemantics,
       List<Statement> preludeStatements,
+      @Nullable String preludeContentHash,
       Root packageRoot,
       Environment env)
       throws InterruptedException, PackageFunctionException {
@@ -1143,6 +1443,49 @@ public class PackageFunction implements SkyFunction {
           Profiler.instance().profile(ProfilerTask.CREATE_PACKAGE, packageId.toString())) {
         AstParseResult astParseResult = astCache.getIfPresent(packageId);
         Path inputFile = buildFilePath.asPath();
+        PersistentPackageCache persistentCache = persistentPackageCache.get();
+        String persistentCacheKey = null;
+        if (persistentCache != null
+            && replacementContents == null
+            && preludeContentHash != null
+            && incrementalityIntent == IncrementalityIntent.INCREMENTAL
+            && skylarkImportLookupFunctionForInlining == null) {
+          persistentCacheKey =
+              getPersistentCacheKey(
+                  packageId,
+                  buildFilePath,
+                  buildFileValue,
+                  preludeContentHash,
+                  skylarkSemantics,
+                  defaultVisibility,
+                  workspaceName,
+                  repositoryMapping);
+        }
+        // The BUILD file is only parsed once the persistent cache missed.
+        if (persistentCacheKey != null && astParseResult == null) {
+          packageCacheEntry =
+              loadPackageFromPersistentCache(
+                  persistentCache,
+                  persistentCacheKey,
+                  workspaceName,
+                  repositoryMapping,
+                  packageId,
+                  buildFilePath,
+                  defaultVisibility,
+                  packageRoot,
+                  env);
+          if (packageCacheEntry != null) {
+            numPackagesLoaded.incrementAndGet();
+            if (packageProgress != null) {
+              packageProgress.doneReadPackage(packageId);
+            }
+            packageFunctionCache.put(packageId, packageCacheEntry);
+            return packageCacheEntry;
+          }
+          if (env.valuesMissing()) {
+            return null;
+          }
+        }
         if (astParseResult == null) {
           if (showLoadingProgress.get()) {
             env.getListener().handle(Event.progress("Loading package: " + packageId));
@@ -1169,9 +1512,7 @@ public class PackageFunction implements SkyFunction {
               // If control flow reaches here, we're in territory that is deliberately unsound.
               // See the javadoc for ActionOnIOExceptionReadingBuildFile.
             }
-            input =
-                ParserInputSource.create(
-                    FileSystemUtils.convertFromLatin1(buildFileBytes), inputFile.asFragment());
+            input = ParserInputSource.create(buildFileBytes, inputFile.asFragment());
           } else {
             input =
                 ParserInputSource.create(replacementContents, buildFilePath.asPath().asFragment());
@@ -1183,6 +1524,11 @@ public class PackageFunction implements SkyFunction {
           astParseResult = new AstParseResult(ast, astParsingEventHandler);
           astCache.put(packageId, astParseResult);
         }
+        // Literal globs are requested before the imports, so that both are computed by the same
+        // restart.
+        boolean globValuesAvailable =
+            !skyframeGlobbing.get()
+                || prefetchLiteralGlobs(packageId, packageRoot, astParseResult.ast, env);
         SkylarkImportResult importResult;
         try {
           importResult =
@@ -1199,7 +1545,7 @@ public class PackageFunction implements SkyFunction {
           astCache.invalidate(packageId);
           throw e;
         }
-        if (importResult == null) {
+        if (importResult == null || !globValuesAvailable) {
           return null;
         }
         astCache.invalidate(packageId);
@@ -1222,7 +1568,9 @@ public class PackageFunction implements SkyFunction {
         packageCacheEntry = new LoadedPackageCacheEntry(
             pkgBuilder,
             globberWithSkyframeGlobDeps.getGlobDepsRequested(),
-            loadTimeNanos);
+            loadTimeNanos,
+            persistentCacheKey,
+            importResult.fileDependencies);
         numPackagesLoaded.incrementAndGet();
         if (packageProgress != null) {
           packageProgress.doneReadPackage(packageId);
@@ -1233,6 +1581,135 @@ public class PackageFunction implements SkyFunction {
     return packageCacheEntry;
   }
 
+  /**
+   * Returns the key of the package in the persistent package cache, or null if the digest of its
+   * BUILD file cannot be computed.
+   */
+  @Nullable
+  private static String getPersistentCacheKey(
+      PackageIdentifier packageId,
+      RootedPath buildFilePath,
+      FileValue buildFileValue,
+      String preludeContentHash,
+      SkylarkSemantics skylarkSemantics,
+      RuleVisibility defaultVisibility,
+      String workspaceName,
+      ImmutableMap<RepositoryName, RepositoryName> repositoryMapping) {
+    byte[] digest = buildFileValue.getDigest();
+    if (digest == null) {
+      try {
+        digest = buildFilePath.asPath().getDigest();
+      } catch (IOException e) {
+        return null;
+      }
+    }
+    return PersistentPackageCache.key(
+        packageId,
+        buildFilePath,
+        digest,
+        preludeContentHash,
+        skylarkSemantics,
+        defaultVisibility,
+        workspaceName,
+        repositoryMapping);
+  }
+
+  /**
+   * Returns the package stored in the persistent package cache with the given key if the {@code
+   * .bzl} files it loaded and the globs it evaluated did not change since it was stored, or null if
+   * they did, if there is no such package or if some of their values are missing.
+   */
+  @Nullable
+  private LoadedPackageCacheEntry loadPackageFromPersistentCache(
+      PersistentPackageCache persistentCache,
+      String persistentCacheKey,
+      String workspaceName,
+      ImmutableMap<RepositoryName, RepositoryName> repositoryMapping,
+      PackageIdentifier packageId,
+      RootedPath buildFilePath,
+      RuleVisibility defaultVisibility,
+      Root packageRoot,
+      Environment env)
+      throws InterruptedException {
+    long startTimeNanos = BlazeClock.nanoTime();
+    PersistentPackageCache.Entry entry =
+        persistentCache.get(persistentCacheKey, packageId, packageRoot);
+    if (entry == null) {
+      return null;
+    }
+    // The BUILD file did not change, so evaluating it would request the same values, unless the
+    // files it loads changed. Both are requested at once to restart only once.
+    Map<SkyKey, Label> importKeys = new HashMap<>();
+    for (Label label : entry.getSkylarkFileHashes().keySet()) {
+      importKeys.put(SkylarkImportLookupValue.key(label), label);
+    }
+    Map<SkyKey, ValueOrException2<SkylarkImportFailedException, InconsistentFilesystemException>>
+        importValues =
+            env.getValuesOrThrow(
+                importKeys.keySet(),
+                SkylarkImportFailedException.class,
+                InconsistentFilesystemException.class);
+    Map<SkyKey, ValueOrException2<IOException, BuildFileNotFoundException>> globValues =
+        env.getValuesOrThrow(
+            entry.getGlobMatches().keySet(), IOException.class, BuildFileNotFoundException.class);
+    if (env.valuesMissing()) {
+      return null;
+    }
+    Map<Label, Extension> extensions = Maps.newHashMapWithExpectedSize(importKeys.size());
+    try {
+      for (Map.Entry<SkyKey, Label> importKey : importKeys.entrySet()) {
+        Extension extension =
+            ((SkylarkImportLookupValue) importValues.get(importKey.getKey()).get())
+                .getEnvironmentExtension();
+        if (!entry
+            .getSkylarkFileHashes()
+            .get(importKey.getValue())
+            .equals(extension.getTransitiveContentHashCode())) {
+          return null;
+        }
+        extensions.put(importKey.getValue(), extension);
+      }
+      for (Map.Entry<GlobDescriptor, String> glob : entry.getGlobMatches().entrySet()) {
+        GlobValue globValue = (GlobValue) globValues.get(glob.getKey()).get();
+        if (!glob.getValue().equals(PersistentPackageCache.fingerprintMatches(globValue))) {
+          return null;
+        }
+      }
+    } catch (SkylarkImportFailedException | IOException | BuildFileNotFoundException e) {
+      // Reported by evaluating the BUILD file, if it still loads the file or evaluates the glob.
+      return null;
+    }
+    Map<String, RuleClass> nativeRuleClasses =
+        packageFactory.getRuleClassProvider().getRuleClassMap();
+    Package.Builder pkgBuilder =
+        entry.deserializePackage(
+            packageFactory,
+            workspaceName,
+            repositoryMapping,
+            packageId,
+            buildFilePath,
+            defaultVisibility,
+            (name, definitionLabel) -> {
+              if (definitionLabel == null) {
+                return nativeRuleClasses.get(name);
+              }
+              Extension extension = extensions.get(definitionLabel);
+              Object binding = extension == null ? null : extension.getBindings().get(name);
+              return binding instanceof RuleFunction
+                  ? ((RuleFunction) binding).getRuleClass()
+                  : null;
+            });
+    if (pkgBuilder == null) {
+      return null;
+    }
+    return new LoadedPackageCacheEntry(
+        pkgBuilder,
+        ImmutableSet.<SkyKey>copyOf(entry.getGlobMatches().keySet()),
+        Math.max(BlazeClock.nanoTime() - startTimeNanos, 0L),
+        /*persistentCacheKey=*/ null,
+        /*skylarkFileDependencies=*/ null);
+  }
+
   private static class InternalInconsistentFilesystemException extends Exception {
     private boolean isTransient;
 
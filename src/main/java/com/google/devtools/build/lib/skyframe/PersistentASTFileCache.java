@@ -0,0 +1,120 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.devtools.build.lib.skyframe.serialization.ObjectCodecs;
+import com.google.devtools.build.lib.skyframe.serialization.SerializationException;
+import com.google.devtools.build.lib.syntax.BuildFileAST;
+import com.google.devtools.build.lib.syntax.SkylarkSemantics;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * A cache of the validated {@link BuildFileAST}s of Skylark files, kept on disk so that a new
+ * server does not need to parse and validate the {@code .bzl} files that did not change.
+ *
+ * <p>Each AST is stored in its own file, named after a fingerprint of the path and digest of the
+ * source file and of the {@link SkylarkSemantics} it was validated with. ASTs are stored in the
+ * serialized form of {@link ObjectCodecs}, which depends on the classes of the binary that wrote
+ * them; the directory of the cache must therefore be specific to the binary.
+ *
+ * <p>The cache is bounded in size. Reading an entry updates its modification time, and the least
+ * recently used entries are deleted once the cache grows past its maximum size.
+ *
+ * <p>Failing to read or write an entry is not an error: the file is parsed as if it was not
+ * cached.
+ */
+public final class PersistentASTFileCache {
+
+  private static final Logger logger = Logger.getLogger(PersistentASTFileCache.class.getName());
+
+  /** Magic number at the start of each file of the cache. */
+  private static final int FILE_MAGIC = 0x41535446;
+
+  /** Version of the format of the files of the cache. Bump when changing the format. */
+  private static final int FILE_VERSION = 1;
+
+  private final PersistentCacheDirectory directory;
+  private final ObjectCodecs codecs;
+
+  public PersistentASTFileCache(Path directory, long maxSizeBytes, ObjectCodecs codecs) {
+    this.directory =
+        new PersistentCacheDirectory(
+            directory, maxSizeBytes, FILE_MAGIC, FILE_VERSION, "Skylark AST");
+    this.codecs = codecs;
+  }
+
+  /**
+   * Deletes the caches of other binaries, which are the other directories next to this one, and
+   * the temporary files left by a previous server, and then prunes this cache to its maximum size.
+   * Must be called before the cache is used.
+   */
+  void deleteStaleEntries() {
+    directory.deleteStaleEntries();
+  }
+
+  /**
+   * Returns the AST stored for the given file and semantics, or null if there is none or it cannot
+   * be read.
+   */
+  @Nullable
+  BuildFileAST get(PathFragment path, byte[] digest, SkylarkSemantics semantics) {
+    String key = key(path, digest, semantics);
+    CodedInputStream in = directory.read(key);
+    if (in == null) {
+      return null;
+    }
+    try {
+      return (BuildFileAST) codecs.deserializeMemoized(in);
+    } catch (SerializationException | ClassCastException e) {
+      logger.log(Level.WARNING, "Failed to read cached AST of " + path, e);
+      directory.delete(key);
+      return null;
+    }
+  }
+
+  /** Stores the AST of the given file, validated with the given semantics. */
+  void put(PathFragment path, byte[] digest, SkylarkSemantics semantics, BuildFileAST ast) {
+    ByteString serialized;
+    try {
+      serialized = codecs.serializeMemoized(ast);
+    } catch (SerializationException e) {
+      logger.log(Level.WARNING, "Failed to cache AST of " + path, e);
+      return;
+    }
+    directory.write(key(path, digest, semantics), serialized);
+  }
+
+  /**
+   * Deletes the least recently used entries until the cache is back to three quarters of its
+   * maximum size, if it is larger.
+   */
+  void prune() {
+    directory.prune();
+  }
+
+  private static String key(PathFragment path, byte[] digest, SkylarkSemantics semantics) {
+    return new Fingerprint()
+        .addPath(path)
+        .addBytes(digest)
+        .addString(semantics.toString())
+        .hexDigestAndReset();
+  }
+}
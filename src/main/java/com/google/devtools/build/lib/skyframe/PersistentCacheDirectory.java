@@ -0,0 +1,221 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * The directory of the output base holding the entries of a persistent cache, each in its own file
+ * named after its key. Entries start with a magic number and the version of their format.
+ *
+ * <p>The directory is bounded in size. Reading an entry updates its modification time, and the
+ * least recently used entries are deleted once the directory grows past its maximum size.
+ *
+ * <p>Failing to read or write an entry is not an error, and is only logged.
+ */
+final class PersistentCacheDirectory {
+
+  private static final Logger logger = Logger.getLogger(PersistentCacheDirectory.class.getName());
+
+  /** Infix of the temporary files, which are not entries. */
+  private static final String TEMP_FILE_INFIX = ".tmp";
+
+  /** Fraction of the maximum size that the directory is pruned to. */
+  private static final double LOW_WATERMARK = 0.75;
+
+  private final Path directory;
+  private final long maxSizeBytes;
+  private final int fileMagic;
+  private final int fileVersion;
+  private final String description;
+
+  /** Bytes written since the directory was last pruned. */
+  private final AtomicLong bytesWritten = new AtomicLong();
+
+  /**
+   * Creates a directory whose entries have the given magic number and version, and which is named
+   * by {@code description} in the logs.
+   */
+  PersistentCacheDirectory(
+      Path directory, long maxSizeBytes, int fileMagic, int fileVersion, String description) {
+    this.directory = directory;
+    this.maxSizeBytes = maxSizeBytes;
+    this.fileMagic = fileMagic;
+    this.fileVersion = fileVersion;
+    this.description = description;
+  }
+
+  /**
+   * Deletes the other directories next to this one, which hold the caches of other binaries, and
+   * the temporary files left by a previous server, and then prunes this directory to its maximum
+   * size.
+   */
+  void deleteStaleEntries() {
+    try {
+      Path parent = directory.getParentDirectory();
+      if (parent.exists()) {
+        for (Path sibling : parent.getDirectoryEntries()) {
+          if (!sibling.equals(directory)) {
+            FileSystemUtils.deleteTree(sibling);
+          }
+        }
+      }
+      if (directory.exists()) {
+        for (Path entry : directory.getDirectoryEntries()) {
+          if (entry.getBaseName().contains(TEMP_FILE_INFIX)) {
+            entry.delete();
+          }
+        }
+      }
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to delete stale " + description + " caches", e);
+    }
+    prune();
+  }
+
+  /**
+   * Returns the content of the entry with the given key after its header, or null if there is no
+   * such entry or it cannot be read.
+   */
+  @Nullable
+  CodedInputStream read(String key) {
+    Path file = directory.getChild(key);
+    if (!file.exists()) {
+      return null;
+    }
+    CodedInputStream in;
+    try {
+      in = CodedInputStream.newInstance(FileSystemUtils.readContent(file));
+      if (in.readSFixed32() != fileMagic || in.readSFixed32() != fileVersion) {
+        throw new IOException("Unexpected header");
+      }
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to read " + description + " entry " + file, e);
+      delete(key);
+      return null;
+    }
+    try {
+      // Makes the entry the most recently used one.
+      file.setLastModifiedTime(-1L);
+    } catch (IOException e) {
+      // Ignored: the entry may only be pruned earlier.
+    }
+    return in;
+  }
+
+  /** Stores the entry with the given key and content. */
+  void write(String key, ByteString content) {
+    Path file = directory.getChild(key);
+    // Several threads may store the same entry, so each writes its own temporary file.
+    Path tempFile =
+        directory.getChild(key + TEMP_FILE_INFIX + Thread.currentThread().getId());
+    try {
+      directory.createDirectoryAndParents();
+      try (OutputStream out = tempFile.getOutputStream()) {
+        CodedOutputStream codedOut = CodedOutputStream.newInstance(out);
+        codedOut.writeSFixed32NoTag(fileMagic);
+        codedOut.writeSFixed32NoTag(fileVersion);
+        codedOut.writeRawBytes(content);
+        codedOut.flush();
+      }
+      tempFile.renameTo(file);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to write " + description + " entry " + file, e);
+      deleteQuietly(tempFile);
+      return;
+    }
+    long written = bytesWritten.addAndGet(content.size());
+    // Pruning again once a quarter of the maximum size was written bounds the growth of the
+    // directory within a server without listing it for each entry.
+    if (written > maxSizeBytes / 4 && bytesWritten.compareAndSet(written, 0)) {
+      prune();
+    }
+  }
+
+  /** Deletes the entry with the given key, if there is one. */
+  void delete(String key) {
+    deleteQuietly(directory.getChild(key));
+  }
+
+  /**
+   * Deletes the least recently used entries until the directory is back to {@link #LOW_WATERMARK}
+   * of its maximum size, if it is larger.
+   */
+  void prune() {
+    List<Entry> entries = new ArrayList<>();
+    long sizeBytes = 0;
+    try {
+      if (!directory.exists()) {
+        return;
+      }
+      for (Path file : directory.getDirectoryEntries()) {
+        FileStatus stat = file.statIfFound(Symlinks.NOFOLLOW);
+        if (stat != null && !file.getBaseName().contains(TEMP_FILE_INFIX)) {
+          entries.add(new Entry(file, stat.getSize(), stat.getLastModifiedTime()));
+          sizeBytes += stat.getSize();
+        }
+      }
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to list the " + description + " cache in " + directory, e);
+      return;
+    }
+    if (sizeBytes <= maxSizeBytes) {
+      return;
+    }
+    entries.sort(Comparator.comparingLong(entry -> entry.lastModifiedTime));
+    long targetSizeBytes = (long) (maxSizeBytes * LOW_WATERMARK);
+    for (Entry entry : entries) {
+      if (sizeBytes <= targetSizeBytes) {
+        break;
+      }
+      deleteQuietly(entry.file);
+      sizeBytes -= entry.size;
+    }
+  }
+
+  private static final class Entry {
+    private final Path file;
+    private final long size;
+    private final long lastModifiedTime;
+
+    private Entry(Path file, long size, long lastModifiedTime) {
+      this.file = file;
+      this.size = size;
+      this.lastModifiedTime = lastModifiedTime;
+    }
+  }
+
+  private static void deleteQuietly(Path file) {
+    try {
+      file.delete();
+    } catch (IOException e) {
+      // Ignored: the entry will be written again.
+    }
+  }
+}
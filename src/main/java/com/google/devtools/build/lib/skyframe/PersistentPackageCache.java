@@ -0,0 +1,274 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Ordering;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.cmdline.RepositoryName;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.packages.PackageFactory;
+import com.google.devtools.build.lib.packages.PackageSerializer;
+import com.google.devtools.build.lib.packages.PackageSerializer.RuleClassResolver;
+import com.google.devtools.build.lib.packages.RuleVisibility;
+import com.google.devtools.build.lib.skyframe.serialization.DeserializationContext;
+import com.google.devtools.build.lib.skyframe.serialization.ObjectCodecRegistry;
+import com.google.devtools.build.lib.skyframe.serialization.SerializationContext;
+import com.google.devtools.build.lib.skyframe.serialization.SerializationException;
+import com.google.devtools.build.lib.syntax.SkylarkSemantics;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+import com.google.devtools.build.lib.vfs.RootedPath;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * A cache of the packages created by evaluating BUILD files, kept on disk so that a new server
+ * does not need to evaluate the BUILD files that did not change.
+ *
+ * <p>Each package is stored in its own file, named after a fingerprint of everything its BUILD file
+ * is evaluated with that is known before the BUILD file is parsed: the path and digest of the BUILD
+ * file, the prelude, the {@link SkylarkSemantics}, the default visibility, the workspace name and
+ * the repository mapping. The other inputs of the evaluation, which are the transitive content
+ * hashes of the loaded {@code .bzl} files and the matches of the globs, are stored in the entry
+ * and must be checked by the caller with {@link Entry#getSkylarkFileHashes} and {@link
+ * Entry#getGlobMatches} before the package is deserialized with {@link Entry#deserializePackage}.
+ *
+ * <p>Packages are stored in the serialized form of {@link PackageSerializer}, which depends on the
+ * classes of the binary that wrote them; the directory of the cache must therefore be specific to
+ * the binary.
+ *
+ * <p>The cache is bounded in size like {@link PersistentASTFileCache}. Failing to read or write an
+ * entry is not an error: the BUILD file is evaluated as if it was not cached.
+ */
+public final class PersistentPackageCache {
+
+  private static final Logger logger = Logger.getLogger(PersistentPackageCache.class.getName());
+
+  /** Magic number at the start of each file of the cache. */
+  private static final int FILE_MAGIC = 0x504b4743;
+
+  /** Version of the format of the files of the cache. Bump when changing the format. */
+  private static final int FILE_VERSION = 1;
+
+  private final PersistentCacheDirectory directory;
+  private final ObjectCodecRegistry registry;
+
+  public PersistentPackageCache(Path directory, long maxSizeBytes, ObjectCodecRegistry registry) {
+    this.directory =
+        new PersistentCacheDirectory(directory, maxSizeBytes, FILE_MAGIC, FILE_VERSION, "package");
+    this.registry = registry;
+  }
+
+  /**
+   * Deletes the caches of other binaries and the temporary files left by a previous server, and
+   * then prunes this cache to its maximum size. Must be called before the cache is used.
+   */
+  void deleteStaleEntries() {
+    directory.deleteStaleEntries();
+  }
+
+  /** A package read from the cache, whose inputs remain to be checked. */
+  final class Entry {
+    private final String key;
+    private final ImmutableList<Label> skylarkFileDependencies;
+    private final ImmutableMap<Label, String> skylarkFileHashes;
+    private final ImmutableMap<GlobDescriptor, String> globMatches;
+    private final CodedInputStream codedIn;
+
+    private Entry(
+        String key,
+        ImmutableList<Label> skylarkFileDependencies,
+        ImmutableMap<Label, String> skylarkFileHashes,
+        ImmutableMap<GlobDescriptor, String> globMatches,
+        CodedInputStream codedIn) {
+      this.key = key;
+      this.skylarkFileDependencies = skylarkFileDependencies;
+      this.skylarkFileHashes = skylarkFileHashes;
+      this.globMatches = globMatches;
+      this.codedIn = codedIn;
+    }
+
+    /**
+     * Returns the transitive content hash of each {@code .bzl} file the BUILD file loaded,
+     * directly or not, when the package was stored.
+     */
+    ImmutableMap<Label, String> getSkylarkFileHashes() {
+      return skylarkFileHashes;
+    }
+
+    /**
+     * Returns the fingerprint of the matches of each glob the package depended on when it was
+     * stored, as computed by {@link #fingerprintMatches}.
+     */
+    ImmutableMap<GlobDescriptor, String> getGlobMatches() {
+      return globMatches;
+    }
+
+    /**
+     * Creates the package again, with the same arguments its BUILD file would be evaluated with.
+     * Returns null if it cannot be, in which case the entry is deleted.
+     */
+    @Nullable
+    Package.Builder deserializePackage(
+        PackageFactory packageFactory,
+        String workspaceName,
+        ImmutableMap<RepositoryName, RepositoryName> repositoryMapping,
+        PackageIdentifier packageId,
+        RootedPath buildFile,
+        RuleVisibility defaultVisibility,
+        RuleClassResolver ruleClassResolver)
+        throws InterruptedException {
+      try {
+        return packageFactory.deserializePackage(
+            workspaceName,
+            repositoryMapping,
+            packageId,
+            buildFile,
+            skylarkFileDependencies,
+            defaultVisibility,
+            new DeserializationContext(
+                    registry, ImmutableMap.of(RuleClassResolver.class, ruleClassResolver))
+                .getMemoizingContext(),
+            codedIn);
+      } catch (IOException | SerializationException | RuntimeException e) {
+        logger.log(Level.WARNING, "Failed to read cached package " + packageId, e);
+        directory.delete(key);
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Returns the package stored with the given key, or null if there is none or it cannot be read.
+   * The globs of the entry are those of the given package and root.
+   */
+  @Nullable
+  Entry get(String key, PackageIdentifier packageId, Root packageRoot) {
+    CodedInputStream codedIn = directory.read(key);
+    if (codedIn == null) {
+      return null;
+    }
+    try {
+      DeserializationContext headerContext =
+          new DeserializationContext(registry, ImmutableMap.of()).getMemoizingContext();
+      ImmutableList<Label> skylarkFileDependencies = headerContext.deserialize(codedIn);
+      ImmutableMap.Builder<Label, String> skylarkFileHashes = ImmutableMap.builder();
+      for (Label label : skylarkFileDependencies) {
+        skylarkFileHashes.put(label, headerContext.deserialize(codedIn));
+      }
+      ImmutableMap.Builder<GlobDescriptor, String> globMatches = ImmutableMap.builder();
+      for (int i = codedIn.readInt32(); i > 0; i--) {
+        String pattern = headerContext.deserialize(codedIn);
+        PathFragment subdir = PathFragment.create(headerContext.<String>deserialize(codedIn));
+        boolean excludeDirs = codedIn.readBool();
+        globMatches.put(
+            GlobValue.internalKey(packageId, packageRoot, subdir, pattern, excludeDirs),
+            headerContext.deserialize(codedIn));
+      }
+      return new Entry(
+          key,
+          skylarkFileDependencies,
+          skylarkFileHashes.build(),
+          globMatches.build(),
+          codedIn);
+    } catch (IOException | SerializationException | RuntimeException e) {
+      logger.log(Level.WARNING, "Failed to read cached package " + packageId, e);
+      directory.delete(key);
+      return null;
+    }
+  }
+
+  /**
+   * Stores a package with the given key, along with the transitive content hashes of the {@code
+   * .bzl} files it loaded, in the order of {@link Package#getSkylarkFileDependencies}, and the
+   * fingerprints of the matches of its globs.
+   */
+  void put(
+      String key,
+      Package pkg,
+      PackageSerializer serializer,
+      List<String> skylarkFileHashes,
+      Map<GlobDescriptor, String> globMatches) {
+    ByteString.Output out = ByteString.newOutput();
+    try {
+      CodedOutputStream codedOut = CodedOutputStream.newInstance(out);
+      SerializationContext context =
+          new SerializationContext(registry, ImmutableMap.of()).getMemoizingContext();
+      context.serialize(pkg.getSkylarkFileDependencies(), codedOut);
+      for (String hash : skylarkFileHashes) {
+        context.serialize(hash, codedOut);
+      }
+      codedOut.writeInt32NoTag(globMatches.size());
+      for (Map.Entry<GlobDescriptor, String> glob : globMatches.entrySet()) {
+        context.serialize(glob.getKey().getPattern(), codedOut);
+        context.serialize(glob.getKey().getSubdir().getPathString(), codedOut);
+        codedOut.writeBoolNoTag(glob.getKey().excludeDirs());
+        context.serialize(glob.getValue(), codedOut);
+      }
+      serializer.serialize(context.getNewMemoizingContext(), pkg, codedOut);
+      codedOut.flush();
+    } catch (IOException | SerializationException | RuntimeException e) {
+      logger.log(Level.WARNING, "Failed to cache package " + pkg.getPackageIdentifier(), e);
+      return;
+    }
+    directory.write(key, out.toByteString());
+  }
+
+  /**
+   * Returns the key of the package evaluated from a BUILD file of the given path and digest, with
+   * the given arguments. {@code preludeContentHash} is empty if there is no prelude.
+   */
+  static String key(
+      PackageIdentifier packageId,
+      RootedPath buildFile,
+      byte[] buildFileDigest,
+      String preludeContentHash,
+      SkylarkSemantics semantics,
+      RuleVisibility defaultVisibility,
+      String workspaceName,
+      ImmutableMap<RepositoryName, RepositoryName> repositoryMapping) {
+    return new Fingerprint()
+        .addString(packageId.toString())
+        .addPath(buildFile.asPath())
+        .addBytes(buildFileDigest)
+        .addString(preludeContentHash)
+        .addString(semantics.toString())
+        .addString(defaultVisibility.getDeclaredLabels().toString())
+        .addString(workspaceName)
+        .addString(repositoryMapping.toString())
+        .hexDigestAndReset();
+  }
+
+  /** Returns a fingerprint of the matches of a glob. */
+  static String fingerprintMatches(GlobValue value) {
+    List<String> matches = new ArrayList<>();
+    for (PathFragment match : value.getMatches()) {
+      matches.add(match.getPathString());
+    }
+    return new Fingerprint().addStrings(Ordering.natural().sortedCopy(matches)).hexDigestAndReset();
+  }
+}
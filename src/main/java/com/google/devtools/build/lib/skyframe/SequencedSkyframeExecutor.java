@@ -397,10 +397,34 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
         modifiedFilesByPathEntry.put(pathEntry, modifiedFileSet);
       }
     }
+    ModifiedSourceFilesEvent modifiedSourceFilesEvent =
+        postModifiedSourceFiles
+            ? createModifiedSourceFilesEvent(
+                modifiedFilesByPathEntry, pathEntriesWithoutDiffInformation)
+            : null;
     handleDiffsWithCompleteDiffInformation(tsgm, modifiedFilesByPathEntry);
     handleDiffsWithMissingDiffInformation(eventHandler, tsgm, pathEntriesWithoutDiffInformation,
         checkOutputFiles);
     handleClientEnvironmentChanges();
+    if (modifiedSourceFilesEvent != null) {
+      eventHandler.post(modifiedSourceFilesEvent);
+    }
+  }
+
+  private ModifiedSourceFilesEvent createModifiedSourceFilesEvent(
+      Map<Root, DiffAwarenessManager.ProcessableModifiedFileSet> modifiedFilesByPathEntry,
+      Set<Pair<Root, DiffAwarenessManager.ProcessableModifiedFileSet>>
+          pathEntriesWithoutDiffInformation) {
+    ImmutableList<Root> pathEntries = ImmutableList.copyOf(pkgLocator.get().getPathEntries());
+    if (!pathEntriesWithoutDiffInformation.isEmpty()) {
+      return ModifiedSourceFilesEvent.everythingModified(pathEntries);
+    }
+    ImmutableSet.Builder<PathFragment> modifiedSourceFiles = ImmutableSet.builder();
+    for (DiffAwarenessManager.ProcessableModifiedFileSet modifiedFileSet :
+        modifiedFilesByPathEntry.values()) {
+      modifiedSourceFiles.addAll(modifiedFileSet.getModifiedFileSet().modifiedSourceFiles());
+    }
+    return ModifiedSourceFilesEvent.create(pathEntries, modifiedSourceFiles.build());
   }
 
   /** Invalidates entries in the client environment. */
@@ -727,6 +751,7 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
     ImmutableSet<PackageIdentifier> topLevelPackages = packageSetBuilder.build();
     try (AutoProfiler p = AutoProfiler.logged("discarding analysis cache", logger)) {
       lastAnalysisDiscarded = true;
+      getActionKeyContext().clear();
       Iterator<? extends Map.Entry<SkyKey, ? extends NodeEntry>> it =
           memoizingEvaluator.getGraphMap().entrySet().iterator();
       while (it.hasNext()) {
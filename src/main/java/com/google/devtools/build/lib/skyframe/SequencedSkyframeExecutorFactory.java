@@ -24,6 +24,7 @@ import com.google.devtools.build.lib.packages.PackageFactory;
 import com.google.devtools.build.lib.skyframe.SkyframeExecutor.MutableArtifactFactorySupplier;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.skyframe.InMemoryMemoizingEvaluator;
+import com.google.devtools.build.skyframe.MemoizingEvaluator.EvaluatorSupplier;
 import com.google.devtools.build.skyframe.SkyFunction;
 import com.google.devtools.build.skyframe.SkyFunctionName;
 
@@ -33,9 +34,16 @@ import com.google.devtools.build.skyframe.SkyFunctionName;
 public class SequencedSkyframeExecutorFactory implements SkyframeExecutorFactory {
 
   private final BuildOptions defaultBuildOptions;
+  private final EvaluatorSupplier evaluatorSupplier;
 
   public SequencedSkyframeExecutorFactory(BuildOptions defaultBuildOptions) {
+    this(defaultBuildOptions, InMemoryMemoizingEvaluator.SUPPLIER);
+  }
+
+  public SequencedSkyframeExecutorFactory(
+      BuildOptions defaultBuildOptions, EvaluatorSupplier evaluatorSupplier) {
     this.defaultBuildOptions = defaultBuildOptions;
+    this.evaluatorSupplier = evaluatorSupplier;
   }
 
   @Override
@@ -50,7 +58,7 @@ public class SequencedSkyframeExecutorFactory implements SkyframeExecutorFactory
       ImmutableMap<SkyFunctionName, SkyFunction> extraSkyFunctions,
       Iterable<SkyValueDirtinessChecker> customDirtinessCheckers) {
     return SequencedSkyframeExecutor.create(
-        InMemoryMemoizingEvaluator.SUPPLIER,
+        evaluatorSupplier,
         pkgFactory,
         fileSystem,
         directories,
@@ -133,6 +133,8 @@ import com.google.devtools.build.lib.skyframe.PackageLookupFunction.CrossReposit
 import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ActionCompletedReceiver;
 import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ProgressSupplier;
 import com.google.devtools.build.lib.skyframe.TargetPatternValue.TargetPatternKey;
+import com.google.devtools.build.lib.skyframe.serialization.AutoRegistry;
+import com.google.devtools.build.lib.skyframe.serialization.ObjectCodecs;
 import com.google.devtools.build.lib.syntax.SkylarkSemantics;
 import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.ResourceUsage;
@@ -222,6 +224,18 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
       // performance.
       System.getenv("TEST_TMPDIR") == null ? 200 : 5;
 
+  /** Directory of the output base holding the {@link PersistentASTFileCache}s. */
+  private static final String PERSISTENT_AST_FILE_CACHE_DIRECTORY = "skylark_ast_cache";
+
+  /** Maximum size of the {@link PersistentASTFileCache}. */
+  private static final long PERSISTENT_AST_FILE_CACHE_MAX_SIZE_BYTES = 256L * 1024 * 1024;
+
+  /** Directory of the output base holding the {@link PersistentPackageCache}s. */
+  private static final String PERSISTENT_PACKAGE_CACHE_DIRECTORY = "package_cache";
+
+  /** Maximum size of the {@link PersistentPackageCache}. */
+  private static final long PERSISTENT_PACKAGE_CACHE_MAX_SIZE_BYTES = 1024L * 1024 * 1024;
+
   // Cache of partially constructed Package instances, stored between reruns of the PackageFunction
   // (because of missing dependencies, within the same evaluate() run) to avoid loading the same
   // package twice (first time loading to find imported bzl files and declare Skyframe
@@ -243,6 +257,11 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
 
   // AtomicReferences are used here as mutable boxes shared with value builders.
   private final AtomicBoolean showLoadingProgress = new AtomicBoolean();
+  private final AtomicBoolean skyframeGlobbing = new AtomicBoolean();
+  private final AtomicReference<PersistentASTFileCache> persistentASTFileCache =
+      new AtomicReference<>();
+  private final AtomicReference<PersistentPackageCache> persistentPackageCache =
+      new AtomicReference<>();
   protected final AtomicReference<UnixGlob.FilesystemCalls> syscalls =
       new AtomicReference<>(UnixGlob.DEFAULT_SYSCALLS);
   protected final AtomicReference<PathPackageLocator> pkgLocator =
@@ -268,6 +287,10 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   private final ActionKeyContext actionKeyContext;
 
   protected boolean active = true;
+
+  /** Whether {@link ModifiedSourceFilesEvent} is posted after the diffs are handled. */
+  protected boolean postModifiedSourceFiles = false;
+
   private final SkyframePackageManager packageManager;
 
   private final ResourceManager resourceManager;
@@ -447,7 +470,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
         new PackageLookupFunction(
             deletedPackages, crossRepositoryLabelViolationStrategy, buildFilesByPriority));
     map.put(SkyFunctions.CONTAINING_PACKAGE_LOOKUP, new ContainingPackageLookupFunction());
-    map.put(SkyFunctions.AST_FILE_LOOKUP, new ASTFileLookupFunction(ruleClassProvider));
+    map.put(
+        SkyFunctions.AST_FILE_LOOKUP,
+        new ASTFileLookupFunction(ruleClassProvider, persistentASTFileCache));
     map.put(
         SkyFunctions.SKYLARK_IMPORTS_LOOKUP,
         newSkylarkImportLookupFunction(ruleClassProvider, pkgFactory));
@@ -490,7 +515,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
             skylarkImportLookupFunctionForInlining,
             packageProgress,
             actionOnIOExceptionReadingBuildFile,
-            IncrementalityIntent.INCREMENTAL));
+            IncrementalityIntent.INCREMENTAL,
+            skyframeGlobbing,
+            persistentPackageCache));
     map.put(SkyFunctions.PACKAGE_ERROR, new PackageErrorFunction());
     map.put(SkyFunctions.PACKAGE_ERROR_MESSAGE, new PackageErrorMessageFunction());
     map.put(SkyFunctions.TARGET_MARKER, new TargetMarkerFunction());
@@ -644,6 +671,15 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     this.outputService = outputService;
   }
 
+  /**
+   * Sets whether the files modified since the previous command are posted in a {@link
+   * ModifiedSourceFilesEvent}, for modules that keep caches of source files across commands. Off
+   * by default, as collecting them costs a pass over all the modified files.
+   */
+  public void setPostModifiedSourceFiles(boolean postModifiedSourceFiles) {
+    this.postModifiedSourceFiles = postModifiedSourceFiles;
+  }
+
   /** Inform this SkyframeExecutor that a new command is starting. */
   public void noteCommandStart() {}
 
@@ -760,6 +796,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     init();
     emittedEventState.clear();
     skyframeBuildView.reset();
+    actionKeyContext.clear();
   }
 
   /**
@@ -779,6 +816,8 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   public void handleConfiguredTargetChange() {
     skyframeBuildView.clearInvalidatedConfiguredTargets();
     skyframeBuildView.clearLegacyData();
+    // Nested set fingerprints kept across commands would retain the dropped configured targets.
+    actionKeyContext.clear();
   }
 
   /** Used with dump --rules. */
@@ -955,6 +994,50 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     showLoadingProgress.set(showLoadingProgressValue);
   }
 
+  /**
+   * Enables or disables the persistent cache of Skylark ASTs. The cache is kept in a directory
+   * specific to the binary, as the serialized form of the ASTs depends on its classes; it cannot be
+   * enabled if the binary has no install MD5. The caches of other binaries are deleted when it is
+   * enabled.
+   */
+  private void setPersistentASTFileCacheEnabled(boolean enabled) {
+    if (!enabled || directories.getInstallMD5() == null) {
+      persistentASTFileCache.set(null);
+    } else if (persistentASTFileCache.get() == null) {
+      PersistentASTFileCache cache =
+          new PersistentASTFileCache(
+              directories
+                  .getOutputBase()
+                  .getChild(PERSISTENT_AST_FILE_CACHE_DIRECTORY)
+                  .getChild(directories.getInstallMD5().toString()),
+              PERSISTENT_AST_FILE_CACHE_MAX_SIZE_BYTES,
+              new ObjectCodecs(AutoRegistry.get()));
+      cache.deleteStaleEntries();
+      persistentASTFileCache.set(cache);
+    }
+  }
+
+  /**
+   * Enables or disables the persistent cache of packages, which, like the cache of Skylark ASTs,
+   * is specific to the binary and cannot be enabled if the binary has no install MD5.
+   */
+  private void setPersistentPackageCacheEnabled(boolean enabled) {
+    if (!enabled || directories.getInstallMD5() == null) {
+      persistentPackageCache.set(null);
+    } else if (persistentPackageCache.get() == null) {
+      PersistentPackageCache cache =
+          new PersistentPackageCache(
+              directories
+                  .getOutputBase()
+                  .getChild(PERSISTENT_PACKAGE_CACHE_DIRECTORY)
+                  .getChild(directories.getInstallMD5().toString()),
+              PERSISTENT_PACKAGE_CACHE_MAX_SIZE_BYTES,
+              AutoRegistry.get());
+      cache.deleteStaleEntries();
+      persistentPackageCache.set(cache);
+    }
+  }
+
   @VisibleForTesting
   public void setCommandId(UUID commandId) {
     PrecomputedValue.BUILD_ID.set(injectable(), commandId);
@@ -1206,6 +1289,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     setCommandId(commandId);
     this.clientEnv.set(clientEnv);
     setShowLoadingProgress(packageCacheOptions.showLoadingProgress);
+    setPersistentASTFileCacheEnabled(packageCacheOptions.persistentSkylarkAstCache);
+    setPersistentPackageCacheEnabled(packageCacheOptions.persistentPackageCache);
+    skyframeGlobbing.set(packageCacheOptions.skyframeGlobbing);
     setDefaultVisibility(packageCacheOptions.defaultVisibility);
     setSkylarkSemantics(skylarkSemanticsOptions.toSkylarkSemantics());
     if (packageCacheOptions.incompatibleDisableInMemoryToolsDefaultsPackage) {
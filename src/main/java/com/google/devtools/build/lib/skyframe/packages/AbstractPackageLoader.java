@@ -53,6 +53,7 @@ import com.google.devtools.build.lib.skyframe.FileFunction;
 import com.google.devtools.build.lib.skyframe.FileStateFunction;
 import com.google.devtools.build.lib.skyframe.FileSymlinkCycleUniquenessFunction;
 import com.google.devtools.build.lib.skyframe.FileSymlinkInfiniteExpansionUniquenessFunction;
+import com.google.devtools.build.lib.skyframe.GlobFunction;
 import com.google.devtools.build.lib.skyframe.PackageFunction;
 import com.google.devtools.build.lib.skyframe.PackageFunction.ActionOnIOExceptionReadingBuildFile;
 import com.google.devtools.build.lib.skyframe.PackageFunction.IncrementalityIntent;
@@ -130,6 +131,7 @@ public abstract class AbstractPackageLoader implements PackageLoader {
   protected final BlazeDirectories directories;
   private final int legacyGlobbingThreads;
   private final int skyframeThreads;
+  private final boolean skyframeGlobbing;
 
   /** Abstract base class of a builder for {@link PackageLoader} instances. */
   public abstract static class Builder {
@@ -146,6 +148,7 @@ public abstract class AbstractPackageLoader implements PackageLoader {
     String defaultsPackageContents = getDefaultDefaultPackageContents();
     int legacyGlobbingThreads = 1;
     int skyframeThreads = 1;
+    boolean skyframeGlobbing = false;
 
     protected Builder(Root workspaceDir, Path installBase, Path outputBase) {
       this.workspaceDir = workspaceDir.asPath();
@@ -216,6 +219,15 @@ public abstract class AbstractPackageLoader implements PackageLoader {
       return this;
     }
 
+    /**
+     * Evaluates the globs whose arguments are literals with Skyframe before evaluating each BUILD
+     * file, and only the other globs with {@link #setLegacyGlobbingThreads} threads.
+     */
+    public Builder useSkyframeGlobbing() {
+      this.skyframeGlobbing = true;
+      return this;
+    }
+
     /** Throws {@link IllegalArgumentException} if builder args are incomplete/inconsistent. */
     protected void validate() {
       if (skylarkSemantics == null) {
@@ -244,6 +256,7 @@ public abstract class AbstractPackageLoader implements PackageLoader {
     this.pkgLocatorRef = builder.pkgLocatorRef;
     this.legacyGlobbingThreads = builder.legacyGlobbingThreads;
     this.skyframeThreads = builder.skyframeThreads;
+    this.skyframeGlobbing = builder.skyframeGlobbing;
     this.directories = builder.directories;
 
     this.externalFilesHelper = builder.externalFilesHelper;
@@ -444,8 +457,13 @@ public abstract class AbstractPackageLoader implements PackageLoader {
                 /*packageProgress=*/ null,
                 getActionOnIOExceptionReadingBuildFile(),
                 // Tell PackageFunction to optimize for our use-case of no incrementality.
-                IncrementalityIntent.NON_INCREMENTAL))
-        .putAll(extraSkyFunctions);
+                IncrementalityIntent.NON_INCREMENTAL,
+                new AtomicBoolean(skyframeGlobbing)));
+    if (skyframeGlobbing) {
+      // The directory listing functions GlobFunction depends on are given by the subclasses.
+      builder.put(SkyFunctions.GLOB, new GlobFunction(/*alwaysUseDirListing=*/ false));
+    }
+    builder.putAll(extraSkyFunctions);
     return builder.build();
   }
 }
@@ -227,7 +227,7 @@ public class BuildFileAST extends ASTNode {
   public boolean execTopLevelStatement(Statement stmt, Environment env,
       EventHandler eventHandler) throws InterruptedException {
     try {
-      Eval.fromEnvironment(env).exec(stmt);
+      execStatement(stmt, env);
       return true;
     } catch (EvalException e) {
       // Do not report errors caused by a previous parsing error, as it has already been
@@ -393,18 +393,27 @@ public class BuildFileAST extends ASTNode {
    */
   @Nullable public Object eval(Environment env) throws EvalException, InterruptedException {
     Object last = null;
-    Eval evaluator = Eval.fromEnvironment(env);
     for (Statement statement : statements) {
       if (statement instanceof ExpressionStatement) {
         last = ((ExpressionStatement) statement).getExpression().eval(env);
       } else {
-        evaluator.exec(statement);
+        execStatement(statement, env);
         last = null;
       }
     }
     return last;
   }
 
+  private static void execStatement(Statement statement, Environment env)
+      throws EvalException, InterruptedException {
+    if (Bytecode.isEnabled(env)) {
+      // Top-level statements are executed once, so there is no point in caching the bytecode.
+      Bytecode.compileTopLevel(statement).exec(env);
+    } else {
+      Eval.fromEnvironment(env).exec(statement);
+    }
+  }
+
   /**
    * Evaluates the lines from input and return the value of the last statement if it's an
    * Expression or else null. In case of error (either during validation or evaluation), it
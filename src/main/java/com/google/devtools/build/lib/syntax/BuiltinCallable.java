@@ -30,6 +30,9 @@ public class BuiltinCallable implements StarlarkFunction {
   private final Object obj;
   private final String methodName;
 
+  // The descriptor of the method, for the semantics of the last call.
+  @Nullable private transient volatile FuncallExpression.CachedMethod cachedMethod;
+
   public BuiltinCallable(Object obj, String methodName) {
     this.obj = obj;
     this.methodName = methodName;
@@ -42,8 +45,7 @@ public class BuiltinCallable implements StarlarkFunction {
       FuncallExpression ast,
       Environment env)
       throws EvalException, InterruptedException {
-    MethodDescriptor methodDescriptor =
-        FuncallExpression.getMethod(env.getSemantics(), obj.getClass(), methodName);
+    MethodDescriptor methodDescriptor = getMethodDescriptor(env.getSemantics());
 
     // TODO(cparsons): Profiling should be done at the MethodDescriptor level.
     try (SilentCloseable c =
@@ -55,6 +57,19 @@ public class BuiltinCallable implements StarlarkFunction {
     }
   }
 
+  private MethodDescriptor getMethodDescriptor(SkylarkSemantics semantics) {
+    FuncallExpression.CachedMethod cached = cachedMethod;
+    if (cached == null || !cached.isFor(obj.getClass(), semantics)) {
+      cached =
+          new FuncallExpression.CachedMethod(
+              obj.getClass(),
+              semantics,
+              FuncallExpression.getMethod(semantics, obj.getClass(), methodName));
+      cachedMethod = cached;
+    }
+    return cached.getDescriptor();
+  }
+
   @Override
   public void repr(SkylarkPrinter printer) {
     printer.append("<function " + methodName + ">");
@@ -0,0 +1,352 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A list of statements compiled to a flat sequence of instructions, which is executed by a loop
+ * instead of by walking the statement tree as {@link Eval} does.
+ *
+ * <p>Conditionals and loops are compiled to jumps, so that {@code break}, {@code continue} and
+ * {@code return} are plain jumps instead of exceptions unwinding the Java stack. Expressions are
+ * not compiled: the instructions refer to the syntax nodes they evaluate, which are evaluated by
+ * {@link Expression#eval}, so that the semantics of expressions, errors and the {@link Callstack}
+ * are the same as with {@link Eval}.
+ *
+ * <p>Each instruction is an opcode followed by its operands in {@link #code}. The first operand is
+ * the index of a syntax node in {@link #nodes}, and jumps have the target offset as their last
+ * operand.
+ *
+ * <p>Used instead of {@link Eval} if {@link SkylarkSemantics#experimentalStarlarkBytecode} is set,
+ * unless a custom {@link Eval} is installed (e.g. by the debugger), which must see every
+ * statement.
+ */
+final class Bytecode {
+
+  /** {@code EXEC node}: executes a statement with {@link Eval}. */
+  private static final int EXEC = 0;
+  /** {@code ASSIGN node}: executes an {@link AssignmentStatement}. */
+  private static final int ASSIGN = 1;
+  /** {@code EXPR node}: evaluates an {@link ExpressionStatement}, discarding the value. */
+  private static final int EXPR = 2;
+  /** {@code JUMP node target}: continues at {@code target}. */
+  private static final int JUMP = 3;
+  /**
+   * {@code JUMP_IF_FALSE node target}: continues at {@code target} if the condition of an {@link
+   * IfStatement.ConditionalStatements} is false.
+   */
+  private static final int JUMP_IF_FALSE = 4;
+  /** {@code FOR_PREP node}: evaluates and locks the collection of a {@link ForStatement}. */
+  private static final int FOR_PREP = 5;
+  /**
+   * {@code FOR_NEXT node target}: assigns the next element of the innermost loop to its variable,
+   * or unlocks its collection and continues at {@code target} if there are no more elements.
+   */
+  private static final int FOR_NEXT = 6;
+  /**
+   * {@code BREAK node target}: unlocks the collection of the innermost loop and continues at {@code
+   * target}.
+   */
+  private static final int BREAK = 7;
+  /** {@code RETURN node}: returns the value of a {@link ReturnStatement}. */
+  private static final int RETURN = 8;
+
+  private final int[] code;
+  private final ASTNode[] nodes;
+  // The statement that each instruction was compiled from, indexed by the offset of its opcode.
+  // Errors are reported for that statement, as by Eval.exec.
+  private final Statement[] statements;
+  private final int maxLoopDepth;
+
+  private Bytecode(int[] code, ASTNode[] nodes, Statement[] statements, int maxLoopDepth) {
+    this.code = code;
+    this.nodes = nodes;
+    this.statements = statements;
+    this.maxLoopDepth = maxLoopDepth;
+  }
+
+  /** Returns whether statements should be executed as bytecode in {@code env}. */
+  static boolean isEnabled(Environment env) {
+    return env.getSemantics().experimentalStarlarkBytecode() && !Eval.hasCustomEval();
+  }
+
+  /** Compiles the body of a function. */
+  static Bytecode compileFunctionBody(List<Statement> body) {
+    Compiler compiler = new Compiler(/*inFunction=*/ true);
+    compiler.compileStatements(body);
+    return compiler.build();
+  }
+
+  /** Compiles a top-level statement of a file. */
+  static Bytecode compileTopLevel(Statement statement) {
+    Compiler compiler = new Compiler(/*inFunction=*/ false);
+    compiler.compile(statement);
+    return compiler.build();
+  }
+
+  /**
+   * Executes the instructions.
+   *
+   * @return the value of the executed {@code return} statement, or {@link Runtime#NONE} if the
+   *     end of the instructions was reached
+   */
+  Object exec(Environment env) throws EvalException, InterruptedException {
+    Eval eval = null;
+    // The loops being executed, innermost last.
+    ForStatement[] loops = maxLoopDepth == 0 ? null : new ForStatement[maxLoopDepth];
+    Object[] collections = maxLoopDepth == 0 ? null : new Object[maxLoopDepth];
+    Iterator<?>[] iterators = maxLoopDepth == 0 ? null : new Iterator<?>[maxLoopDepth];
+    int depth = 0;
+    int pc = 0;
+    try {
+      while (pc < code.length) {
+        try {
+          switch (code[pc]) {
+            case EXEC:
+              if (eval == null) {
+                eval = Eval.fromEnvironment(env);
+              }
+              eval.execDispatch((Statement) nodes[code[pc + 1]]);
+              pc += 2;
+              break;
+            case ASSIGN:
+              {
+                AssignmentStatement node = (AssignmentStatement) nodes[code[pc + 1]];
+                Object rvalue = node.getExpression().eval(env);
+                node.getLValue().assign(rvalue, env, node.getLocation());
+                pc += 2;
+                break;
+              }
+            case EXPR:
+              ((ExpressionStatement) nodes[code[pc + 1]]).getExpression().eval(env);
+              pc += 2;
+              break;
+            case JUMP:
+              pc = code[pc + 2];
+              break;
+            case JUMP_IF_FALSE:
+              {
+                IfStatement.ConditionalStatements node =
+                    (IfStatement.ConditionalStatements) nodes[code[pc + 1]];
+                pc = EvalUtils.toBoolean(node.getCondition().eval(env)) ? pc + 3 : code[pc + 2];
+                break;
+              }
+            case FOR_PREP:
+              {
+                ForStatement node = (ForStatement) nodes[code[pc + 1]];
+                Object o = node.getCollection().eval(env);
+                Iterable<?> col = EvalUtils.toIterable(o, node.getLocation(), env);
+                EvalUtils.lock(o, node.getLocation());
+                loops[depth] = node;
+                collections[depth] = o;
+                depth++;
+                // Created once the loop is registered, so that the collection is unlocked if this
+                // fails.
+                iterators[depth - 1] = col.iterator();
+                pc += 2;
+                break;
+              }
+            case FOR_NEXT:
+              {
+                Iterator<?> it = iterators[depth - 1];
+                if (it.hasNext()) {
+                  ForStatement node = loops[depth - 1];
+                  node.getVariable().assign(it.next(), env, node.getLocation());
+                  pc += 3;
+                } else {
+                  depth = exitLoop(depth, loops, collections, iterators);
+                  pc = code[pc + 2];
+                }
+                break;
+              }
+            case BREAK:
+              depth = exitLoop(depth, loops, collections, iterators);
+              pc = code[pc + 2];
+              break;
+            case RETURN:
+              {
+                Expression ret = ((ReturnStatement) nodes[code[pc + 1]]).getReturnExpression();
+                return ret == null ? Runtime.NONE : ret.eval(env);
+              }
+            default:
+              throw new IllegalStateException("Unknown opcode " + code[pc] + " at " + pc);
+          }
+        } catch (EvalException ex) {
+          throw statements[pc].maybeTransformException(ex);
+        }
+      }
+      return Runtime.NONE;
+    } finally {
+      // Unlock the collections of the loops exited by a return or an error.
+      while (depth > 0) {
+        depth = exitLoop(depth, loops, collections, iterators);
+      }
+    }
+  }
+
+  /** Unlocks the collection of the innermost loop and returns the new loop depth. */
+  private static int exitLoop(
+      int depth, ForStatement[] loops, Object[] collections, Iterator<?>[] iterators) {
+    depth--;
+    EvalUtils.unlock(collections[depth], loops[depth].getLocation());
+    loops[depth] = null;
+    collections[depth] = null;
+    iterators[depth] = null;
+    return depth;
+  }
+
+  /** Compiles statements to a {@link Bytecode}. */
+  private static final class Compiler {
+
+    /** A loop being compiled. */
+    private static final class Loop {
+      final int nodeIndex;
+      final int continueTarget;
+      // The offsets of the target operands of the jumps to the end of the loop.
+      final List<Integer> exitJumps = new ArrayList<>();
+
+      Loop(int nodeIndex, int continueTarget) {
+        this.nodeIndex = nodeIndex;
+        this.continueTarget = continueTarget;
+      }
+    }
+
+    private final boolean inFunction;
+    private int[] code = new int[16];
+    private int size = 0;
+    private final List<ASTNode> nodes = new ArrayList<>();
+    private final List<Statement> statements = new ArrayList<>();
+    private final Deque<Loop> loops = new ArrayDeque<>();
+    private int maxLoopDepth = 0;
+
+    Compiler(boolean inFunction) {
+      this.inFunction = inFunction;
+    }
+
+    Bytecode build() {
+      Preconditions.checkState(loops.isEmpty());
+      return new Bytecode(
+          Arrays.copyOf(code, size),
+          nodes.toArray(new ASTNode[0]),
+          statements.toArray(new Statement[0]),
+          maxLoopDepth);
+    }
+
+    void compileStatements(List<Statement> statements) {
+      for (Statement statement : statements) {
+        compile(statement);
+      }
+    }
+
+    void compile(Statement st) {
+      switch (st.kind()) {
+        case ASSIGNMENT:
+          emit(st, ASSIGN, addNode(st));
+          break;
+        case EXPRESSION:
+          emit(st, EXPR, addNode(st));
+          break;
+        case FOR:
+          compileFor((ForStatement) st);
+          break;
+        case IF:
+          compileIf((IfStatement) st);
+          break;
+        case FLOW:
+          if (loops.isEmpty()) {
+            // Let Eval report the error.
+            emit(st, EXEC, addNode(st));
+          } else if (((FlowStatement) st).getKind() == FlowStatement.Kind.BREAK) {
+            Loop loop = loops.peek();
+            emit(st, BREAK, loop.nodeIndex, -1);
+            loop.exitJumps.add(size - 1);
+          } else {
+            Loop loop = loops.peek();
+            emit(st, JUMP, loop.nodeIndex, loop.continueTarget);
+          }
+          break;
+        case RETURN:
+          emit(st, inFunction ? RETURN : EXEC, addNode(st));
+          break;
+        case PASS:
+          break;
+        default:
+          emit(st, EXEC, addNode(st));
+          break;
+      }
+    }
+
+    private void compileIf(IfStatement node) {
+      List<Integer> endJumps = new ArrayList<>();
+      ImmutableList<IfStatement.ConditionalStatements> thenBlocks = node.getThenBlocks();
+      for (int i = 0; i < thenBlocks.size(); i++) {
+        IfStatement.ConditionalStatements block = thenBlocks.get(i);
+        int blockIndex = addNode(block);
+        emit(node, JUMP_IF_FALSE, blockIndex, -1);
+        int falseJump = size - 1;
+        compileStatements(block.getStatements());
+        if (i < thenBlocks.size() - 1 || !node.getElseBlock().isEmpty()) {
+          emit(node, JUMP, blockIndex, -1);
+          endJumps.add(size - 1);
+        }
+        code[falseJump] = size;
+      }
+      compileStatements(node.getElseBlock());
+      for (int jump : endJumps) {
+        code[jump] = size;
+      }
+    }
+
+    private void compileFor(ForStatement node) {
+      int nodeIndex = addNode(node);
+      emit(node, FOR_PREP, nodeIndex);
+      int next = size;
+      emit(node, FOR_NEXT, nodeIndex, -1);
+      Loop loop = new Loop(nodeIndex, next);
+      loop.exitJumps.add(size - 1);
+      loops.push(loop);
+      maxLoopDepth = Math.max(maxLoopDepth, loops.size());
+      compileStatements(node.getBlock());
+      emit(node, JUMP, nodeIndex, next);
+      loops.pop();
+      for (int jump : loop.exitJumps) {
+        code[jump] = size;
+      }
+    }
+
+    private int addNode(ASTNode node) {
+      nodes.add(node);
+      return nodes.size() - 1;
+    }
+
+    private void emit(Statement st, int... instruction) {
+      if (size + instruction.length > code.length) {
+        code = Arrays.copyOf(code, Math.max(code.length * 2, size + instruction.length));
+      }
+      for (int i = 0; i < instruction.length; i++) {
+        statements.add(i == 0 ? st : null);
+      }
+      System.arraycopy(instruction, 0, code, size, instruction.length);
+      size += instruction.length;
+    }
+  }
+}
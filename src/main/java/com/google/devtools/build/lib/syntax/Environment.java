@@ -154,6 +154,46 @@ public final class Environment implements Freezable, Debuggable {
       Preconditions.checkState(!mutability.isFrozen());
       return new MutableLexicalFrame(mutability, /*initialCapacity=*/ numArgs);
     }
+
+    static LexicalFrame create(Mutability mutability, LocalFrameLayout layout) {
+      Preconditions.checkState(!mutability.isFrozen());
+      return new SlottedLexicalFrame(mutability, layout);
+    }
+  }
+
+  /**
+   * The local variables of a function, each assigned a slot by {@link ValidationEnvironment}.
+   *
+   * <p>A {@link LexicalFrame} created for a layout keeps its variables in an array indexed by slot,
+   * so that an {@link Identifier} resolved to a slot is read and written without hashing its name.
+   */
+  static final class LocalFrameLayout {
+    private ImmutableList<String> names = ImmutableList.of();
+    private ImmutableMap<String, Integer> slots = ImmutableMap.of();
+
+    /** Sets the variables of the layout, in the order of their slots. */
+    void initialize(Iterable<String> names) {
+      this.names = ImmutableList.copyOf(names);
+      ImmutableMap.Builder<String, Integer> slots = ImmutableMap.builder();
+      for (int i = 0; i < this.names.size(); i++) {
+        slots.put(this.names.get(i), i);
+      }
+      this.slots = slots.build();
+    }
+
+    int size() {
+      return names.size();
+    }
+
+    /** Returns the slot of a variable, or -1 if the variable is not local. */
+    int getSlot(String varname) {
+      Integer slot = slots.get(varname);
+      return slot == null ? -1 : slot;
+    }
+
+    String getName(int slot) {
+      return names.get(slot);
+    }
   }
 
   private static final class ImmutableEmptyLexicalFrame implements LexicalFrame {
@@ -242,6 +282,89 @@ public final class Environment implements Freezable, Debuggable {
     }
   }
 
+  /**
+   * A {@link LexicalFrame} whose variables are stored in an array according to a {@link
+   * LocalFrameLayout}. Variables not in the layout, which can only be bound by code that was not
+   * validated along with the function, are kept in a map.
+   */
+  private static final class SlottedLexicalFrame implements LexicalFrame {
+    private final Mutability mutability;
+    private final LocalFrameLayout layout;
+    private final Object[] values;
+    /** Bindings of variables without a slot, in order of creation. */
+    @Nullable private LinkedHashMap<String, Object> otherBindings;
+
+    private SlottedLexicalFrame(Mutability mutability, LocalFrameLayout layout) {
+      this.mutability = mutability;
+      this.layout = layout;
+      this.values = new Object[layout.size()];
+    }
+
+    @Override
+    public Mutability mutability() {
+      return mutability;
+    }
+
+    @Nullable
+    @Override
+    public Object get(String varname) {
+      int slot = layout.getSlot(varname);
+      if (slot >= 0) {
+        return values[slot];
+      }
+      return otherBindings == null ? null : otherBindings.get(varname);
+    }
+
+    @Override
+    public void put(Environment env, String varname, Object value) throws MutabilityException {
+      int slot = layout.getSlot(varname);
+      if (slot >= 0) {
+        putSlot(env, slot, value);
+        return;
+      }
+      Mutability.checkMutable(this, env.mutability());
+      if (otherBindings == null) {
+        otherBindings = new LinkedHashMap<>();
+      }
+      otherBindings.put(varname, value);
+    }
+
+    void putSlot(Environment env, int slot, Object value) throws MutabilityException {
+      Mutability.checkMutable(this, env.mutability());
+      values[slot] = value;
+    }
+
+    @Override
+    public void remove(Environment env, String varname) throws MutabilityException {
+      Mutability.checkMutable(this, env.mutability());
+      int slot = layout.getSlot(varname);
+      if (slot >= 0) {
+        values[slot] = null;
+      } else if (otherBindings != null) {
+        otherBindings.remove(varname);
+      }
+    }
+
+    @Override
+    public Map<String, Object> getTransitiveBindings() {
+      LinkedHashMap<String, Object> bindings = new LinkedHashMap<>();
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] != null) {
+          bindings.put(layout.getName(i), values[i]);
+        }
+      }
+      if (otherBindings != null) {
+        bindings.putAll(otherBindings);
+      }
+      return bindings;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("<SlottedLexicalFrame%s>", mutability());
+    }
+  }
+
   /**
    * A {@link Frame} that represents the top-level definitions of a file. It contains the
    * module-scope variables and has a reference to the universe.
@@ -1087,14 +1210,7 @@ public final class Environment implements Freezable, Debuggable {
    */
   public Environment update(String varname, Object value) throws EvalException {
     Preconditions.checkNotNull(value, "trying to assign null to '%s'", varname);
-    if (isKnownGlobalVariable(varname)) {
-      throw new EvalException(
-          null,
-          String.format(
-              "Variable '%s' is referenced before assignment. "
-                  + "The variable is defined in the global scope.",
-              varname));
-    }
+    checkNotKnownGlobalVariable(varname);
     try {
       lexicalFrame.put(this, varname, value);
     } catch (MutabilityException e) {
@@ -1109,6 +1225,39 @@ public final class Environment implements Freezable, Debuggable {
     return this;
   }
 
+  /**
+   * Modifies the binding of the local variable in the given slot of the current Frame, as would
+   * {@link #update}. Returns false, without modifying anything, if the current Frame was not
+   * created for {@code layout}.
+   */
+  boolean updateLocalSlot(LocalFrameLayout layout, int slot, String varname, Object value)
+      throws EvalException {
+    Frame frame = lexicalFrame;
+    if (!(frame instanceof SlottedLexicalFrame) || ((SlottedLexicalFrame) frame).layout != layout) {
+      return false;
+    }
+    Preconditions.checkNotNull(value, "trying to assign null to '%s'", varname);
+    checkNotKnownGlobalVariable(varname);
+    try {
+      ((SlottedLexicalFrame) frame).putSlot(this, slot, value);
+    } catch (MutabilityException e) {
+      throw new AssertionError(
+          Printer.format("Can't update %s to %r in frozen environment", varname, value), e);
+    }
+    return true;
+  }
+
+  private void checkNotKnownGlobalVariable(String varname) throws EvalException {
+    if (isKnownGlobalVariable(varname)) {
+      throw new EvalException(
+          null,
+          String.format(
+              "Variable '%s' is referenced before assignment. "
+                  + "The variable is defined in the global scope.",
+              varname));
+    }
+  }
+
   /**
    * Initializes a binding in this Environment. It is an error if the variable is already bound.
    * This is not for end-users, and will throw an AssertionError in case of conflict.
@@ -1148,6 +1297,19 @@ public final class Environment implements Freezable, Debuggable {
     return lexicalFrame.get(varname);
   }
 
+  /**
+   * Returns the value of the local variable in the given slot of the current Frame, or null if it
+   * is unbound or the current Frame was not created for {@code layout}.
+   */
+  @Nullable
+  Object localSlotLookup(LocalFrameLayout layout, int slot) {
+    Frame frame = lexicalFrame;
+    if (frame instanceof SlottedLexicalFrame && ((SlottedLexicalFrame) frame).layout == layout) {
+      return ((SlottedLexicalFrame) frame).values[slot];
+    }
+    return null;
+  }
+
   /**
    * Returns the value of a variable defined in the Module scope (e.g. global variables, functions).
    */
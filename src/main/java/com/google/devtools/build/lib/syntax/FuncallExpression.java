@@ -228,12 +228,51 @@ public final class FuncallExpression extends Expression {
     }
   }
 
+  /**
+   * The result of looking up a method for a class of receivers, with some semantics. Used as a
+   * monomorphic inline cache by call sites, which mostly call methods of a single class, so that
+   * they do not need to look methods up in the caches above on every call.
+   *
+   * <p>Instances are immutable, so that they can be shared between the threads evaluating a call
+   * site.
+   */
+  static final class CachedMethod {
+    private final Class<?> objClass;
+    private final SkylarkSemantics semantics;
+    @Nullable private final MethodDescriptor descriptor;
+
+    CachedMethod(
+        Class<?> objClass, SkylarkSemantics semantics, @Nullable MethodDescriptor descriptor) {
+      this.objClass = objClass;
+      this.semantics = semantics;
+      this.descriptor = descriptor;
+    }
+
+    /** Returns whether this is the result of a lookup for the given class and semantics. */
+    boolean isFor(Class<?> objClass, SkylarkSemantics semantics) {
+      // Semantics are compared by identity: they are shared by all the calls of a build, and a
+      // miss only costs a lookup.
+      return this.objClass == objClass && this.semantics == semantics;
+    }
+
+    @Nullable
+    MethodDescriptor getDescriptor() {
+      return descriptor;
+    }
+  }
+
   private final Expression function;
 
   private final ImmutableList<Argument.Passed> arguments;
 
   private final int numPositionalArgs;
 
+  // The method called by the last evaluation of this call, if it called a method of an object.
+  @Nullable private transient volatile CachedMethod cachedMethod;
+
+  // The selfCall method called by the last evaluation of this call, if it called an object.
+  @Nullable private transient volatile CachedMethod cachedSelfCallMethod;
+
   public FuncallExpression(Expression function, ImmutableList<Argument.Passed> arguments) {
     this.function = Preconditions.checkNotNull(function);
     this.arguments = Preconditions.checkNotNull(arguments);
@@ -410,6 +449,20 @@ public final class FuncallExpression extends Expression {
     }
   }
 
+  /**
+   * Returns the descriptor of the {@link SkylarkCallable#selfCall()} method of {@code objClass}, or
+   * null if it has none.
+   */
+  @Nullable
+  private static MethodDescriptor findSelfCallMethodDescriptor(
+      SkylarkSemantics semantics, Class<?> objClass) {
+    try {
+      return selfCallCache.get(new MethodDescriptorKey(objClass, semantics)).orElse(null);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Method loading failed: " + e);
+    }
+  }
+
   /**
    * Returns a {@link MethodDescriptor} object representing a function which calls the selfCall java
    * method of the given object (the {@link SkylarkCallable} method with {@link
@@ -912,7 +965,7 @@ public final class FuncallExpression extends Expression {
     // java method 'bar()', this avoids evaluating 'foo.bar' in isolation (which would require
     // creating a throwaway function-like object).
     MethodDescriptor methodDescriptor =
-        FuncallExpression.getMethod(env.getSemantics(), objValue.getClass(), methodName);
+        getCachedMethod(env.getSemantics(), objValue.getClass(), methodName);
     if (methodDescriptor != null && !methodDescriptor.isStructField()) {
       Object[] javaArguments = convertStarlarkArgumentsToJavaMethodArguments(
           methodDescriptor, objValue.getClass(), posargs, kwargs, env);
@@ -955,7 +1008,7 @@ public final class FuncallExpression extends Expression {
     // to StringModule, and thus need to include the actual string as a 'self' parameter.
     posargs.add(0, objValue);
 
-    MethodDescriptor method = getMethod(env.getSemantics(), StringModule.class, methodName);
+    MethodDescriptor method = getCachedMethod(env.getSemantics(), StringModule.class, methodName);
     if (method == null) {
       throw missingMethodException(StringModule.class, methodName, posargs, kwargs);
     }
@@ -979,8 +1032,10 @@ public final class FuncallExpression extends Expression {
     if (funcValue instanceof StarlarkFunction) {
       StarlarkFunction function = (StarlarkFunction) funcValue;
       return function.call(posargs, ImmutableMap.copyOf(kwargs), this, env);
-    } else if (hasSelfCallMethod(env.getSemantics(), funcValue.getClass())) {
-      MethodDescriptor descriptor = getSelfCallMethodDescriptor(env.getSemantics(), funcValue);
+    }
+    MethodDescriptor descriptor =
+        getCachedSelfCallMethod(env.getSemantics(), funcValue.getClass());
+    if (descriptor != null) {
       Object[] javaArguments = convertStarlarkArgumentsToJavaMethodArguments(
           descriptor, funcValue.getClass(), posargs, kwargs, env);
       return descriptor.call(funcValue, javaArguments, getLocation(), env);
@@ -990,6 +1045,49 @@ public final class FuncallExpression extends Expression {
     }
   }
 
+  /**
+   * Returns {@link #getMethod(SkylarkSemantics, Class, String)}, from the inline cache of this call
+   * site if it was last called on an object of the same class.
+   */
+  @Nullable
+  private MethodDescriptor getCachedMethod(
+      SkylarkSemantics semantics, Class<?> objClass, String methodName) {
+    CachedMethod cached = cachedMethod;
+    if (cached == null || !cached.isFor(objClass, semantics)) {
+      cached = new CachedMethod(objClass, semantics, getMethod(semantics, objClass, methodName));
+      cachedMethod = cached;
+    }
+    return cached.getDescriptor();
+  }
+
+  /**
+   * Returns the selfCall method of {@code objClass}, from the inline cache of this call site if it
+   * last called an object of the same class.
+   */
+  @Nullable
+  private MethodDescriptor getCachedSelfCallMethod(SkylarkSemantics semantics, Class<?> objClass) {
+    CachedMethod cached = cachedSelfCallMethod;
+    if (cached == null || !cached.isFor(objClass, semantics)) {
+      cached =
+          new CachedMethod(
+              objClass, semantics, findSelfCallMethodDescriptor(semantics, objClass));
+      cachedSelfCallMethod = cached;
+    }
+    return cached.getDescriptor();
+  }
+
+  @VisibleForTesting
+  @Nullable
+  CachedMethod getCachedMethodForTesting() {
+    return cachedMethod;
+  }
+
+  @VisibleForTesting
+  @Nullable
+  CachedMethod getCachedSelfCallMethodForTesting() {
+    return cachedSelfCallMethod;
+  }
+
   /**
    * Returns the value of the argument 'name' (or null if there is none).
    * This function is used to associate debugging information to rules created by skylark "macros".
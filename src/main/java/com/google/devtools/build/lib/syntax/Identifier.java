@@ -15,14 +15,12 @@
 package com.google.devtools.build.lib.syntax;
 
 import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.syntax.Environment.LocalFrameLayout;
 import com.google.devtools.build.lib.util.SpellChecker;
 import java.io.IOException;
 import java.util.Set;
 import javax.annotation.Nullable;
 
-// TODO(bazel-team): For performance, avoid doing HashMap lookups at runtime, and compile local
-// variable access into array reference with a constant index. Variable lookups are currently a
-// speed bottleneck, as previously measured in an experiment.
 /**
  * Syntax node for an identifier.
  *
@@ -36,6 +34,10 @@ public final class Identifier extends Expression {
   // The scope of the variable. The value is set when the AST has been analysed by
   // ValidationEnvironment.
   @Nullable private ValidationEnvironment.Scope scope;
+  // The layout of the frame of the function this local variable belongs to, and its slot in it.
+  // Set by ValidationEnvironment for the local variables of functions.
+  @Nullable private LocalFrameLayout layout;
+  private int slot = -1;
 
   public Identifier(String name) {
     this.name = name;
@@ -78,9 +80,31 @@ public final class Identifier extends Expression {
     this.scope = scope;
   }
 
+  void setLocalSlot(LocalFrameLayout layout, int slot) {
+    Preconditions.checkState(
+        this.layout == null || (this.layout == layout && this.slot == slot), "%s", name);
+    this.layout = layout;
+    this.slot = slot;
+  }
+
+  /**
+   * Binds this local variable in the current frame of {@code env} by its slot. Returns false,
+   * without binding anything, if the variable was not resolved to a slot of that frame.
+   */
+  boolean assignLocalSlot(Object value, Environment env) throws EvalException {
+    return layout != null && env.updateLocalSlot(layout, slot, name, value);
+  }
+
   @Override
   Object doEval(Environment env) throws EvalException {
     Object result;
+    if (layout != null) {
+      result = env.localSlotLookup(layout, slot);
+      if (result != null) {
+        return result;
+      }
+      // Unbound, or evaluated in another frame: the lookups by name report the right error.
+    }
     if (scope == null || !env.getSemantics().incompatibleStaticNameResolution()) {
       // Legacy behavior, to be removed.
       result = env.lookup(name);
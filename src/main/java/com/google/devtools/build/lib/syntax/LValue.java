@@ -89,6 +89,9 @@ public final class LValue extends ASTNode {
   /** Binds a variable to the given value in the environment. */
   private static void assignIdentifier(Identifier ident, Object value, Environment env)
       throws EvalException {
+    if (ident.assignLocalSlot(value, env)) {
+      return;
+    }
     env.updateAndExport(ident.getName(), value);
   }
 
@@ -23,12 +23,14 @@ import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.skyframe.serialization.autocodec.AutoCodec;
 import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Stack;
+import javax.annotation.Nullable;
 
 /**
  * A tokenizer for the BUILD language.
@@ -54,10 +56,24 @@ public final class Lexer {
           .put('%', TokenKind.PERCENT_EQUALS)
           .build();
 
+  /**
+   * The identifiers scanned by all lexers, so that the occurrences of common identifiers (such as
+   * {@code name} or {@code srcs}) do not each allocate a String, and the syntax trees of all files
+   * share the same instances.
+   *
+   * <p>This is a direct-mapped cache indexed by the hash of the identifier: an identifier replaces
+   * any other with the same index. It is shared between threads without synchronization, which is
+   * safe as Strings are immutable; a race at worst loses an entry.
+   */
+  private static final String[] IDENTIFIERS = new String[1 << 14];
+
   private final EventHandler eventHandler;
 
-  // Input buffer and position
-  private final char[] buffer;
+  // Input buffer and position. The input is either the Latin-1 bytes of a file, which are scanned
+  // without converting them to chars first, or chars; exactly one of the two is non-null.
+  @Nullable private final byte[] bytes;
+  @Nullable private final char[] chars;
+  private final int length;
   private int pos;
 
   /**
@@ -109,7 +125,9 @@ public final class Lexer {
    */
   public Lexer(
       ParserInputSource input, EventHandler eventHandler, LineNumberTable lineNumberTable) {
-    this.buffer = input.getContent();
+    this.bytes = input.getLatin1Bytes();
+    this.chars = bytes == null ? input.getContent() : null;
+    this.length = bytes != null ? bytes.length : chars.length;
     this.pos = 0;
     this.eventHandler = eventHandler;
     this.locationInfo = new LocationInfo(input.getPath(), lineNumberTable);
@@ -122,7 +140,7 @@ public final class Lexer {
   }
 
   public Lexer(ParserInputSource input, EventHandler eventHandler) {
-    this(input, eventHandler, LineNumberTable.create(input.getContent(), input.getPath()));
+    this(input, eventHandler, LineNumberTable.create(input));
   }
 
   List<Comment> getComments() {
@@ -263,8 +281,8 @@ public final class Lexer {
   }
 
   private void newlineInsideExpression() {
-    while (pos < buffer.length) {
-      switch (buffer[pos]) {
+    while (pos < length) {
+      switch (charAt(pos)) {
         case ' ': case '\t': case '\r':
           pos++;
           break;
@@ -278,8 +296,8 @@ public final class Lexer {
   private void computeIndentation() {
     // we're in a stmt: suck up space at beginning of next line
     int indentLen = 0;
-    while (pos < buffer.length) {
-      char c = buffer[pos];
+    while (pos < length) {
+      char c = charAt(pos);
       if (c == ' ') {
         indentLen++;
         pos++;
@@ -294,8 +312,8 @@ public final class Lexer {
         pos++;
       } else if (c == '#') { // line containing only indented comment
         int oldPos = pos;
-        while (pos < buffer.length && c != '\n') {
-          c = buffer[pos++];
+        while (pos < length && c != '\n') {
+          c = charAt(pos++);
         }
         makeComment(oldPos, pos - 1, bufferSlice(oldPos, pos - 1));
         indentLen = 0;
@@ -304,7 +322,7 @@ public final class Lexer {
       }
     }
 
-    if (pos == buffer.length) {
+    if (pos == length) {
       indentLen = 0;
     } // trailing space on last line
 
@@ -352,8 +370,8 @@ public final class Lexer {
     boolean inTriplequote = skipTripleQuote(quot);
     // more expensive second choice that expands escaped into a buffer
     StringBuilder literal = new StringBuilder();
-    while (pos < buffer.length) {
-      char c = buffer[pos];
+    while (pos < length) {
+      char c = charAt(pos);
       pos++;
       switch (c) {
         case '\n':
@@ -366,7 +384,7 @@ public final class Lexer {
             return;
           }
         case '\\':
-          if (pos == buffer.length) {
+          if (pos == length) {
             error("unterminated string literal at eof", literalStartPos, pos);
             setToken(TokenKind.STRING, literalStartPos, pos, literal.toString());
             return;
@@ -378,16 +396,16 @@ public final class Lexer {
             if (lookaheadIs(0, '\r') && lookaheadIs(1, '\n')) {
               literal.append("\n");
               pos += 2;
-            } else if (buffer[pos] == '\r' || buffer[pos] == '\n') {
+            } else if (charAt(pos) == '\r' || charAt(pos) == '\n') {
               literal.append("\n");
               pos += 1;
             } else {
-              literal.append(buffer[pos]);
+              literal.append(charAt(pos));
               pos += 1;
             }
             break;
           }
-          c = buffer[pos];
+          c = charAt(pos);
           pos++;
           switch (c) {
             case '\r':
@@ -428,13 +446,13 @@ public final class Lexer {
             case '7':
               { // octal escape
                 int octal = c - '0';
-                if (pos < buffer.length) {
-                  c = buffer[pos];
+                if (pos < length) {
+                  c = charAt(pos);
                   if (c >= '0' && c <= '7') {
                     pos++;
                     octal = (octal << 3) | (c - '0');
-                    if (pos < buffer.length) {
-                      c = buffer[pos];
+                    if (pos < length) {
+                      c = charAt(pos);
                       if (c >= '0' && c <= '7') {
                         pos++;
                         octal = (octal << 3) | (c - '0');
@@ -509,8 +527,8 @@ public final class Lexer {
     }
 
     // first quick optimistic scan for a simple non-escaped string
-    while (pos < buffer.length) {
-      char c = buffer[pos++];
+    while (pos < length) {
+      char c = charAt(pos++);
       switch (c) {
         case '\n':
           error("unterminated string literal at eol", literalStartPos, pos);
@@ -548,8 +566,8 @@ public final class Lexer {
 
     // If the current position is beyond the end of the file, need to move it backwards
     // Possible if the file ends with `r"\` (unterminated raw string literal with a backslash)
-    if (pos > buffer.length) {
-      pos = buffer.length;
+    if (pos > length) {
+      pos = length;
     }
 
     error("unterminated string literal at eof", literalStartPos, pos);
@@ -613,8 +631,8 @@ public final class Lexer {
 
   private String scanIdentifier() {
     int oldPos = pos - 1;
-    while (pos < buffer.length) {
-      switch (buffer[pos]) {
+    while (pos < length) {
+      switch (charAt(pos)) {
         case '_':
         case 'a': case 'b': case 'c': case 'd': case 'e': case 'f':
         case 'g': case 'h': case 'i': case 'j': case 'k': case 'l':
@@ -631,16 +649,16 @@ public final class Lexer {
           pos++;
           break;
        default:
-          return bufferSlice(oldPos, pos);
+          return identifierSlice(oldPos, pos);
       }
     }
-    return bufferSlice(oldPos, pos);
+    return identifierSlice(oldPos, pos);
   }
 
   private String scanInteger() {
     int oldPos = pos - 1;
-    while (pos < buffer.length) {
-      char c = buffer[pos];
+    while (pos < length) {
+      char c = charAt(pos);
       switch (c) {
         case 'X': case 'x': // for hexadecimal prefix
         case 'O': case 'o': // for octal prefix
@@ -709,11 +727,11 @@ public final class Lexer {
    * @return true if it tokenized an operator
    */
   private boolean tokenizeTwoChars() {
-    if (pos + 2 >= buffer.length) {
+    if (pos + 2 >= length) {
       return false;
     }
-    char c1 = buffer[pos];
-    char c2 = buffer[pos + 1];
+    char c1 = charAt(pos);
+    char c2 = charAt(pos + 1);
     TokenKind tok = null;
     if (c2 == '=') {
       tok = EQUAL_TOKENS.get(c1);
@@ -730,7 +748,7 @@ public final class Lexer {
 
   /** Test if the character at pos+p is c. */
   private boolean lookaheadIs(int p, char c) {
-    return pos + p < buffer.length && buffer[pos + p] == c;
+    return pos + p < length && charAt(pos + p) == c;
   }
 
   /**
@@ -755,12 +773,12 @@ public final class Lexer {
       return;
     }
 
-    while (pos < buffer.length) {
+    while (pos < length) {
       if (tokenizeTwoChars()) {
         pos += 2;
         return;
       }
-      char c = buffer[pos];
+      char c = charAt(pos);
       pos++;
       switch (c) {
         case '{':
@@ -855,8 +873,8 @@ public final class Lexer {
           break;
         case '#':
           int oldPos = pos - 1;
-          while (pos < buffer.length) {
-            c = buffer[pos];
+          while (pos < length) {
+            c = charAt(pos);
             if (c == '\n') {
               break;
             } else {
@@ -871,8 +889,8 @@ public final class Lexer {
           break;
         default:
           // detect raw strings, e.g. r"str"
-          if (c == 'r' && pos < buffer.length && (buffer[pos] == '\'' || buffer[pos] == '\"')) {
-            c = buffer[pos];
+          if (c == 'r' && pos < length && (charAt(pos) == '\'' || charAt(pos) == '\"')) {
+            c = charAt(pos);
             pos++;
             stringLiteral(c, true);
             break;
@@ -923,7 +941,35 @@ public final class Lexer {
    * @return the text at offset start with length end - start
    */
   private String bufferSlice(int start, int end) {
-    return new String(this.buffer, start, end - start);
+    return bytes != null
+        ? new String(bytes, start, end - start, StandardCharsets.ISO_8859_1)
+        : new String(chars, start, end - start);
+  }
+
+  private char charAt(int i) {
+    return bytes != null ? (char) (bytes[i] & 0xff) : chars[i];
+  }
+
+  /** Returns {@link #bufferSlice} for an identifier, from {@link #IDENTIFIERS} if possible. */
+  private String identifierSlice(int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + charAt(i);
+    }
+    int slot = (hash ^ (hash >>> 16)) & (IDENTIFIERS.length - 1);
+    String id = IDENTIFIERS[slot];
+    if (id != null && id.length() == end - start) {
+      int i = 0;
+      while (i < id.length() && id.charAt(i) == charAt(start + i)) {
+        i++;
+      }
+      if (i == id.length()) {
+        return id;
+      }
+    }
+    id = bufferSlice(start, end);
+    IDENTIFIERS[slot] = id;
+    return id;
   }
 
   private void makeComment(int start, int end, String content) {
@@ -24,6 +24,7 @@ import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.function.IntPredicate;
 
 /**
  * A table to keep track of line numbers in source files. The client creates a LineNumberTable for
@@ -62,6 +63,15 @@ public class LineNumberTable implements Serializable {
     return new LineNumberTable(buffer, path);
   }
 
+  /** Creates the table of an input source, without converting its bytes to chars if it has any. */
+  static LineNumberTable create(ParserInputSource input) {
+    byte[] bytes = input.getLatin1Bytes();
+    if (bytes == null) {
+      return create(input.getContent(), input.getPath());
+    }
+    return new LineNumberTable(computeLinestart(bytes), input.getPath(), bytes.length);
+  }
+
   private int getLineAt(int offset) {
     if (offset < 0) {
       throw new IllegalStateException("Illegal position: " + offset);
@@ -120,10 +130,19 @@ public class LineNumberTable implements Serializable {
   }
 
   private static int[] computeLinestart(char[] buffer) {
+    return computeLinestart(buffer.length, i -> buffer[i] == '\n');
+  }
+
+  /** Like {@link #computeLinestart(char[])}, for a Latin-1 encoded buffer. */
+  private static int[] computeLinestart(byte[] buffer) {
+    return computeLinestart(buffer.length, i -> buffer[i] == '\n');
+  }
+
+  private static int[] computeLinestart(int bufferLength, IntPredicate isNewline) {
     // Compute the size.
     int size = 2;
-    for (int i = 0; i < buffer.length; i++) {
-      if (buffer[i] == '\n') {
+    for (int i = 0; i < bufferLength; i++) {
+      if (isNewline.test(i)) {
         size++;
       }
     }
@@ -139,8 +158,8 @@ public class LineNumberTable implements Serializable {
     // Scan the buffer and record the offset of each line start. Doing this
     // once upfront is faster than checking each char as it is pulled from
     // the buffer.
-    for (int i = 0; i < buffer.length; i++) {
-      if (buffer[i] == '\n') {
+    for (int i = 0; i < bufferLength; i++) {
+      if (isNewline.test(i)) {
         linestart[index++] = i + 1;
       }
     }
@@ -14,7 +14,7 @@
 package com.google.devtools.build.lib.syntax;
 
 import com.google.devtools.build.lib.vfs.PathFragment;
-import java.io.IOException;
+import javax.annotation.Nullable;
 
 /**
  * An abstraction for reading input from a file or taking it as a pre-cooked
@@ -29,15 +29,51 @@ public abstract class ParserInputSource {
    */
   public abstract char [] getContent();
 
+  /**
+   * Returns the Latin-1 encoded content of the input source if it was created from bytes, or null.
+   * The {@link Lexer} scans these bytes directly rather than the chars of {@link #getContent}.
+   */
+  @Nullable
+  byte[] getLatin1Bytes() {
+    return null;
+  }
+
   /**
    * Returns the path of the input source. Note: Once constructed, this object
    * will never re-read the content from path.
    */
   public abstract PathFragment getPath();
 
-  public static ParserInputSource create(byte[] bytes, PathFragment path) throws IOException {
-    char[] content = convertFromLatin1(bytes);
-    return create(content, path);
+  /**
+   * Create an input source from the given Latin-1 encoded content. The content is only converted
+   * to chars the first time {@link #getContent} is called; the caller must not modify the array
+   * afterwards.
+   */
+  public static ParserInputSource create(final byte[] bytes, final PathFragment path) {
+    return new ParserInputSource() {
+      // Converting twice in a race is harmless.
+      @Nullable private volatile char[] content;
+
+      @Override
+      public char[] getContent() {
+        char[] result = content;
+        if (result == null) {
+          result = convertFromLatin1(bytes);
+          content = result;
+        }
+        return result;
+      }
+
+      @Override
+      byte[] getLatin1Bytes() {
+        return bytes;
+      }
+
+      @Override
+      public PathFragment getPath() {
+        return path;
+      }
+    };
   }
 
   /**
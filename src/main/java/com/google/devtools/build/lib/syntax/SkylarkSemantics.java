@@ -124,6 +124,8 @@ public abstract class SkylarkSemantics {
 
   public abstract boolean experimentalPlatformsApi();
 
+  public abstract boolean experimentalStarlarkBytecode();
+
   public abstract boolean experimentalStarlarkConfigTransitions();
 
   public abstract boolean incompatibleBzlDisallowLoadAfterStatement();
@@ -207,6 +209,7 @@ public abstract class SkylarkSemantics {
           .experimentalEnableRepoMapping(false)
           .experimentalRemapMainRepo(false)
           .experimentalPlatformsApi(false)
+          .experimentalStarlarkBytecode(false)
           .experimentalStarlarkConfigTransitions(false)
           .incompatibleBzlDisallowLoadAfterStatement(false)
           .incompatibleDepsetIsNotIterable(false)
@@ -257,6 +260,8 @@ public abstract class SkylarkSemantics {
 
     public abstract Builder experimentalPlatformsApi(boolean value);
 
+    public abstract Builder experimentalStarlarkBytecode(boolean value);
+
     public abstract Builder experimentalStarlarkConfigTransitions(boolean value);
 
     public abstract Builder incompatibleBzlDisallowLoadAfterStatement(boolean value);
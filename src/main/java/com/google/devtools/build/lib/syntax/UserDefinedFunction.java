@@ -21,6 +21,8 @@ import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.profiler.SilentCloseable;
 import com.google.devtools.build.lib.skylarkinterface.SkylarkPrinter;
 import com.google.devtools.build.lib.syntax.Environment.LexicalFrame;
+import com.google.devtools.build.lib.syntax.Environment.LocalFrameLayout;
+import javax.annotation.Nullable;
 
 /**
  * The actual function registered in the environment. This function is defined in the parsed code
@@ -33,15 +35,51 @@ public class UserDefinedFunction extends BaseFunction {
   // we close over the globals at the time of definition
   private final Environment.GlobalFrame definitionGlobals;
 
+  // The slots of the local variables, if the function body was validated.
+  @Nullable private final LocalFrameLayout localFrameLayout;
+  // The slots of the parameters, in the order of the signature's names.
+  @Nullable private final int[] parameterSlots;
+  // The compiled statements, if the function was called with bytecode enabled. Compiled lazily;
+  // compiling twice in a race is harmless.
+  @Nullable private transient volatile Bytecode bytecode;
+
   public UserDefinedFunction(
       String name,
       Location location,
       FunctionSignature.WithValues<Object, SkylarkType> signature,
       ImmutableList<Statement> statements,
       Environment.GlobalFrame definitionGlobals) {
+    this(name, location, signature, statements, definitionGlobals, null);
+  }
+
+  UserDefinedFunction(
+      String name,
+      Location location,
+      FunctionSignature.WithValues<Object, SkylarkType> signature,
+      ImmutableList<Statement> statements,
+      Environment.GlobalFrame definitionGlobals,
+      @Nullable LocalFrameLayout localFrameLayout) {
     super(name, signature, location);
     this.statements = statements;
     this.definitionGlobals = definitionGlobals;
+    this.localFrameLayout = localFrameLayout;
+    this.parameterSlots =
+        localFrameLayout == null ? null : getParameterSlots(signature, localFrameLayout);
+  }
+
+  @Nullable
+  private static int[] getParameterSlots(
+      FunctionSignature.WithValues<Object, SkylarkType> signature, LocalFrameLayout layout) {
+    ImmutableList<String> names = signature.getSignature().getNames();
+    int[] slots = new int[names.size()];
+    for (int i = 0; i < names.size(); i++) {
+      slots[i] = layout.getSlot(names.get(i));
+      if (slots[i] < 0) {
+        // Not validated together with its signature; bind the parameters by name.
+        return null;
+      }
+    }
+    return slots;
   }
 
   public ImmutableList<Statement> getStatements() {
@@ -65,15 +103,28 @@ public class UserDefinedFunction extends BaseFunction {
     }
 
     ImmutableList<String> names = signature.getSignature().getNames();
-    LexicalFrame lexicalFrame = LexicalFrame.create(env.mutability(), /*numArgs=*/ names.size());
+    LexicalFrame lexicalFrame =
+        parameterSlots != null
+            ? LexicalFrame.create(env.mutability(), localFrameLayout)
+            : LexicalFrame.create(env.mutability(), /*numArgs=*/ names.size());
     try (SilentCloseable c =
         Profiler.instance().profile(ProfilerTask.STARLARK_USER_FN, getName())) {
       env.enterScope(this, lexicalFrame, ast, definitionGlobals);
 
       // Registering the functions's arguments as variables in the local Environment
       // foreach loop is not used to avoid iterator overhead
-      for (int i = 0; i < names.size(); ++i) {
-        env.update(names.get(i), arguments[i]);
+      if (parameterSlots != null) {
+        for (int i = 0; i < names.size(); ++i) {
+          env.updateLocalSlot(localFrameLayout, parameterSlots[i], names.get(i), arguments[i]);
+        }
+      } else {
+        for (int i = 0; i < names.size(); ++i) {
+          env.update(names.get(i), arguments[i]);
+        }
+      }
+
+      if (Bytecode.isEnabled(env)) {
+        return getBytecode().exec(env);
       }
 
       Eval eval = Eval.fromEnvironment(env);
@@ -100,6 +151,15 @@ public class UserDefinedFunction extends BaseFunction {
     }
   }
 
+  private Bytecode getBytecode() {
+    Bytecode result = bytecode;
+    if (result == null) {
+      result = Bytecode.compileFunctionBody(statements);
+      bytecode = result;
+    }
+    return result;
+  }
+
   @Override
   public void repr(SkylarkPrinter printer) {
     Label label = this.definitionGlobals.getLabel();
@@ -18,8 +18,11 @@ import com.google.common.base.Preconditions;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.syntax.Environment.LocalFrameLayout;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import javax.annotation.Nullable;
 
@@ -32,6 +35,10 @@ import javax.annotation.Nullable;
  * <p>When a variable is defined, it is visible in the entire block. For example, a global variable
  * is visible in the entire file; a variable in a function is visible in the entire function block
  * (even on the lines before its first assignment).
+ *
+ * <p>The local variables of a function, including those of the comprehensions in its body, which
+ * are bound in the function's frame, are assigned slots in a {@link LocalFrameLayout}, so that they
+ * can be accessed by index at runtime.
  */
 public final class ValidationEnvironment extends SyntaxTreeVisitor {
 
@@ -58,10 +65,24 @@ public final class ValidationEnvironment extends SyntaxTreeVisitor {
     private final Set<String> variables = new HashSet<>();
     private final Scope scope;
     @Nullable private final Block parent;
+    /** The layout of the enclosing function's frame, if any. */
+    @Nullable private final LocalFrameLayout layout;
+    /** The slots of the variables of {@link #layout}, by name. */
+    @Nullable private final Map<String, Integer> slots;
 
     Block(Scope scope, @Nullable Block parent) {
+      this(scope, parent, null, null);
+    }
+
+    Block(
+        Scope scope,
+        @Nullable Block parent,
+        @Nullable LocalFrameLayout layout,
+        @Nullable Map<String, Integer> slots) {
       this.scope = scope;
       this.parent = parent;
+      this.layout = layout;
+      this.slots = slots;
     }
   }
 
@@ -150,6 +171,9 @@ public final class ValidationEnvironment extends SyntaxTreeVisitor {
   private void collectDefinitions(LValue left) {
     for (Identifier id : left.boundIdentifiers()) {
       declare(id.getName(), id.getLocation());
+      if (block.layout != null) {
+        id.setLocalSlot(block.layout, block.slots.get(id.getName()));
+      }
     }
   }
 
@@ -179,6 +203,9 @@ public final class ValidationEnvironment extends SyntaxTreeVisitor {
       throw new ValidationException(node.createInvalidIdentifierException(getAllSymbols()));
     }
     node.setScope(b.scope);
+    if (b.layout != null) {
+      node.setLocalSlot(b.layout, b.slots.get(node.getName()));
+    }
   }
 
   @Override
@@ -232,7 +259,8 @@ public final class ValidationEnvironment extends SyntaxTreeVisitor {
 
   @Override
   public void visit(AbstractComprehension node) {
-    openBlock(Scope.Local);
+    // The variables of a comprehension are bound in the frame of the enclosing function, if any.
+    block = new Block(Scope.Local, block, block.layout, block.slots);
     for (AbstractComprehension.Clause clause : node.getClauses()) {
       if (clause.getLValue() != null) {
         collectDefinitions(clause.getLValue());
@@ -249,7 +277,9 @@ public final class ValidationEnvironment extends SyntaxTreeVisitor {
         visit(param.getDefaultValue());
       }
     }
-    openBlock(Scope.Local);
+    LocalFrameLayout layout = new LocalFrameLayout();
+    Map<String, Integer> slots = new LinkedHashMap<>();
+    block = new Block(Scope.Local, block, layout, slots);
     for (Parameter<Expression, Expression> param : node.getParameters()) {
       if (param.hasName()) {
         declare(param.getName(), param.getLocation());
@@ -257,6 +287,8 @@ public final class ValidationEnvironment extends SyntaxTreeVisitor {
     }
     collectDefinitions(node.getStatements());
     visitAll(node.getStatements());
+    layout.initialize(slots.keySet());
+    node.setLocalFrameLayout(layout);
     closeBlock();
   }
 
@@ -291,6 +323,9 @@ public final class ValidationEnvironment extends SyntaxTreeVisitor {
           "https://bazel.build/versions/master/docs/skylark/errors/read-only-variable.html");
     }
     block.variables.add(varname);
+    if (block.slots != null) {
+      block.slots.putIfAbsent(varname, block.slots.size());
+    }
   }
 
   /** Returns the nearest Block that defines a symbol. */
@@ -0,0 +1,24 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+/**
+ * An in-memory graph that keeps its nodes in a {@link CompactNodeMap}, which takes less memory
+ * per node than the default map of {@link InMemoryGraphImpl}.
+ */
+public class CompactInMemoryGraph extends InMemoryGraphImpl {
+  public CompactInMemoryGraph(boolean keepEdges) {
+    super(keepEdges, new CompactNodeMap());
+  }
+}
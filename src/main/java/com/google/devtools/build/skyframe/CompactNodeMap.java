@@ -0,0 +1,399 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link ConcurrentMap} from {@link SkyKey} to {@link NodeEntry} that keeps its entries in
+ * open-addressed arrays instead of linked hash nodes, to cut the per-node overhead of very large
+ * graphs.
+ *
+ * <p>A {@link java.util.concurrent.ConcurrentHashMap} allocates a 32-byte node for every entry on
+ * top of its table slot. Here an entry only takes two array slots: keys and values are interleaved
+ * in one array per segment and collisions are resolved by linear probing.
+ *
+ * <p>Writers lock the segment they modify, readers take no lock. A value is always published
+ * before the key that makes it reachable, and a removal clears the value before turning the key
+ * into a tombstone, so readers see either a complete entry or none. Since a slot is never reused
+ * for a different key until the segment is rehashed into a new array, a reader can't mix up the
+ * key of one entry with the value of another. Like the iterators of {@link
+ * java.util.concurrent.ConcurrentHashMap}, iterators are weakly consistent.
+ *
+ * <p>Null keys and values are not permitted.
+ */
+final class CompactNodeMap extends AbstractMap<SkyKey, NodeEntry>
+    implements ConcurrentMap<SkyKey, NodeEntry> {
+  private static final int SEGMENT_BITS = 8;
+  private static final int SEGMENT_SHIFT = Integer.SIZE - SEGMENT_BITS;
+  private static final int MIN_SEGMENT_CAPACITY = 8;
+
+  /** Marks the key slot of a removed entry. */
+  private static final Object TOMBSTONE = new Object();
+
+  private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+  private Set<Map.Entry<SkyKey, NodeEntry>> entrySet;
+
+  CompactNodeMap() {
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment();
+    }
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private Segment segmentFor(int hash) {
+    return segments[hash >>> SEGMENT_SHIFT];
+  }
+
+  /**
+   * One lock-striped part of the map. Entry {@code i} of a table holds its key at index {@code 2i}
+   * and its value at index {@code 2i + 1}.
+   */
+  private static final class Segment {
+    private volatile AtomicReferenceArray<Object> table = newTable(MIN_SEGMENT_CAPACITY);
+    // Number of live entries. Only written under the segment lock.
+    private volatile int size;
+    // Number of non-null key slots, tombstones included. Guarded by this.
+    private int used;
+
+    private static AtomicReferenceArray<Object> newTable(int capacity) {
+      return new AtomicReferenceArray<>(2 * capacity);
+    }
+
+    /** Returns the entry index of the given key in the given table, or -1 if absent. */
+    private static int find(AtomicReferenceArray<Object> table, Object key, int hash) {
+      int mask = (table.length() >> 1) - 1;
+      for (int i = hash & mask; ; i = (i + 1) & mask) {
+        Object k = table.get(2 * i);
+        if (k == null) {
+          return -1;
+        }
+        if (k == key || (k != TOMBSTONE && k.equals(key))) {
+          return i;
+        }
+      }
+    }
+
+    @Nullable
+    NodeEntry get(Object key, int hash) {
+      AtomicReferenceArray<Object> t = table;
+      int i = find(t, key, hash);
+      // The value may be null if the entry is being removed concurrently.
+      return i < 0 ? null : (NodeEntry) t.get(2 * i + 1);
+    }
+
+    @Nullable
+    synchronized NodeEntry put(SkyKey key, int hash, NodeEntry value, boolean onlyIfAbsent) {
+      AtomicReferenceArray<Object> t = table;
+      int i = find(t, key, hash);
+      if (i >= 0) {
+        NodeEntry old = (NodeEntry) t.get(2 * i + 1);
+        if (!onlyIfAbsent) {
+          t.set(2 * i + 1, value);
+        }
+        return old;
+      }
+      if (4 * (used + 1) > 3 * (t.length() >> 1)) {
+        t = rehash(size + 1);
+      }
+      int mask = (t.length() >> 1) - 1;
+      int j = hash & mask;
+      while (t.get(2 * j) != null) {
+        j = (j + 1) & mask;
+      }
+      t.lazySet(2 * j + 1, value);
+      t.set(2 * j, key);
+      used++;
+      size++;
+      return null;
+    }
+
+    @Nullable
+    synchronized NodeEntry replace(
+        Object key, int hash, @Nullable NodeEntry expected, NodeEntry value) {
+      AtomicReferenceArray<Object> t = table;
+      int i = find(t, key, hash);
+      if (i < 0) {
+        return null;
+      }
+      NodeEntry old = (NodeEntry) t.get(2 * i + 1);
+      if (expected == null || expected.equals(old)) {
+        t.set(2 * i + 1, value);
+      }
+      return old;
+    }
+
+    @Nullable
+    synchronized NodeEntry remove(Object key, int hash, @Nullable Object expected) {
+      AtomicReferenceArray<Object> t = table;
+      int i = find(t, key, hash);
+      if (i < 0) {
+        return null;
+      }
+      NodeEntry old = (NodeEntry) t.get(2 * i + 1);
+      if (expected != null && !expected.equals(old)) {
+        return null;
+      }
+      t.set(2 * i + 1, null);
+      t.set(2 * i, TOMBSTONE);
+      size--;
+      return old;
+    }
+
+    synchronized void clear() {
+      table = newTable(MIN_SEGMENT_CAPACITY);
+      used = 0;
+      size = 0;
+    }
+
+    /**
+     * Copies the live entries into a new table sized for {@code expectedSize} entries at a load
+     * factor of at most 1/2, and publishes it. Readers still working on the old table keep seeing
+     * its state as of the rehash.
+     */
+    private AtomicReferenceArray<Object> rehash(int expectedSize) {
+      int capacity = MIN_SEGMENT_CAPACITY;
+      while (capacity < 2 * expectedSize) {
+        capacity <<= 1;
+        Preconditions.checkState(capacity > 0, "Segment too large: %s", expectedSize);
+      }
+      AtomicReferenceArray<Object> old = table;
+      AtomicReferenceArray<Object> t = newTable(capacity);
+      int mask = capacity - 1;
+      for (int i = 0; i < old.length(); i += 2) {
+        Object k = old.get(i);
+        if (k == null || k == TOMBSTONE) {
+          continue;
+        }
+        int j = hash(k) & mask;
+        while (t.get(2 * j) != null) {
+          j = (j + 1) & mask;
+        }
+        t.lazySet(2 * j + 1, old.get(i + 1));
+        t.lazySet(2 * j, k);
+      }
+      used = size;
+      // The volatile write publishes the contents of the new table.
+      table = t;
+      return t;
+    }
+  }
+
+  @Override
+  public NodeEntry get(Object key) {
+    int hash = hash(key);
+    return segmentFor(hash).get(key, hash);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public NodeEntry put(SkyKey key, NodeEntry value) {
+    Preconditions.checkNotNull(value, key);
+    int hash = hash(key);
+    return segmentFor(hash).put(key, hash, value, /*onlyIfAbsent=*/ false);
+  }
+
+  @Override
+  public NodeEntry putIfAbsent(SkyKey key, NodeEntry value) {
+    Preconditions.checkNotNull(value, key);
+    int hash = hash(key);
+    return segmentFor(hash).put(key, hash, value, /*onlyIfAbsent=*/ true);
+  }
+
+  @Override
+  public NodeEntry remove(Object key) {
+    int hash = hash(key);
+    return segmentFor(hash).remove(key, hash, /*expected=*/ null);
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    if (value == null) {
+      return false;
+    }
+    int hash = hash(key);
+    return segmentFor(hash).remove(key, hash, value) != null;
+  }
+
+  @Override
+  public NodeEntry replace(SkyKey key, NodeEntry value) {
+    Preconditions.checkNotNull(value, key);
+    int hash = hash(key);
+    return segmentFor(hash).replace(key, hash, /*expected=*/ null, value);
+  }
+
+  @Override
+  public boolean replace(SkyKey key, NodeEntry oldValue, NodeEntry newValue) {
+    Preconditions.checkNotNull(oldValue, key);
+    Preconditions.checkNotNull(newValue, key);
+    int hash = hash(key);
+    return oldValue.equals(segmentFor(hash).replace(key, hash, oldValue, newValue));
+  }
+
+  @Override
+  public int size() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.size;
+    }
+    return (int) Math.min(size, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    for (Segment segment : segments) {
+      if (segment.size != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    for (Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+  @Override
+  public Set<Map.Entry<SkyKey, NodeEntry>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new EntrySet();
+    }
+    return entrySet;
+  }
+
+  private final class EntrySet extends AbstractSet<Map.Entry<SkyKey, NodeEntry>> {
+    @Override
+    public Iterator<Map.Entry<SkyKey, NodeEntry>> iterator() {
+      return new EntryIterator();
+    }
+
+    @Override
+    public int size() {
+      return CompactNodeMap.this.size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+      NodeEntry value = entry.getKey() == null ? null : get(entry.getKey());
+      return value != null && value.equals(entry.getValue());
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+      return entry.getKey() != null
+          && CompactNodeMap.this.remove(entry.getKey(), entry.getValue());
+    }
+
+    @Override
+    public void clear() {
+      CompactNodeMap.this.clear();
+    }
+  }
+
+  /** Walks the segments in order, each one over the table it had when the walk reached it. */
+  private final class EntryIterator implements Iterator<Map.Entry<SkyKey, NodeEntry>> {
+    private int segment = -1;
+    private AtomicReferenceArray<Object> table = Segment.newTable(0);
+    private int index;
+    @Nullable private Map.Entry<SkyKey, NodeEntry> next;
+    @Nullable private SkyKey lastReturned;
+
+    EntryIterator() {
+      advance();
+    }
+
+    private void advance() {
+      next = null;
+      while (true) {
+        while (index < table.length()) {
+          Object k = table.get(index);
+          Object v = table.get(index + 1);
+          index += 2;
+          if (k != null && k != TOMBSTONE && v != null) {
+            next = new WriteThroughEntry((SkyKey) k, (NodeEntry) v);
+            return;
+          }
+        }
+        if (++segment >= segments.length) {
+          return;
+        }
+        table = segments[segment].table;
+        index = 0;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<SkyKey, NodeEntry> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      Map.Entry<SkyKey, NodeEntry> result = next;
+      lastReturned = result.getKey();
+      advance();
+      return result;
+    }
+
+    @Override
+    public void remove() {
+      Preconditions.checkState(lastReturned != null);
+      CompactNodeMap.this.remove(lastReturned);
+      lastReturned = null;
+    }
+  }
+
+  private final class WriteThroughEntry extends SimpleEntry<SkyKey, NodeEntry> {
+    WriteThroughEntry(SkyKey key, NodeEntry value) {
+      super(key, value);
+    }
+
+    @Override
+    public NodeEntry setValue(NodeEntry value) {
+      put(getKey(), value);
+      return super.setValue(value);
+    }
+  }
+}
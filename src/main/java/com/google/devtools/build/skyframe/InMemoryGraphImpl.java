@@ -33,7 +33,7 @@ import javax.annotation.Nullable;
  */
 public class InMemoryGraphImpl implements InMemoryGraph {
 
-  protected final ConcurrentMap<SkyKey, NodeEntry> nodeMap = new ConcurrentHashMap<>(1024);
+  protected final ConcurrentMap<SkyKey, NodeEntry> nodeMap;
   private final boolean keepEdges;
 
   InMemoryGraphImpl() {
@@ -41,7 +41,12 @@ public class InMemoryGraphImpl implements InMemoryGraph {
   }
 
   public InMemoryGraphImpl(boolean keepEdges) {
+    this(keepEdges, new ConcurrentHashMap<>(1024));
+  }
+
+  protected InMemoryGraphImpl(boolean keepEdges, ConcurrentMap<SkyKey, NodeEntry> nodeMap) {
     this.keepEdges = keepEdges;
+    this.nodeMap = nodeMap;
   }
 
   @Override
@@ -104,12 +104,32 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
       EventFilter eventFilter,
       EmittedEventState emittedEventState,
       boolean keepEdges) {
+    this(
+        skyFunctions,
+        differencer,
+        progressReceiver,
+        graphInconsistencyReceiver,
+        eventFilter,
+        emittedEventState,
+        keepEdges,
+        new InMemoryGraphImpl(keepEdges));
+  }
+
+  private InMemoryMemoizingEvaluator(
+      Map<SkyFunctionName, ? extends SkyFunction> skyFunctions,
+      Differencer differencer,
+      @Nullable EvaluationProgressReceiver progressReceiver,
+      GraphInconsistencyReceiver graphInconsistencyReceiver,
+      EventFilter eventFilter,
+      EmittedEventState emittedEventState,
+      boolean keepEdges,
+      InMemoryGraph graph) {
     this.skyFunctions = ImmutableMap.copyOf(skyFunctions);
     this.differencer = Preconditions.checkNotNull(differencer);
     this.progressReceiver = new DirtyTrackingProgressReceiver(progressReceiver);
     this.graphInconsistencyReceiver = Preconditions.checkNotNull(graphInconsistencyReceiver);
     this.eventFilter = eventFilter;
-    this.graph = new InMemoryGraphImpl(keepEdges);
+    this.graph = graph;
     this.emittedEventState = emittedEventState;
     this.keepEdges = keepEdges;
   }
@@ -410,4 +430,23 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
       };
 
   public static final EvaluatorSupplier SUPPLIER = InMemoryMemoizingEvaluator::new;
+
+  /** Supplies evaluators whose graph is a {@link CompactInMemoryGraph}. */
+  public static final EvaluatorSupplier COMPACT_GRAPH_SUPPLIER =
+      (skyFunctions,
+          differencer,
+          progressReceiver,
+          graphInconsistencyReceiver,
+          eventFilter,
+          emittedEventState,
+          keepEdges) ->
+          new InMemoryMemoizingEvaluator(
+              skyFunctions,
+              differencer,
+              progressReceiver,
+              graphInconsistencyReceiver,
+              eventFilter,
+              emittedEventState,
+              keepEdges,
+              new CompactInMemoryGraph(keepEdges));
 }
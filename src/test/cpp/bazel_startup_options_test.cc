@@ -83,7 +83,10 @@ TEST_F(BazelStartupOptionsTest, ValidStartupFlags) {
   ExpectIsNullaryOption(options, "block_for_lock");
   ExpectIsNullaryOption(options, "client_debug");
   ExpectIsNullaryOption(options, "deep_execroot");
+  ExpectIsNullaryOption(options, "experimental_compact_skyframe_graph");
+  ExpectIsNullaryOption(options, "experimental_mapped_action_cache");
   ExpectIsNullaryOption(options, "experimental_oom_more_eagerly");
+  ExpectIsNullaryOption(options, "experimental_sparse_attribute_containers");
   ExpectIsNullaryOption(options, "fatal_event_bus_exceptions");
   ExpectIsNullaryOption(options, "home_rc");
   ExpectIsNullaryOption(options, "host_jvm_debug");
@@ -219,4 +219,59 @@ public class DigestUtilsTest {
 
     assertThat(digest3).isEqualTo(digest1);
   }
+
+  @Test
+  public void testSaveAndLoadCache() throws Exception {
+    final AtomicInteger getDigestCounter = new AtomicInteger(0);
+    FileSystem tracingFileSystem =
+        new InMemoryFileSystem(BlazeClock.instance()) {
+          @Override
+          protected byte[] getFastDigest(Path path) throws IOException {
+            return null;
+          }
+
+          @Override
+          protected byte[] getDigest(Path path) throws IOException {
+            getDigestCounter.incrementAndGet();
+            return super.getDigest(path);
+          }
+        };
+    DigestHashFunction hf = tracingFileSystem.getDigestFunction();
+    Path file1 = tracingFileSystem.getPath("/1.txt");
+    Path file2 = tracingFileSystem.getPath("/2.txt");
+    Path cacheFile = tracingFileSystem.getPath("/digests");
+    FileSystemUtils.writeContentAsLatin1(file1, "some contents");
+    FileSystemUtils.writeContentAsLatin1(file2, "some other contents");
+
+    DigestUtils.configureCache(10);
+    byte[] digest1 = DigestUtils.getDigestOrFail(file1, file1.getFileSize());
+    byte[] digest2 = DigestUtils.getDigestOrFail(file2, file2.getFileSize());
+    assertThat(DigestUtils.saveCache(cacheFile, hf)).isEqualTo(2);
+
+    // A new cache, as after a server restart, does not have to recompute unchanged digests.
+    DigestUtils.configureCache(10);
+    assertThat(DigestUtils.loadCache(cacheFile, hf)).isEqualTo(2);
+    FileSystemUtils.writeContentAsLatin1(file2, "changed contents");
+    assertThat(DigestUtils.getDigestOrFail(file1, file1.getFileSize())).isEqualTo(digest1);
+    assertThat(getDigestCounter.get()).isEqualTo(2);
+    assertThat(DigestUtils.getDigestOrFail(file2, file2.getFileSize())).isNotEqualTo(digest2);
+    assertThat(getDigestCounter.get()).isEqualTo(3);
+    new CacheStatsChecker().evictionCount(0).hitCount(1).missCount(1).check();
+  }
+
+  @Test
+  public void testLoadCacheIgnoresOtherHashFunction() throws Exception {
+    FileSystem fs = new InMemoryFileSystem(BlazeClock.instance(), DigestHashFunction.MD5);
+    Path file = fs.getPath("/1.txt");
+    Path cacheFile = fs.getPath("/digests");
+    FileSystemUtils.writeContentAsLatin1(file, "some contents");
+
+    DigestUtils.configureCache(10);
+    DigestUtils.getDigestOrFail(file, file.getFileSize());
+    DigestUtils.saveCache(cacheFile, DigestHashFunction.MD5);
+
+    DigestUtils.configureCache(10);
+    assertThat(DigestUtils.loadCache(cacheFile, DigestHashFunction.SHA1)).isEqualTo(0);
+    assertThat(DigestUtils.loadCache(fs.getPath("/missing"), DigestHashFunction.MD5)).isEqualTo(0);
+  }
 }
@@ -437,6 +437,51 @@ public class ResourceManagerTest {
     assertThat(rm.inUse()).isFalse();
   }
 
+  @Test
+  public void testWaitingThreadsAreGrantedResourcesByPriority() throws Exception {
+    ActionExecutionMetadata lowPriorityOwner = new ResourceOwnerStub();
+    ActionExecutionMetadata highPriorityOwner = new ResourceOwnerStub();
+    rm.setPrioritizer((owner) -> owner == highPriorityOwner ? 2 : 1);
+    try {
+      acquire(1000, 0, 0);
+
+      TestThread lowPriorityThread =
+          new TestThread() {
+            @Override
+            public void runTest() throws Exception {
+              rm.acquireResources(lowPriorityOwner, ResourceSet.create(600, 0, 0));
+              validate(2);
+              rm.releaseResources(lowPriorityOwner, ResourceSet.create(600, 0, 0));
+            }
+          };
+      TestThread highPriorityThread =
+          new TestThread() {
+            @Override
+            public void runTest() throws Exception {
+              rm.acquireResources(highPriorityOwner, ResourceSet.create(600, 0, 0));
+              validate(1);
+              rm.releaseResources(highPriorityOwner, ResourceSet.create(600, 0, 0));
+            }
+          };
+      lowPriorityThread.start();
+      while (rm.getWaitCount() < 1) {
+        Thread.yield();
+      }
+      highPriorityThread.start();
+      while (rm.getWaitCount() < 2) {
+        Thread.yield();
+      }
+
+      // The high priority thread asked last, but goes first.
+      release(1000, 0, 0);
+      lowPriorityThread.joinAndAssertState(TestUtils.WAIT_TIMEOUT_MILLISECONDS);
+      highPriorityThread.joinAndAssertState(TestUtils.WAIT_TIMEOUT_MILLISECONDS);
+      assertThat(rm.inUse()).isFalse();
+    } finally {
+      rm.setPrioritizer(null);
+    }
+  }
+
   private static class ResourceOwnerStub implements ActionExecutionMetadata {
 
     @Override
@@ -0,0 +1,270 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.actions.FileArtifactValue;
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.testutil.MoreAsserts;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Test for the MappedPersistentActionCache class. */
+@RunWith(JUnit4.class)
+public class MappedPersistentActionCacheTest {
+
+  private Path dataRoot;
+  private ManualClock clock = new ManualClock();
+  private MappedPersistentActionCache cache;
+
+  @Before
+  public final void createCache() throws Exception {
+    // Memory mapping needs a real file system.
+    FileSystem fs = FileSystems.getJavaIoFileSystem();
+    dataRoot = fs.getPath(TestUtils.makeTempDir().getAbsolutePath()).getRelative("cache");
+    dataRoot.createDirectoryAndParents();
+    cache = new MappedPersistentActionCache(dataRoot, clock);
+  }
+
+  @Test
+  public void testGetInvalidKey() {
+    assertThat(cache.get("key")).isNull();
+  }
+
+  @Test
+  public void testPutAndGet() {
+    putKey("key", cache, true);
+    ActionCache.Entry entry = cache.get("key");
+    assertThat(entry).isNotNull();
+    assertThat(entry.getActionKey()).isEqualTo("key");
+    assertThat(entry.getPaths()).containsExactly("foo/bar");
+  }
+
+  @Test
+  public void testPutAndRemove() {
+    putKey("key", cache, false);
+    cache.remove("key");
+    assertThat(cache.get("key")).isNull();
+  }
+
+  @Test
+  public void testOverwrite() {
+    putKey("key", cache, false);
+    putKey("key", cache, true);
+    assertThat(cache.get("key").discoversInputs()).isTrue();
+  }
+
+  @Test
+  public void testSaveAndReload() throws Exception {
+    for (int i = 0; i < 300; i++) {
+      putKey(Integer.toString(i), cache, i % 2 == 0);
+    }
+    cache.remove("7");
+    cache.save();
+    assertThat(MappedPersistentActionCache.logFile(dataRoot, 0).exists()).isTrue();
+    assertThat(MappedPersistentActionCache.indexFile(dataRoot).exists()).isTrue();
+
+    MappedPersistentActionCache newCache = new MappedPersistentActionCache(dataRoot, clock);
+    for (int i = 0; i < 300; i++) {
+      String key = Integer.toString(i);
+      if (i == 7) {
+        assertThat(newCache.get(key)).isNull();
+      } else {
+        assertThat(newCache.get(key).toString()).isEqualTo(cache.get(key).toString());
+      }
+    }
+    assertThat(newCache.get("not_a_key")).isNull();
+  }
+
+  @Test
+  public void testEntriesWrittenAfterReloadAreVisible() throws Exception {
+    putKey("abc", cache, false);
+    cache.save();
+
+    MappedPersistentActionCache newCache = new MappedPersistentActionCache(dataRoot, clock);
+    putKey("xyz", newCache, true);
+    assertThat(newCache.get("abc")).isNotNull();
+    assertThat(newCache.get("xyz")).isNotNull();
+    newCache.save();
+
+    MappedPersistentActionCache newerCache = new MappedPersistentActionCache(dataRoot, clock);
+    assertThat(newerCache.get("abc").toString()).isEqualTo(cache.get("abc").toString());
+    assertThat(newerCache.get("xyz").toString()).isEqualTo(newCache.get("xyz").toString());
+  }
+
+  @Test
+  public void testEntriesWrittenBeforeCrashAreDiscarded() throws Exception {
+    putKey("abc", cache, false);
+    cache.save();
+    // Interns "lost" with an id that is not saved before the server goes away.
+    putKey("lost", cache, true);
+
+    // The restarted server hands out the id of "lost" to the next string, here a file name.
+    MappedPersistentActionCache restartedCache = new MappedPersistentActionCache(dataRoot, clock);
+    assertThat(restartedCache.get("lost")).isNull();
+    ActionCache.Entry entry =
+        new ActionCache.Entry("abc", ImmutableMap.<String, String>of(), true);
+    entry.addFile(PathFragment.create("reused"), FileArtifactValue.createDirectory(5678));
+    entry.getFileDigest();
+    restartedCache.put("abc", entry);
+    putKey("xyz", restartedCache, false);
+    restartedCache.save();
+
+    MappedPersistentActionCache reloadedCache = new MappedPersistentActionCache(dataRoot, clock);
+    assertThat(reloadedCache.get("reused")).isNull();
+    assertThat(reloadedCache.get("lost")).isNull();
+    assertThat(reloadedCache.get("abc").toString())
+        .isEqualTo(restartedCache.get("abc").toString());
+    assertThat(reloadedCache.get("xyz").toString())
+        .isEqualTo(restartedCache.get("xyz").toString());
+  }
+
+  @Test
+  public void testCompaction() throws Exception {
+    MappedPersistentActionCache compactingCache =
+        new MappedPersistentActionCache(dataRoot, clock, /* minCompactionLogSize= */ 0);
+    for (int i = 0; i < 10; i++) {
+      putKey("overwritten", compactingCache, i % 2 == 0);
+    }
+    putKey("kept", compactingCache, true);
+    compactingCache.save();
+    assertThat(MappedPersistentActionCache.logFile(dataRoot, 0).exists()).isFalse();
+    assertThat(MappedPersistentActionCache.logFile(dataRoot, 1).exists()).isTrue();
+    assertThat(compactingCache.get("overwritten").discoversInputs()).isFalse();
+    putKey("added", compactingCache, false);
+    compactingCache.save();
+
+    MappedPersistentActionCache newCache = new MappedPersistentActionCache(dataRoot, clock);
+    assertThat(newCache.get("overwritten").discoversInputs()).isFalse();
+    assertThat(newCache.get("kept").discoversInputs()).isTrue();
+    assertThat(newCache.get("added")).isNotNull();
+  }
+
+  @Test
+  public void testCompactionInterruptedBeforeReplacingIndex() throws Exception {
+    putKey("abc", cache, true);
+    cache.save();
+    // The log of the next generation and the new index were not completely written.
+    FileSystemUtils.writeContent(
+        MappedPersistentActionCache.logFile(dataRoot, 1), new byte[] {1, 2, 3});
+    Path tmpIndexFile =
+        dataRoot.getChild(MappedPersistentActionCache.indexFile(dataRoot).getBaseName() + ".tmp");
+    FileSystemUtils.writeContent(tmpIndexFile, new byte[] {4, 5, 6});
+
+    MappedPersistentActionCache newCache = new MappedPersistentActionCache(dataRoot, clock);
+    assertThat(newCache.get("abc").toString()).isEqualTo(cache.get("abc").toString());
+    assertThat(MappedPersistentActionCache.logFile(dataRoot, 1).exists()).isFalse();
+    assertThat(tmpIndexFile.exists()).isFalse();
+  }
+
+  @Test
+  public void testCompactionInterruptedAfterReplacingIndex() throws Exception {
+    MappedPersistentActionCache compactingCache =
+        new MappedPersistentActionCache(dataRoot, clock, /* minCompactionLogSize= */ 0);
+    putKey("abc", compactingCache, false);
+    putKey("abc", compactingCache, true);
+    compactingCache.save();
+    // The log of the previous generation was not deleted.
+    FileSystemUtils.writeContent(
+        MappedPersistentActionCache.logFile(dataRoot, 0), new byte[] {1, 2, 3});
+
+    MappedPersistentActionCache newCache = new MappedPersistentActionCache(dataRoot, clock);
+    assertThat(newCache.get("abc").toString()).isEqualTo(compactingCache.get("abc").toString());
+    assertThat(MappedPersistentActionCache.logFile(dataRoot, 0).exists()).isFalse();
+  }
+
+  @Test
+  public void testFailedCompactionKeepsCurrentGeneration() throws Exception {
+    MappedPersistentActionCache compactingCache =
+        new MappedPersistentActionCache(dataRoot, clock, /* minCompactionLogSize= */ 0);
+    putKey("abc", compactingCache, false);
+    putKey("abc", compactingCache, true);
+    // The new index cannot be written.
+    Path tmpIndexFile =
+        dataRoot.getChild(MappedPersistentActionCache.indexFile(dataRoot).getBaseName() + ".tmp");
+    tmpIndexFile.getChild("blocker").createDirectoryAndParents();
+
+    MoreAsserts.assertThrows(IOException.class, compactingCache::save);
+    assertThat(compactingCache.get("abc").discoversInputs()).isTrue();
+    putKey("def", compactingCache, true);
+    FileSystemUtils.deleteTree(tmpIndexFile);
+    compactingCache.save();
+
+    MappedPersistentActionCache newCache = new MappedPersistentActionCache(dataRoot, clock);
+    assertThat(newCache.get("abc").discoversInputs()).isTrue();
+    assertThat(newCache.get("def")).isNotNull();
+  }
+
+  @Test
+  public void testConcurrentGetsAndPuts() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      putKey("key" + i, cache, true);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int thread = 0; thread < 4; thread++) {
+      futures.add(
+          executor.submit(
+              () -> {
+                for (int i = 0; i < 1000; i++) {
+                  assertThat(cache.get("key" + (i % 100)).discoversInputs()).isTrue();
+                }
+              }));
+    }
+    for (int i = 0; i < 1000; i++) {
+      putKey("other" + i, cache, false);
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    assertThat(cache.get("other999")).isNotNull();
+  }
+
+  @Test
+  public void testCorruptedFilesAreRenamed() throws Exception {
+    cache.save();
+    Path logFile = MappedPersistentActionCache.logFile(dataRoot, 0);
+    FileSystemUtils.writeContent(logFile, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+
+    MoreAsserts.assertThrows(
+        IOException.class, () -> new MappedPersistentActionCache(dataRoot, clock));
+    assertThat(logFile.exists()).isFalse();
+    assertThat(dataRoot.getChild(logFile.getBaseName() + ".bad").exists()).isTrue();
+  }
+
+  private static void putKey(String key, ActionCache ac, boolean discoversInputs) {
+    ActionCache.Entry entry =
+        new ActionCache.Entry(key, ImmutableMap.<String, String>of(), discoversInputs);
+    entry.addFile(PathFragment.create("foo/bar"), FileArtifactValue.createDirectory(1234));
+    entry.getFileDigest();
+    ac.put(key, entry);
+  }
+}
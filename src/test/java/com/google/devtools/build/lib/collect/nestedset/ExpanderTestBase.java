@@ -18,6 +18,7 @@ import static org.junit.Assert.fail;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -224,10 +225,19 @@ public abstract class ExpanderTestBase  {
   }
 
   protected final void assertSetContents(Collection<String> expected, NestedSet<String> set) {
+    // The first traversal of a set walks it, the following ones replay the walk.
+    assertThat(visitedElements(set)).isEqualTo(expected);
     assertThat(Lists.newArrayList(set)).isEqualTo(expected);
     assertThat(Lists.newArrayList(set.toCollection())).isEqualTo(expected);
     assertThat(Lists.newArrayList(set.toList())).isEqualTo(expected);
     assertThat(Lists.newArrayList(set.toSet())).isEqualTo(expected);
+    assertThat(visitedElements(set)).isEqualTo(expected);
+  }
+
+  private static List<String> visitedElements(NestedSet<String> set) {
+    List<String> elements = new ArrayList<>();
+    set.forEach(elements::add);
+    return elements;
   }
 
   protected final void assertCollectionsEqual(
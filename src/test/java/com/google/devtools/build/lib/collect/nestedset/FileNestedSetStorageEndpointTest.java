@@ -0,0 +1,98 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.skyframe.serialization.AutoRegistry;
+import com.google.devtools.build.lib.skyframe.serialization.ObjectCodecs;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link FileNestedSetStorageEndpoint}. */
+@RunWith(JUnit4.class)
+public class FileNestedSetStorageEndpointTest {
+  private Path file;
+
+  @Before
+  public void createFile() throws Exception {
+    file = Files.createTempFile(TestUtils.tmpDirFile().toPath(), "nested_sets", ".bin");
+  }
+
+  @Test
+  public void contentsAreReadBackFromDisk() throws Exception {
+    try (FileNestedSetStorageEndpoint endpoint =
+        new FileNestedSetStorageEndpoint(file, /*maxHotBytes=*/ 0)) {
+      endpoint.put(ByteString.copyFromUtf8("a"), new byte[] {1, 2, 3}).get();
+      endpoint.put(ByteString.copyFromUtf8("b"), new byte[0]).get();
+      endpoint.put(ByteString.copyFromUtf8("c"), new byte[] {4}).get();
+
+      assertThat(endpoint.getFileSize()).isEqualTo(3 * Integer.BYTES + 4);
+      assertThat(endpoint.get(ByteString.copyFromUtf8("c")).get()).isEqualTo(new byte[] {4});
+      assertThat(endpoint.get(ByteString.copyFromUtf8("a")).get()).isEqualTo(new byte[] {1, 2, 3});
+      assertThat(endpoint.get(ByteString.copyFromUtf8("b")).get()).isEmpty();
+      assertThat(endpoint.get(ByteString.copyFromUtf8("d")).get()).isNull();
+    }
+    assertThat(Files.exists(file)).isFalse();
+  }
+
+  @Test
+  public void contentsAreOnlyWrittenOnce() throws Exception {
+    try (FileNestedSetStorageEndpoint endpoint =
+        new FileNestedSetStorageEndpoint(file, /*maxHotBytes=*/ 0)) {
+      for (int i = 0; i < 3; i++) {
+        endpoint.put(ByteString.copyFromUtf8("a"), new byte[] {1, 2, 3}).get();
+      }
+
+      assertThat(endpoint.getFileSize()).isEqualTo(Integer.BYTES + 3);
+      assertThat(endpoint.get(ByteString.copyFromUtf8("a")).get()).isEqualTo(new byte[] {1, 2, 3});
+    }
+  }
+
+  @Test
+  public void contentsWhoseWriteFailedAreUnknown() throws Exception {
+    FileNestedSetStorageEndpoint endpoint =
+        new FileNestedSetStorageEndpoint(file, /*maxHotBytes=*/ 0);
+    endpoint.close();
+
+    assertThrows(
+        IOException.class, () -> endpoint.put(ByteString.copyFromUtf8("a"), new byte[] {1}));
+    assertThat(endpoint.get(ByteString.copyFromUtf8("a")).get()).isNull();
+  }
+
+  @Test
+  public void codecWithFileNestedSetStore() throws Exception {
+    try (FileNestedSetStorageEndpoint endpoint =
+        new FileNestedSetStorageEndpoint(file, /*maxHotBytes=*/ 16)) {
+      ObjectCodecs objectCodecs =
+          new ObjectCodecs(
+              AutoRegistry.get()
+                  .getBuilder()
+                  .setAllowDefaultCodec(true)
+                  .add(new NestedSetCodecWithStore(new NestedSetStore(endpoint)))
+                  .build(),
+              ImmutableMap.of());
+      NestedSetCodecTestUtils.checkCodec(objectCodecs, true, true);
+    }
+  }
+}
@@ -18,11 +18,13 @@ import static com.google.common.truth.Truth.assertThat;
 import com.google.common.base.Objects;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
+import com.google.common.testing.GcFinalization;
 import com.google.devtools.build.lib.actions.CommandLineItem;
 import com.google.devtools.build.lib.actions.CommandLineItem.CapturingMapFn;
 import com.google.devtools.build.lib.actions.CommandLineItem.MapFn;
 import com.google.devtools.build.lib.testutil.MoreAsserts;
 import com.google.devtools.build.lib.util.Fingerprint;
+import java.lang.ref.WeakReference;
 import java.util.function.Consumer;
 import org.junit.Before;
 import org.junit.Test;
@@ -177,6 +179,52 @@ public class NestedSetFingerprintCacheTest {
         });
   }
 
+  @Test
+  public void testClearForNextCommandKeepsSingletonDigests() {
+    NestedSet<String> a = NestedSetBuilder.<String>stableOrder().add("a0").add("a1").build();
+    NestedSet<String> b =
+        NestedSetBuilder.<String>stableOrder().add("b0").add("b1").addTransitive(a).build();
+    Fingerprint before = new Fingerprint();
+    cache.addNestedSetToFingerprint(before, b);
+    cache.addNestedSetToFingerprint(new IntParametrizedMapFn(1), new Fingerprint(), a);
+    cache.addNestedSetToFingerprint(new IntParametrizedMapFn(2), new Fingerprint(), a);
+    cache.fingerprinted.clear();
+
+    cache.clearForNextCommand();
+
+    // Only the set that was not fingerprinted before is visited again.
+    NestedSet<String> c =
+        NestedSetBuilder.<String>stableOrder().add("c0").add("c1").addTransitive(b).build();
+    cache.addNestedSetToFingerprint(new Fingerprint(), c);
+    assertThat(cache.fingerprinted.elementSet()).containsExactly("c0", "c1");
+    Fingerprint after = new Fingerprint();
+    cache.addNestedSetToFingerprint(after, b);
+    assertThat(after.hexDigestAndReset()).isEqualTo(before.hexDigestAndReset());
+
+    // The parametrized instances of the previous command no longer count.
+    cache.addNestedSetToFingerprint(new IntParametrizedMapFn(3), new Fingerprint(), a);
+    cache.addNestedSetToFingerprint(new IntParametrizedMapFn(4), new Fingerprint(), a);
+  }
+
+  @Test
+  public void testClearForNextCommandDoesNotKeepArraysAlive() {
+    NestedSet<String> kept = NestedSetBuilder.<String>stableOrder().add("k0").add("k1").build();
+    NestedSet<String> reanalyzed =
+        NestedSetBuilder.<String>stableOrder().add("r0").add("r1").addTransitive(kept).build();
+    cache.addNestedSetToFingerprint(new Fingerprint(), reanalyzed);
+    cache.clearForNextCommand();
+
+    // The next command analyzes the target again, which replaces its nested set.
+    WeakReference<Object> reanalyzedChildren = new WeakReference<>(reanalyzed.getChildren());
+    reanalyzed = NestedSetBuilder.<String>stableOrder().add("r0").addTransitive(kept).build();
+    cache.fingerprinted.clear();
+    cache.addNestedSetToFingerprint(new Fingerprint(), reanalyzed);
+    assertThat(cache.fingerprinted.elementSet()).containsExactly("r0");
+    cache.clearForNextCommand();
+
+    GcFinalization.awaitClear(reanalyzedChildren);
+  }
+
   private static class IntParametrizedMapFn extends CommandLineItem.ParametrizedMapFn<String> {
     private final int i;
 
@@ -85,6 +85,23 @@ public class NestedSetImplTest {
     assertThat(nonEmptyLevel2.isEmpty()).isFalse();
   }
 
+  @Test
+  public void memoizedFlattenAndGetSize() {
+    assertThat(nestedSetBuilder().build().memoizedFlattenAndGetSize()).isEqualTo(0);
+    assertThat(nestedSetBuilder("a").build().memoizedFlattenAndGetSize()).isEqualTo(1);
+    assertThat(nestedSetBuilder("a", "b", "a").build().memoizedFlattenAndGetSize()).isEqualTo(2);
+
+    NestedSet<String> b = nestedSetBuilder("b1", "b2").build();
+    NestedSet<String> c = nestedSetBuilder("c1", "b1").addTransitive(b).build();
+    NestedSet<String> d = nestedSetBuilder("d").addTransitive(b).addTransitive(c).build();
+    assertThat(d.memoizedFlattenAndGetSize()).isEqualTo(4);
+    assertThat(d.memoizedFlattenAndGetSize()).isEqualTo(d.toList().size());
+
+    NestedSet<String> e = nestedSetBuilder("e").addTransitive(c).build();
+    assertThat(e.toList()).hasSize(4);
+    assertThat(e.memoizedFlattenAndGetSize()).isEqualTo(4);
+  }
+
   @Test
   public void canIncludeAnyOrderInStableOrderAndViceVersa() {
     NestedSetBuilder.stableOrder()
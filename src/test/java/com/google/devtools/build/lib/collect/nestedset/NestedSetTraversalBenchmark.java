@@ -0,0 +1,90 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares iterating over a nested set, which flattens it into a new list, with visiting its
+ * elements with {@link NestedSet#forEach}, for the transitive classpaths of a synthetic graph of
+ * Java libraries. Run with the allocation instrument to compare the garbage of both.
+ */
+public class NestedSetTraversalBenchmark {
+  @Param({"100", "1000"})
+  int libraries;
+
+  /** The number of libraries each library directly depends on. */
+  @Param({"3"})
+  int depsPerLibrary;
+
+  @Param({"ITERATOR", "FOR_EACH"})
+  Traversal traversal;
+
+  enum Traversal {
+    ITERATOR {
+      @Override
+      int traverse(NestedSet<String> set) {
+        int length = 0;
+        for (String jar : set) {
+          length += jar.length();
+        }
+        return length;
+      }
+    },
+    FOR_EACH {
+      @Override
+      int traverse(NestedSet<String> set) {
+        int[] length = {0};
+        set.forEach(jar -> length[0] += jar.length());
+        return length[0];
+      }
+    };
+
+    abstract int traverse(NestedSet<String> set);
+  }
+
+  private List<NestedSet<String>> classpaths;
+
+  @BeforeExperiment
+  void setUp() {
+    classpaths = new ArrayList<>(libraries);
+    for (int i = 0; i < libraries; i++) {
+      NestedSetBuilder<String> classpath =
+          NestedSetBuilder.<String>naiveLinkOrder().add("lib" + i + ".jar");
+      for (int j = 1; j <= depsPerLibrary && j * j <= i; j++) {
+        classpath.addTransitive(classpaths.get(i - j * j));
+      }
+      classpaths.add(classpath.build());
+    }
+    // Each classpath is flattened once when building the first action that uses it.
+    for (NestedSet<String> classpath : classpaths) {
+      classpath.toList();
+    }
+  }
+
+  @Benchmark
+  int traverseClasspaths(int reps) {
+    int length = 0;
+    for (int i = 0; i < reps; i++) {
+      for (NestedSet<String> classpath : classpaths) {
+        length += traversal.traverse(classpath);
+      }
+    }
+    return length;
+  }
+}
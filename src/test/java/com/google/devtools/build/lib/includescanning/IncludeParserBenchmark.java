@@ -0,0 +1,117 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.includescanning;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares the scanning of C++ files from their decoded characters with the scanning of their
+ * bytes. Scans the files under {@code corpus} if given, for instance a checkout of a large C++
+ * project, and otherwise synthetic headers of mostly code and comments.
+ */
+public class IncludeParserBenchmark {
+  @Param({""})
+  String corpus;
+
+  @Param({"CHARS", "BYTES"})
+  Scanner scanner;
+
+  enum Scanner {
+    CHARS {
+      @Override
+      int scan(IncludeParser parser, byte[] content) {
+        return parser.extractInclusions(new String(content, ISO_8859_1).toCharArray()).size();
+      }
+    },
+    BYTES {
+      @Override
+      int scan(IncludeParser parser, byte[] content) {
+        return parser.extractInclusions(ByteBuffer.wrap(content)).size();
+      }
+    };
+
+    abstract int scan(IncludeParser parser, byte[] content);
+  }
+
+  private final IncludeParser parser = new IncludeParser(/*hints=*/ null);
+  private List<byte[]> files;
+
+  @BeforeExperiment
+  void setUp() throws IOException {
+    files = corpus.isEmpty() ? syntheticFiles() : corpusFiles(Paths.get(corpus));
+  }
+
+  private static List<byte[]> corpusFiles(Path corpus) throws IOException {
+    List<byte[]> files = new ArrayList<>();
+    try (Stream<Path> paths = Files.walk(corpus)) {
+      for (Path path :
+          paths
+              .filter(p -> p.toString().matches(".*\\.(h|hh|hpp|c|cc|cpp)$"))
+              .collect(Collectors.toList())) {
+        files.add(Files.readAllBytes(path));
+      }
+    }
+    return files;
+  }
+
+  private static List<byte[]> syntheticFiles() {
+    Random random = new Random(42);
+    List<byte[]> files = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      StringBuilder file = new StringBuilder("// Copyright notice.\n\n#ifndef HEADER_H_\n");
+      for (int j = 0; j < 20; j++) {
+        file.append("#include \"dir").append(random.nextInt(100)).append("/header.h\"\n");
+      }
+      for (int j = 0; j < 400; j++) {
+        switch (random.nextInt(4)) {
+          case 0:
+            file.append("  // Explains what the code below does, in a few words.\n");
+            break;
+          case 1:
+            file.append("\n");
+            break;
+          default:
+            file.append("  int value").append(j).append(" = Compute(argument, other);\n");
+        }
+      }
+      files.add(file.append("#endif  // HEADER_H_\n").toString().getBytes(ISO_8859_1));
+    }
+    return files;
+  }
+
+  @Benchmark
+  int scanFiles(int reps) {
+    int inclusions = 0;
+    for (int i = 0; i < reps; i++) {
+      for (byte[] file : files) {
+        inclusions += scanner.scan(parser, file);
+      }
+    }
+    return inclusions;
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.includescanning;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.common.base.Joiner;
+import com.google.devtools.build.lib.includescanning.IncludeParser.Inclusion;
+import com.google.devtools.build.lib.includescanning.IncludeParser.Inclusion.Kind;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link IncludeParser}. */
+@RunWith(JUnit4.class)
+public class IncludeParserTest {
+
+  private static List<Inclusion> extractFromBytes(IncludeParser parser, String content) {
+    return parser.extractInclusions(ByteBuffer.wrap(content.getBytes(ISO_8859_1)));
+  }
+
+  private static List<Inclusion> assertSameInclusions(IncludeParser parser, String... lines) {
+    String content = Joiner.on("\n").join(lines);
+    List<Inclusion> inclusions = extractFromBytes(parser, content);
+    assertWithMessage(content)
+        .that(inclusions)
+        .containsExactlyElementsIn(parser.extractInclusions(content.toCharArray()))
+        .inOrder();
+    return inclusions;
+  }
+
+  @Test
+  public void byteScannerShouldExtractTheSameInclusionsAsCharScanner() {
+    IncludeParser parser = new IncludeParser(/*hints=*/ null);
+    List<Inclusion> inclusions =
+        assertSameInclusions(
+            parser,
+            "// Copyright notice with an #include \"in_comment.h\"",
+            "#include \"a.h\"",
+            "  #  include <b.h>",
+            "\t#include_next <c.h>",
+            "/* leading comment */ #include \"d.h\"",
+            "#include \\",
+            "    \"continued.h\"",
+            "int x = 1; #include \"not_a_directive.h\"",
+            "#import \"e.h\"",
+            "#if __has_include(<f.h>)",
+            "#include \"/absolute.h\"",
+            "#include MACRO_HEADER",
+            "",
+            "\r",
+            "#include \"crlf.h\"\r",
+            "   ",
+            "#include \"g.h\" // trailing comment",
+            "a line longer than eight bytes without any directive in it at all \\",
+            "#include \"after_continuation.h\"",
+            "#include \"café.h\"",
+            "#include \"last.h\"");
+    assertThat(inclusions)
+        .containsAllOf(
+            new Inclusion("a.h", Kind.QUOTE),
+            new Inclusion("c.h", Kind.NEXT_ANGLE),
+            new Inclusion("d.h", Kind.QUOTE),
+            new Inclusion("continued.h", Kind.QUOTE),
+            new Inclusion("f.h", Kind.ANGLE),
+            new Inclusion("last.h", Kind.QUOTE));
+  }
+
+  @Test
+  public void byteScannerShouldHandleDirectivesAtEveryAlignment() {
+    IncludeParser parser = new IncludeParser(/*hints=*/ null);
+    for (int padding = 0; padding < 17; padding++) {
+      StringBuilder prefix = new StringBuilder();
+      for (int i = 0; i < padding; i++) {
+        prefix.append(i % 3 == 0 ? '\\' : 'x');
+      }
+      assertSameInclusions(
+          parser, prefix.toString(), "#include \"a.h\"", prefix + "\\", "#include \"b.h\"");
+    }
+  }
+
+  @Test
+  public void byteScannerShouldAcceptFilesEndingWithBackslash() {
+    assertThat(extractFromBytes(new IncludeParser(/*hints=*/ null), "#include \"a.h\"\n\\"))
+        .containsExactly(new Inclusion("a.h", Kind.QUOTE));
+  }
+
+  @Test
+  public void byteScannerShouldUseTheDirectivesOfSwig() {
+    IncludeParser parser = new SwigIncludeParser();
+    assertSameInclusions(
+        parser, "%include \"a.i\"", "#include \"b.h\"", "  %import(module=\"m\") c.i", "%{", "%}");
+    assertThat(extractFromBytes(parser, "%include \"a.i\"\n"))
+        .containsExactly(new Inclusion("a.i", Kind.QUOTE));
+  }
+}
@@ -0,0 +1,106 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.includescanning;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.clock.JavaClock;
+import com.google.devtools.build.lib.includescanning.IncludeParser.GrepIncludesFileType;
+import com.google.devtools.build.lib.includescanning.IncludeParser.Inclusion;
+import com.google.devtools.build.lib.includescanning.IncludeParser.Inclusion.Kind;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link InclusionsByDigestCache}. */
+@RunWith(JUnit4.class)
+public class InclusionsByDigestCacheTest {
+  private static final byte[] DIGEST_A = {1, 2, 3};
+  private static final byte[] DIGEST_B = {4, 5, 6};
+  private static final String VERSION = "install_md5";
+  private static final Inclusion A_H = new Inclusion("a.h", Kind.QUOTE);
+
+  private Path file;
+
+  @Before
+  public final void createFile() throws Exception {
+    file = new InMemoryFileSystem(new JavaClock()).getPath("/output_base/inclusions");
+    file.getParentDirectory().createDirectoryAndParents();
+  }
+
+  @Test
+  public void inclusionsShouldBeKeyedByDigestAndFileType() {
+    InclusionsByDigestCache cache = new InclusionsByDigestCache();
+    assertThat(cache.isModified()).isFalse();
+    cache.put(GrepIncludesFileType.CPP, DIGEST_A, ImmutableList.of(A_H));
+
+    assertThat(cache.isModified()).isTrue();
+    assertThat(cache.get(GrepIncludesFileType.CPP, DIGEST_A.clone()))
+        .containsExactly(new Inclusion("a.h", Kind.QUOTE));
+    assertThat(cache.get(GrepIncludesFileType.SWIG, DIGEST_A)).isNull();
+    assertThat(cache.get(GrepIncludesFileType.CPP, DIGEST_B)).isNull();
+  }
+
+  @Test
+  public void savedInclusionsShouldBeLoadedBack() throws Exception {
+    InclusionsByDigestCache cache = new InclusionsByDigestCache();
+    cache.put(
+        GrepIncludesFileType.CPP,
+        DIGEST_A,
+        ImmutableList.of(new Inclusion("a.h", Kind.QUOTE), new Inclusion("b.h", Kind.NEXT_ANGLE)));
+    cache.put(GrepIncludesFileType.SWIG, DIGEST_B, ImmutableList.of(A_H));
+    cache.put(GrepIncludesFileType.CPP, DIGEST_B, ImmutableList.of());
+    assertThat(cache.save(file, VERSION, DigestHashFunction.MD5)).isEqualTo(3);
+    assertThat(cache.isModified()).isFalse();
+
+    InclusionsByDigestCache loaded = new InclusionsByDigestCache();
+    assertThat(loaded.load(file, VERSION, DigestHashFunction.MD5)).isEqualTo(3);
+    assertThat(loaded.get(GrepIncludesFileType.CPP, DIGEST_A))
+        .containsExactly(new Inclusion("a.h", Kind.QUOTE), new Inclusion("b.h", Kind.NEXT_ANGLE))
+        .inOrder();
+    assertThat(loaded.get(GrepIncludesFileType.CPP, DIGEST_B)).isEmpty();
+    // Inclusions that several files have in common are shared.
+    assertThat(loaded.get(GrepIncludesFileType.SWIG, DIGEST_B).get(0))
+        .isSameAs(loaded.get(GrepIncludesFileType.CPP, DIGEST_A).get(0));
+  }
+
+  @Test
+  public void inclusionsSavedForAnotherDigestFunctionShouldBeIgnored() throws Exception {
+    InclusionsByDigestCache cache = new InclusionsByDigestCache();
+    cache.put(GrepIncludesFileType.CPP, DIGEST_A, ImmutableList.of(A_H));
+    cache.save(file, VERSION, DigestHashFunction.MD5);
+
+    InclusionsByDigestCache loaded = new InclusionsByDigestCache();
+    assertThat(loaded.load(file, VERSION, DigestHashFunction.SHA256)).isEqualTo(0);
+    assertThat(loaded.get(GrepIncludesFileType.CPP, DIGEST_A)).isNull();
+    Path missing = file.getParentDirectory().getChild("missing");
+    assertThat(loaded.load(missing, VERSION, DigestHashFunction.MD5)).isEqualTo(0);
+  }
+
+  @Test
+  public void inclusionsSavedByAnotherBinaryShouldBeIgnored() throws Exception {
+    InclusionsByDigestCache cache = new InclusionsByDigestCache();
+    cache.put(GrepIncludesFileType.CPP, DIGEST_A, ImmutableList.of(A_H));
+    cache.save(file, VERSION, DigestHashFunction.MD5);
+
+    InclusionsByDigestCache loaded = new InclusionsByDigestCache();
+    assertThat(loaded.load(file, "other_install_md5", DigestHashFunction.MD5)).isEqualTo(0);
+    assertThat(loaded.get(GrepIncludesFileType.CPP, DIGEST_A)).isNull();
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.includescanning;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.clock.JavaClock;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PathExistenceCache}. */
+@RunWith(JUnit4.class)
+public class PathExistenceCacheTest {
+  private Path execRoot;
+  private PathExistenceCache cache;
+
+  @Before
+  public final void createCache() throws Exception {
+    execRoot = new InMemoryFileSystem(new JavaClock()).getPath("/execroot");
+    cache = new PathExistenceCache(execRoot, /*artifactFactory=*/ null);
+  }
+
+  private boolean deleteAndCheckExistence(String execPath) throws Exception {
+    Path path = execRoot.getRelative(execPath);
+    path.getParentDirectory().createDirectoryAndParents();
+    FileSystemUtils.createEmptyFile(path);
+    assertThat(cache.fileExists(PathFragment.create(execPath), /*isSource=*/ false)).isTrue();
+    path.delete();
+    return cache.fileExists(PathFragment.create(execPath), /*isSource=*/ false);
+  }
+
+  @Test
+  public void onlyEntriesOfModifiedPathsShouldBeInvalidated() throws Exception {
+    assertThat(deleteAndCheckExistence("pkg/sub/a.h")).isTrue();
+    assertThat(deleteAndCheckExistence("pkg/sub/b.h")).isTrue();
+    assertThat(deleteAndCheckExistence("other/c.h")).isTrue();
+
+    cache.invalidate(ImmutableSet.of(PathFragment.create("pkg/sub/a.h")));
+    assertThat(cache.fileExists(PathFragment.create("pkg/sub/a.h"), false)).isFalse();
+    assertThat(cache.fileExists(PathFragment.create("pkg/sub/b.h"), false)).isTrue();
+
+    cache.invalidate(ImmutableSet.of(PathFragment.create("pkg")));
+    assertThat(cache.fileExists(PathFragment.create("pkg/sub/b.h"), false)).isFalse();
+    assertThat(cache.fileExists(PathFragment.create("other/c.h"), false)).isTrue();
+  }
+
+  @Test
+  public void entriesOutsideOfPackagePathShouldAlwaysBeInvalidated() throws Exception {
+    assertThat(deleteAndCheckExistence("external/repo/a.h")).isTrue();
+    assertThat(deleteAndCheckExistence("/usr/include/b.h")).isTrue();
+
+    cache.invalidate(ImmutableSet.of());
+    assertThat(cache.fileExists(PathFragment.create("external/repo/a.h"), false)).isFalse();
+    assertThat(cache.fileExists(PathFragment.create("/usr/include/b.h"), false)).isFalse();
+  }
+}
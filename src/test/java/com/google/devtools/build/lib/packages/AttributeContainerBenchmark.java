@@ -0,0 +1,119 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.caliper.api.Footprint;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.clock.JavaClock;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.lib.packages.RuleFactory.BuildLangTypedAttributeValuesMap;
+import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+import com.google.devtools.build.lib.vfs.RootedPath;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares the heap retained by packages whose rules store their attributes in the default {@link
+ * AttributeContainer} with that of packages using {@link SparseAttributeContainer}, and the time
+ * spent creating them, for synthetic packages of rules of a large rule class that set a few
+ * attributes each.
+ */
+public class AttributeContainerBenchmark {
+  @Param({"1000", "10000"})
+  int rulesPerPackage;
+
+  @Param({"cc_library", "java_library"})
+  String ruleClassName;
+
+  @Param({"DEFAULT", "SPARSE"})
+  ContainerType containerType;
+
+  enum ContainerType {
+    DEFAULT(AttributeContainer::new),
+    SPARSE(SparseAttributeContainer::new);
+
+    private final Function<RuleClass, AttributeContainer> factory;
+
+    ContainerType(Function<RuleClass, AttributeContainer> factory) {
+      this.factory = factory;
+    }
+  }
+
+  private PackageFactory packageFactory;
+  private RuleClass ruleClass;
+  private RootedPath buildFile;
+  private String sourceExtension;
+
+  @BeforeExperiment
+  void setUp() {
+    RuleClassProvider ruleClassProvider = TestRuleClassProvider.getRuleClassProvider();
+    packageFactory =
+        new PackageFactory(
+            ruleClassProvider,
+            containerType.factory,
+            ImmutableList.of(),
+            "test",
+            Package.Builder.DefaultHelper.INSTANCE);
+    ruleClass = ruleClassProvider.getRuleClassMap().get(ruleClassName);
+    sourceExtension = ruleClassName.startsWith("java") ? ".java" : ".cc";
+    buildFile =
+        RootedPath.toRootedPath(
+            Root.fromPath(new InMemoryFileSystem(new JavaClock()).getPath("/workspace")),
+            PathFragment.create("pkg/BUILD"));
+  }
+
+  private Package createPackage() throws Exception {
+    Package.Builder pkgBuilder =
+        packageFactory
+            .newPackageBuilder(PackageIdentifier.createInMainRepo("pkg"), "TESTING")
+            .setFilename(buildFile);
+    for (int i = 0; i < rulesPerPackage; i++) {
+      Map<String, Object> attributeValues = new HashMap<>();
+      attributeValues.put("name", "rule" + i);
+      attributeValues.put("srcs", ImmutableList.of("src" + i + sourceExtension));
+      attributeValues.put("deps", ImmutableList.of(":rule" + (i / 2)));
+      RuleFactory.createAndAddRule(
+          pkgBuilder,
+          ruleClass,
+          new BuildLangTypedAttributeValuesMap(attributeValues),
+          NullEventHandler.INSTANCE,
+          /*ast=*/ null,
+          Location.fromFileAndOffsets(null, i, i),
+          /*env=*/ null,
+          containerType.factory.apply(ruleClass));
+    }
+    return pkgBuilder.build();
+  }
+
+  @Footprint
+  public Object packageFootprint() throws Exception {
+    return createPackage();
+  }
+
+  @Benchmark
+  void createPackage(int reps) throws Exception {
+    for (int i = 0; i < reps; i++) {
+      createPackage();
+    }
+  }
+}
@@ -0,0 +1,230 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.events.util.EventCollectionApparatus;
+import com.google.devtools.build.lib.packages.PackageSerializer.RuleClassResolver;
+import com.google.devtools.build.lib.packages.util.PackageFactoryApparatus;
+import com.google.devtools.build.lib.skyframe.serialization.AutoRegistry;
+import com.google.devtools.build.lib.skyframe.serialization.DeserializationContext;
+import com.google.devtools.build.lib.skyframe.serialization.SerializationContext;
+import com.google.devtools.build.lib.skyframe.serialization.SerializationException;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Root;
+import com.google.devtools.build.lib.vfs.RootedPath;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PackageSerializer}. */
+@RunWith(JUnit4.class)
+public class PackageSerializerTest {
+
+  private Scratch scratch = new Scratch("/workspace");
+  private EventCollectionApparatus events = new EventCollectionApparatus();
+  private PackageFactoryApparatus packages = new PackageFactoryApparatus(events.reporter());
+  private Root root;
+
+  @Before
+  public void setUp() throws Exception {
+    root = Root.fromPath(scratch.dir(""));
+  }
+
+  private Package createPackage(String... lines) throws Exception {
+    Path buildFile = scratch.file("pkg/BUILD", lines);
+    return packages.createPackage("pkg", RootedPath.toRootedPath(root, buildFile));
+  }
+
+  private ByteString serialize(Package pkg) throws Exception {
+    ByteString.Output out = ByteString.newOutput();
+    CodedOutputStream codedOut = CodedOutputStream.newInstance(out);
+    packages
+        .factory()
+        .getPackageSerializer()
+        .serialize(
+            new SerializationContext(AutoRegistry.get(), ImmutableMap.of()).getMemoizingContext(),
+            pkg,
+            codedOut);
+    codedOut.flush();
+    return out.toByteString();
+  }
+
+  private Package deserialize(Package pkg, ByteString serialized, RuleClassResolver resolver)
+      throws Exception {
+    return packages
+        .factory()
+        .deserializePackage(
+            pkg.getWorkspaceName(),
+            ImmutableMap.of(),
+            pkg.getPackageIdentifier(),
+            RootedPath.toRootedPath(root, pkg.getFilename().asPath()),
+            pkg.getSkylarkFileDependencies(),
+            ConstantRuleVisibility.PUBLIC,
+            new DeserializationContext(
+                    AutoRegistry.get(), ImmutableMap.of(RuleClassResolver.class, resolver))
+                .getMemoizingContext(),
+            serialized.newCodedInput())
+        .build();
+  }
+
+  private Package roundTrip(Package pkg) throws Exception {
+    Map<String, RuleClass> ruleClasses =
+        packages.factory().getRuleClassProvider().getRuleClassMap();
+    return deserialize(
+        pkg,
+        serialize(pkg),
+        (name, definitionLabel) -> definitionLabel == null ? ruleClasses.get(name) : null);
+  }
+
+  private static void assertSameTargets(Package deserialized, Package pkg) throws Exception {
+    assertThat(deserialized.getTargets().keySet())
+        .containsExactlyElementsIn(pkg.getTargets().keySet());
+    for (Target target : pkg.getTargets().values()) {
+      Target deserializedTarget = deserialized.getTarget(target.getName());
+      assertThat(deserializedTarget.getTargetKind()).isEqualTo(target.getTargetKind());
+      assertThat(deserializedTarget.getLocation()).isEqualTo(target.getLocation());
+      assertThat(deserializedTarget.getVisibility().getDeclaredLabels())
+          .isEqualTo(target.getVisibility().getDeclaredLabels());
+      if (target instanceof Rule) {
+        Rule rule = (Rule) target;
+        Rule deserializedRule = (Rule) deserializedTarget;
+        for (Attribute attribute : rule.getAttributes()) {
+          Object value = rule.getAttributeContainer().getAttr(attribute.getName());
+          Object deserializedValue =
+              deserializedRule.getAttributeContainer().getAttr(attribute.getName());
+          if (value instanceof BuildType.SelectorList) {
+            // Selector lists do not implement equals().
+            assertThat(deserializedValue.toString()).isEqualTo(value.toString());
+          } else {
+            assertThat(deserializedValue).isEqualTo(value);
+          }
+          assertThat(deserializedRule.isAttributeValueExplicitlySpecified(attribute))
+              .isEqualTo(rule.isAttributeValueExplicitlySpecified(attribute));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRoundTripsRulesAndFiles() throws Exception {
+    Package pkg =
+        createPackage(
+            "genrule(name = 'gen', srcs = ['in.txt'], outs = ['out.txt'], cmd = 'cp $< $@',",
+            "        tags = ['manual'], visibility = ['//visibility:private'])",
+            "filegroup(name = 'files', srcs = select({",
+            "    '//conditions:default': ['a.txt', ':out.txt'],",
+            "}))",
+            "exports_files(['exported.txt'], visibility = ['//other:__pkg__'],",
+            "              licenses = ['notice'])");
+
+    Package deserialized = roundTrip(pkg);
+
+    assertSameTargets(deserialized, pkg);
+    assertThat(deserialized.getTarget("out.txt")).isInstanceOf(OutputFile.class);
+    assertThat(((InputFile) deserialized.getTarget("exported.txt")).getLicense())
+        .isEqualTo(((InputFile) pkg.getTarget("exported.txt")).getLicense());
+  }
+
+  @Test
+  public void testRoundTripsPackageDefaults() throws Exception {
+    Package pkg =
+        createPackage(
+            "package(default_visibility = ['//other:__subpackages__'], default_testonly = 1,",
+            "        default_deprecation = 'old', features = ['feature'])",
+            "licenses(['notice'])",
+            "filegroup(name = 'files', srcs = ['a.txt'])");
+
+    Package deserialized = roundTrip(pkg);
+
+    assertSameTargets(deserialized, pkg);
+    assertThat(deserialized.getDefaultVisibility().getDeclaredLabels())
+        .isEqualTo(pkg.getDefaultVisibility().getDeclaredLabels());
+    assertThat(deserialized.getDefaultTestOnly()).isTrue();
+    assertThat(deserialized.getDefaultDeprecation()).isEqualTo("old");
+    assertThat(deserialized.getFeatures()).containsExactly("feature");
+    assertThat(deserialized.getDefaultLicense()).isEqualTo(pkg.getDefaultLicense());
+  }
+
+  @Test
+  public void testRoundTripsGroups() throws Exception {
+    Package pkg =
+        createPackage(
+            "package_group(name = 'group', packages = ['//pkg/...'], includes = [':other'])",
+            "package_group(name = 'other', packages = ['//other'])",
+            "environment(name = 'env')",
+            "environment_group(name = 'envs', environments = [':env'], defaults = [':env'])");
+
+    Package deserialized = roundTrip(pkg);
+
+    assertSameTargets(deserialized, pkg);
+    PackageGroup group = (PackageGroup) deserialized.getTarget("group");
+    assertThat(group.getContainedPackages()).containsExactly("pkg/...");
+    assertThat(group.getIncludes())
+        .containsExactly(Label.parseAbsolute("//pkg:other", ImmutableMap.of()));
+    EnvironmentGroup environmentGroup = (EnvironmentGroup) deserialized.getTarget("envs");
+    assertThat(environmentGroup.getDefaults())
+        .containsExactly(Label.parseAbsolute("//pkg:env", ImmutableMap.of()));
+  }
+
+  @Test
+  public void testPackageWithErrorsIsNotSerialized() throws Exception {
+    events.setFailFast(false);
+    Package pkg = createPackage("filegroup(name = 'files', srcs = ['a.txt'])", "undefined()");
+    assertThat(pkg.containsErrors()).isTrue();
+
+    try {
+      serialize(pkg);
+      fail();
+    } catch (SerializationException e) {
+      assertThat(e).hasMessageThat().contains("contains errors");
+    }
+  }
+
+  @Test
+  public void testMissingRuleClassFailsDeserialization() throws Exception {
+    Package pkg = createPackage("filegroup(name = 'files', srcs = ['a.txt'])");
+    ByteString serialized = serialize(pkg);
+
+    try {
+      deserialize(pkg, serialized, (name, definitionLabel) -> null);
+      fail();
+    } catch (SerializationException e) {
+      assertThat(e).hasMessageThat().contains("No rule class");
+    }
+  }
+
+  @Test
+  public void testChangedRuleClassFailsDeserialization() throws Exception {
+    Package pkg = createPackage("filegroup(name = 'files', srcs = ['a.txt'])");
+    ByteString serialized = serialize(pkg);
+    RuleClass genrule = packages.factory().getRuleClassProvider().getRuleClassMap().get("genrule");
+
+    try {
+      deserialize(pkg, serialized, (name, definitionLabel) -> genrule);
+      fail();
+    } catch (SerializationException e) {
+      assertThat(e).hasMessageThat().contains("No rule class filegroup");
+    }
+  }
+}
@@ -0,0 +1,101 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.EventBus;
+import com.google.devtools.build.lib.analysis.ConfiguredRuleClassProvider;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.packages.RuleFactory.BuildLangTypedAttributeValuesMap;
+import com.google.devtools.build.lib.packages.util.PackageLoadingTestCase;
+import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import com.google.devtools.build.lib.vfs.RootedPath;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SparseAttributeContainer}. */
+@RunWith(JUnit4.class)
+public class SparseAttributeContainerTest extends PackageLoadingTestCase {
+
+  private final ConfiguredRuleClassProvider provider = TestRuleClassProvider.getRuleClassProvider();
+
+  private Rule createRule(RuleClass ruleClass, AttributeContainer container) throws Exception {
+    Package.Builder pkgBuilder =
+        packageFactory
+            .newPackageBuilder(PackageIdentifier.createInMainRepo("mypkg"), "TESTING")
+            .setFilename(
+                RootedPath.toRootedPath(root, scratch.resolve("/workspace/mypkg/BUILD")));
+    Map<String, Object> attributeValues = new HashMap<>();
+    attributeValues.put("name", "foo");
+    attributeValues.put("srcs", ImmutableList.of("a.cc"));
+    attributeValues.put("alwayslink", true);
+    return RuleFactory.createAndAddRule(
+        pkgBuilder,
+        ruleClass,
+        new BuildLangTypedAttributeValuesMap(attributeValues),
+        new Reporter(new EventBus()),
+        /*ast=*/ null,
+        Location.fromFileAndOffsets(null, 42, 42),
+        /*env=*/ null,
+        container);
+  }
+
+  @Test
+  public void ruleShouldHaveTheSameAttributesAsWithDefaultContainer() throws Exception {
+    RuleClass ruleClass = provider.getRuleClassMap().get("cc_library");
+    Rule expected = createRule(ruleClass, new AttributeContainer(ruleClass));
+    SparseAttributeContainer container = new SparseAttributeContainer(ruleClass);
+    Rule rule = createRule(ruleClass, container);
+
+    for (Attribute attr : ruleClass.getAttributes()) {
+      String name = attr.getName();
+      assertWithMessage(name)
+          .that(rule.getAttributeContainer().getAttr(name))
+          .isEqualTo(expected.getAttributeContainer().getAttr(name));
+      assertWithMessage(name)
+          .that(rule.isAttributeValueExplicitlySpecified(name))
+          .isEqualTo(expected.isAttributeValueExplicitlySpecified(name));
+    }
+    assertThat(container.getStoredValueCount()).isLessThan(ruleClass.getAttributeCount() / 4);
+  }
+
+  @Test
+  public void unsetAttributesShouldBeNull() throws Exception {
+    RuleClass ruleClass =
+        TestRuleClassProvider.getRuleClassProvider().getRuleClassMap().get("testing_dummy_rule");
+    Attribute attribute = ruleClass.getAttributeByName("dummyinteger");
+    SparseAttributeContainer container = new SparseAttributeContainer(ruleClass);
+    assertThat(container.getAttr(attribute.getName())).isNull();
+
+    Object defaultValue = attribute.getDefaultValue(null);
+    container.setAttributeValue(attribute, defaultValue, false);
+    assertThat(container.getAttr(attribute.getName())).isSameAs(defaultValue);
+    assertThat(container.getStoredValueCount()).isEqualTo(0);
+
+    Object someValue = new Object();
+    container.setAttributeValue(attribute, someValue, true);
+    assertThat(container.getAttr(attribute.getName())).isSameAs(someValue);
+    assertThat(container.isAttributeValueExplicitlySpecified(attribute)).isTrue();
+    container.setAttributeValue(attribute, defaultValue, true);
+    assertThat(container.getAttr(attribute.getName())).isSameAs(defaultValue);
+  }
+}
@@ -17,7 +17,10 @@ import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.fail;
 
+import build.bazel.remote.execution.v2.ContentAddressableStorageGrpc.ContentAddressableStorageImplBase;
 import build.bazel.remote.execution.v2.Digest;
+import build.bazel.remote.execution.v2.FindMissingBlobsRequest;
+import build.bazel.remote.execution.v2.FindMissingBlobsResponse;
 import build.bazel.remote.execution.v2.RequestMetadata;
 import com.google.bytestream.ByteStreamGrpc;
 import com.google.bytestream.ByteStreamGrpc.ByteStreamImplBase;
@@ -49,6 +52,7 @@ import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.inprocess.InProcessServerBuilder;
 import io.grpc.stub.StreamObserver;
 import io.grpc.util.MutableHandlerRegistry;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -64,6 +68,8 @@ import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -662,6 +668,158 @@ public class ByteStreamUploaderTest {
     withEmptyMetadata.detach(prevContext);
   }
 
+  @Test
+  public void contentDefinedChunkingShouldOnlyUploadNovelChunks() throws Exception {
+    Context prevContext = withEmptyMetadata.attach();
+    RemoteRetrier retrier =
+        new RemoteRetrier(() -> mockBackoff, (e) -> true, retryService, Retrier.ALLOW_ALL_CALLS);
+    ContentDefinedChunker contentDefinedChunker =
+        new ContentDefinedChunker(DIGEST_UTIL, 64, 256, 1024);
+    ByteStreamUploader uploader =
+        new ByteStreamUploader(
+            INSTANCE_NAME,
+            new ReferenceCountedChannel(channel),
+            null,
+            3,
+            retrier,
+            contentDefinedChunker);
+    SplicingCas cas = new SplicingCas(/* spliceError= */ null);
+    serviceRegistry.addService(cas.casService());
+    serviceRegistry.addService(cas.byteStreamService());
+
+    byte[] blob = new byte[100000];
+    new Random(1).nextBytes(blob);
+    Chunker chunker = Chunker.builder(DIGEST_UTIL).setInput(blob).setChunkSize(CHUNK_SIZE).build();
+    uploader.uploadBlob(chunker, true);
+    assertThat(cas.blobs.get(chunker.digest().getHash())).isEqualTo(blob);
+    long bytesForFirstUpload = cas.blobBytesReceived.getAndSet(0);
+    assertThat(bytesForFirstUpload).isEqualTo(blob.length);
+
+    // Change a few bytes in the middle of the blob: only the chunks around them are uploaded.
+    byte[] changedBlob = blob.clone();
+    for (int i = 50000; i < 50010; i++) {
+      changedBlob[i] ^= 1;
+    }
+    Chunker changedChunker =
+        Chunker.builder(DIGEST_UTIL).setInput(changedBlob).setChunkSize(CHUNK_SIZE).build();
+    uploader.uploadBlob(changedChunker, true);
+    assertThat(cas.blobs.get(changedChunker.digest().getHash())).isEqualTo(changedBlob);
+    assertThat(cas.blobBytesReceived.get()).isAtMost(2 * 1024L);
+
+    // Blobs no larger than the maximum chunk size are uploaded whole.
+    byte[] smallBlob = new byte[1024];
+    new Random(2).nextBytes(smallBlob);
+    Chunker smallChunker =
+        Chunker.builder(DIGEST_UTIL).setInput(smallBlob).setChunkSize(CHUNK_SIZE).build();
+    uploader.uploadBlob(smallChunker, true);
+    assertThat(cas.blobs.get(smallChunker.digest().getHash())).isEqualTo(smallBlob);
+    assertThat(cas.splices.get()).isEqualTo(2);
+
+    Mockito.verifyZeroInteractions(mockBackoff);
+    blockUntilInternalStateConsistent(uploader);
+
+    withEmptyMetadata.detach(prevContext);
+  }
+
+  @Test
+  public void contentDefinedChunkingShouldFallBackIfSplicingUnsupported() throws Exception {
+    Context prevContext = withEmptyMetadata.attach();
+    RemoteRetrier retrier =
+        new RemoteRetrier(
+            () -> mockBackoff,
+            RemoteRetrier.RETRIABLE_GRPC_ERRORS,
+            retryService,
+            Retrier.ALLOW_ALL_CALLS);
+    ContentDefinedChunker contentDefinedChunker =
+        new ContentDefinedChunker(DIGEST_UTIL, 64, 256, 1024);
+    ByteStreamUploader uploader =
+        new ByteStreamUploader(
+            INSTANCE_NAME,
+            new ReferenceCountedChannel(channel),
+            null,
+            3,
+            retrier,
+            contentDefinedChunker);
+    SplicingCas cas = new SplicingCas(Status.INVALID_ARGUMENT);
+    serviceRegistry.addService(cas.casService());
+    serviceRegistry.addService(cas.byteStreamService());
+
+    byte[] blob = new byte[10000];
+    new Random(3).nextBytes(blob);
+    Chunker chunker = Chunker.builder(DIGEST_UTIL).setInput(blob).setChunkSize(CHUNK_SIZE).build();
+    uploader.uploadBlob(chunker, true);
+    assertThat(cas.blobs.get(chunker.digest().getHash())).isEqualTo(blob);
+    assertThat(cas.splices.get()).isEqualTo(1);
+
+    // Once a splice was rejected, blobs are no longer split.
+    byte[] otherBlob = new byte[10000];
+    new Random(4).nextBytes(otherBlob);
+    Chunker otherChunker =
+        Chunker.builder(DIGEST_UTIL).setInput(otherBlob).setChunkSize(CHUNK_SIZE).build();
+    cas.blobBytesReceived.set(0);
+    uploader.uploadBlob(otherChunker, true);
+    assertThat(cas.blobs.get(otherChunker.digest().getHash())).isEqualTo(otherBlob);
+    assertThat(cas.splices.get()).isEqualTo(1);
+    assertThat(cas.blobBytesReceived.get()).isEqualTo(otherBlob.length);
+
+    blockUntilInternalStateConsistent(uploader);
+
+    withEmptyMetadata.detach(prevContext);
+  }
+
+  @Test
+  public void contentDefinedChunkingShouldNotUploadTwiceIfSplicingFails() throws Exception {
+    Context prevContext = withEmptyMetadata.attach();
+    RemoteRetrier retrier =
+        new RemoteRetrier(
+            () -> mockBackoff,
+            RemoteRetrier.RETRIABLE_GRPC_ERRORS,
+            retryService,
+            Retrier.ALLOW_ALL_CALLS);
+    ContentDefinedChunker contentDefinedChunker =
+        new ContentDefinedChunker(DIGEST_UTIL, 64, 256, 1024);
+    ByteStreamUploader uploader =
+        new ByteStreamUploader(
+            INSTANCE_NAME,
+            new ReferenceCountedChannel(channel),
+            null,
+            3,
+            retrier,
+            contentDefinedChunker);
+    SplicingCas cas = new SplicingCas(Status.DATA_LOSS);
+    serviceRegistry.addService(cas.casService());
+    serviceRegistry.addService(cas.byteStreamService());
+
+    byte[] blob = new byte[10000];
+    new Random(5).nextBytes(blob);
+    Chunker chunker = Chunker.builder(DIGEST_UTIL).setInput(blob).setChunkSize(CHUNK_SIZE).build();
+    try {
+      uploader.uploadBlob(chunker, true);
+      fail("Should have thrown an exception.");
+    } catch (IOException e) {
+      assertThat(Status.fromThrowable(e).getCode()).isEqualTo(Code.DATA_LOSS);
+    }
+    // Only the chunks were uploaded, and the blob was not uploaded whole in addition.
+    assertThat(cas.blobs).doesNotContainKey(chunker.digest().getHash());
+    assertThat(cas.blobBytesReceived.get()).isEqualTo(blob.length);
+    assertThat(cas.splices.get()).isEqualTo(1);
+
+    // Once a splice failed, blobs are no longer split.
+    byte[] otherBlob = new byte[10000];
+    new Random(6).nextBytes(otherBlob);
+    Chunker otherChunker =
+        Chunker.builder(DIGEST_UTIL).setInput(otherBlob).setChunkSize(CHUNK_SIZE).build();
+    cas.blobBytesReceived.set(0);
+    uploader.uploadBlob(otherChunker, true);
+    assertThat(cas.blobs.get(otherChunker.digest().getHash())).isEqualTo(otherBlob);
+    assertThat(cas.splices.get()).isEqualTo(1);
+    assertThat(cas.blobBytesReceived.get()).isEqualTo(otherBlob.length);
+
+    blockUntilInternalStateConsistent(uploader);
+
+    withEmptyMetadata.detach(prevContext);
+  }
+
   private static class NoopStreamObserver implements StreamObserver<WriteRequest> {
     @Override
     public void onNext(WriteRequest writeRequest) {
@@ -777,6 +935,100 @@ public class ByteStreamUploaderTest {
     }
   }
 
+  /**
+   * An in-memory CAS implementing {@code FindMissingBlobs} and {@code Write}, which reassembles
+   * blobs from splice manifests like the remote worker does, or fails splices with an error.
+   */
+  private static class SplicingCas {
+
+    @Nullable private final Status spliceError;
+    private final Map<String, byte[]> blobs = Collections.synchronizedMap(new HashMap<>());
+    /** The number of bytes received for blobs, not counting splice manifests. */
+    private final AtomicLong blobBytesReceived = new AtomicLong();
+    private final AtomicInteger splices = new AtomicInteger();
+
+    SplicingCas(@Nullable Status spliceError) {
+      this.spliceError = spliceError;
+    }
+
+    BindableService casService() {
+      return new ContentAddressableStorageImplBase() {
+        @Override
+        public void findMissingBlobs(
+            FindMissingBlobsRequest request,
+            StreamObserver<FindMissingBlobsResponse> responseObserver) {
+          FindMissingBlobsResponse.Builder response = FindMissingBlobsResponse.newBuilder();
+          for (Digest digest : request.getBlobDigestsList()) {
+            if (!blobs.containsKey(digest.getHash())) {
+              response.addMissingBlobDigests(digest);
+            }
+          }
+          responseObserver.onNext(response.build());
+          responseObserver.onCompleted();
+        }
+      };
+    }
+
+    BindableService byteStreamService() {
+      return new ByteStreamImplBase() {
+        @Override
+        public StreamObserver<WriteRequest> write(StreamObserver<WriteResponse> response) {
+          return new StreamObserver<WriteRequest>() {
+            private String resourceName;
+            private final ByteString.Output data = ByteString.newOutput();
+
+            @Override
+            public void onNext(WriteRequest writeRequest) {
+              if (resourceName == null) {
+                resourceName = writeRequest.getResourceName();
+              }
+              try {
+                writeRequest.getData().writeTo(data);
+              } catch (IOException e) {
+                throw new IllegalStateException(e);
+              }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {}
+
+            @Override
+            public void onCompleted() {
+              String[] components = resourceName.split("/");
+              assertThat(components).hasLength(6);
+              String hash = components[4];
+              byte[] blob = data.toByteString().toByteArray();
+              if (components[3].equals(ContentDefinedChunker.SPLICES)) {
+                splices.incrementAndGet();
+                if (spliceError != null) {
+                  response.onError(spliceError.asException());
+                  return;
+                }
+                ByteString.Output spliced = ByteString.newOutput();
+                try {
+                  for (Digest chunk :
+                      ContentDefinedChunker.parseSpliceManifest(new ByteArrayInputStream(blob))) {
+                    spliced.write(blobs.get(chunk.getHash()));
+                  }
+                } catch (IOException e) {
+                  throw new IllegalStateException(e);
+                }
+                blob = spliced.toByteString().toByteArray();
+              } else {
+                assertThat(components[3]).isEqualTo("blobs");
+                blobBytesReceived.addAndGet(blob.length);
+              }
+              assertThat(DIGEST_UTIL.compute(blob).getHash()).isEqualTo(hash);
+              blobs.put(hash, blob);
+              response.onNext(WriteResponse.newBuilder().setCommittedSize(blob.length).build());
+              response.onCompleted();
+            }
+          };
+        }
+      };
+    }
+  }
+
   private void blockUntilInternalStateConsistent(ByteStreamUploader uploader) throws Exception {
     // Poll until all upload futures have been removed from the internal hash map. The polling is
     // necessary, as listeners are executed after Future.get() calls are notified about completion.
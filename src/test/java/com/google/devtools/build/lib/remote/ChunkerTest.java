@@ -163,6 +163,23 @@ public class ChunkerTest {
     Mockito.verify(in.get()).close();
   }
 
+  @Test
+  public void sliceShouldOnlyReturnItsRange() throws IOException {
+    byte[] data = new byte[] {1, 2, 3, 4, 5, 6, 7};
+    byte[] sliceData = new byte[] {3, 4, 5, 6};
+    Chunker chunker = Chunker.builder(digestUtil).setInput(data).setChunkSize(3).build();
+    assertNextEquals(chunker, (byte) 1, (byte) 2, (byte) 3);
+
+    Chunker slice = chunker.slice(2, 4, digestUtil.compute(sliceData));
+    assertThat(slice.digest()).isEqualTo(digestUtil.compute(sliceData));
+    assertNextEquals(slice, (byte) 3, (byte) 4, (byte) 5);
+    assertNextEquals(slice, (byte) 6);
+    assertThat(slice.hasNext()).isFalse();
+
+    // The original chunker is unaffected.
+    assertNextEquals(chunker, (byte) 4, (byte) 5, (byte) 6);
+  }
+
   private void assertNextEquals(Chunker chunker, byte... data) throws IOException {
     assertThat(chunker.hasNext()).isTrue();
     ByteString next = chunker.next().getData();
@@ -0,0 +1,131 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import build.bazel.remote.execution.v2.Digest;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.remote.ContentDefinedChunker.ChunkRange;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.protobuf.ByteString;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ContentDefinedChunker}. */
+@RunWith(JUnit4.class)
+public class ContentDefinedChunkerTest {
+
+  private static final int MIN_CHUNK_SIZE = 64;
+  private static final int AVG_CHUNK_SIZE = 256;
+  private static final int MAX_CHUNK_SIZE = 1024;
+
+  private final DigestUtil digestUtil = new DigestUtil(DigestHashFunction.SHA256);
+  private final ContentDefinedChunker contentDefinedChunker =
+      new ContentDefinedChunker(digestUtil, MIN_CHUNK_SIZE, AVG_CHUNK_SIZE, MAX_CHUNK_SIZE);
+
+  @Test
+  public void chunksShouldCoverBlob() throws IOException {
+    byte[] blob = randomBytes(100000, 1);
+
+    ImmutableList<ChunkRange> ranges = split(blob);
+
+    long offset = 0;
+    for (int i = 0; i < ranges.size(); i++) {
+      ChunkRange range = ranges.get(i);
+      assertThat(range.getOffset()).isEqualTo(offset);
+      assertThat(range.getLength()).isAtMost((long) MAX_CHUNK_SIZE);
+      if (i < ranges.size() - 1) {
+        assertThat(range.getLength()).isAtLeast((long) MIN_CHUNK_SIZE);
+      }
+      byte[] contents =
+          Arrays.copyOfRange(blob, (int) offset, (int) (offset + range.getLength()));
+      assertThat(range.getDigest()).isEqualTo(digestUtil.compute(contents));
+      offset += range.getLength();
+    }
+    assertThat(offset).isEqualTo(blob.length);
+    // Boundaries are content-defined, so most chunks should end before the maximum size.
+    assertThat(ranges.size()).isGreaterThan(blob.length / MAX_CHUNK_SIZE * 2);
+  }
+
+  @Test
+  public void insertionShouldOnlyChangeNearbyChunks() throws IOException {
+    byte[] blob = randomBytes(100000, 2);
+    ByteArrayOutputStream edited = new ByteArrayOutputStream();
+    edited.write(blob, 0, 50000);
+    edited.write(randomBytes(100, 3));
+    edited.write(blob, 50000, 50000);
+
+    Set<Digest> before = digests(split(blob));
+    Set<Digest> after = digests(split(edited.toByteArray()));
+
+    Set<Digest> changed = new HashSet<>(after);
+    changed.removeAll(before);
+    assertThat(changed.size()).isAtMost(3);
+  }
+
+  @Test
+  public void splitShouldBeDeterministic() throws IOException {
+    byte[] blob = randomBytes(10000, 4);
+    ContentDefinedChunker other =
+        new ContentDefinedChunker(digestUtil, MIN_CHUNK_SIZE, AVG_CHUNK_SIZE, MAX_CHUNK_SIZE);
+    Chunker chunker = Chunker.builder(digestUtil).setInput(blob).setChunkSize(100).build();
+
+    assertThat(digests(other.split(chunker))).containsExactlyElementsIn(digests(split(blob)));
+  }
+
+  @Test
+  public void spliceManifestShouldRoundTrip() throws IOException {
+    ImmutableList<ChunkRange> ranges = split(randomBytes(10000, 5));
+
+    Chunker manifest = contentDefinedChunker.newSpliceManifest(ranges);
+    ByteString.Output manifestBytes = ByteString.newOutput();
+    while (manifest.hasNext()) {
+      manifest.next().getData().writeTo(manifestBytes);
+    }
+
+    ImmutableList<Digest> parsed =
+        ContentDefinedChunker.parseSpliceManifest(manifestBytes.toByteString().newInput());
+    assertThat(parsed).hasSize(ranges.size());
+    for (int i = 0; i < ranges.size(); i++) {
+      assertThat(parsed.get(i)).isEqualTo(ranges.get(i).getDigest());
+    }
+  }
+
+  private ImmutableList<ChunkRange> split(byte[] blob) throws IOException {
+    return contentDefinedChunker.split(Chunker.builder(digestUtil).setInput(blob).build());
+  }
+
+  private static Set<Digest> digests(ImmutableList<ChunkRange> ranges) {
+    Set<Digest> digests = new HashSet<>();
+    for (ChunkRange range : ranges) {
+      digests.add(range.getDigest());
+    }
+    return digests;
+  }
+
+  private static byte[] randomBytes(int size, long seed) {
+    byte[] bytes = new byte[size];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,207 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+
+import build.bazel.remote.execution.v2.Digest;
+import build.bazel.remote.execution.v2.FindMissingBlobsRequest;
+import build.bazel.remote.execution.v2.FindMissingBlobsResponse;
+import build.bazel.remote.execution.v2.RequestMetadata;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import com.google.devtools.build.lib.remote.util.TracingMetadataUtils;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link MissingDigestsFinder}. */
+@RunWith(JUnit4.class)
+public class MissingDigestsFinderTest {
+
+  private static final DigestUtil DIGEST_UTIL = new DigestUtil(DigestHashFunction.SHA256);
+
+  private final Digest foo = DIGEST_UTIL.computeAsUtf8("foo");
+  private final Digest bar = DIGEST_UTIL.computeAsUtf8("bar");
+  private final Digest baz = DIGEST_UTIL.computeAsUtf8("baz");
+
+  /** A fake CAS that records the requests it receives. */
+  private static class FakeCas implements MissingDigestsFinder.FindMissingBlobsCall {
+    private final Set<Digest> blobs = Collections.synchronizedSet(new HashSet<>());
+    private final List<FindMissingBlobsRequest> requests =
+        Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public ListenableFuture<FindMissingBlobsResponse> call(FindMissingBlobsRequest request) {
+      requests.add(request);
+      FindMissingBlobsResponse.Builder response = FindMissingBlobsResponse.newBuilder();
+      for (Digest digest : request.getBlobDigestsList()) {
+        if (!blobs.contains(digest)) {
+          response.addMissingBlobDigests(digest);
+        }
+      }
+      return Futures.immediateFuture(response.build());
+    }
+  }
+
+  @Test
+  public void presentDigestsShouldNotBeQueriedAgain() throws Exception {
+    FakeCas cas = new FakeCas();
+    cas.blobs.add(foo);
+    MissingDigestsFinder finder = new MissingDigestsFinder("instance", 100, 0, cas);
+
+    assertThat(finder.findMissingDigests(ImmutableList.of(foo, bar, foo)).get())
+        .containsExactly(bar);
+    assertThat(cas.requests).hasSize(1);
+    assertThat(cas.requests.get(0).getInstanceName()).isEqualTo("instance");
+    assertThat(cas.requests.get(0).getBlobDigestsList()).containsExactly(foo, bar);
+
+    finder.markPresent(ImmutableList.of(baz));
+    assertThat(finder.findMissingDigests(ImmutableList.of(foo, bar, baz)).get())
+        .containsExactly(bar);
+    assertThat(cas.requests).hasSize(2);
+    assertThat(cas.requests.get(1).getBlobDigestsList()).containsExactly(bar);
+
+    assertThat(finder.findMissingDigests(ImmutableList.of(foo, baz)).get()).isEmpty();
+    assertThat(finder.getRpcCount()).isEqualTo(2);
+    assertThat(finder.getDigestsSentCount()).isEqualTo(3);
+
+    // The remote cache may have evicted baz after all.
+    assertThat(finder.findMissingDigests(ImmutableList.of(baz), false).get())
+        .containsExactly(baz);
+    assertThat(finder.getRpcCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void requestsShouldBeSplitAtTheMaximumSize() throws Exception {
+    FakeCas cas = new FakeCas();
+    MissingDigestsFinder finder = new MissingDigestsFinder("", 2, 0, cas);
+
+    assertThat(finder.findMissingDigests(ImmutableList.of(foo, bar, baz)).get())
+        .containsExactly(foo, bar, baz);
+    assertThat(cas.requests).hasSize(2);
+    assertThat(cas.requests.get(0).getBlobDigestsList()).containsExactly(foo, bar);
+    assertThat(cas.requests.get(1).getBlobDigestsList()).containsExactly(baz);
+  }
+
+  @Test
+  public void digestsInFlightShouldNotBeQueriedAgain() throws Exception {
+    List<SettableFuture<FindMissingBlobsResponse>> responses = new ArrayList<>();
+    List<FindMissingBlobsRequest> requests = new ArrayList<>();
+    MissingDigestsFinder finder =
+        new MissingDigestsFinder(
+            "",
+            100,
+            0,
+            (request) -> {
+              requests.add(request);
+              SettableFuture<FindMissingBlobsResponse> response = SettableFuture.create();
+              responses.add(response);
+              return response;
+            });
+
+    ListenableFuture<ImmutableSet<Digest>> first = finder.findMissingDigests(ImmutableList.of(foo));
+    ListenableFuture<ImmutableSet<Digest>> second =
+        finder.findMissingDigests(ImmutableList.of(foo, bar));
+    assertThat(requests).hasSize(2);
+    assertThat(requests.get(1).getBlobDigestsList()).containsExactly(bar);
+
+    responses.get(0).set(FindMissingBlobsResponse.newBuilder().addMissingBlobDigests(foo).build());
+    assertThat(first.get()).containsExactly(foo);
+    assertThat(second.isDone()).isFalse();
+    responses.get(1).set(FindMissingBlobsResponse.getDefaultInstance());
+    assertThat(second.get()).containsExactly(foo);
+  }
+
+  @Test
+  public void lookupsWithinTheWindowShouldBeBatched() throws Exception {
+    FakeCas cas = new FakeCas();
+    cas.blobs.add(bar);
+    MissingDigestsFinder finder = new MissingDigestsFinder("", 100, 100, cas);
+
+    ListenableFuture<ImmutableSet<Digest>> first =
+        finder.findMissingDigests(ImmutableList.of(foo, bar));
+    ListenableFuture<ImmutableSet<Digest>> second =
+        finder.findMissingDigests(ImmutableList.of(bar, baz));
+    assertThat(first.get()).containsExactly(foo);
+    assertThat(second.get()).containsExactly(baz);
+    assertThat(cas.requests).hasSize(1);
+    assertThat(cas.requests.get(0).getBlobDigestsList()).containsExactly(foo, bar, baz);
+    finder.close();
+  }
+
+  @Test
+  public void batchesShouldNotBeAttributedToTheFirstAction() throws Exception {
+    List<RequestMetadata> metadata = Collections.synchronizedList(new ArrayList<>());
+    MissingDigestsFinder finder =
+        new MissingDigestsFinder(
+            "",
+            100,
+            100,
+            (request) -> {
+              metadata.add(TracingMetadataUtils.fromCurrentContext());
+              return Futures.immediateFuture(FindMissingBlobsResponse.getDefaultInstance());
+            });
+
+    ListenableFuture<ImmutableSet<Digest>> first =
+        TracingMetadataUtils.contextWithMetadata("build", "command", "first")
+            .call(() -> finder.findMissingDigests(ImmutableList.of(foo)));
+    ListenableFuture<ImmutableSet<Digest>> second =
+        TracingMetadataUtils.contextWithMetadata("build", "command", "second")
+            .call(() -> finder.findMissingDigests(ImmutableList.of(bar)));
+    assertThat(first.get()).isEmpty();
+    assertThat(second.get()).isEmpty();
+    assertThat(metadata).hasSize(1);
+    assertThat(metadata.get(0).getCorrelatedInvocationsId()).isEqualTo("build");
+    assertThat(metadata.get(0).getToolInvocationId()).isEqualTo("command");
+    assertThat(metadata.get(0).getActionId()).isEqualTo("find-missing-blobs");
+    finder.close();
+  }
+
+  @Test
+  public void errorsShouldBePropagatedAndNotCached() throws Exception {
+    FakeCas cas = new FakeCas();
+    AtomicBoolean fail = new AtomicBoolean(true);
+    MissingDigestsFinder finder =
+        new MissingDigestsFinder(
+            "",
+            100,
+            0,
+            (request) ->
+                fail.getAndSet(false)
+                    ? Futures.immediateFailedFuture(Status.UNAVAILABLE.asRuntimeException())
+                    : cas.call(request));
+
+    ExecutionException e =
+        assertThrows(
+            ExecutionException.class,
+            () -> finder.findMissingDigests(ImmutableList.of(foo)).get());
+    assertThat(Status.fromThrowable(e.getCause()).getCode()).isEqualTo(Status.Code.UNAVAILABLE);
+    assertThat(finder.findMissingDigests(ImmutableList.of(foo)).get()).containsExactly(foo);
+  }
+}
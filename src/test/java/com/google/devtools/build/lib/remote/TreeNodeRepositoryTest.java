@@ -22,6 +22,7 @@ import build.bazel.remote.execution.v2.DirectoryNode;
 import build.bazel.remote.execution.v2.FileNode;
 import build.bazel.remote.execution.v2.SymlinkNode;
 import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.actions.ActionInput;
 import com.google.devtools.build.lib.actions.ActionInputHelper;
 import com.google.devtools.build.lib.actions.Artifact;
@@ -69,6 +70,13 @@ public class TreeNodeRepositoryTest {
     return new TreeNodeRepository(execRoot, inputFileCache, digestUtil, uploadSymlinks);
   }
 
+  private TreeNodeRepository createTestTreeNodeRepository(
+      TreeNodeRepository.MerkleTreeCache merkleTreeCache) {
+    MetadataProvider inputFileCache =
+        new SingleBuildFileCache(execRoot.getPathString(), scratch.getFileSystem());
+    return new TreeNodeRepository(execRoot, inputFileCache, digestUtil, true, merkleTreeCache);
+  }
+
   private TreeNodeRepository createTestTreeNodeRepository() {
     return createTestTreeNodeRepository(true);
   }
@@ -118,7 +126,7 @@ public class TreeNodeRepositoryTest {
 
     Map<Digest, Directory> directories = new HashMap<>();
     Map<Digest, ActionInput> actionInputs = new HashMap<>();
-    repo.getDataFromDigests(digests, actionInputs, directories);
+    repo.getDataFromDigests(root, digests, actionInputs, directories);
     assertThat(actionInputs.values()).containsExactly(bar, foo);
     assertThat(directories).hasSize(2);
     Directory rootDirectory = directories.get(rootDigest);
@@ -143,6 +151,49 @@ public class TreeNodeRepositoryTest {
     assertThat(repo.getAllDigests(root)).hasSize(3);
   }
 
+  @Test
+  @SuppressWarnings("ReferenceEquality")
+  public void testSubtreesSharedAcrossRepositories() throws Exception {
+    Artifact fooCc = new Artifact(scratch.file("/exec/root/a/foo.cc", "1"), rootDir);
+    Artifact fooH = new Artifact(scratch.file("/exec/root/a/foo.h", "2"), rootDir);
+    Artifact bar = new Artifact(scratch.file("/exec/root/b/bar.txt", "3"), rootDir);
+    Artifact baz = new Artifact(scratch.file("/exec/root/c/baz.txt", "4"), rootDir);
+    TreeNodeRepository.MerkleTreeCache merkleTreeCache = new TreeNodeRepository.MerkleTreeCache();
+
+    TreeNodeRepository repo1 = createTestTreeNodeRepository(merkleTreeCache);
+    TreeNode root1 = buildFromActionInputs(repo1, fooCc, fooH, bar);
+    repo1.computeMerkleDigests(root1);
+    assertThat(merkleTreeCache.size()).isEqualTo(3); // root, a, b
+
+    TreeNodeRepository repo2 = createTestTreeNodeRepository(merkleTreeCache);
+    TreeNode root2 = buildFromActionInputs(repo2, fooCc, fooH, baz);
+    TreeNode aNode = root2.getChildEntries().get(0).getChild();
+    assertThat(aNode == root1.getChildEntries().get(0).getChild()).isTrue();
+    repo2.computeMerkleDigests(root2);
+    // Only the new root and c were digested.
+    assertThat(merkleTreeCache.size()).isEqualTo(5);
+    assertThat(repo2.getMerkleDigest(aNode)).isEqualTo(repo1.getMerkleDigest(aNode));
+  }
+
+  @Test
+  public void testEvictedDirectoriesAreRecomputed() throws Exception {
+    Artifact foo = new Artifact(scratch.file("/exec/root/a/b/foo", "1"), rootDir);
+    Artifact bar = new Artifact(scratch.file("/exec/root/c/bar", "2"), rootDir);
+    TreeNodeRepository repo = createTestTreeNodeRepository();
+    TreeNode root = buildFromActionInputs(repo, foo, bar);
+    repo.computeMerkleDigests(root);
+    ImmutableList<Directory> directories = repo.treeToDirectories(root);
+    ImmutableCollection<Digest> digests = repo.getAllDigests(root);
+
+    TreeNodeRepository.MerkleTreeCache tinyCache = new TreeNodeRepository.MerkleTreeCache(1);
+    TreeNodeRepository tinyRepo = createTestTreeNodeRepository(tinyCache);
+    TreeNode tinyRoot = buildFromActionInputs(tinyRepo, foo, bar);
+    tinyRepo.computeMerkleDigests(tinyRoot);
+    assertThat(tinyCache.size()).isEqualTo(1);
+    assertThat(tinyRepo.treeToDirectories(tinyRoot)).containsExactlyElementsIn(directories);
+    assertThat(tinyRepo.getAllDigests(tinyRoot)).containsExactlyElementsIn(digests);
+  }
+
   @Test
   public void testEmptyTree() throws Exception {
     SortedMap<PathFragment, ActionInput> inputs = new TreeMap<>();
@@ -202,7 +253,7 @@ public class TreeNodeRepositoryTest {
 
     Map<Digest, Directory> directories = new HashMap<>();
     Map<Digest, ActionInput> actionInputs = new HashMap<>();
-    repo.getDataFromDigests(digests, actionInputs, directories);
+    repo.getDataFromDigests(root, digests, actionInputs, directories);
     assertThat(actionInputs.values()).containsExactly(bar, fooH, fooCc, baz);
     assertThat(directories).hasSize(4); // root, root/a, root/a/foo, and root/a-client
     Directory rootDirectory = directories.get(rootDigest);
@@ -0,0 +1,334 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote.blobstore;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.remote.util.Utils.getFromFuture;
+
+import com.google.devtools.build.lib.clock.JavaClock;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link OnDiskBlobStore}. */
+@RunWith(JUnit4.class)
+public class OnDiskBlobStoreTest {
+
+  private Path root;
+
+  @Before
+  public final void setUp() throws Exception {
+    root = new InMemoryFileSystem(new JavaClock()).getPath("/cache");
+    root.createDirectoryAndParents();
+  }
+
+  @Test
+  public void unboundedStoreShouldKeepAllEntries() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(root);
+    for (int i = 0; i < 10; i++) {
+      put(store, "key" + i, 100);
+    }
+    store.shutdown();
+
+    for (int i = 0; i < 10; i++) {
+      assertThat(store.containsKey("key" + i)).isTrue();
+    }
+    for (Path entry : root.getDirectoryEntries()) {
+      assertThat(entry.getBaseName()).doesNotContain(OnDiskBlobStore.INDEX_FILE);
+    }
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesShouldBeEvicted() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(root, 1000, "server");
+    for (int i = 0; i < 10; i++) {
+      put(store, "key" + i, 100);
+    }
+    store.waitForEviction();
+    assertThat(store.getSizeBytes()).isEqualTo(1000L);
+
+    // Reading key0 makes key1 the least recently used entry.
+    assertThat(get(store, "key0")).hasLength(100);
+    put(store, "key10", 100);
+    store.waitForEviction();
+
+    assertThat(store.getSizeBytes()).isAtMost(900L);
+    assertThat(store.containsKey("key0")).isTrue();
+    assertThat(store.containsKey("key1")).isFalse();
+    assertThat(root.getChild("key1").exists()).isFalse();
+    assertThat(store.containsKey("key10")).isTrue();
+    assertThat(get(store, "key1")).isNull();
+    assertThat(store.getStatsSummary()).startsWith("1 hits, 1 misses");
+    store.shutdown();
+  }
+
+  @Test
+  public void indexShouldBeRestoredAfterClose() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(root, 1000, "server");
+    for (int i = 0; i < 5; i++) {
+      put(store, "key" + i, 200);
+    }
+    assertThat(store.containsKey("key0")).isTrue();
+    store.shutdown();
+    assertThat(store.getIndexFile().exists()).isTrue();
+
+    store = new OnDiskBlobStore(root, 1000, "server");
+    assertThat(store.getSizeBytes()).isEqualTo(1000L);
+    put(store, "key5", 200);
+    store.waitForEviction();
+
+    // key0 was used last before the restart, so key1 and key2 are evicted first.
+    assertThat(store.containsKey("key0")).isTrue();
+    assertThat(store.containsKey("key1")).isFalse();
+    assertThat(store.containsKey("key2")).isFalse();
+    assertThat(store.containsKey("key3")).isTrue();
+    store.shutdown();
+  }
+
+  @Test
+  public void corruptIndexShouldBeRebuiltFromTheDirectory() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(root);
+    put(store, "key0", 300);
+    put(store, "key1", 400);
+    Path indexFile = root.getChild(OnDiskBlobStore.INDEX_FILE + "_server");
+    FileSystemUtils.writeContentAsLatin1(indexFile, "garbage");
+
+    store = new OnDiskBlobStore(root, 1000, "server");
+    assertThat(store.getIndexFile()).isEqualTo(indexFile);
+    assertThat(store.getSizeBytes()).isEqualTo(700L);
+    put(store, "key2", 400);
+    store.waitForEviction();
+    assertThat(store.getSizeBytes()).isAtMost(900L);
+    store.shutdown();
+  }
+
+  @Test
+  public void indexShouldBeSavedAfterEviction() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(root, 1000, "server");
+    for (int i = 0; i < 6; i++) {
+      put(store, "key" + i, 200);
+    }
+    store.waitForEviction();
+    assertThat(store.getSizeBytes()).isEqualTo(800L);
+
+    // The restarted server reads the index saved by the eviction instead of scanning the
+    // directory, which would count the file written behind its back.
+    FileSystemUtils.writeContentAsLatin1(root.getChild("unknown"), "unknown");
+    store = new OnDiskBlobStore(root, 1000, "server");
+    assertThat(store.getSizeBytes()).isEqualTo(800L);
+    assertThat(store.containsKey("key0")).isFalse();
+    assertThat(store.containsKey("key2")).isTrue();
+    store.shutdown();
+  }
+
+  @Test
+  public void serversSharingTheDirectoryShouldKeepTheirOwnIndex() throws Exception {
+    OnDiskBlobStore first = new OnDiskBlobStore(root, 1000, "first");
+    OnDiskBlobStore second = new OnDiskBlobStore(root, 1000, "second");
+    put(first, "key0", 100);
+    put(second, "key1", 200);
+    first.shutdown();
+    second.shutdown();
+
+    first = new OnDiskBlobStore(root, 1000, "first");
+    assertThat(first.getSizeBytes()).isEqualTo(100L);
+    // Entries written by the other server are counted once they are used.
+    assertThat(first.containsKey("key1")).isTrue();
+    assertThat(first.getSizeBytes()).isEqualTo(300L);
+    first.shutdown();
+  }
+
+  @Test
+  public void evictionShouldNotDeleteEntriesThatArePutAgain() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(root, 1000, "server");
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      futures.add(
+          executor.submit(
+              () -> {
+                for (int i = 0; i < 500; i++) {
+                  String key = "key" + (i % 30);
+                  put(store, key, 100);
+                  store.containsKey(key);
+                }
+                return null;
+              }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    store.waitForEviction();
+
+    // Every entry that is counted is still on disk.
+    long sizeOnDisk = 0;
+    for (Path entry : root.getDirectoryEntries()) {
+      if (entry.getBaseName().startsWith("key")) {
+        sizeOnDisk += entry.getFileSize();
+      }
+    }
+    assertThat(sizeOnDisk).isEqualTo(store.getSizeBytes());
+    store.shutdown();
+  }
+
+  @Test
+  public void changesShouldBeAppendedToTheJournal() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(root, 10000, "server");
+    for (int i = 0; i < 5; i++) {
+      put(store, "key" + i, 100);
+    }
+    store.shutdown();
+    Path journalFile = root.getChild(store.getIndexFile().getBaseName() + ".journal");
+    long indexSize = store.getIndexFile().getFileSize();
+
+    store = new OnDiskBlobStore(root, 10000, "server");
+    put(store, "key5", 100);
+    assertThat(store.containsKey("key0")).isTrue();
+    store.shutdown();
+    // The snapshot is not rewritten for a few changes.
+    assertThat(store.getIndexFile().getFileSize()).isEqualTo(indexSize);
+    assertThat(journalFile.exists()).isTrue();
+
+    store = new OnDiskBlobStore(root, 600, "server");
+    assertThat(store.getSizeBytes()).isEqualTo(600L);
+    put(store, "key6", 100);
+    store.waitForEviction();
+    // key0 was used after key5 was put, so key1 and key2 are evicted first.
+    assertThat(store.containsKey("key0")).isTrue();
+    assertThat(store.containsKey("key1")).isFalse();
+    assertThat(store.containsKey("key2")).isFalse();
+    assertThat(store.containsKey("key3")).isTrue();
+    store.shutdown();
+  }
+
+  @Test
+  public void journalOfAnotherSnapshotShouldBeIgnored() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(root, 10000, "server");
+    put(store, "key0", 100);
+    store.shutdown();
+    Path journalFile = root.getChild(store.getIndexFile().getBaseName() + ".journal");
+    store = new OnDiskBlobStore(root, 10000, "server");
+    put(store, "key1", 100);
+    store.shutdown();
+    byte[] staleJournal = FileSystemUtils.readContent(journalFile);
+    journalFile.delete();
+    root.getChild("key1").delete();
+
+    // Compacts the journal into a new snapshot, as the journal outgrows the index.
+    store = new OnDiskBlobStore(root, 10000, "server");
+    for (int i = 0; i < 2000; i++) {
+      assertThat(store.containsKey("key0")).isTrue();
+    }
+    store.shutdown();
+
+    // As if a crash had left the journal of the previous snapshot behind.
+    FileSystemUtils.writeContent(journalFile, staleJournal);
+    store = new OnDiskBlobStore(root, 10000, "server");
+    assertThat(store.getSizeBytes()).isEqualTo(100L);
+    assertThat(journalFile.exists()).isFalse();
+    store.shutdown();
+  }
+
+  @Test
+  public void partialJournalRecordShouldBeIgnored() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(root, 10000, "server");
+    put(store, "key0", 100);
+    store.shutdown();
+    store = new OnDiskBlobStore(root, 10000, "server");
+    put(store, "key1", 100);
+    store.shutdown();
+    Path journalFile = root.getChild(store.getIndexFile().getBaseName() + ".journal");
+    try (OutputStream out = journalFile.getOutputStream(/* append= */ true)) {
+      out.write(new byte[] {1, 0, 10, 'k'});
+    }
+
+    store = new OnDiskBlobStore(root, 10000, "server");
+    assertThat(store.getSizeBytes()).isEqualTo(200L);
+    put(store, "key2", 100);
+    store.shutdown();
+    store = new OnDiskBlobStore(root, 10000, "server");
+    assertThat(store.getSizeBytes()).isEqualTo(300L);
+    store.shutdown();
+  }
+
+  @Test
+  public void closeShouldSaveTheIndexAndKeepTheStoreUsable() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(root, 1000, "server");
+    put(store, "key0", 100);
+    store.close();
+    assertThat(store.getIndexFile().exists()).isTrue();
+
+    // As the next command does with the store kept by the server.
+    for (int i = 1; i < 11; i++) {
+      put(store, "key" + i, 100);
+    }
+    store.waitForEviction();
+    assertThat(store.containsKey("key0")).isFalse();
+    assertThat(store.containsKey("key1")).isFalse();
+    assertThat(store.containsKey("key2")).isTrue();
+    store.shutdown();
+
+    store = new OnDiskBlobStore(root, 1000, "server");
+    assertThat(store.getSizeBytes()).isEqualTo(900L);
+    store.shutdown();
+  }
+
+  @Test
+  public void onlyDeletedEntriesShouldBeCountedAsEvicted() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(root, 1000, "server");
+    for (int i = 0; i < 10; i++) {
+      put(store, "key" + i, 100);
+    }
+    // Deleted behind the back of the store.
+    root.getChild("key0").delete();
+    put(store, "key10", 100);
+    store.waitForEviction();
+
+    assertThat(store.getStatsSummary()).contains("1 entries (100 bytes) evicted");
+    store.shutdown();
+  }
+
+  @Test
+  public void entryDeletedWhileBeingReadShouldBeAMiss() throws Exception {
+    OnDiskBlobStore store = new OnDiskBlobStore(root, 1000, "server");
+    put(store, "key0", 100);
+    root.getChild("key0").delete();
+
+    assertThat(get(store, "key0")).isNull();
+    assertThat(store.getStatsSummary()).startsWith("0 hits, 1 misses");
+    store.shutdown();
+  }
+
+  private static void put(OnDiskBlobStore store, String key, int size) throws Exception {
+    store.put(key, size, new ByteArrayInputStream(new byte[size]));
+  }
+
+  private static byte[] get(OnDiskBlobStore store, String key) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    return getFromFuture(store.get(key, out)) ? out.toByteArray() : null;
+  }
+}
@@ -0,0 +1,89 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.runtime;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.clock.JavaClock;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CriticalPathHistory}. */
+@RunWith(JUnit4.class)
+public class CriticalPathHistoryTest {
+
+  private Path file;
+
+  @Before
+  public final void setUp() throws Exception {
+    Path dir = new InMemoryFileSystem(new JavaClock()).getPath("/output_base/action_cache");
+    dir.createDirectoryAndParents();
+    file = dir.getChild("critical_path");
+  }
+
+  @Test
+  public void updateShouldReplaceRecordedActions() {
+    CriticalPathHistory history = new CriticalPathHistory(10);
+    history.update(ImmutableMap.of("out/a", 10L, "out/b", 20L));
+    history.update(ImmutableMap.of("out/b", 5L, "out/c", 30L));
+
+    assertThat(history.getRemainingCriticalPathNanos("out/a")).isEqualTo(10L);
+    assertThat(history.getRemainingCriticalPathNanos("out/b")).isEqualTo(5L);
+    assertThat(history.getRemainingCriticalPathNanos("out/c")).isEqualTo(30L);
+    assertThat(history.getRemainingCriticalPathNanos("out/unknown")).isEqualTo(0L);
+  }
+
+  @Test
+  public void shortestPathsShouldBeDroppedWhenFull() {
+    CriticalPathHistory history = new CriticalPathHistory(2);
+    history.update(ImmutableMap.of("out/a", 10L, "out/b", 20L, "out/c", 30L));
+
+    assertThat(history.size()).isEqualTo(2);
+    assertThat(history.getRemainingCriticalPathNanos("out/a")).isEqualTo(0L);
+    assertThat(history.getRemainingCriticalPathNanos("out/c")).isEqualTo(30L);
+  }
+
+  @Test
+  public void historyShouldRoundTrip() throws Exception {
+    CriticalPathHistory history = new CriticalPathHistory(10);
+    history.update(ImmutableMap.of("out/a", 10L, "out/b", 20L));
+    history.save(file);
+
+    CriticalPathHistory loaded = CriticalPathHistory.load(file, 10);
+    assertThat(loaded.size()).isEqualTo(2);
+    assertThat(loaded.getRemainingCriticalPathNanos("out/b")).isEqualTo(20L);
+
+    // A smaller bound applies to the loaded history too.
+    assertThat(CriticalPathHistory.load(file, 1).size()).isEqualTo(1);
+  }
+
+  @Test
+  public void missingFileShouldLoadAsEmpty() throws Exception {
+    assertThat(CriticalPathHistory.load(file, 10).size()).isEqualTo(0);
+  }
+
+  @Test
+  public void malformedFileShouldFailToLoad() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(file, "not a critical path history");
+    assertThrows(IOException.class, () -> CriticalPathHistory.load(file, 10));
+  }
+}
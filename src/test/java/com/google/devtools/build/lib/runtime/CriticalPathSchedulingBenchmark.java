@@ -0,0 +1,154 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.runtime;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ArtifactRoot;
+import com.google.devtools.build.lib.actions.ResourceManager;
+import com.google.devtools.build.lib.actions.ResourceManager.ResourceHandle;
+import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil.NullAction;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the wall time of executing a synthetic, skewed graph of actions on a few CPUs, with and
+ * without starting the actions with the longest critical path recorded by a previous build first.
+ *
+ * <p>The graph is a chain of slow actions, each depending on the previous one, and many short
+ * independent actions that are ready before the chain. The actions sleep for their duration while
+ * holding one CPU from the {@link ResourceManager}, so the wall time only depends on the order in
+ * which they are granted CPUs.
+ */
+public class CriticalPathSchedulingBenchmark {
+  @Param({"4"})
+  int cpus;
+
+  @Param({"10"})
+  int chainLength;
+
+  @Param({"20"})
+  int chainActionMillis;
+
+  @Param({"200"})
+  int shortActions;
+
+  @Param({"5"})
+  int shortActionMillis;
+
+  @Param({"false", "true"})
+  boolean criticalPathFirst;
+
+  private static final class SyntheticAction {
+    final NullAction action;
+    final long millis;
+    final SyntheticAction dependency;
+
+    SyntheticAction(Artifact output, long millis, SyntheticAction dependency) {
+      this.action = new NullAction(output);
+      this.millis = millis;
+      this.dependency = dependency;
+    }
+  }
+
+  private ResourceManager resourceManager;
+  private ExecutorService executor;
+  // In the order in which they are submitted for execution.
+  private List<SyntheticAction> actions;
+
+  @BeforeExperiment
+  void setUp() {
+    Path execRoot = new InMemoryFileSystem().getPath("/execroot");
+    ArtifactRoot root = ArtifactRoot.asDerivedRoot(execRoot, execRoot.getChild("out"));
+    actions = new ArrayList<>();
+    Map<String, Long> remainingNanos = new HashMap<>();
+    for (int i = 0; i < shortActions; i++) {
+      Artifact output = new Artifact(PathFragment.create("short" + i), root);
+      actions.add(new SyntheticAction(output, shortActionMillis, null));
+      remainingNanos.put(
+          output.getExecPathString(), TimeUnit.MILLISECONDS.toNanos(shortActionMillis));
+    }
+    SyntheticAction previous = null;
+    for (int i = 0; i < chainLength; i++) {
+      Artifact output = new Artifact(PathFragment.create("chain" + i), root);
+      previous = new SyntheticAction(output, chainActionMillis, previous);
+      actions.add(previous);
+      remainingNanos.put(
+          output.getExecPathString(),
+          TimeUnit.MILLISECONDS.toNanos((long) (chainLength - i) * chainActionMillis));
+    }
+    // What the previous build recorded.
+    CriticalPathHistory history = new CriticalPathHistory(actions.size());
+    history.update(remainingNanos);
+
+    resourceManager = ResourceManager.instanceForTestingOnly();
+    resourceManager.setRamUtilizationPercentage(100);
+    resourceManager.setAvailableResources(
+        ResourceSet.create(/*memoryMb=*/ 1000, cpus, /*localTestCount=*/ 1));
+    resourceManager.resetResourceUsage();
+    resourceManager.setPrioritizer(
+        criticalPathFirst ? history::getRemainingCriticalPathNanos : null);
+    // A thread per action, like the Skyframe threads waiting for resources.
+    executor = Executors.newFixedThreadPool(actions.size());
+  }
+
+  @AfterExperiment
+  void tearDown() {
+    resourceManager.setPrioritizer(null);
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  int execute(int reps) throws Exception {
+    int executed = 0;
+    for (int i = 0; i < reps; i++) {
+      Map<SyntheticAction, CompletableFuture<Void>> done = new HashMap<>();
+      for (SyntheticAction action : actions) {
+        CompletableFuture<Void> dependencyDone =
+            action.dependency == null
+                ? CompletableFuture.completedFuture(null)
+                : done.get(action.dependency);
+        done.put(
+            action,
+            dependencyDone.thenRunAsync(
+                () -> {
+                  try (ResourceHandle handle =
+                      resourceManager.acquireResources(
+                          action.action, ResourceSet.createWithRamCpu(0, 1))) {
+                    Thread.sleep(action.millis);
+                  } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                  }
+                },
+                executor));
+      }
+      CompletableFuture.allOf(done.values().toArray(new CompletableFuture<?>[0])).get();
+      executed += done.size();
+    }
+    return executed;
+  }
+}
@@ -0,0 +1,109 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link AsynchronousTreeDeleter}. */
+@RunWith(JUnit4.class)
+public class AsynchronousTreeDeleterTest extends SandboxTestCase {
+  private Path trashBase;
+
+  @Before
+  public final void setupTrash() {
+    trashBase = testRoot.getRelative("trash");
+  }
+
+  private static void createTree(Path root) throws IOException {
+    root.getRelative("execroot/dir").createDirectoryAndParents();
+    FileSystemUtils.createEmptyFile(root.getRelative("execroot/dir/file.txt"));
+    root.getRelative("execroot/link").createSymbolicLink(root.getRelative("missing"));
+  }
+
+  private void waitForEmptyTrash() throws Exception {
+    long deadline = System.currentTimeMillis() + 60_000;
+    while (!trashBase.getDirectoryEntries().isEmpty()) {
+      assertThat(System.currentTimeMillis()).isLessThan(deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void deleteTree_movesTreesAwayAndDeletesThem() throws Exception {
+    AsynchronousTreeDeleter deleter = new AsynchronousTreeDeleter(trashBase, 2);
+    for (int i = 0; i < 100; i++) {
+      Path sandbox = testRoot.getRelative("sandbox/" + i);
+      createTree(sandbox);
+
+      deleter.deleteTree(sandbox);
+
+      assertThat(sandbox.exists()).isFalse();
+    }
+    waitForEmptyTrash();
+  }
+
+  @Test
+  public void deleteTree_missingTree() throws Exception {
+    AsynchronousTreeDeleter deleter = new AsynchronousTreeDeleter(trashBase, 1);
+
+    deleter.deleteTree(testRoot.getRelative("missing"));
+
+    assertThat(trashBase.getDirectoryEntries()).isEmpty();
+  }
+
+  @Test
+  public void setThreads_keepsDeletingTrees() throws Exception {
+    AsynchronousTreeDeleter deleter = new AsynchronousTreeDeleter(trashBase, 1);
+    deleter.setThreads(3);
+    for (int i = 0; i < 10; i++) {
+      Path sandbox = testRoot.getRelative("sandbox/" + i);
+      createTree(sandbox);
+
+      deleter.deleteTree(sandbox);
+    }
+    waitForEmptyTrash();
+  }
+
+  @Test
+  public void shutdown_finishesDeletingTrees() throws Exception {
+    AsynchronousTreeDeleter deleter = new AsynchronousTreeDeleter(trashBase, 1);
+    for (int i = 0; i < 10; i++) {
+      Path sandbox = testRoot.getRelative("sandbox/" + i);
+      createTree(sandbox);
+      deleter.deleteTree(sandbox);
+    }
+
+    deleter.shutdown();
+
+    waitForEmptyTrash();
+  }
+
+  @Test
+  public void create_deletesLeftoverTrees() throws Exception {
+    createTree(trashBase.getRelative("leftover1"));
+    createTree(trashBase.getRelative("leftover2"));
+
+    new AsynchronousTreeDeleter(trashBase, 1);
+
+    waitForEmptyTrash();
+  }
+}
@@ -0,0 +1,116 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the time to set up and tear down the symlinked sandboxes of consecutive actions with the
+ * same mnemonic and most of their inputs in common, on the local disk, with fresh execution roots
+ * and with execution roots reused from a {@link SandboxStash}.
+ */
+public class SymlinkedSandboxedSpawnBenchmark {
+  @Param({"1000", "10000", "50000"})
+  int inputCount;
+
+  /** The percentage of the inputs that differ between consecutive actions. */
+  @Param({"1"})
+  int changedPercent;
+
+  @Param({"FRESH", "REUSED"})
+  Mode mode;
+
+  enum Mode {
+    FRESH,
+    REUSED
+  }
+
+  private Path root;
+  private Map<PathFragment, Path> inputs;
+  private SandboxStash stash;
+  private int actions;
+
+  @BeforeExperiment
+  void setUp() throws IOException {
+    root =
+        new JavaIoFileSystem(DigestHashFunction.DEFAULT_HASH_FOR_TESTS)
+            .getPath(TestUtils.tmpDir())
+            .getRelative("sandbox_benchmark");
+    FileSystemUtils.deleteTree(root);
+    Path sources = root.getRelative("sources");
+    inputs = new HashMap<>();
+    for (int i = 0; i < inputCount; i++) {
+      PathFragment input = PathFragment.create("pkg" + (i % 100) + "/src" + i + ".h");
+      inputs.put(input, sources.getRelative(input));
+    }
+    stash = mode == Mode.REUSED ? new SandboxStash(root.getRelative("stash")) : null;
+  }
+
+  @AfterExperiment
+  void tearDown() throws IOException {
+    FileSystemUtils.deleteTree(root);
+  }
+
+  private void runAction() throws IOException {
+    int action = actions++;
+    // Replaces a different slice of the inputs with new ones for every action.
+    int changed = inputCount * changedPercent / 100;
+    for (int i = 0; i < changed; i++) {
+      PathFragment input = PathFragment.create("pkg" + (i % 100) + "/src" + i + ".h");
+      inputs.put(input, root.getRelative("generated" + action).getRelative(input));
+    }
+    Path sandboxPath = root.getRelative("sandbox").getRelative(Integer.toString(action));
+    Path sandboxExecRoot = sandboxPath.getRelative("execroot");
+    sandboxExecRoot.createDirectoryAndParents();
+    SymlinkedSandboxedSpawn sandbox =
+        new SymlinkedSandboxedSpawn(
+            sandboxPath,
+            sandboxExecRoot,
+            ImmutableList.of("/bin/true"),
+            ImmutableMap.of(),
+            inputs,
+            SandboxOutputs.create(
+                ImmutableSet.of(PathFragment.create("out/lib.a")), ImmutableSet.of()),
+            ImmutableSet.of(),
+            stash,
+            "CppCompile",
+            SynchronousTreeDeleter.INSTANCE);
+    sandbox.createFileSystem();
+    sandbox.markSuccessful();
+    sandbox.delete();
+  }
+
+  @Benchmark
+  void setUpAndTearDown(int reps) throws IOException {
+    for (int i = 0; i < reps; i++) {
+      runAction();
+    }
+  }
+}
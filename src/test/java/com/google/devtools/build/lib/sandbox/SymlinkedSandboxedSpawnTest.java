@@ -73,6 +73,91 @@ public class SymlinkedSandboxedSpawnTest extends SandboxTestCase {
     assertThat(execRoot.getRelative("wow/writable").isDirectory()).isTrue();
   }
 
+  @Test
+  public void reuseStashedExecRoot() throws Exception {
+    Path a = workspaceDir.getRelative("a.txt");
+    Path b = workspaceDir.getRelative("b.txt");
+    Path c = workspaceDir.getRelative("c.txt");
+    for (Path input : ImmutableList.of(a, b, c)) {
+      FileSystemUtils.createEmptyFile(input);
+    }
+    SandboxStash stash = new SandboxStash(testRoot.getRelative("stash"));
+    SymlinkedSandboxedSpawn first =
+        new SymlinkedSandboxedSpawn(
+            sandboxDir,
+            execRoot,
+            ImmutableList.of("/bin/true"),
+            ImmutableMap.of(),
+            ImmutableMap.of(
+                PathFragment.create("in/a.txt"), a,
+                PathFragment.create("in/b.txt"), b,
+                PathFragment.create("old/b.txt"), b),
+            SandboxOutputs.create(
+                ImmutableSet.of(PathFragment.create("out/stale.txt")), ImmutableSet.of()),
+            ImmutableSet.of(),
+            stash,
+            "Compile",
+            SynchronousTreeDeleter.INSTANCE);
+    first.createFileSystem();
+    Path keptLink = execRoot.getRelative("in/a.txt");
+    FileSystemUtils.createEmptyFile(execRoot.getRelative("out/stale.txt"));
+    first.markSuccessful();
+    first.delete();
+    assertThat(sandboxDir.exists()).isFalse();
+
+    Path secondSandboxDir = testRoot.getRelative("sandbox2");
+    Path secondExecRoot = secondSandboxDir.getRelative("execroot");
+    secondExecRoot.createDirectoryAndParents();
+    SymlinkedSandboxedSpawn second =
+        new SymlinkedSandboxedSpawn(
+            secondSandboxDir,
+            secondExecRoot,
+            ImmutableList.of("/bin/true"),
+            ImmutableMap.of(),
+            ImmutableMap.of(
+                PathFragment.create("in/a.txt"), a, PathFragment.create("in/b.txt"), c),
+            SandboxOutputs.create(
+                ImmutableSet.of(PathFragment.create("out/new.txt")), ImmutableSet.of()),
+            ImmutableSet.of(),
+            stash,
+            "Compile",
+            SynchronousTreeDeleter.INSTANCE);
+    second.createFileSystem();
+
+    assertThat(secondExecRoot.getRelative("in/a.txt").readSymbolicLink())
+        .isEqualTo(a.asFragment());
+    assertThat(secondExecRoot.getRelative("in/b.txt").readSymbolicLink())
+        .isEqualTo(c.asFragment());
+    assertThat(secondExecRoot.getRelative("old").exists()).isFalse();
+    assertThat(secondExecRoot.getRelative("out").isDirectory()).isTrue();
+    assertThat(secondExecRoot.getRelative("out").getDirectoryEntries()).isEmpty();
+    assertThat(keptLink.exists(Symlinks.NOFOLLOW)).isFalse();
+  }
+
+  @Test
+  public void execRootOfUnsuccessfulSpawnIsNotStashed() throws Exception {
+    Path a = workspaceDir.getRelative("a.txt");
+    FileSystemUtils.createEmptyFile(a);
+    SandboxStash stash = new SandboxStash(testRoot.getRelative("stash"));
+    SymlinkedSandboxedSpawn failed =
+        new SymlinkedSandboxedSpawn(
+            sandboxDir,
+            execRoot,
+            ImmutableList.of("/bin/false"),
+            ImmutableMap.of(),
+            ImmutableMap.of(PathFragment.create("in/a.txt"), a),
+            SandboxOutputs.create(ImmutableSet.of(), ImmutableSet.of()),
+            ImmutableSet.of(),
+            stash,
+            "Compile",
+            SynchronousTreeDeleter.INSTANCE);
+    failed.createFileSystem();
+    failed.delete();
+
+    assertThat(sandboxDir.exists()).isFalse();
+    assertThat(stash.takeStashedSandbox(execRoot, "Compile")).isFalse();
+  }
+
   @Test
   public void copyOutputs() throws Exception {
     // These tests are very simple because we just rely on SandboxedSpawnTest.testMoveOutputs to
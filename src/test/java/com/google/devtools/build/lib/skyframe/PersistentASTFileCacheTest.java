@@ -0,0 +1,178 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.clock.JavaClock;
+import com.google.devtools.build.lib.events.StoredEventHandler;
+import com.google.devtools.build.lib.skyframe.serialization.AutoRegistry;
+import com.google.devtools.build.lib.skyframe.serialization.ObjectCodecs;
+import com.google.devtools.build.lib.syntax.BuildFileAST;
+import com.google.devtools.build.lib.syntax.Environment;
+import com.google.devtools.build.lib.syntax.Mutability;
+import com.google.devtools.build.lib.syntax.SkylarkSemantics;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.util.ArrayList;
+import java.util.Collection;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PersistentASTFileCache}. */
+@RunWith(JUnit4.class)
+public class PersistentASTFileCacheTest {
+
+  private static final PathFragment PATH = PathFragment.create("/workspace/pkg/defs.bzl");
+  private static final byte[] DIGEST = {1, 2, 3, 4};
+  private static final String CONTENT =
+      "def add_all(values):\n"
+          + "  total = 0\n"
+          + "  for v in values:\n"
+          + "    total += v\n"
+          + "  return total\n"
+          + "result = add_all([1, 2, 3])\n";
+
+  private Path directory;
+  private long maxSizeBytes = 1024 * 1024;
+
+  @Before
+  public final void setUp() throws Exception {
+    directory =
+        new InMemoryFileSystem(new JavaClock()).getPath("/output_base/skylark_ast_cache/md5");
+  }
+
+  private PersistentASTFileCache newCache() {
+    return new PersistentASTFileCache(
+        directory, maxSizeBytes, new ObjectCodecs(AutoRegistry.get()));
+  }
+
+  /** Parses and validates {@link #CONTENT} and stores it in a new cache. */
+  private void storeAst() throws Exception {
+    storeAst(DIGEST);
+  }
+
+  /** Stores {@link #CONTENT} as the content with the given digest, and returns its entry. */
+  private Path storeAst(byte[] digest) throws Exception {
+    StoredEventHandler eventHandler = new StoredEventHandler();
+    BuildFileAST ast =
+        BuildFileAST.parseSkylarkFile(CONTENT.getBytes(ISO_8859_1), digest, PATH, eventHandler);
+    try (Mutability mutability = Mutability.create("test")) {
+      ast = ast.validate(newEnvironment(mutability), eventHandler);
+    }
+    assertThat(eventHandler.isEmpty()).isTrue();
+    Collection<Path> before =
+        directory.exists() ? directory.getDirectoryEntries() : ImmutableList.of();
+    newCache().put(PATH, digest, SkylarkSemantics.DEFAULT_SEMANTICS, ast);
+    Collection<Path> added = new ArrayList<>(directory.getDirectoryEntries());
+    added.removeAll(before);
+    return Iterables.getOnlyElement(added);
+  }
+
+  private static Environment newEnvironment(Mutability mutability) {
+    return Environment.builder(mutability)
+        .useDefaultSemantics()
+        .setGlobals(Environment.DEFAULT_GLOBALS)
+        .build();
+  }
+
+  @Test
+  public void cachedAstShouldBeExecutableByNewServer() throws Exception {
+    storeAst();
+
+    BuildFileAST cached = newCache().get(PATH, DIGEST, SkylarkSemantics.DEFAULT_SEMANTICS);
+    assertThat(cached).isNotNull();
+    assertThat(cached.getContentHashCode()).isNotNull();
+    try (Mutability mutability = Mutability.create("test")) {
+      Environment env = newEnvironment(mutability);
+      StoredEventHandler eventHandler = new StoredEventHandler();
+      assertThat(cached.exec(env, eventHandler)).isTrue();
+      assertThat(env.moduleLookup("result")).isEqualTo(6);
+    }
+  }
+
+  @Test
+  public void entriesShouldBeKeyedByDigestAndSemantics() throws Exception {
+    storeAst();
+    PersistentASTFileCache cache = newCache();
+
+    assertThat(cache.get(PATH, new byte[] {5}, SkylarkSemantics.DEFAULT_SEMANTICS)).isNull();
+    assertThat(
+            cache.get(
+                PATH,
+                DIGEST,
+                SkylarkSemantics.DEFAULT_SEMANTICS.toBuilder()
+                    .incompatibleNoTransitiveLoads(true)
+                    .build()))
+        .isNull();
+    assertThat(
+            cache.get(
+                PathFragment.create("/other.bzl"), DIGEST, SkylarkSemantics.DEFAULT_SEMANTICS))
+        .isNull();
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesShouldBePruned() throws Exception {
+    Path first = storeAst(new byte[] {1});
+    Path second = storeAst(new byte[] {2});
+    Path third = storeAst(new byte[] {3});
+    first.setLastModifiedTime(1000);
+    second.setLastModifiedTime(2000);
+    third.setLastModifiedTime(3000);
+    maxSizeBytes = first.getFileSize() * 3 - 1;
+    PersistentASTFileCache cache = newCache();
+
+    // Reading the first entry makes the second one the least recently used.
+    assertThat(cache.get(PATH, new byte[] {1}, SkylarkSemantics.DEFAULT_SEMANTICS)).isNotNull();
+    cache.prune();
+
+    assertThat(first.exists()).isTrue();
+    assertThat(second.exists()).isFalse();
+    assertThat(third.exists()).isTrue();
+  }
+
+  @Test
+  public void cachesOfOtherBinariesShouldBeDeleted() throws Exception {
+    storeAst();
+    Path otherCache = directory.getParentDirectory().getChild("other_md5");
+    otherCache.createDirectoryAndParents();
+    FileSystemUtils.writeContentAsLatin1(otherCache.getChild("entry"), "entry");
+    Path tempFile = directory.getChild("entry.tmp1");
+    FileSystemUtils.writeContentAsLatin1(tempFile, "partial");
+
+    PersistentASTFileCache cache = newCache();
+    cache.deleteStaleEntries();
+
+    assertThat(otherCache.exists()).isFalse();
+    assertThat(tempFile.exists()).isFalse();
+    assertThat(cache.get(PATH, DIGEST, SkylarkSemantics.DEFAULT_SEMANTICS)).isNotNull();
+  }
+
+  @Test
+  public void malformedEntryShouldBeDeleted() throws Exception {
+    storeAst();
+    Path entry = directory.getDirectoryEntries().iterator().next();
+    FileSystemUtils.writeContentAsLatin1(entry, "not an AST");
+
+    assertThat(newCache().get(PATH, DIGEST, SkylarkSemantics.DEFAULT_SEMANTICS)).isNull();
+    assertThat(entry.exists()).isFalse();
+  }
+}
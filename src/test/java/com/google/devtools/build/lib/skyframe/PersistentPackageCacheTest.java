@@ -0,0 +1,204 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.events.util.EventCollectionApparatus;
+import com.google.devtools.build.lib.packages.ConstantRuleVisibility;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.packages.PackageSerializer.RuleClassResolver;
+import com.google.devtools.build.lib.packages.Rule;
+import com.google.devtools.build.lib.packages.RuleClass;
+import com.google.devtools.build.lib.packages.util.PackageFactoryApparatus;
+import com.google.devtools.build.lib.skyframe.serialization.AutoRegistry;
+import com.google.devtools.build.lib.syntax.SkylarkSemantics;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+import com.google.devtools.build.lib.vfs.RootedPath;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PersistentPackageCache}. */
+@RunWith(JUnit4.class)
+public class PersistentPackageCacheTest {
+
+  private static final String KEY = "key";
+  private static final PackageIdentifier PACKAGE_ID = PackageIdentifier.createInMainRepo("pkg");
+
+  private Scratch scratch = new Scratch("/workspace");
+  private EventCollectionApparatus events = new EventCollectionApparatus();
+  private PackageFactoryApparatus packages = new PackageFactoryApparatus(events.reporter());
+  private Root root;
+  private RootedPath buildFile;
+  private Path directory;
+
+  @Before
+  public final void setUp() throws Exception {
+    root = Root.fromPath(scratch.dir("/workspace"));
+    buildFile =
+        RootedPath.toRootedPath(
+            root,
+            scratch.file(
+                "/workspace/pkg/BUILD",
+                "genrule(name = 'gen', srcs = glob(['*.txt']), outs = ['out'], cmd = '')"));
+    scratch.file("/workspace/pkg/a.txt");
+    directory = scratch.dir("/output_base/package_cache/md5");
+  }
+
+  private PersistentPackageCache newCache() {
+    return new PersistentPackageCache(directory, 1024 * 1024, AutoRegistry.get());
+  }
+
+  private GlobDescriptor globKey() {
+    return GlobValue.internalKey(PACKAGE_ID, root, PathFragment.EMPTY_FRAGMENT, "*.txt", true);
+  }
+
+  private Package storePackage() throws Exception {
+    Package pkg = packages.createPackage("pkg", buildFile);
+    newCache()
+        .put(
+            KEY,
+            pkg,
+            packages.factory().getPackageSerializer(),
+            ImmutableList.of(),
+            ImmutableMap.of(globKey(), "matches"));
+    return pkg;
+  }
+
+  private Package.Builder deserialize(
+      PersistentPackageCache.Entry entry, RuleClassResolver resolver) throws Exception {
+    return entry.deserializePackage(
+        packages.factory(),
+        "TESTING",
+        ImmutableMap.of(),
+        PACKAGE_ID,
+        buildFile,
+        ConstantRuleVisibility.PUBLIC,
+        resolver);
+  }
+
+  private RuleClassResolver nativeRuleClasses() {
+    Map<String, RuleClass> ruleClasses =
+        packages.factory().getRuleClassProvider().getRuleClassMap();
+    return (name, definitionLabel) -> ruleClasses.get(name);
+  }
+
+  @Test
+  public void storedPackageShouldBeCreatedAgainByNewServer() throws Exception {
+    Package pkg = storePackage();
+
+    PersistentPackageCache.Entry entry = newCache().get(KEY, PACKAGE_ID, root);
+    assertThat(entry).isNotNull();
+    assertThat(entry.getSkylarkFileHashes()).isEmpty();
+    assertThat(entry.getGlobMatches()).containsExactly(globKey(), "matches");
+    Package cached = deserialize(entry, nativeRuleClasses()).build();
+
+    assertThat(cached.getTargets().keySet()).isEqualTo(pkg.getTargets().keySet());
+    assertThat(((Rule) cached.getTarget("gen")).getAttributeContainer().getAttr("srcs"))
+        .isEqualTo(ImmutableList.of(Label.parseAbsolute("//pkg:a.txt", ImmutableMap.of())));
+  }
+
+  @Test
+  public void keyShouldDependOnInputsOfBuildFile() throws Exception {
+    String key =
+        PersistentPackageCache.key(
+            PACKAGE_ID,
+            buildFile,
+            new byte[] {1},
+            "",
+            SkylarkSemantics.DEFAULT_SEMANTICS,
+            ConstantRuleVisibility.PRIVATE,
+            "workspace",
+            ImmutableMap.of());
+
+    assertThat(
+            PersistentPackageCache.key(
+                PACKAGE_ID,
+                buildFile,
+                new byte[] {2},
+                "",
+                SkylarkSemantics.DEFAULT_SEMANTICS,
+                ConstantRuleVisibility.PRIVATE,
+                "workspace",
+                ImmutableMap.of()))
+        .isNotEqualTo(key);
+    assertThat(
+            PersistentPackageCache.key(
+                PACKAGE_ID,
+                buildFile,
+                new byte[] {1},
+                "prelude",
+                SkylarkSemantics.DEFAULT_SEMANTICS,
+                ConstantRuleVisibility.PRIVATE,
+                "workspace",
+                ImmutableMap.of()))
+        .isNotEqualTo(key);
+    assertThat(
+            PersistentPackageCache.key(
+                PACKAGE_ID,
+                buildFile,
+                new byte[] {1},
+                "",
+                SkylarkSemantics.DEFAULT_SEMANTICS.toBuilder()
+                    .incompatibleNoTransitiveLoads(true)
+                    .build(),
+                ConstantRuleVisibility.PRIVATE,
+                "workspace",
+                ImmutableMap.of()))
+        .isNotEqualTo(key);
+    assertThat(
+            PersistentPackageCache.key(
+                PACKAGE_ID,
+                buildFile,
+                new byte[] {1},
+                "",
+                SkylarkSemantics.DEFAULT_SEMANTICS,
+                ConstantRuleVisibility.PUBLIC,
+                "workspace",
+                ImmutableMap.of()))
+        .isNotEqualTo(key);
+  }
+
+  @Test
+  public void packageThatCannotBeCreatedAgainShouldBeDeleted() throws Exception {
+    storePackage();
+    Path entryFile = directory.getChild(KEY);
+
+    PersistentPackageCache.Entry entry = newCache().get(KEY, PACKAGE_ID, root);
+    assertThat(entry).isNotNull();
+    assertThat(deserialize(entry, (name, definitionLabel) -> null)).isNull();
+    assertThat(entryFile.exists()).isFalse();
+  }
+
+  @Test
+  public void malformedEntryShouldBeDeleted() throws Exception {
+    storePackage();
+    Path entryFile = directory.getChild(KEY);
+    FileSystemUtils.writeContentAsLatin1(entryFile, "not a package");
+
+    assertThat(newCache().get(KEY, PACKAGE_ID, root)).isNull();
+    assertThat(entryFile.exists()).isFalse();
+  }
+}
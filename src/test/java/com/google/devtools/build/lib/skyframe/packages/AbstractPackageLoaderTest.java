@@ -148,6 +148,42 @@ public abstract class AbstractPackageLoaderTest {
     return workspaceDir.getRelative(PathFragment.create(rootRelativePath));
   }
 
+  @Test
+  public void skyframeGlobbingMatchesLegacyGlobbing() throws Exception {
+    file(
+        "globs/BUILD",
+        "sh_library(name = 'all', srcs = glob(['**/*.sh'], exclude = ['sub/excluded.sh']))",
+        "[sh_library(name = 'lib_' + f[:-3].replace('/', '_'), srcs = [f])",
+        "    for f in glob(['*.sh'])]",
+        "exports_files(glob([x + '/*.txt' for x in glob(['d*'], exclude_directories = 0)]))");
+    file("globs/a.sh");
+    file("globs/b.sh");
+    file("globs/sub/c.sh");
+    file("globs/sub/excluded.sh");
+    file("globs/sub/deeper/d.sh");
+    file("globs/subpkg/BUILD");
+    file("globs/subpkg/e.sh");
+    file("globs/dir/f.txt");
+    PackageIdentifier pkgId = PackageIdentifier.createInMainRepo(PathFragment.create("globs"));
+
+    Package legacyPkg = newPackageLoader().loadPackage(pkgId);
+    Package skyframePkg =
+        newPackageLoaderBuilder(root)
+            .useDefaultSkylarkSemantics()
+            .setReporter(reporter)
+            .useSkyframeGlobbing()
+            .build()
+            .loadPackage(pkgId);
+
+    assertThat(skyframePkg.containsErrors()).isFalse();
+    assertNoEvents(skyframePkg.getEvents());
+    assertThat(skyframePkg.getTargets().keySet())
+        .containsExactlyElementsIn(legacyPkg.getTargets().keySet());
+    assertThat(skyframePkg.getTargets().keySet())
+        .containsAllOf("all", "lib_a", "lib_b", "a.sh", "sub/deeper/d.sh", "dir/f.txt");
+    assertThat(skyframePkg.getTargets().keySet()).containsNoneOf("sub/excluded.sh", "subpkg/e.sh");
+  }
+
   protected Path file(String fileName, String... contents) throws Exception {
     Path path = path(fileName);
     path.getParentDirectory().createDirectoryAndParents();
@@ -21,11 +21,10 @@ import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.cmdline.RepositoryName;
 import com.google.devtools.build.lib.packages.NoSuchPackageException;
 import com.google.devtools.build.lib.packages.Package;
-import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.packages.util.BazelMockEmbeddedToolsSupport;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.Root;
-import java.io.IOException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -52,40 +51,10 @@ public final class BazelPackageLoaderTest extends AbstractPackageLoaderTest {
     Path embeddedBinaries = ServerDirectories.getEmbeddedBinariesRoot(installBase);
     embeddedBinaries.createDirectoryAndParents();
 
-    mockEmbeddedTools(embeddedBinaries);
+    BazelMockEmbeddedToolsSupport.setup(embeddedBinaries);
     fetchExternalRepo(RepositoryName.create("@bazel_tools"));
   }
 
-  private void mockEmbeddedTools(Path embeddedBinaries) throws IOException {
-    Path tools = embeddedBinaries.getRelative("embedded_tools");
-    tools.getRelative("tools/cpp").createDirectoryAndParents();
-    tools.getRelative("tools/osx").createDirectoryAndParents();
-    FileSystemUtils.writeIsoLatin1(tools.getRelative("WORKSPACE"), "");
-    FileSystemUtils.writeIsoLatin1(tools.getRelative("tools/cpp/BUILD"), "");
-    FileSystemUtils.writeIsoLatin1(
-        tools.getRelative("tools/cpp/cc_configure.bzl"),
-        "def cc_configure(*args, **kwargs):",
-        "    pass");
-    FileSystemUtils.writeIsoLatin1(tools.getRelative("tools/osx/BUILD"), "");
-    FileSystemUtils.writeIsoLatin1(
-        tools.getRelative("tools/osx/xcode_configure.bzl"),
-        "def xcode_configure(*args, **kwargs):",
-        "    pass");
-    FileSystemUtils.writeIsoLatin1(tools.getRelative("tools/sh/BUILD"), "");
-    FileSystemUtils.writeIsoLatin1(
-        tools.getRelative("tools/sh/sh_configure.bzl"),
-        "def sh_configure(*args, **kwargs):",
-        "    pass");
-    FileSystemUtils.writeIsoLatin1(tools.getRelative("tools/build_defs/repo/BUILD"));
-    FileSystemUtils.writeIsoLatin1(
-        tools.getRelative("tools/build_defs/repo/http.bzl"),
-        "def http_archive(**kwargs):",
-        "  pass",
-        "",
-        "def http_file(**kwargs):",
-        "  pass");
-  }
-
   private void fetchExternalRepo(RepositoryName externalRepo) {
     PackageLoader pkgLoaderForFetch =
         newPackageLoaderBuilder(root)
@@ -0,0 +1,110 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe.packages;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.devtools.build.lib.analysis.util.BuildViewTestCase;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.ModifiedFileSet;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+
+/**
+ * Compares reloading a package after a change with the legacy globber and with Skyframe globbing.
+ * Unlike the package loaders of {@link SkyframeGlobbingBenchmark}, which start from scratch, the
+ * package is loaded by the Skyframe executor of a server, which keeps the values of the globs and
+ * the directory listings that did not change.
+ *
+ * <p>Each rep either adds or removes a source file in the deepest directory of the package, which
+ * changes the matches of its glob, or edits the BUILD file, which does not.
+ */
+public class IncrementalGlobbingBenchmark extends BuildViewTestCase {
+  /** The number of subdirectories of the package, each containing a few source files. */
+  @Param({"10"})
+  int directories;
+
+  /** The depth of the subdirectories of the package matched by {@code **}. */
+  @Param({"1", "4"})
+  int depth;
+
+  @Param({"SOURCE_FILE", "BUILD_FILE"})
+  String change;
+
+  @Param({"false", "true"})
+  boolean skyframeGlobbing;
+
+  private PackageIdentifier pkgId;
+  private PathFragment changedFile;
+  private boolean changed;
+
+  @BeforeExperiment
+  void setUp() throws Exception {
+    initializeFileSystemAndDirectories();
+    initializeLogging();
+    initializeSkyframeExecutor();
+    setPackageCacheOptions("--experimental_skyframe_globbing=" + skyframeGlobbing);
+
+    PathFragment deepest = PathFragment.create("pkg");
+    for (int j = 0; j < directories; j++) {
+      PathFragment dir = PathFragment.create("pkg/d" + j);
+      for (int d = 0; d < depth; d++) {
+        for (int k = 0; k < 3; k++) {
+          scratch.file(dir.getRelative("f" + k + ".sh").getPathString());
+        }
+        deepest = dir;
+        dir = dir.getRelative("e");
+      }
+    }
+    scratch.file("pkg/BUILD", buildFile(""));
+    changedFile =
+        change.equals("SOURCE_FILE")
+            ? deepest.getRelative("new.sh")
+            : PathFragment.create("pkg/BUILD");
+    pkgId = PackageIdentifier.createInMainRepo("pkg");
+    getPackageManager().getPackage(reporter, pkgId);
+  }
+
+  @Benchmark
+  int reloadPackage(int reps) throws Exception {
+    int targets = 0;
+    for (int i = 0; i < reps; i++) {
+      changed = !changed;
+      Path path = rootDirectory.getRelative(changedFile);
+      if (change.equals("SOURCE_FILE")) {
+        if (changed) {
+          FileSystemUtils.writeIsoLatin1(path);
+        } else {
+          path.delete();
+        }
+      } else {
+        FileSystemUtils.writeIsoLatin1(path, buildFile(changed ? "# edited" : ""));
+      }
+      getSkyframeExecutor()
+          .invalidateFilesUnderPathForTesting(
+              reporter,
+              ModifiedFileSet.builder().modify(changedFile).build(),
+              Root.fromPath(rootDirectory));
+      targets += getPackageManager().getPackage(reporter, pkgId).getTargets().size();
+    }
+    return targets;
+  }
+
+  private static String buildFile(String comment) {
+    return comment + "\nsh_library(name = 'lib', srcs = glob(['**/*.sh']))\n";
+  }
+}
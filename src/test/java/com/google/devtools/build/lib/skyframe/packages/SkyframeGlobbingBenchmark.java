@@ -0,0 +1,127 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe.packages;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.devtools.build.lib.analysis.ServerDirectories;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.cmdline.RepositoryName;
+import com.google.devtools.build.lib.packages.NoSuchPackageException;
+import com.google.devtools.build.lib.packages.util.BazelMockEmbeddedToolsSupport;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares loading packages from scratch with the legacy globber, which computes globs on its own
+ * threads while the BUILD file is evaluated, with Skyframe globbing, which computes the globs whose
+ * arguments are literals by {@link com.google.devtools.build.lib.skyframe.GlobFunction} before
+ * the BUILD file is evaluated. With dependent globs, whose patterns are built from the matches of
+ * another glob, the dependent glob is not a literal and is still computed by the legacy globber.
+ */
+public class SkyframeGlobbingBenchmark {
+  @Param({"10", "100"})
+  int packages;
+
+  /** The number of subdirectories of each package, each containing a few source files. */
+  @Param({"10"})
+  int directoriesPerPackage;
+
+  /** The depth of the subdirectories of each package matched by {@code **}. */
+  @Param({"1", "4"})
+  int depth;
+
+  @Param({"false", "true"})
+  boolean dependentGlobs;
+
+  @Param({"false", "true"})
+  boolean skyframeGlobbing;
+
+  private PackageLoader loader;
+  private List<PackageIdentifier> pkgIds;
+
+  @BeforeExperiment
+  void setUp() throws Exception {
+    FileSystem fs = new InMemoryFileSystem();
+    Path workspaceDir = fs.getPath("/workspace");
+    Path installBase = fs.getPath("/installBase");
+    Path outputBase = fs.getPath("/outputBase");
+    Path embeddedBinaries = ServerDirectories.getEmbeddedBinariesRoot(installBase);
+    embeddedBinaries.createDirectoryAndParents();
+    outputBase.createDirectoryAndParents();
+    BazelMockEmbeddedToolsSupport.setup(embeddedBinaries);
+    FileSystemUtils.writeIsoLatin1(workspaceDir.getRelative("WORKSPACE"));
+    Root root = Root.fromPath(workspaceDir);
+    try {
+      BazelPackageLoader.builder(root, installBase, outputBase)
+          .setFetchForTesting()
+          .useDefaultSkylarkSemantics()
+          .build()
+          .loadPackage(
+              PackageIdentifier.create(
+                  RepositoryName.create("@bazel_tools"), PathFragment.EMPTY_FRAGMENT));
+    } catch (NoSuchPackageException e) {
+      // Only the side effects of fetching the embedded tools matter.
+    }
+
+    String srcs =
+        dependentGlobs
+            ? "glob([d + '/**/*.sh' for d in glob(['d*'], exclude_directories = 0)])"
+            : "glob(['**/*.sh'])";
+    pkgIds = new ArrayList<>(packages);
+    for (int i = 0; i < packages; i++) {
+      Path pkg = workspaceDir.getRelative("pkg" + i);
+      for (int j = 0; j < directoriesPerPackage; j++) {
+        Path dir = pkg.getRelative("d" + j);
+        for (int d = 0; d < depth; d++) {
+          dir.createDirectoryAndParents();
+          for (int k = 0; k < 3; k++) {
+            FileSystemUtils.writeIsoLatin1(dir.getRelative("f" + k + ".sh"));
+          }
+          dir = dir.getRelative("e");
+        }
+      }
+      FileSystemUtils.writeIsoLatin1(
+          pkg.getRelative("BUILD"),
+          "sh_library(name = 'lib', srcs = " + srcs + ")",
+          "exports_files(glob(['*']))");
+      pkgIds.add(PackageIdentifier.createInMainRepo(PathFragment.create("pkg" + i)));
+    }
+
+    AbstractPackageLoader.Builder builder =
+        BazelPackageLoader.builder(root, installBase, outputBase).useDefaultSkylarkSemantics();
+    if (skyframeGlobbing) {
+      builder.useSkyframeGlobbing();
+    }
+    loader = builder.build();
+  }
+
+  @Benchmark
+  int loadPackages(int reps) throws Exception {
+    int targets = 0;
+    for (int i = 0; i < reps; i++) {
+      for (PackageLoader.PackageOrException pkg : loader.loadPackages(pkgIds).values()) {
+        targets += pkg.get().getTargets().size();
+      }
+    }
+    return targets;
+  }
+}
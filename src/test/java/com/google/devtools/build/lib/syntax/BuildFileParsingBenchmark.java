@@ -0,0 +1,89 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.devtools.build.lib.events.EventCollector;
+import com.google.devtools.build.lib.events.EventKind;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures parsing every BUILD file under a source tree, from the bytes of the files as they are
+ * read from disk.
+ *
+ * <p>The lexer either scans the Latin-1 bytes of the files directly, as the loading phase does, or
+ * the chars they are converted to first, as it did before it could read bytes.
+ */
+public class BuildFileParsingBenchmark {
+  /** The root of the source tree to parse the BUILD files of. */
+  @Param({"."})
+  String corpus;
+
+  @Param({"false", "true"})
+  boolean scanBytes;
+
+  private final List<PathFragment> paths = new ArrayList<>();
+  private final List<byte[]> contents = new ArrayList<>();
+
+  @BeforeExperiment
+  void setUp() throws IOException {
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(Paths.get(corpus))) {
+      files =
+          walk.filter(Files::isRegularFile)
+              .filter(
+                  file -> {
+                    String name = file.getFileName().toString();
+                    return name.equals("BUILD") || name.equals("BUILD.bazel");
+                  })
+              .sorted()
+              .collect(Collectors.toList());
+    }
+    if (files.isEmpty()) {
+      throw new IllegalStateException("no BUILD files under " + corpus);
+    }
+    for (Path file : files) {
+      paths.add(PathFragment.create(file.toString()));
+      contents.add(Files.readAllBytes(file));
+    }
+  }
+
+  @Benchmark
+  int parseBuildFiles(int reps) {
+    int statements = 0;
+    for (int i = 0; i < reps; i++) {
+      EventCollector eventHandler = new EventCollector(EventKind.ERRORS);
+      for (int j = 0; j < contents.size(); j++) {
+        byte[] bytes = contents.get(j);
+        ParserInputSource input =
+            scanBytes
+                ? ParserInputSource.create(bytes, paths.get(j))
+                : ParserInputSource.create(FileSystemUtils.convertFromLatin1(bytes), paths.get(j));
+        statements += BuildFileAST.parseBuildFile(input, eventHandler).getStatements().size();
+      }
+    }
+    return statements;
+  }
+}
@@ -0,0 +1,77 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.events.EventCollector;
+import com.google.devtools.build.lib.events.EventKind;
+import com.google.devtools.build.lib.packages.BazelLibrary;
+
+/**
+ * Measures Starlark code that mostly calls methods of builtin values, such as {@code str} and
+ * {@code list} methods, which are looked up at each call site.
+ */
+public class BuiltinCallBenchmark {
+  @Param({"10000"})
+  int iterations;
+
+  private static final String[] WORKLOAD = {
+    "def run(n):",
+    "  names = []",
+    "  count = 0",
+    "  for i in range(n):",
+    "    name = 'lib_%d.cc' % i",
+    "    if name.endswith('.cc') and not name.startswith('_'):",
+    "      names.append(name.replace('.cc', '.o').upper())",
+    "    parts = name.split('_')",
+    "    count += len(parts) + len('/'.join(parts).strip())",
+    "  return count + len(names)",
+  };
+
+  private BaseFunction run;
+
+  @BeforeExperiment
+  void setUp() throws Exception {
+    EventCollector eventHandler = new EventCollector(EventKind.ERRORS_AND_WARNINGS_AND_OUTPUT);
+    Environment env = newEnvironment(Mutability.create("definitions"), eventHandler);
+    BuildFileAST file = BuildFileAST.parseAndValidateSkylarkString(env, WORKLOAD);
+    if (!file.exec(env, eventHandler)) {
+      throw new IllegalStateException("workload failed: " + eventHandler);
+    }
+    run = (BaseFunction) env.moduleLookup("run");
+  }
+
+  @Benchmark
+  int callMethods(int reps) throws Exception {
+    int total = 0;
+    for (int i = 0; i < reps; i++) {
+      try (Mutability mutability = Mutability.create("benchmark")) {
+        Environment env = newEnvironment(mutability, new EventCollector(EventKind.ALL_EVENTS));
+        total += (Integer) run.call(ImmutableList.<Object>of(iterations), null, null, env);
+      }
+    }
+    return total;
+  }
+
+  private static Environment newEnvironment(Mutability mutability, EventCollector eventHandler) {
+    return Environment.builder(mutability)
+        .useDefaultSemantics()
+        .setGlobals(BazelLibrary.GLOBALS)
+        .setEventHandler(eventHandler)
+        .build();
+  }
+}
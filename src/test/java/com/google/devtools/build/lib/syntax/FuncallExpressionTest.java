@@ -0,0 +1,230 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+
+import com.google.common.base.Throwables;
+import com.google.devtools.build.lib.skylarkinterface.Param;
+import com.google.devtools.build.lib.skylarkinterface.SkylarkCallable;
+import com.google.devtools.build.lib.skylarkinterface.SkylarkModule;
+import com.google.devtools.build.lib.skylarkinterface.SkylarkSignature;
+import com.google.devtools.build.lib.syntax.FuncallExpression.CachedMethod;
+import com.google.devtools.build.lib.syntax.util.EvaluationTestCase;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for the calls of builtins by {@link FuncallExpression}. */
+@RunWith(JUnit4.class)
+public class FuncallExpressionTest extends EvaluationTestCase {
+
+  @SkylarkModule(name = "First", doc = "")
+  static final class First {
+    @SkylarkCallable(name = "value", documented = false)
+    public String value() {
+      return "first";
+    }
+
+    @SkylarkCallable(
+        name = "call",
+        selfCall = true,
+        documented = false,
+        parameters = {@Param(name = "arg", type = String.class)})
+    public String call(String arg) {
+      return "first(" + arg + ")";
+    }
+
+    @SkylarkCallable(
+        name = "join",
+        documented = false,
+        parameters = {@Param(name = "sep", type = String.class)},
+        extraPositionals = @Param(name = "args"))
+    public String join(String sep, SkylarkList<?> args) {
+      return args.stream().map(Printer::str).collect(Collectors.joining(sep));
+    }
+
+    @SkylarkCallable(name = "throw_class_cast", documented = false)
+    public String throwClassCast() {
+      throw new ClassCastException("thrown by the method");
+    }
+
+    @SkylarkCallable(name = "throw_eval_exception", documented = false)
+    public String throwEvalException() throws EvalException {
+      throw new EvalException(null, "thrown by the method");
+    }
+  }
+
+  @SkylarkModule(name = "Second", doc = "")
+  static final class Second {
+    @SkylarkCallable(name = "value", documented = false)
+    public String value() {
+      return "second";
+    }
+
+    @SkylarkCallable(
+        name = "call",
+        selfCall = true,
+        documented = false,
+        parameters = {@Param(name = "arg", type = String.class)})
+    public String call(String arg) {
+      return "second(" + arg + ")";
+    }
+  }
+
+  @SkylarkSignature(
+      name = "length",
+      returnType = Integer.class,
+      documented = false,
+      // The parameter is not checked by the signature, only by the Java method.
+      parameters = {@Param(name = "s")})
+  static final BuiltinFunction length =
+      new BuiltinFunction("length") {
+        public Integer invoke(String s) {
+          return s.length();
+        }
+      };
+
+  @SkylarkSignature(name = "throw_class_cast", returnType = String.class, documented = false)
+  static final BuiltinFunction throwClassCast =
+      new BuiltinFunction("throw_class_cast") {
+        public String invoke() {
+          throw new ClassCastException("thrown by the function");
+        }
+      };
+
+  private static void configure(BuiltinFunction function, String field) throws Exception {
+    function.configure(
+        FuncallExpressionTest.class.getDeclaredField(field).getAnnotation(SkylarkSignature.class));
+  }
+
+  @Test
+  public void methodCall_cachedPerReceiverClass() throws Exception {
+    FuncallExpression call = (FuncallExpression) parseExpression("o.value()");
+
+    update("o", new First());
+    assertThat(call.eval(env)).isEqualTo("first");
+    CachedMethod cached = call.getCachedMethodForTesting();
+    assertThat(cached).isNotNull();
+
+    // Hit: another receiver of the same class.
+    update("o", new First());
+    assertThat(call.eval(env)).isEqualTo("first");
+    assertThat(call.getCachedMethodForTesting()).isSameAs(cached);
+
+    // Miss: a receiver of another class with a method of the same name.
+    update("o", new Second());
+    assertThat(call.eval(env)).isEqualTo("second");
+    assertThat(call.getCachedMethodForTesting()).isNotSameAs(cached);
+
+    update("o", new First());
+    assertThat(call.eval(env)).isEqualTo("first");
+  }
+
+  @Test
+  public void methodCall_missForOtherSemantics() throws Exception {
+    FuncallExpression call = (FuncallExpression) parseExpression("o.value()");
+    update("o", new First());
+    call.eval(env);
+    CachedMethod cached = call.getCachedMethodForTesting();
+
+    env = newEnvironmentWithSkylarkOptions("--incompatible_depset_union");
+    update("o", new First());
+    assertThat(call.eval(env)).isEqualTo("first");
+    assertThat(call.getCachedMethodForTesting()).isNotSameAs(cached);
+  }
+
+  @Test
+  public void methodCall_missingMethodAfterHit() throws Exception {
+    FuncallExpression call = (FuncallExpression) parseExpression("o.value()");
+    update("o", new First());
+    call.eval(env);
+
+    update("o", "a string");
+    EvalException e = assertThrows(EvalException.class, () -> call.eval(env));
+    assertThat(e).hasMessageThat().contains("value");
+  }
+
+  @Test
+  public void selfCall_cachedPerReceiverClass() throws Exception {
+    FuncallExpression call = (FuncallExpression) parseExpression("f('x')");
+
+    update("f", new First());
+    assertThat(call.eval(env)).isEqualTo("first(x)");
+    CachedMethod cached = call.getCachedSelfCallMethodForTesting();
+    assertThat(call.eval(env)).isEqualTo("first(x)");
+    assertThat(call.getCachedSelfCallMethodForTesting()).isSameAs(cached);
+
+    update("f", new Second());
+    assertThat(call.eval(env)).isEqualTo("second(x)");
+    assertThat(call.getCachedSelfCallMethodForTesting()).isNotSameAs(cached);
+  }
+
+  @Test
+  public void methodCall_extraPositionals() throws Exception {
+    update("o", new First());
+    assertThat(
+            eval(
+                "def f(*args):", //
+                "  return o.join('-', *args)",
+                "r = [f(), f(1), f(1, 'b', None)]",
+                "r"))
+        .isEqualTo(SkylarkList.createImmutable(Arrays.asList("", "1", "1-b-None")));
+  }
+
+  @Test
+  public void methodCall_exceptionThrownByMethodIsItsCause() throws Exception {
+    update("o", new First());
+    EvalException e = assertThrows(EvalException.class, () -> eval("o.throw_class_cast()"));
+    Throwable cause = Throwables.getRootCause(e);
+    assertThat(cause).isInstanceOf(ClassCastException.class);
+    assertThat(cause).hasMessageThat().isEqualTo("thrown by the method");
+  }
+
+  @Test
+  public void methodCall_evalExceptionThrownByMethod() throws Exception {
+    update("o", new First());
+    EvalException e = assertThrows(EvalException.class, () -> eval("o.throw_eval_exception()"));
+    assertThat(e).hasMessageThat().contains("thrown by the method");
+  }
+
+  @Test
+  public void builtinFunction_argumentOfWrongType() throws Exception {
+    configure(length, "length");
+    update("length", length);
+    assertThat(eval("length('abc')")).isEqualTo(3);
+
+    EvalException e = assertThrows(EvalException.class, () -> eval("length(1)"));
+    assertThat(e)
+        .hasMessageThat()
+        .contains("argument 's' has type 'int', but should be 'string'");
+    assertThat(e).hasMessageThat().doesNotContain("ClassCastException");
+
+    // A null argument for a reference parameter is passed to the method, whose own exception is
+    // not reported as a type mismatch.
+    assertThrows(NullPointerException.class, () -> length.call(new Object[] {null}, null, env));
+  }
+
+  @Test
+  public void builtinFunction_exceptionThrownByFunctionIsNotATypeMismatch() throws Exception {
+    configure(throwClassCast, "throwClassCast");
+    update("throw_class_cast", throwClassCast);
+    ClassCastException e =
+        assertThrows(ClassCastException.class, () -> eval("throw_class_cast()"));
+    assertThat(e).hasMessageThat().isEqualTo("thrown by the function");
+  }
+}
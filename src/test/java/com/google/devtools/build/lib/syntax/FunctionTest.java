@@ -140,6 +140,41 @@ public class FunctionTest extends EvaluationTestCase {
     assertThat(lookup("c")).isEqualTo(2);
   }
 
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFunctionDefLocalsAreResolvedToSlots() throws Exception {
+    BuildFileAST ast =
+        BuildFileAST.parseAndValidateSkylarkString(
+            env,
+            new String[] {
+              "g = 1", "def func(a, b):", "  c = [x * a for x in b]", "  return c + [g]"
+            });
+    Environment.LocalFrameLayout layout =
+        ((FunctionDefStatement) ast.getStatements().get(1)).getLocalFrameLayout();
+    assertThat(layout.size()).isEqualTo(4);
+    assertThat(layout.getSlot("a")).isEqualTo(0);
+    assertThat(layout.getSlot("b")).isEqualTo(1);
+    assertThat(layout.getSlot("c")).isEqualTo(2);
+    assertThat(layout.getSlot("x")).isEqualTo(3);
+    assertThat(layout.getSlot("g")).isEqualTo(-1);
+
+    ast.eval(env);
+    assertThat((Iterable<Object>) eval("func(2, [3, 4])")).containsExactly(6, 8, 1).inOrder();
+  }
+
+  @Test
+  public void testFunctionDefLocalsAreNotSharedBetweenCalls() throws Exception {
+    eval("def func(a, first):",
+        "  if first:",
+        "    b = a",
+        "  x = [y + a for y in [10, 20]]",
+        "  return b + x[0]",
+        "c = func(1, True)");
+    assertThat(lookup("c")).isEqualTo(12);
+    checkEvalErrorContains("local variable 'b' is referenced before assignment.",
+        "func(2, False)");
+  }
+
   @SuppressWarnings("unchecked")
   @Test
   public void testSkylarkGlobalComprehensionIsAllowed() throws Exception {
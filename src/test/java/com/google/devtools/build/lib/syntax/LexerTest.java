@@ -23,6 +23,7 @@ import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.skyframe.serialization.testutils.SerializationTester;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -501,6 +502,27 @@ public class LexerTest {
     assertThat(lastError).isEqualTo("/some/path.txt:1: unterminated string literal at eof");
   }
 
+  @Test
+  public void testLatin1BytesAreLexedLikeChars() throws Exception {
+    String input = "x = 'caf\u00e9' # \u00ff\nif x:\n  y = 0x2a\n";
+    Lexer lexer =
+        new Lexer(
+            ParserInputSource.create(
+                input.getBytes(StandardCharsets.ISO_8859_1), PathFragment.create("/some/path.txt")),
+            event -> {});
+    assertThat(values(allTokens(lexer).toArray(new Token[0])))
+        .isEqualTo(values(tokens(input)));
+    assertThat(lexer.getComments().get(0).getValue()).isEqualTo("# \u00ff");
+    assertThat(lexer.stringAtLine(2)).isEqualTo("if x:\n");
+  }
+
+  @Test
+  public void testIdentifiersAreShared() throws Exception {
+    Token[] first = tokens("some_identifier");
+    Token[] second = tokens("x = some_identifier");
+    assertThat(second[2].value).isSameAs(first[0].value);
+  }
+
   @Test
   public void testLexerLocationCodec() throws Exception {
     new SerializationTester(createLexer("foo").createLocation(0, 2)).runTests();
@@ -43,6 +43,15 @@ public class ParserInputSourceTest {
     assertThat(input.getPath().toString()).isEqualTo("/tmp/my/file.txt");
   }
 
+  @Test
+  public void testCreateFromBytesConvertsContentOnce() {
+    ParserInputSource input =
+        ParserInputSource.create(new byte[] {'a', (byte) 0xe9}, PathFragment.create("/a"));
+    char[] content = input.getContent();
+    assertThat(new String(content)).isEqualTo("a\u00e9");
+    assertThat(input.getContent()).isSameAs(content);
+  }
+
   @Test
   public void testCreateFromString() {
     String content = "Content provided as a string.";
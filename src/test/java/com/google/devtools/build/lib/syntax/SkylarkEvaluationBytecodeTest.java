@@ -0,0 +1,99 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ObjectArrays;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Runs the tests of {@link SkylarkEvaluationTest} with statements executed as {@link Bytecode}.
+ */
+@RunWith(JUnit4.class)
+public class SkylarkEvaluationBytecodeTest extends SkylarkEvaluationTest {
+
+  @Override
+  protected Environment newEnvironmentWithBuiltinsAndSkylarkOptions(
+      Map<String, Object> builtins, String... skylarkOptions) throws Exception {
+    return super.newEnvironmentWithBuiltinsAndSkylarkOptions(
+        builtins, ObjectArrays.concat(skylarkOptions, "--experimental_starlark_bytecode"));
+  }
+
+  @Test
+  public void testBytecodeIsEnabled() throws Exception {
+    assertThat(Bytecode.isEnabled(env)).isTrue();
+  }
+
+  @Test
+  public void testNestedLoopsWithBreakAndContinue() throws Exception {
+    eval(
+        "def func(rows):",
+        "  result = []",
+        "  for row in rows:",
+        "    if not row:",
+        "      continue",
+        "    for x in row:",
+        "      if x < 0:",
+        "        break",
+        "      elif x == 0:",
+        "        continue",
+        "      result.append(x)",
+        "  return result",
+        "r = func([[1, 2, -1, 3], [], [0, 4]])");
+    assertThat((Iterable<?>) lookup("r")).containsExactly(1, 2, 4).inOrder();
+  }
+
+  @Test
+  public void testReturnFromLoopUnlocksCollections() throws Exception {
+    eval(
+        "def find(l, v):",
+        "  for x in l:",
+        "    for y in l:",
+        "      if x + y == v:",
+        "        return [x, y]",
+        "  return None",
+        "l = [1, 2, 3]",
+        "r = find(l, 5)",
+        "l.append(4)");
+    assertThat((Iterable<?>) lookup("r")).containsExactly(2, 3).inOrder();
+    assertThat((Iterable<?>) lookup("l")).containsExactly(1, 2, 3, 4).inOrder();
+  }
+
+  @Test
+  public void testErrorInLoopUnlocksCollections() throws Exception {
+    eval(
+        "def fail_in_loop(l):",
+        "  for x in l:",
+        "    x // 0",
+        "l = [1, 2]");
+    checkEvalErrorContains("integer division by zero", "fail_in_loop(l)");
+    eval("l.append(3)");
+    assertThat((Iterable<?>) lookup("l")).containsExactly(1, 2, 3).inOrder();
+  }
+
+  @Test
+  public void testMutationDuringIterationIsForbidden() throws Exception {
+    checkEvalErrorContains(
+        "trying to mutate a locked object",
+        "def func():",
+        "  l = [1, 2]",
+        "  for x in l:",
+        "    l.append(x)",
+        "func()");
+  }
+}
@@ -89,6 +89,21 @@ public class SkylarkEvaluationTest extends EvaluationTest {
         }
       };
 
+  /**
+   * Configures a function of this class with the annotation of its field. The functions are
+   * static, so they are shared with the tests of {@link SkylarkEvaluationBytecodeTest}, which may
+   * have configured them already in the same JVM.
+   */
+  private static synchronized void configure(BuiltinFunction function, String field)
+      throws Exception {
+    if (!function.isConfigured()) {
+      function.configure(
+          SkylarkEvaluationTest.class
+              .getDeclaredField(field)
+              .getAnnotation(SkylarkSignature.class));
+    }
+  }
+
   @SkylarkModule(name = "Mock", doc = "")
   static class NativeInfoMock extends NativeInfo {
 
@@ -1278,7 +1293,7 @@ public class SkylarkEvaluationTest extends EvaluationTest {
 
   @Test
   public void testStructAccessAsFuncall() throws Exception {
-    foobar.configure(getClass().getDeclaredField("foobar").getAnnotation(SkylarkSignature.class));
+    configure(foobar, "foobar");
     new SkylarkTest()
         .update("mock", new Mock())
         .setUp("v = mock.struct_field_callable()")
@@ -1293,8 +1308,7 @@ public class SkylarkEvaluationTest extends EvaluationTest {
 
   @Test
   public void testCallingInterruptedFunction() throws Exception {
-    interruptedFunction.configure(
-        getClass().getDeclaredField("interruptedFunction").getAnnotation(SkylarkSignature.class));
+    configure(interruptedFunction, "interruptedFunction");
     update("interrupted_function", interruptedFunction);
     assertThrows(InterruptedException.class, () -> eval("interrupted_function()"));
   }
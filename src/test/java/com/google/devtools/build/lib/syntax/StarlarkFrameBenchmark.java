@@ -0,0 +1,115 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.events.EventCollector;
+import com.google.devtools.build.lib.events.EventKind;
+import com.google.devtools.build.lib.packages.BazelLibrary;
+
+/**
+ * Measures calls of Starlark functions with many local variables, as found in macros and rule
+ * implementation helpers of {@code .bzl} files, with the locals in frame slots and in the by-name
+ * frames.
+ *
+ * <p>Functions get frame slots when their file is validated, as {@code .bzl} files are, so the
+ * by-name frames are measured by executing the same file without validating it.
+ */
+public class StarlarkFrameBenchmark {
+  @Param({"1000"})
+  int calls;
+
+  @Param({"false", "true"})
+  boolean slottedFrames;
+
+  private static final String[] WORKLOAD = {
+    "def _label(name, package):",
+    "  if ':' in name:",
+    "    return name",
+    "  return '//' + package + ':' + name",
+    "",
+    "def _collect(srcs, package, prefix):",
+    "  labels = []",
+    "  for src in srcs:",
+    "    label = _label(src, package)",
+    "    if label.startswith(prefix):",
+    "      labels.append(label)",
+    "  return labels",
+    "",
+    "def _attrs(name, srcs, deps, visibility, testonly):",
+    "  attrs = {'name': name, 'testonly': testonly}",
+    "  attrs['srcs'] = [s for s in srcs if s.endswith('.cc') or s.endswith('.h')]",
+    "  attrs['deps'] = _collect(deps, 'foo/bar', '//foo')",
+    "  attrs['visibility'] = visibility or ['//visibility:private']",
+    "  count = 0",
+    "  for key in attrs:",
+    "    value = attrs[key]",
+    "    if type(value) == 'list':",
+    "      count += len(value)",
+    "  attrs['count'] = count",
+    "  return attrs",
+    "",
+    "def _macro(name, srcs, deps, visibility = None, testonly = False):",
+    "  lib = _attrs(name + '_lib', srcs, deps, visibility, testonly)",
+    "  test = _attrs(name + '_test', srcs, [':' + name + '_lib'] + deps, visibility, True)",
+    "  return lib['count'] + test['count']",
+    "",
+    "def run(n):",
+    "  srcs = ['a.cc', 'a.h', 'b.cc', 'b.h', 'README']",
+    "  deps = [':x', '//foo/baz:y', 'z', '//other:w']",
+    "  total = 0",
+    "  for i in range(n):",
+    "    total += _macro('t%d' % i, srcs, deps)",
+    "  return total",
+  };
+
+  private BaseFunction run;
+
+  @BeforeExperiment
+  void setUp() throws Exception {
+    EventCollector eventHandler = new EventCollector(EventKind.ERRORS_AND_WARNINGS_AND_OUTPUT);
+    Environment env = newEnvironment(Mutability.create("definitions"), eventHandler);
+    BuildFileAST file =
+        slottedFrames
+            ? BuildFileAST.parseAndValidateSkylarkString(env, WORKLOAD)
+            : BuildFileAST.parseString(eventHandler, WORKLOAD);
+    if (!file.exec(env, eventHandler)) {
+      throw new IllegalStateException("workload failed: " + eventHandler);
+    }
+    run = (BaseFunction) env.moduleLookup("run");
+  }
+
+  @Benchmark
+  int callFunctions(int reps) throws Exception {
+    int total = 0;
+    for (int i = 0; i < reps; i++) {
+      try (Mutability mutability = Mutability.create("benchmark")) {
+        Environment env = newEnvironment(mutability, new EventCollector(EventKind.ALL_EVENTS));
+        total += (Integer) run.call(ImmutableList.<Object>of(calls), null, null, env);
+      }
+    }
+    return total;
+  }
+
+  private static Environment newEnvironment(Mutability mutability, EventCollector eventHandler) {
+    return Environment.builder(mutability)
+        .useDefaultSemantics()
+        .setGlobals(BazelLibrary.GLOBALS)
+        .setEventHandler(eventHandler)
+        .build();
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CompactNodeMap}. */
+@RunWith(JUnit4.class)
+public class CompactNodeMapTest {
+  private final CompactNodeMap map = new CompactNodeMap();
+
+  private static SkyKey key(int i) {
+    return GraphTester.toSkyKey("key" + i);
+  }
+
+  @Test
+  public void putGetAndRemove() {
+    NodeEntry a = new InMemoryNodeEntry();
+    NodeEntry b = new InMemoryNodeEntry();
+    assertThat(map.put(key(1), a)).isNull();
+    assertThat(map.get(key(1))).isSameAs(a);
+    assertThat(map.putIfAbsent(key(1), b)).isSameAs(a);
+    assertThat(map.get(key(1))).isSameAs(a);
+    assertThat(map.put(key(1), b)).isSameAs(a);
+    assertThat(map.get(key(1))).isSameAs(b);
+    assertThat(map.get(key(2))).isNull();
+    assertThat(map.remove(key(1), a)).isFalse();
+    assertThat(map.remove(key(1))).isSameAs(b);
+    assertThat(map.get(key(1))).isNull();
+    assertThat(map).isEmpty();
+  }
+
+  @Test
+  public void behavesLikeHashMapAcrossRehashes() {
+    Map<SkyKey, NodeEntry> expected = new HashMap<>();
+    for (int i = 0; i < 20000; i++) {
+      NodeEntry entry = new InMemoryNodeEntry();
+      map.put(key(i), entry);
+      expected.put(key(i), entry);
+      if (i % 3 == 0) {
+        map.remove(key(i / 2));
+        expected.remove(key(i / 2));
+      }
+    }
+    assertThat(map).hasSize(expected.size());
+    assertThat(map).containsExactlyEntriesIn(expected);
+    assertThat(new HashMap<>(map)).isEqualTo(expected);
+  }
+
+  @Test
+  public void iteratorRemove() {
+    for (int i = 0; i < 100; i++) {
+      map.put(key(i), new InMemoryNodeEntry());
+    }
+    for (Iterator<SkyKey> it = map.keySet().iterator(); it.hasNext(); ) {
+      if (it.next().equals(key(42))) {
+        it.remove();
+      }
+    }
+    assertThat(map).hasSize(99);
+    assertThat(map).doesNotContainKey(key(42));
+  }
+
+  @Test
+  public void clear() {
+    for (int i = 0; i < 100; i++) {
+      map.put(key(i), new InMemoryNodeEntry());
+    }
+    map.clear();
+    assertThat(map).isEmpty();
+    assertThat(map.get(key(1))).isNull();
+  }
+
+  @Test
+  public void concurrentPutIfAbsentAgreesOnWinner() throws Exception {
+    int numThreads = 8;
+    int numKeys = 10000;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Future<NodeEntry[]>> futures = new ArrayList<>();
+    for (int t = 0; t < numThreads; t++) {
+      futures.add(
+          executor.submit(
+              () -> {
+                NodeEntry[] seen = new NodeEntry[numKeys];
+                for (int i = 0; i < numKeys; i++) {
+                  NodeEntry entry = new InMemoryNodeEntry();
+                  NodeEntry old = map.putIfAbsent(key(i), entry);
+                  seen[i] = old == null ? entry : old;
+                  assertThat(map.get(key(i))).isSameAs(seen[i]);
+                }
+                return seen;
+              }));
+    }
+    NodeEntry[] first = futures.get(0).get();
+    for (Future<NodeEntry[]> future : futures) {
+      assertThat(future.get()).isEqualTo(first);
+    }
+    executor.shutdown();
+    assertThat(map).hasSize(numKeys);
+  }
+}
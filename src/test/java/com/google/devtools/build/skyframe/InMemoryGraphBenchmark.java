@@ -0,0 +1,102 @@
+// Copyright 2018 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.caliper.api.Footprint;
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.skyframe.GraphTester.StringValue;
+import java.util.Arrays;
+
+/**
+ * Compares the heap retained by the node map of the default {@link InMemoryGraphImpl} with that of
+ * {@link CompactInMemoryGraph}, and the time spent building the graph, for graphs shaped like the
+ * ones in {@link MemoizingEvaluatorTest}: layers of nodes each concatenating a few nodes of the
+ * layer below.
+ */
+public class InMemoryGraphBenchmark {
+  @Param({"1000", "100000"})
+  int nodesPerLayer;
+
+  @Param({"4"})
+  int layers;
+
+  @Param({"DEFAULT", "COMPACT"})
+  GraphType graphType;
+
+  enum GraphType {
+    DEFAULT(InMemoryMemoizingEvaluator.SUPPLIER),
+    COMPACT(InMemoryMemoizingEvaluator.COMPACT_GRAPH_SUPPLIER);
+
+    private final MemoizingEvaluator.EvaluatorSupplier supplier;
+
+    GraphType(MemoizingEvaluator.EvaluatorSupplier supplier) {
+      this.supplier = supplier;
+    }
+  }
+
+  private static SkyKey key(int layer, int node) {
+    return GraphTester.toSkyKey(layer + ":" + node);
+  }
+
+  private MemoizingEvaluator evaluateGraph() throws InterruptedException {
+    GraphTester tester = new GraphTester();
+    for (int node = 0; node < nodesPerLayer; node++) {
+      tester.set(key(0, node), new StringValue("leaf" + node));
+    }
+    for (int layer = 1; layer < layers; layer++) {
+      for (int node = 0; node < nodesPerLayer; node++) {
+        GraphTester.TestFunction function = tester.getOrCreate(key(layer, node));
+        for (int dep = 0; dep < 3; dep++) {
+          function.addDependency(key(layer - 1, (node * 7 + dep) % nodesPerLayer));
+        }
+        function.setComputedValue(GraphTester.CONCATENATE);
+      }
+    }
+    SkyKey[] roots = new SkyKey[nodesPerLayer];
+    for (int node = 0; node < nodesPerLayer; node++) {
+      roots[node] = key(layers - 1, node);
+    }
+    MemoizingEvaluator evaluator =
+        graphType.supplier.create(
+            tester.getSkyFunctionMap(),
+            new SequencedRecordingDifferencer(),
+            /*progressReceiver=*/ null,
+            GraphInconsistencyReceiver.THROWING,
+            InMemoryMemoizingEvaluator.DEFAULT_STORED_EVENT_FILTER,
+            new MemoizingEvaluator.EmittedEventState(),
+            /*keepEdges=*/ true);
+    EvaluationContext context =
+        EvaluationContext.newBuilder()
+            .setKeepGoing(false)
+            .setNumThreads(8)
+            .setEventHander(NullEventHandler.INSTANCE)
+            .build();
+    new SequentialBuildDriver(evaluator).evaluate(Arrays.asList(roots), context);
+    return evaluator;
+  }
+
+  @Footprint
+  public Object graphFootprint() throws InterruptedException {
+    return evaluateGraph().getGraphMap();
+  }
+
+  @Benchmark
+  void evaluate(int reps) throws InterruptedException {
+    for (int i = 0; i < reps; i++) {
+      evaluateGraph();
+    }
+  }
+}
@@ -26,6 +26,7 @@ import com.google.bytestream.ByteStreamProto.WriteRequest;
 import com.google.bytestream.ByteStreamProto.WriteResponse;
 import com.google.devtools.build.lib.remote.CacheNotFoundException;
 import com.google.devtools.build.lib.remote.Chunker;
+import com.google.devtools.build.lib.remote.ContentDefinedChunker;
 import com.google.devtools.build.lib.remote.SimpleBlobStoreActionCache;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
@@ -61,6 +62,15 @@ final class ByteStreamServer extends ByteStreamImplBase {
     }
   }
 
+  /**
+   * Returns whether {@code resourceName} names a splice manifest, from which the blob with the
+   * digest in the resource name is reassembled. See {@link ContentDefinedChunker}.
+   */
+  static boolean isSpliceResourceName(String resourceName) {
+    String[] tokens = resourceName.split("/");
+    return tokens.length >= 3 && tokens[tokens.length - 3].equals(ContentDefinedChunker.SPLICES);
+  }
+
   public ByteStreamServer(SimpleBlobStoreActionCache cache, Path workPath, DigestUtil digestUtil) {
     this.cache = cache;
     this.workPath = workPath;
@@ -115,6 +125,7 @@ final class ByteStreamServer extends ByteStreamImplBase {
       private Digest digest;
       private long offset;
       private String resourceName;
+      private boolean splice;
       private boolean closed;
 
       @Override
@@ -126,6 +137,7 @@ final class ByteStreamServer extends ByteStreamImplBase {
         if (digest == null) {
           resourceName = request.getResourceName();
           digest = parseDigestFromResourceName(resourceName);
+          splice = isSpliceResourceName(resourceName);
         }
 
         if (digest == null) {
@@ -190,9 +202,11 @@ final class ByteStreamServer extends ByteStreamImplBase {
           offset += size;
         }
 
+        // The size in the resource name of a splice is that of the reassembled blob, not of the
+        // manifest being written.
         boolean shouldFinishWrite = offset == digest.getSizeBytes();
 
-        if (shouldFinishWrite != request.getFinishWrite()) {
+        if (!splice && shouldFinishWrite != request.getFinishWrite()) {
           responseObserver.onError(
               StatusUtils.invalidArgumentError(
                   "finish_write",
@@ -221,7 +235,7 @@ final class ByteStreamServer extends ByteStreamImplBase {
           return;
         }
 
-        if (digest == null || offset != digest.getSizeBytes()) {
+        if (digest == null || (!splice && offset != digest.getSizeBytes())) {
           responseObserver.onError(
               StatusProto.toStatusRuntimeException(
                   com.google.rpc.Status.newBuilder()
@@ -233,6 +247,9 @@ final class ByteStreamServer extends ByteStreamImplBase {
         }
 
         try {
+          if (splice) {
+            spliceChunks(temp);
+          }
           Digest d = digestUtil.compute(temp);
           try (InputStream in = temp.getInputStream()) {
             cache.uploadStream(d, in);
@@ -254,6 +271,9 @@ final class ByteStreamServer extends ByteStreamImplBase {
 
           responseObserver.onNext(WriteResponse.newBuilder().setCommittedSize(offset).build());
           responseObserver.onCompleted();
+        } catch (CacheNotFoundException e) {
+          responseObserver.onError(StatusUtils.notFoundError(e.getMissingDigest()));
+          closed = true;
         } catch (Exception e) {
           logger.log(WARNING, "Write request failed.", e);
           responseObserver.onError(StatusUtils.internalError(e));
@@ -263,6 +283,21 @@ final class ByteStreamServer extends ByteStreamImplBase {
     };
   }
 
+  /** Replaces the splice manifest in {@code file} by the concatenation of the listed chunks. */
+  private void spliceChunks(Path file) throws IOException, InterruptedException {
+    Path spliced = file.getParentDirectory().getChild(file.getBaseName() + ".spliced");
+    try (InputStream in = file.getInputStream();
+        OutputStream out = spliced.getOutputStream()) {
+      for (Digest chunk : ContentDefinedChunker.parseSpliceManifest(in)) {
+        out.write(getFromFuture(cache.downloadBlob(chunk)));
+      }
+    } catch (IOException | InterruptedException e) {
+      spliced.delete();
+      throw e;
+    }
+    spliced.renameTo(file);
+  }
+
   private static class NoOpStreamObserver<T> implements StreamObserver<T> {
     @Override
     public void onNext(T value) {